@@ -0,0 +1,335 @@
+/* TnuBank, the distributed platform for taxonomic name usages.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.tnuBank;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.Date;
+
+import de.uka.ipd.idaho.gamta.AnnotationUtils;
+import de.uka.ipd.idaho.gamta.MutableAnnotation;
+import de.uka.ipd.idaho.gamta.util.SgmlDocumentReader;
+import de.uka.ipd.idaho.onn.stringPool.StringPoolClient.PooledString;
+import de.uka.ipd.idaho.onn.stringPool.StringPoolClient.UploadString;
+import de.uka.ipd.idaho.txnBank.BenchmarkCorpus;
+import de.uka.ipd.idaho.txnBank.BenchmarkHarness;
+import de.uka.ipd.idaho.txnBank.BenchmarkHarness.Benchmark;
+
+/**
+ * Micro benchmarks for the taxon name usage codec, i.e., validating, parsing,
+ * and rendering name usage strings, and for writing name usages as XML. Each
+ * benchmark runs both against the current code and against the code as it
+ * was before the respective optimization, which is retained below, so the
+ * two can be compared side by side in a single run. Before measuring, the
+ * suite checks that both versions produce the same results on the corpus.
+ * 
+ * @author sautter
+ */
+public class TnuBankBenchmark implements TnuBankConstants {
+	
+	public static void main(String[] args) throws Exception {
+		BenchmarkHarness harness = new BenchmarkHarness("tnubank", args);
+		BenchmarkCorpus corpus = new BenchmarkCorpus(harness.getSeed());
+		
+		//	generate corpus
+		final String[] tnuStrings = corpus.getNameUsageStrings(harness.getCorpusSize());
+		final TaxonNameUsage[] tnus = new TaxonNameUsage[tnuStrings.length];
+		for (int t = 0; t < tnuStrings.length; t++)
+			tnus[t] = TaxonNameUsage.parseTaxonNameUsage(tnuStrings[t]);
+		UploadString[] taxonNames = corpus.getTaxonNames(Math.max(1, (tnuStrings.length / 10)));
+		final PooledString[] nameUsages = new PooledString[tnuStrings.length];
+		for (int t = 0; t < tnus.length; t++)
+			nameUsages[t] = new BenchmarkNameUsage(tnus[t], taxonNames[t % taxonNames.length], corpus);
+		
+		//	make sure old and new code agree
+		for (int t = 0; t < tnuStrings.length; t++) {
+			if (TaxonNameUsage.isValid(tnuStrings[t]) != isValidLegacy(tnuStrings[t]))
+				throw new IllegalStateException("Validation mismatch for " + tnuStrings[t]);
+			if (!tnuStrings[t].equals(tnus[t].toPlainString()) || !tnuStrings[t].equals(toPlainStringLegacy(tnus[t])))
+				throw new IllegalStateException("Plain string mismatch for " + tnuStrings[t]);
+			if (!toParsedStringLegacy(tnus[t]).equals(tnus[t].toParsedString()))
+				throw new IllegalStateException("Parsed string mismatch for " + tnuStrings[t]);
+			if (!tnus[t].toPlainString().equals(toPlainStringLegacy(parseTaxonNameUsageLegacy(tnuStrings[t]))))
+				throw new IllegalStateException("Parse mismatch for " + tnuStrings[t]);
+		}
+		
+		//	codec
+		harness.run("tnu.isValid", new Benchmark() {
+			public int run(int index) throws Exception {
+				return (TaxonNameUsage.isValid(tnuStrings[index % tnuStrings.length]) ? 1 : 0);
+			}
+		});
+		harness.run("tnu.isValid.legacy", new Benchmark() {
+			public int run(int index) throws Exception {
+				return (isValidLegacy(tnuStrings[index % tnuStrings.length]) ? 1 : 0);
+			}
+		});
+		harness.run("tnu.parse", new Benchmark() {
+			public int run(int index) throws Exception {
+				return TaxonNameUsage.parseTaxonNameUsage(tnuStrings[index % tnuStrings.length]).pageNumber;
+			}
+		});
+		harness.run("tnu.parse.legacy", new Benchmark() {
+			public int run(int index) throws Exception {
+				return parseTaxonNameUsageLegacy(tnuStrings[index % tnuStrings.length]).pageNumber;
+			}
+		});
+		harness.run("tnu.toPlainString", new Benchmark() {
+			public int run(int index) throws Exception {
+				return tnus[index % tnus.length].toPlainString().length();
+			}
+		});
+		harness.run("tnu.toPlainString.legacy", new Benchmark() {
+			public int run(int index) throws Exception {
+				return toPlainStringLegacy(tnus[index % tnus.length]).length();
+			}
+		});
+		harness.run("tnu.toParsedString", new Benchmark() {
+			public int run(int index) throws Exception {
+				return tnus[index % tnus.length].toParsedString().length();
+			}
+		});
+		harness.run("tnu.toParsedString.legacy", new Benchmark() {
+			public int run(int index) throws Exception {
+				return toParsedStringLegacy(tnus[index % tnus.length]).length();
+			}
+		});
+		
+		//	XML output
+		final TnuBankServlet servlet = new TnuBankServlet();
+		final CountingWriter out = new CountingWriter();
+		final BufferedWriter bw = new BufferedWriter(out);
+		harness.run("writeNameUsage.plain", new Benchmark() {
+			public int run(int index) throws Exception {
+				servlet.writeNameUsage(nameUsages[index % nameUsages.length], bw, false);
+				return out.chars;
+			}
+		});
+		harness.run("writeNameUsage.plain.legacy", new Benchmark() {
+			public int run(int index) throws Exception {
+				writeNameUsageLegacy(nameUsages[index % nameUsages.length], bw, false);
+				return out.chars;
+			}
+		});
+		harness.run("writeNameUsage.full", new Benchmark() {
+			public int run(int index) throws Exception {
+				servlet.writeNameUsage(nameUsages[index % nameUsages.length], bw, true);
+				return out.chars;
+			}
+		});
+		harness.run("writeNameUsage.full.legacy", new Benchmark() {
+			public int run(int index) throws Exception {
+				writeNameUsageLegacy(nameUsages[index % nameUsages.length], bw, true);
+				return out.chars;
+			}
+		});
+		
+		harness.finish();
+	}
+	
+	/* writer counting and discarding its input */
+	private static class CountingWriter extends Writer {
+		int chars = 0;
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			this.chars += len;
+		}
+		public void flush() throws IOException {}
+		public void close() throws IOException {}
+	}
+	
+	/* name usage as it comes out of the expansion, i.e., with the parsed
+	 * taxon name and name string embedded in the parse */
+	private static class BenchmarkNameUsage extends PooledString {
+		private String stringPlain;
+		private String stringParsed;
+		private long createTime;
+		private long updateTime;
+		BenchmarkNameUsage(TaxonNameUsage tnu, UploadString taxonName, BenchmarkCorpus corpus) {
+			super(corpus.getId());
+			this.stringPlain = tnu.toPlainString();
+			StringBuffer parsedString = new StringBuffer("<taxonNameUsage>");
+			parsedString.append("<dwc:scientificName>" + AnnotationUtils.escapeForXml(taxonName.stringPlain) + "</dwc:scientificName>");
+			parsedString.append("<dwc:scientificNameID>" + tnu.nameStringId + "</dwc:scientificNameID>");
+			if (tnu.taxonNameId != null) {
+				parsedString.append(taxonName.stringParsed);
+				parsedString.append("<dwc:taxonID>" + tnu.taxonNameId + "</dwc:taxonID>");
+			}
+			parsedString.append("<nameUsageType>" + ((String) nameUsageTypes.get(tnu.nameUsageTypeCode)) + "</nameUsageType>");
+			if (tnu.nameUsageSubTypeCode != null)
+				parsedString.append("<nameUsageSubType>" + ((String) nameUsageSubTypes.get(tnu.nameUsageSubTypeCode)) + "</nameUsageSubType>");
+			parsedString.append("<bibRefId>" + tnu.bibRefId + "</bibRefId>");
+			parsedString.append("<pageNumber>" + tnu.pageNumber + "</pageNumber>");
+			parsedString.append("</taxonNameUsage>");
+			this.stringParsed = parsedString.toString();
+			this.createTime = corpus.getTime();
+			this.updateTime = corpus.getTime();
+		}
+		public String getStringPlain() {
+			return this.stringPlain;
+		}
+		public String getStringParsed() {
+			return this.stringParsed;
+		}
+		public String getParseChecksum() {
+			return null;
+		}
+		public String getCanonicalStringID() {
+			return null;
+		}
+		public String getParseError() {
+			return null;
+		}
+		public long getCreateTime() {
+			return this.createTime;
+		}
+		public String getCreateDomain() {
+			return "benchmark.plazi.org";
+		}
+		public String getCreateUser() {
+			return "benchmark";
+		}
+		public long getUpdateTime() {
+			return this.updateTime;
+		}
+		public String getUpdateDomain() {
+			return "benchmark.plazi.org";
+		}
+		public String getUpdateUser() {
+			return "benchmark";
+		}
+		public long getNodeUpdateTime() {
+			return this.updateTime;
+		}
+		public boolean wasCreated() {
+			return false;
+		}
+		public boolean wasUpdated() {
+			return false;
+		}
+		public boolean isDeleted() {
+			return false;
+		}
+	}
+	
+	/* the codec as it was before switching to hand written scanning */
+	
+	private static boolean isValidLegacy(String tnuString) {
+		if (tnuString.matches("[0-9a-fA-F]{32}\\([0-9a-fA-F]{32}\\)\\-(GU|NU|OU)(\\/(OD|RD|DD|CD|CI|KR|KL|SS|JS|NC))?\\@[0-9a-fA-F]{32}\\:[1-9][0-9]{0,4}"))
+			return true;
+		else if (tnuString.matches("[0-9a-fA-F]{32}\\-NU(\\/NS)?\\@[0-9a-fA-F]{32}\\:[1-9][0-9]{0,4}"))
+			return true;
+		else return false;
+	}
+	
+	private static TaxonNameUsage parseTaxonNameUsageLegacy(String tnuString) {
+		String nameStringId = tnuString;
+		if (nameStringId.indexOf('(') == -1)
+			nameStringId = nameStringId.substring(0, nameStringId.indexOf('-'));
+		else nameStringId = nameStringId.substring(0, nameStringId.indexOf('('));
+		tnuString = tnuString.substring(nameStringId.length() + "(".length());
+		String taxonNameId = null;
+		if (tnuString.indexOf(")-") != -1) {
+			taxonNameId = tnuString;
+			taxonNameId = taxonNameId.substring(0, taxonNameId.indexOf(")-"));
+			tnuString = tnuString.substring(taxonNameId.length() + ")-".length());
+		}
+		String nameUsageType = tnuString;
+		String nameUsageSubType;
+		if (nameUsageType.indexOf('/') == -1) {
+			nameUsageType = nameUsageType.substring(0, nameUsageType.indexOf('@'));
+			nameUsageSubType = null;
+			tnuString = tnuString.substring(nameUsageType.length() + "@".length());
+		}
+		else {
+			nameUsageType = nameUsageType.substring(0, nameUsageType.indexOf('/'));
+			tnuString = tnuString.substring(nameUsageType.length() + "/".length());
+			nameUsageSubType = tnuString;
+			nameUsageSubType = nameUsageSubType.substring(0, nameUsageSubType.indexOf('@'));
+			tnuString = tnuString.substring(nameUsageSubType.length() + "@".length());
+		}
+		String bibRefId = tnuString;
+		bibRefId = bibRefId.substring(0, bibRefId.indexOf(':'));
+		tnuString = tnuString.substring(bibRefId.length() + ":".length());
+		String pageNumber = tnuString;
+		return new TaxonNameUsage(nameStringId, taxonNameId, nameUsageType, nameUsageSubType, bibRefId, Integer.parseInt(pageNumber));
+	}
+	
+	private static String toPlainStringLegacy(TaxonNameUsage tnu) {
+		StringBuffer plainString = new StringBuffer();
+		plainString.append(tnu.nameStringId);
+		if (tnu.taxonNameId != null)
+			plainString.append("(" + tnu.taxonNameId + ")");
+		plainString.append("-" + tnu.nameUsageTypeCode);
+		if (tnu.nameUsageSubTypeCode != null)
+			plainString.append("/" + tnu.nameUsageSubTypeCode);
+		plainString.append("@" + tnu.bibRefId);
+		plainString.append(":" + tnu.pageNumber);
+		return plainString.toString();
+	}
+	
+	private static String toParsedStringLegacy(TaxonNameUsage tnu) {
+		StringBuffer parsedString = new StringBuffer("<taxonNameUsage xmlns:dwc=\"http://digir.net/schema/conceptual/darwin/2003/1.0\">");
+		parsedString.append("<dwc:scientificNameID>" + AnnotationUtils.escapeForXml(tnu.nameStringId) + "</dwc:scientificNameID>");
+		if (tnu.taxonNameId != null)
+			parsedString.append("<dwc:taxonID>" + AnnotationUtils.escapeForXml(tnu.taxonNameId) + "</dwc:taxonID>");
+		parsedString.append("<nameUsageType>" + tnu.nameUsageTypeCode + "</nameUsageType>");
+		if (tnu.nameUsageSubTypeCode != null)
+			parsedString.append("<nameUsageSubType>" + tnu.nameUsageSubTypeCode + "</nameUsageSubType>");
+		parsedString.append("<bibRefId>" + AnnotationUtils.escapeForXml(tnu.bibRefId) + "</bibRefId>");
+		parsedString.append("<pageNumber>" + tnu.pageNumber + "</pageNumber>");
+		parsedString.append("</taxonNameUsage>");
+		return parsedString.toString();
+	}
+	
+	/* the XML output as it was before writing straight to the stream and
+	 * echoing parses as they are */
+	private static void writeNameUsageLegacy(PooledString string, BufferedWriter bw, boolean full) throws IOException {
+		bw.write("<" + NAME_USAGE_NODE_TYPE);
+		bw.write(" " + STRING_ID_ATTRIBUTE + "=\"" + string.id + "\"");
+		if ((string.getCanonicalStringID() != null) && (string.getCanonicalStringID().length() != 0))
+			bw.write(" " + CANONICAL_STRING_ID_ATTRIBUTE + "=\"" + string.getCanonicalStringID() + "\"");
+		bw.write(" " + CREATE_TIME_ATTRIBUTE + "=\"" + TIMESTAMP_DATE_FORMAT.format(new Date(string.getCreateTime())) + "\"");
+		bw.write(" " + CREATE_DOMAIN_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(string.getCreateDomain()) + "\"");
+		bw.write(" " + CREATE_USER_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(string.getCreateUser()) + "\"");
+		bw.write(" " + UPDATE_TIME_ATTRIBUTE + "=\"" + TIMESTAMP_DATE_FORMAT.format(new Date(string.getUpdateTime())) + "\"");
+		bw.write(" " + UPDATE_DOMAIN_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(string.getUpdateDomain(), true) + "\"");
+		bw.write(" " + UPDATE_USER_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(string.getUpdateUser(), true) + "\"");
+		bw.write(" " + DELETED_ATTRIBUTE + "=\"" + (string.isDeleted() ? "true" : "false") + "\"");
+		
+		if (!full && (string.getParseChecksum() != null) && (string.getParseChecksum().length() != 0))
+			bw.write(" " + PARSE_CHECKSUM_ATTRIBUTE + "=\"" + string.getParseChecksum() + "\"");
+		bw.write(">");
+		bw.newLine();
+		bw.write("<" + NAME_USAGE_PLAIN_NODE_TYPE + ">" + AnnotationUtils.escapeForXml(string.getStringPlain()) + "</" + NAME_USAGE_PLAIN_NODE_TYPE + ">");
+		bw.newLine();
+		if (full) {
+			MutableAnnotation parsedString = SgmlDocumentReader.readDocument(new StringReader(string.getStringParsed()));
+			if (parsedString != null) {
+				bw.write("<" + NAME_USAGE_PARSED_NODE_TYPE + ">");
+				bw.newLine();
+				AnnotationUtils.writeXML(parsedString, bw);
+				bw.newLine();
+				bw.write("</" + NAME_USAGE_PARSED_NODE_TYPE + ">");
+				bw.newLine();
+			}
+		}
+		bw.write("</" + NAME_USAGE_NODE_TYPE + ">");
+	}
+}
@@ -0,0 +1,188 @@
+/* TxnBank, the distributed platform for fully qualified taxonomic names.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.txnBank;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import de.uka.ipd.idaho.onn.stringPool.StringPoolClient.UploadString;
+import de.uka.ipd.idaho.plugins.taxonomicNames.TaxonomicNameUtils.TaxonomicName;
+
+/**
+ * Generator for a synthetic, but realistic corpus of taxon names and taxon
+ * name usages for the micro benchmarks. Taxon names come in the same DwC
+ * form uploads take after normalization, with the rank distribution skewed
+ * towards species as in actual data, and with genera shared between many
+ * species. Name usages come in their plain string form, with the type, sub
+ * type, and taxon name presence distributed roughly as in actual data. The
+ * corpus only depends on the seed, so two runs with the same seed use the
+ * very same data.
+ * 
+ * @author sautter
+ */
+public class BenchmarkCorpus implements TxnBankConstants {
+	private static final String[][] HIGHER_TAXA = {
+		{"Animalia", "Arthropoda", "Insecta", "Coleoptera"},
+		{"Animalia", "Arthropoda", "Insecta", "Hymenoptera"},
+		{"Animalia", "Arthropoda", "Insecta", "Lepidoptera"},
+		{"Animalia", "Arthropoda", "Insecta", "Diptera"},
+		{"Animalia", "Arthropoda", "Arachnida", "Araneae"},
+		{"Animalia", "Chordata", "Mammalia", "Rodentia"},
+		{"Animalia", "Chordata", "Aves", "Passeriformes"},
+		{"Animalia", "Chordata", "Actinopterygii", "Perciformes"},
+		{"Animalia", "Mollusca", "Gastropoda", "Stylommatophora"},
+		{"Plantae", "Tracheophyta", "Magnoliopsida", "Asterales"},
+		{"Plantae", "Tracheophyta", "Magnoliopsida", "Fabales"},
+		{"Plantae", "Tracheophyta", "Liliopsida", "Poales"},
+		{"Fungi", "Basidiomycota", "Agaricomycetes", "Agaricales"},
+	};
+	private static final String[] SYLLABLES = {
+		"ab", "ac", "ad", "al", "am", "an", "ar", "as", "at", "ba", "be", "bi", "bo", "ca", "ce", "chi", "co", "cu", "da", "de", "di", "do", "e", "el", "en", "er", "es", "fa", "fi", "ga", "ge", "gla", "go", "ha", "he", "i", "il", "in", "is", "la", "le", "li", "lo", "lu", "ma", "me", "mi", "mo", "mu", "na", "ne", "ni", "no", "o", "on", "or", "os", "pa", "pe", "phi", "pi", "po", "pra", "ra", "re", "rhi", "ri", "ro", "ru", "sa", "se", "si", "so", "sta", "ta", "te", "thy", "ti", "to", "tri", "tu", "u", "ul", "um", "un", "ur", "va", "ve", "vi", "xa", "ze",
+	};
+	private static final String[] GENUS_ENDINGS = {"us", "a", "um", "ia", "ella", "opsis", "oides", "ops", "ites", "ina"};
+	private static final String[] SPECIES_ENDINGS = {"us", "a", "um", "is", "ensis", "ii", "ae", "atus", "ata", "icus", "ica", "oides", "iformis"};
+	
+	/* name usage type and sub type codes, with taxon name presence */
+	private static final String[] USAGE_TYPES_WITH_TAXON_NAME = {"-NU", "-NU", "-NU/OD", "-NU/RD", "-NU/DD", "-NU/CI", "-NU/SS", "-NU/JS", "-NU/NC", "-GU", "-GU", "-GU", "-OU", "-NU/KR"};
+	private static final String[] USAGE_TYPES_WITHOUT_TAXON_NAME = {"-NU", "-NU/NS"};
+	
+	private Random random;
+	private ArrayList genera = new ArrayList();
+	
+	/** Constructor
+	 * @param seed the seed for the random number generator
+	 */
+	public BenchmarkCorpus(long seed) {
+		this.random = new Random(seed);
+		
+		//	create pool of genera, each attached to a family
+		for (int g = 0; g < 400; g++) {
+			String[] higherTaxa = HIGHER_TAXA[this.random.nextInt(HIGHER_TAXA.length)];
+			String[] genus = new String[6];
+			System.arraycopy(higherTaxa, 0, genus, 0, higherTaxa.length);
+			String familyStem = this.getStem(2);
+			genus[4] = (Character.toUpperCase(familyStem.charAt(0)) + familyStem.substring(1) + ("Plantae".equals(higherTaxa[0]) ? "aceae" : "idae"));
+			String genusName = (this.getStem(2 + this.random.nextInt(2)) + GENUS_ENDINGS[this.random.nextInt(GENUS_ENDINGS.length)]);
+			genus[5] = (Character.toUpperCase(genusName.charAt(0)) + genusName.substring(1));
+			this.genera.add(genus);
+		}
+	}
+	
+	private String getStem(int syllables) {
+		StringBuffer stem = new StringBuffer();
+		for (int s = 0; s < syllables; s++)
+			stem.append(SYLLABLES[this.random.nextInt(SYLLABLES.length)]);
+		return stem.toString();
+	}
+	
+	private String getSpeciesEpithet() {
+		return (this.getStem(1 + this.random.nextInt(3)) + SPECIES_ENDINGS[this.random.nextInt(SPECIES_ENDINGS.length)]);
+	}
+	
+	/**
+	 * Generate a taxon name. About 65% of the names are species, 10% are
+	 * subspecies, 15% are genera, and 10% are families.
+	 * @return the taxon name
+	 */
+	public TaxonomicName getTaxonName() {
+		String[] genus = ((String[]) this.genera.get(this.random.nextInt(this.genera.size())));
+		TaxonomicName taxName = new TaxonomicName((String) null);
+		taxName.setEpithet(KINGDOM_ATTRIBUTE, genus[0]);
+		taxName.setEpithet(PHYLUM_ATTRIBUTE, genus[1]);
+		taxName.setEpithet(CLASS_ATTRIBUTE, genus[2]);
+		taxName.setEpithet(ORDER_ATTRIBUTE, genus[3]);
+		taxName.setEpithet(FAMILY_ATTRIBUTE, genus[4]);
+		int rank = this.random.nextInt(100);
+		if (rank < 10)
+			return taxName;
+		taxName.setEpithet(GENUS_ATTRIBUTE, genus[5]);
+		if (rank < 25)
+			return taxName;
+		taxName.setEpithet(SPECIES_ATTRIBUTE, this.getSpeciesEpithet());
+		if (rank < 90)
+			return taxName;
+		taxName.setEpithet(SUBSPECIES_ATTRIBUTE, this.getSpeciesEpithet());
+		return taxName;
+	}
+	
+	/**
+	 * Generate taxon names in their normalized upload form, i.e., pairs of
+	 * plain string and DwC XML parse, as produced by the
+	 * <code>TaxonomicNameChecker</code>.
+	 * @param count the number of taxon names to generate
+	 * @return the taxon names
+	 */
+	public UploadString[] getTaxonNames(int count) {
+		UploadString[] taxonNames = new UploadString[count];
+		for (int n = 0; n < count;) {
+			UploadString taxonName = TaxonomicNameChecker.prepareUploadString(this.getTaxonName());
+			if (taxonName != null)
+				taxonNames[n++] = taxonName;
+		}
+		return taxonNames;
+	}
+	
+	/**
+	 * Generate a random 128 bit ID as 32 HEX digits.
+	 * @return the ID
+	 */
+	public String getId() {
+		return BinaryId.toHex(this.random.nextLong(), this.random.nextLong());
+	}
+	
+	/**
+	 * Generate name usages in their plain string form. About 80% of the name
+	 * usages refer to a taxon name. Name strings, taxon names, and
+	 * bibliographic references come from pools a tenth the size of the
+	 * corpus, as many usages refer to the same name or publication.
+	 * @param count the number of name usages to generate
+	 * @return the name usages
+	 */
+	public String[] getNameUsageStrings(int count) {
+		String[] nameStringIds = new String[Math.max(1, (count / 10))];
+		String[] taxonNameIds = new String[nameStringIds.length];
+		String[] bibRefIds = new String[nameStringIds.length];
+		for (int i = 0; i < nameStringIds.length; i++) {
+			nameStringIds[i] = this.getId();
+			taxonNameIds[i] = this.getId();
+			bibRefIds[i] = this.getId();
+		}
+		String[] nameUsages = new String[count];
+		for (int u = 0; u < count; u++) {
+			int name = this.random.nextInt(nameStringIds.length);
+			StringBuffer nameUsage = new StringBuffer(nameStringIds[name]);
+			if (this.random.nextInt(10) < 8) {
+				nameUsage.append("(" + taxonNameIds[name] + ")");
+				nameUsage.append(USAGE_TYPES_WITH_TAXON_NAME[this.random.nextInt(USAGE_TYPES_WITH_TAXON_NAME.length)]);
+			}
+			else nameUsage.append(USAGE_TYPES_WITHOUT_TAXON_NAME[this.random.nextInt(USAGE_TYPES_WITHOUT_TAXON_NAME.length)]);
+			nameUsage.append("@" + bibRefIds[this.random.nextInt(bibRefIds.length)]);
+			nameUsage.append(":" + (1 + this.random.nextInt(this.random.nextBoolean() ? 50 : 2000)));
+			nameUsages[u] = nameUsage.toString();
+		}
+		return nameUsages;
+	}
+	
+	/**
+	 * Generate a random timestamp from within the past ten years.
+	 * @return the timestamp
+	 */
+	public long getTime() {
+		return (System.currentTimeMillis() - ((this.random.nextLong() & Long.MAX_VALUE) % (10L * 365 * 24 * 60 * 60 * 1000)));
+	}
+}
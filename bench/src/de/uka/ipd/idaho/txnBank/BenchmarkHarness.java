@@ -0,0 +1,243 @@
+/* TxnBank, the distributed platform for fully qualified taxonomic names.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.txnBank;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * Minimal single-threaded throughput harness for the micro benchmarks, in
+ * the spirit of JMH: each benchmark runs a number of warmup iterations,
+ * followed by a number of measured iterations of fixed duration. The results
+ * go to System.out as CSV, and optionally to a JSON and a CSV file named
+ * after the suite, so results can be diffed across releases. The command
+ * line arguments understood are<ul>
+ * <li><code>-wi &lt;n&gt;</code>: the number of warmup iterations (default 3)</li>
+ * <li><code>-i &lt;n&gt;</code>: the number of measured iterations (default 5)</li>
+ * <li><code>-t &lt;millis&gt;</code>: the duration of an iteration (default 1000)</li>
+ * <li><code>-n &lt;n&gt;</code>: the size of the synthetic corpus (default 10000)</li>
+ * <li><code>-seed &lt;n&gt;</code>: the seed of the synthetic corpus (default 42)</li>
+ * <li><code>-out &lt;folder&gt;</code>: the folder to write the result files to</li>
+ * <li><code>-only &lt;prefix&gt;</code>: run only benchmarks whose name starts with the prefix</li>
+ * </ul>
+ * 
+ * @author sautter
+ */
+public class BenchmarkHarness {
+	
+	/**
+	 * A single benchmark operation, run over and over again with increasing
+	 * indexes into the corpus.
+	 * 
+	 * @author sautter
+	 */
+	public static interface Benchmark {
+		
+		/**
+		 * Run the operation once.
+		 * @param index the index of the corpus element to use, modulo the
+		 *            corpus size
+		 * @return any value depending on the result, which the harness
+		 *            consumes to keep the JIT from eliminating the operation
+		 * @throws Exception
+		 */
+		public abstract int run(int index) throws Exception;
+	}
+	
+	private static final int BATCH_SIZE = 64;
+	
+	/* keeps the JIT from eliminating benchmark operations as dead code */
+	static volatile int blackHole = 0;
+	
+	private String suite;
+	private int warmupIterations = 3;
+	private int measureIterations = 5;
+	private long iterationMillis = 1000;
+	private int corpusSize = 10000;
+	private long seed = 42;
+	private File outFolder = null;
+	private String only = null;
+	private ArrayList results = new ArrayList();
+	
+	/** Constructor
+	 * @param suite the name of the benchmark suite
+	 * @param args the command line arguments
+	 */
+	public BenchmarkHarness(String suite, String[] args) {
+		this.suite = suite;
+		for (int a = 0; a < (args.length - 1); a += 2) {
+			if ("-wi".equals(args[a]))
+				this.warmupIterations = Integer.parseInt(args[a + 1]);
+			else if ("-i".equals(args[a]))
+				this.measureIterations = Integer.parseInt(args[a + 1]);
+			else if ("-t".equals(args[a]))
+				this.iterationMillis = Long.parseLong(args[a + 1]);
+			else if ("-n".equals(args[a]))
+				this.corpusSize = Integer.parseInt(args[a + 1]);
+			else if ("-seed".equals(args[a]))
+				this.seed = Long.parseLong(args[a + 1]);
+			else if ("-out".equals(args[a]))
+				this.outFolder = new File(args[a + 1]);
+			else if ("-only".equals(args[a]))
+				this.only = args[a + 1];
+			else throw new IllegalArgumentException("Invalid argument: " + args[a]);
+		}
+		System.out.println("benchmark,mode,iterations,score,stdev,min,max,unit,nsPerOp");
+	}
+	
+	/**
+	 * @return the size of the corpus to generate
+	 */
+	public int getCorpusSize() {
+		return this.corpusSize;
+	}
+	
+	/**
+	 * @return the seed for generating the corpus
+	 */
+	public long getSeed() {
+		return this.seed;
+	}
+	
+	/**
+	 * Run a benchmark and record its result.
+	 * @param name the name of the benchmark
+	 * @param benchmark the benchmark to run
+	 * @throws Exception
+	 */
+	public void run(String name, Benchmark benchmark) throws Exception {
+		if ((this.only != null) && !name.startsWith(this.only))
+			return;
+		for (int i = 0; i < this.warmupIterations; i++)
+			this.measure(benchmark);
+		double[] scores = new double[this.measureIterations];
+		for (int i = 0; i < scores.length; i++)
+			scores[i] = this.measure(benchmark);
+		BenchmarkResult result = new BenchmarkResult(name, scores);
+		this.results.add(result);
+		System.out.println(result.toCsv());
+	}
+	
+	/* run one iteration, returning operations per second */
+	private double measure(Benchmark benchmark) throws Exception {
+		int index = 0;
+		int sink = 0;
+		long start = System.nanoTime();
+		long end = (start + (this.iterationMillis * 1000000));
+		long time;
+		do {
+			for (int b = 0; b < BATCH_SIZE; b++)
+				sink += benchmark.run(index++);
+		} while ((time = System.nanoTime()) < end);
+		blackHole += sink;
+		return ((index * 1000000000.0) / (time - start));
+	}
+	
+	/**
+	 * Write the results to the output folder, if any was specified, as
+	 * '&lt;suite&gt;.csv' and '&lt;suite&gt;.json'.
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (this.outFolder == null)
+			return;
+		this.outFolder.mkdirs();
+		
+		BufferedWriter csv = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(this.outFolder, (this.suite + ".csv"))), "UTF-8"));
+		csv.write("benchmark,mode,iterations,score,stdev,min,max,unit,nsPerOp");
+		csv.newLine();
+		for (int r = 0; r < this.results.size(); r++) {
+			csv.write(((BenchmarkResult) this.results.get(r)).toCsv());
+			csv.newLine();
+		}
+		csv.close();
+		
+		BufferedWriter json = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(this.outFolder, (this.suite + ".json"))), "UTF-8"));
+		json.write("{");
+		json.write("\"suite\":");
+		PooledStringJsonWriter.writeJsonString(this.suite, json);
+		json.write(",\"javaVersion\":");
+		PooledStringJsonWriter.writeJsonString(System.getProperty("java.version"), json);
+		json.write(",\"timestamp\":" + System.currentTimeMillis());
+		json.write(",\"warmupIterations\":" + this.warmupIterations);
+		json.write(",\"iterations\":" + this.measureIterations);
+		json.write(",\"iterationMillis\":" + this.iterationMillis);
+		json.write(",\"corpusSize\":" + this.corpusSize);
+		json.write(",\"seed\":" + this.seed);
+		json.write(",\"results\":[");
+		for (int r = 0; r < this.results.size(); r++) {
+			json.newLine();
+			((BenchmarkResult) this.results.get(r)).writeJson(json);
+			if ((r + 1) < this.results.size())
+				json.write(",");
+		}
+		json.newLine();
+		json.write("]}");
+		json.newLine();
+		json.close();
+	}
+	
+	private static class BenchmarkResult {
+		final String name;
+		final double score;
+		final double stdev;
+		final double min;
+		final double max;
+		final int iterations;
+		BenchmarkResult(String name, double[] scores) {
+			this.name = name;
+			this.iterations = scores.length;
+			double sum = 0;
+			double min = Double.MAX_VALUE;
+			double max = 0;
+			for (int s = 0; s < scores.length; s++) {
+				sum += scores[s];
+				min = Math.min(min, scores[s]);
+				max = Math.max(max, scores[s]);
+			}
+			this.score = (sum / scores.length);
+			double squareSum = 0;
+			for (int s = 0; s < scores.length; s++)
+				squareSum += ((scores[s] - this.score) * (scores[s] - this.score));
+			this.stdev = ((scores.length < 2) ? 0 : Math.sqrt(squareSum / (scores.length - 1)));
+			this.min = min;
+			this.max = max;
+		}
+		String toCsv() {
+			return (this.name + ",thrpt," + this.iterations + "," + Math.round(this.score) + "," + Math.round(this.stdev) + "," + Math.round(this.min) + "," + Math.round(this.max) + ",ops/s," + Math.round(1000000000 / this.score));
+		}
+		void writeJson(Writer out) throws IOException {
+			out.write("{\"benchmark\":");
+			PooledStringJsonWriter.writeJsonString(this.name, out);
+			out.write(",\"mode\":\"thrpt\"");
+			out.write(",\"iterations\":" + this.iterations);
+			out.write(",\"score\":" + Math.round(this.score));
+			out.write(",\"stdev\":" + Math.round(this.stdev));
+			out.write(",\"min\":" + Math.round(this.min));
+			out.write(",\"max\":" + Math.round(this.max));
+			out.write(",\"unit\":\"ops/s\"");
+			out.write(",\"nsPerOp\":" + Math.round(1000000000 / this.score));
+			out.write("}");
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/* TxnBank, the distributed platform for fully qualified taxonomic names.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.txnBank;
+
+import java.util.LinkedList;
+import java.util.UUID;
+
+import com.fasterxml.uuid.Generators;
+import com.fasterxml.uuid.impl.NameBasedGenerator;
+
+/**
+ * Multi-threaded throughput benchmark for string ID generation, comparing the
+ * per-thread NameBasedIdGenerator to the synchronized pool of UUID generators
+ * the string pool servlets used before. Each configuration runs with 1 to N
+ * threads, N being the number of available processors (or the first command
+ * line argument), and reports operations per second and the scaling relative
+ * to one thread.
+ * 
+ * @author sautter
+ */
+public class NameBasedIdGeneratorBenchmark {
+	
+	private static final int NAME_COUNT = 4096;
+	private static final long WARMUP_MILLIS = 2000;
+	private static final long MEASURE_MILLIS = 5000;
+	
+	/* keeps the JIT from eliminating ID generation as dead code */
+	static volatile int blackHole = 0;
+	
+	private static interface IdSource {
+		String getId(String name) throws Exception;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int maxThreads = ((args.length == 0) ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(args[0]));
+		
+		//	generate names resembling the ones actually getting IDs
+		final String[] names = new String[NAME_COUNT];
+		for (int n = 0; n < names.length; n++)
+			names[n] = ("Genus" + (n % 97) + " epithet" + n + " (Author" + (n % 13) + ", " + (1758 + (n % 250)) + ")");
+		
+		//	check both sources agree before measuring anything
+		final NameBasedIdGenerator generator = new NameBasedIdGenerator(NameBasedIdGenerator.NAMESPACE_DNS, "globalnames.org");
+		IdSource perThread = new IdSource() {
+			public String getId(String name) {
+				return generator.generateHex(name);
+			}
+		};
+		IdSource pooled = new IdSource() {
+			public String getId(String name) throws Exception {
+				return getPooledId(name);
+			}
+		};
+		for (int n = 0; n < names.length; n++) {
+			if (!perThread.getId(names[n]).equals(pooled.getId(names[n])))
+				throw new IllegalStateException("ID mismatch for " + names[n]);
+		}
+		
+		System.out.println("source,threads,opsPerSecond,scaling");
+		run("pooled", pooled, names, maxThreads);
+		run("perThread", perThread, names, maxThreads);
+	}
+	
+	private static void run(String label, IdSource source, String[] names, int maxThreads) throws Exception {
+		double singleThreadOps = 0;
+		for (int t = 1; t <= maxThreads; t++) {
+			measure(source, names, t, WARMUP_MILLIS);
+			double ops = measure(source, names, t, MEASURE_MILLIS);
+			if (t == 1)
+				singleThreadOps = ops;
+			System.out.println(label + "," + t + "," + Math.round(ops) + "," + (Math.round((ops * 100) / singleThreadOps) / 100.0));
+		}
+	}
+	
+	private static double measure(final IdSource source, final String[] names, int threadCount, final long millis) throws Exception {
+		final long[] counts = new long[threadCount];
+		final Exception[] errors = new Exception[1];
+		Thread[] threads = new Thread[threadCount];
+		final long end = (System.currentTimeMillis() + millis);
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				public void run() {
+					int n = (thread * 31);
+					long count = 0;
+					int sink = 0;
+					try {
+						while (System.currentTimeMillis() < end) {
+							for (int b = 0; b < 256; b++) {
+								sink += source.getId(names[n++ % names.length]).charAt(0);
+								count++;
+							}
+						}
+					}
+					catch (Exception e) {
+						errors[0] = e;
+					}
+					counts[thread] = count;
+					blackHole += sink;
+				}
+			};
+		}
+		long start = System.currentTimeMillis();
+		for (int t = 0; t < threads.length; t++)
+			threads[t].start();
+		for (int t = 0; t < threads.length; t++)
+			threads[t].join();
+		long time = (System.currentTimeMillis() - start);
+		if (errors[0] != null)
+			throw errors[0];
+		long total = 0;
+		for (int t = 0; t < counts.length; t++)
+			total += counts[t];
+		return ((total * 1000.0) / time);
+	}
+	
+	/* the synchronized generator pool the servlets used to have */
+	private static String getPooledId(String string) throws Exception {
+		NameBasedGenerator nbg = null;
+		try {
+			nbg = getUuidGenerator();
+			UUID id = nbg.generate(string.getBytes("UTF-8"));
+			return BinaryId.toHex(id);
+		}
+		finally {
+			returnUuidGenerator(nbg);
+		}
+	}
+	private static UUID globalNamesInDns;
+	private static LinkedList uuidGenerators = new LinkedList();
+	private static NameBasedGenerator getUuidGenerator() {
+		synchronized (uuidGenerators) {
+			if (uuidGenerators.size() != 0)
+				return ((NameBasedGenerator) uuidGenerators.removeFirst());
+			if (globalNamesInDns == null) {
+				NameBasedGenerator nbg = Generators.nameBasedGenerator(NameBasedGenerator.NAMESPACE_DNS);
+				globalNamesInDns = nbg.generate("globalnames.org");
+			}
+			return Generators.nameBasedGenerator(globalNamesInDns);
+		}
+	}
+	private static void returnUuidGenerator(NameBasedGenerator nbg) {
+		if (nbg == null)
+			return;
+		synchronized (uuidGenerators) {
+			uuidGenerators.addLast(nbg);
+		}
+	}
+}
@@ -0,0 +1,205 @@
+/* TxnBank, the distributed platform for fully qualified taxonomic names.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.txnBank;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import de.uka.ipd.idaho.easyIO.EasyIO;
+import de.uka.ipd.idaho.easyIO.IoProvider;
+import de.uka.ipd.idaho.easyIO.settings.Settings;
+import de.uka.ipd.idaho.plugins.taxonomicNames.TaxonomicNameUtils.TaxonomicName;
+import de.uka.ipd.idaho.txnBank.BenchmarkHarness.Benchmark;
+import de.uka.ipd.idaho.txnBank.TxnBankServlet.TaxonNameIndexData;
+
+/**
+ * Latency benchmarks for approximate taxon name matching. The benchmarks run
+ * the fuzzy name index proper against a database, i.e., the count filter over
+ * the trigram postings (the GROUP BY and HAVING query) as well as candidate
+ * verification, with the indexed terms generated the same way TxnBank does.
+ * By default, the database is an embedded Derby instance in a temporary
+ * folder, which is deleted afterwards; to benchmark against the production
+ * database instead, set the system properties <code>bench.jdbcDriver</code>,
+ * <code>bench.jdbcUrl</code>, and optionally <code>bench.jdbcUser</code> and
+ * <code>bench.jdbcPassword</code>. As a baseline, the benchmarks include a
+ * scan computing the (bounded) edit distance to every single term, which is
+ * what finding misspelled names comes down to without an index. Queries are
+ * terms from the corpus with one or two random edits. Running the suite with
+ * increasing corpus sizes (<code>-n</code>) shows how the indexed lookups
+ * scale compared to the scan, which grows linearly.
+ * 
+ * @author sautter
+ */
+public class TaxonNameGramIndexBenchmark implements TxnBankConstants {
+	private static final String[] RANKS = {KINGDOM_ATTRIBUTE, PHYLUM_ATTRIBUTE, CLASS_ATTRIBUTE, ORDER_ATTRIBUTE, FAMILY_ATTRIBUTE, GENUS_ATTRIBUTE, SPECIES_ATTRIBUTE, SUBSPECIES_ATTRIBUTE};
+	private static final int QUERY_COUNT = 1024;
+	private static final int LIMIT = 10;
+	
+	private static final String DERBY_DRIVER_CLASS_NAME = "org.apache.derby.jdbc.EmbeddedDriver";
+	
+	private String[] terms;
+	private TaxonNameGramIndex index;
+	
+	private TaxonNameGramIndexBenchmark(BenchmarkCorpus corpus, int size, IoProvider io) throws Exception {
+		this.index = new TaxonNameGramIndex(io, ("FuzzyBench" + System.currentTimeMillis()));
+		
+		//	generate terms the same way TxnBank does, and index them
+		ArrayList terms = new ArrayList();
+		for (int n = 0; n < size; n++) {
+			TaxonomicName taxName = corpus.getTaxonName();
+			ArrayList ranks = new ArrayList();
+			ArrayList epithets = new ArrayList();
+			for (int r = 0; r < RANKS.length; r++) {
+				String epithet = taxName.getEpithet(RANKS[r]);
+				if (epithet == null)
+					continue;
+				ranks.add(RANKS[r]);
+				epithets.add(epithet);
+			}
+			TaxonNameIndexData taxonNameIndexData = new TaxonNameIndexData(null, null, null, null, null, null, null, taxName.getRank(), ((String[]) ranks.toArray(new String[ranks.size()])), ((String[]) epithets.toArray(new String[epithets.size()])));
+			String[] nameTerms = TxnBankServlet.getFuzzyIndexTerms(taxonNameIndexData);
+			if (!this.index.indexTaxon(("Taxon" + n), nameTerms))
+				throw new Exception("Could not index name " + n);
+			for (int t = 0; t < nameTerms.length; t++)
+				terms.add(TaxonNameGramIndex.normalizeTerm(nameTerms[t]));
+		}
+		this.index.setReady();
+		this.terms = ((String[]) terms.toArray(new String[terms.size()]));
+	}
+	
+	private int findIndexed(String query, int maxEdits) throws Exception {
+		String[] grams = TaxonNameGramIndex.getGrams(TaxonNameGramIndex.normalizeTerm(query));
+		if (TaxonNameGramIndex.getMinCommonGrams(grams.length, maxEdits) < 1)
+			return 0;
+		return this.index.getMatchingIds(query, maxEdits, LIMIT).length;
+	}
+	
+	private int findScan(String query, int maxEdits) {
+		int matches = 0;
+		for (int t = 0; t < this.terms.length; t++) {
+			if (TaxonNameGramIndex.getEditDistance(query, this.terms[t], maxEdits) <= maxEdits)
+				matches++;
+		}
+		return matches;
+	}
+	
+	private static String getMisspelling(String term, int edits, Random random) {
+		StringBuffer misspelling = new StringBuffer(term);
+		for (int e = 0; e < edits; e++) {
+			int pos = random.nextInt(misspelling.length());
+			char ch = ((char) ('a' + random.nextInt(26)));
+			int op = random.nextInt(3);
+			if (op == 0)
+				misspelling.insert(pos, ch);
+			else if ((op == 1) && (misspelling.length() > 1))
+				misspelling.deleteCharAt(pos);
+			else misspelling.setCharAt(pos, ch);
+		}
+		return misspelling.toString();
+	}
+	
+	private static IoProvider getIoProvider(File derbyFolder) throws Exception {
+		Settings settings = new Settings();
+		String jdbcUrl = System.getProperty("bench.jdbcUrl");
+		if (jdbcUrl == null) {
+			
+			//	no need to sync to disk for a throwaway database, speeds up loading a lot
+			System.setProperty("derby.system.durability", "test");
+			settings.setSetting("JDBC.DriverClassName", DERBY_DRIVER_CLASS_NAME);
+			settings.setSetting("JDBC.Url", ("jdbc:derby:" + new File(derbyFolder, "FuzzyBenchDB").getAbsolutePath() + ";create=true"));
+			settings.setSetting("JDBC.TerminalSemicolon", "NO");
+		}
+		else {
+			settings.setSetting("JDBC.DriverClassName", System.getProperty("bench.jdbcDriver"));
+			settings.setSetting("JDBC.Url", jdbcUrl);
+			if (System.getProperty("bench.jdbcUser") != null)
+				settings.setSetting("JDBC.User", System.getProperty("bench.jdbcUser"));
+			if (System.getProperty("bench.jdbcPassword") != null)
+				settings.setSetting("JDBC.Password", System.getProperty("bench.jdbcPassword"));
+		}
+		IoProvider io = EasyIO.getIoProvider(settings);
+		if (!io.isJdbcAvailable())
+			throw new Exception("Cannot connect to database at " + settings.getSetting("JDBC.Url"));
+		return io;
+	}
+	
+	private static void deleteFolder(File folder) {
+		File[] files = folder.listFiles();
+		for (int f = 0; (files != null) && (f < files.length); f++) {
+			if (files[f].isDirectory())
+				deleteFolder(files[f]);
+			else files[f].delete();
+		}
+		folder.delete();
+	}
+	
+	public static void main(String[] args) throws Exception {
+		BenchmarkHarness harness = new BenchmarkHarness("fuzzy", args);
+		BenchmarkCorpus corpus = new BenchmarkCorpus(harness.getSeed());
+		
+		//	connect to database (embedded one in temporary folder by default)
+		File derbyFolder = File.createTempFile("FuzzyBench", "");
+		derbyFolder.delete();
+		derbyFolder.mkdirs();
+		IoProvider io = getIoProvider(derbyFolder);
+		try {
+			
+			//	generate corpus and index
+			long start = System.currentTimeMillis();
+			final TaxonNameGramIndexBenchmark index = new TaxonNameGramIndexBenchmark(corpus, harness.getCorpusSize(), io);
+			System.err.println("Indexed " + index.terms.length + " terms in " + (System.currentTimeMillis() - start) + "ms");
+			
+			//	generate queries
+			Random random = new Random(harness.getSeed());
+			final String[] queries1 = new String[QUERY_COUNT];
+			final String[] queries2 = new String[QUERY_COUNT];
+			for (int q = 0; q < QUERY_COUNT; q++) {
+				queries1[q] = getMisspelling(index.terms[random.nextInt(index.terms.length)], 1, random);
+				queries2[q] = getMisspelling(index.terms[random.nextInt(index.terms.length)], 2, random);
+			}
+			
+			harness.run("fuzzy.indexed.1edit", new Benchmark() {
+				public int run(int query) throws Exception {
+					return index.findIndexed(queries1[query % queries1.length], 1);
+				}
+			});
+			harness.run("fuzzy.indexed.2edits", new Benchmark() {
+				public int run(int query) throws Exception {
+					return index.findIndexed(queries2[query % queries2.length], 2);
+				}
+			});
+			harness.run("fuzzy.scan.1edit", new Benchmark() {
+				public int run(int query) throws Exception {
+					return index.findScan(queries1[query % queries1.length], 1);
+				}
+			});
+			harness.run("fuzzy.scan.2edits", new Benchmark() {
+				public int run(int query) throws Exception {
+					return index.findScan(queries2[query % queries2.length], 2);
+				}
+			});
+			
+			harness.finish();
+		}
+		finally {
+			io.close();
+			deleteFolder(derbyFolder);
+		}
+	}
+}
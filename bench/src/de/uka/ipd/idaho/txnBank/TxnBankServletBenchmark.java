@@ -0,0 +1,89 @@
+/* TxnBank, the distributed platform for fully qualified taxonomic names.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.txnBank;
+
+import java.io.StringReader;
+
+import de.uka.ipd.idaho.gamta.MutableAnnotation;
+import de.uka.ipd.idaho.gamta.util.SgmlDocumentReader;
+import de.uka.ipd.idaho.onn.stringPool.StringPoolClient.UploadString;
+import de.uka.ipd.idaho.txnBank.BenchmarkHarness.Benchmark;
+
+/**
+ * Micro benchmarks for the per-name work TxnBank does on every upload, i.e.,
+ * parsing the DwC XML of a taxon name, checking the parse for consistency,
+ * and extracting the index data. The servlet is used without a servlet
+ * context, with only its rank system set up.
+ * 
+ * @author sautter
+ */
+public class TxnBankServletBenchmark {
+	
+	public static void main(String[] args) throws Exception {
+		BenchmarkHarness harness = new BenchmarkHarness("txnbank", args);
+		BenchmarkCorpus corpus = new BenchmarkCorpus(harness.getSeed());
+		
+		//	generate corpus
+		final UploadString[] taxonNames = corpus.getTaxonNames(harness.getCorpusSize());
+		final MutableAnnotation[] taxonNamesParsed = new MutableAnnotation[taxonNames.length];
+		for (int n = 0; n < taxonNames.length; n++)
+			taxonNamesParsed[n] = SgmlDocumentReader.readDocument(new StringReader(taxonNames[n].stringParsed));
+		final String[] taxonNameIds = new String[taxonNames.length];
+		for (int n = 0; n < taxonNames.length; n++)
+			taxonNameIds[n] = corpus.getId();
+		
+		//	set up servlet
+		final TxnBankServlet servlet = new TxnBankServlet();
+		servlet.initRankSystem();
+		
+		//	make sure the corpus is valid
+		for (int n = 0; n < taxonNames.length; n++) {
+			String parseError = servlet.checkParsedString(taxonNameIds[n], taxonNames[n].stringPlain, taxonNamesParsed[n]);
+			if (parseError != null)
+				throw new IllegalStateException("Invalid corpus name " + taxonNames[n].stringPlain + ": " + parseError);
+		}
+		
+		harness.run("parseDwcXml", new Benchmark() {
+			public int run(int index) throws Exception {
+				return SgmlDocumentReader.readDocument(new StringReader(taxonNames[index % taxonNames.length].stringParsed)).size();
+			}
+		});
+		harness.run("checkParsedString", new Benchmark() {
+			public int run(int index) throws Exception {
+				int n = (index % taxonNames.length);
+				return ((servlet.checkParsedString(taxonNameIds[n], taxonNames[n].stringPlain, taxonNamesParsed[n]) == null) ? 1 : 0);
+			}
+		});
+		harness.run("getIndexData", new Benchmark() {
+			public int run(int index) throws Exception {
+				return servlet.getIndexData(taxonNamesParsed[index % taxonNamesParsed.length]).txGenus.length();
+			}
+		});
+		harness.run("upload.perName", new Benchmark() {
+			public int run(int index) throws Exception {
+				int n = (index % taxonNames.length);
+				MutableAnnotation taxonNameParsed = SgmlDocumentReader.readDocument(new StringReader(taxonNames[n].stringParsed));
+				if (servlet.checkParsedString(taxonNameIds[n], taxonNames[n].stringPlain, taxonNameParsed) != null)
+					return 0;
+				return servlet.getIndexData(taxonNameParsed).txSpecies.length();
+			}
+		});
+		
+		harness.finish();
+	}
+}
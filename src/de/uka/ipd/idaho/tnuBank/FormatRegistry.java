@@ -0,0 +1,293 @@
+/* TnuBank, the distributed platform for taxonomic name usages.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.tnuBank;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.w3c.dom.Node;
+
+/**
+ * Registry of XSLT based output formats, holding the compiled stylesheets
+ * and re-compiling them when their files change. Formats configured as
+ * record-wise produce one output record for each name usage element of their
+ * input, wrapped in a common root element. Such formats can transform name
+ * usages one by one, so memory use stays constant regardless of the number of
+ * name usages.
+ * 
+ * @author sautter
+ */
+public class FormatRegistry {
+	private File formatFolder;
+	private HashSet recordWiseFormatNames = new HashSet();
+	private HashMap formats = new HashMap();
+	private TransformerFactory transformerFactory = TransformerFactory.newInstance();
+	
+	/**
+	 * Constructor
+	 * @param formatFolder the folder the XSLT stylesheets are located in
+	 * @param recordWiseFormatNames the names of the formats that work on
+	 *            individual name usages (file names with or without extension)
+	 */
+	public FormatRegistry(File formatFolder, Set recordWiseFormatNames) {
+		this.formatFolder = formatFolder;
+		this.recordWiseFormatNames.addAll(recordWiseFormatNames);
+	}
+	
+	/**
+	 * Retrieve an output format by its name, i.e., the name of the XSLT file
+	 * relative to the format folder. If the file has been modified since the
+	 * format was last compiled, it is re-compiled.
+	 * @param name the name of the format
+	 * @param forceReload re-compile the stylesheet even if the file is
+	 *            unmodified?
+	 * @return the format with the argument name
+	 * @throws IOException if the file does not exist or cannot be compiled
+	 */
+	public Format getFormat(String name, boolean forceReload) throws IOException {
+		File formatFile = new File(this.formatFolder, name);
+		if (!formatFile.exists())
+			throw new IOException("Invalid format: " + name);
+		long lastModified = formatFile.lastModified();
+		synchronized (this.formats) {
+			Format format = ((Format) this.formats.get(name));
+			if ((format != null) && !forceReload && (format.lastModified == lastModified))
+				return format;
+			try {
+				Templates templates = this.transformerFactory.newTemplates(new StreamSource(formatFile));
+				format = new Format(name, templates, lastModified, this.isRecordWise(name));
+			}
+			catch (TransformerException te) {
+				throw new IOException("Invalid format: " + name + " (" + te.getMessage() + ")");
+			}
+			this.formats.put(name, format);
+			return format;
+		}
+	}
+	
+	private boolean isRecordWise(String name) {
+		if (this.recordWiseFormatNames.contains(name))
+			return true;
+		String fileName = name.substring(name.lastIndexOf('/') + 1);
+		if (this.recordWiseFormatNames.contains(fileName))
+			return true;
+		return ((fileName.indexOf('.') != -1) && this.recordWiseFormatNames.contains(fileName.substring(0, fileName.lastIndexOf('.'))));
+	}
+	
+	/**
+	 * A compiled XSLT output format. Instances of this class are thread safe.
+	 * 
+	 * @author sautter
+	 */
+	public static class Format {
+		
+		/** the name of the format */
+		public final String name;
+		
+		/** does the format work on individual name usages? */
+		public final boolean recordWise;
+		
+		final Templates templates;
+		final long lastModified;
+		private String[] envelope = null;
+		
+		Format(String name, Templates templates, long lastModified, boolean recordWise) {
+			this.name = name;
+			this.templates = templates;
+			this.lastModified = lastModified;
+			this.recordWise = recordWise;
+		}
+		
+		/**
+		 * Create a transformer for the format. The transformer is for use by a
+		 * single thread.
+		 * @return a transformer for the format
+		 * @throws IOException
+		 */
+		public Transformer getTransformer() throws IOException {
+			try {
+				return this.templates.newTransformer();
+			}
+			catch (TransformerException te) {
+				throw new IOException("Invalid format: " + this.name + " (" + te.getMessage() + ")");
+			}
+		}
+		
+		/**
+		 * Create a writer for transforming name usages one by one. The first
+		 * call to the writer's <code>writeRecord()</code> method writes the
+		 * start of the enclosing root element produced by the stylesheet, the
+		 * call to <code>close()</code> writes its end.
+		 * @param emptySetXml an empty name usage set element
+		 * @param out the writer to write the output to
+		 * @return a writer for transforming individual name usages
+		 * @throws IOException
+		 */
+		public RecordWriter getRecordWriter(String emptySetXml, Writer out) throws IOException {
+			return new RecordWriter(this, emptySetXml, out);
+		}
+		
+		synchronized String[] getEnvelope(Transformer transformer, Transformer serializer, String emptySetXml) throws IOException {
+			if (this.envelope != null)
+				return this.envelope;
+			
+			//	transform empty set, and split output into start and end of root element
+			try {
+				StringWriter rootOut = new StringWriter();
+				DOMResult rootResult = new DOMResult();
+				transformer.transform(new StreamSource(new StringReader(emptySetXml)), rootResult);
+				Node root = rootResult.getNode().getFirstChild();
+				while ((root != null) && (root.getNodeType() != Node.ELEMENT_NODE))
+					root = root.getNextSibling();
+				if (root == null)
+					throw new IOException("Invalid format: " + this.name + " (no root element)");
+				while (root.getFirstChild() != null)
+					root.removeChild(root.getFirstChild());
+				serializer.transform(new DOMSource(root), new StreamResult(rootOut));
+				String rootXml = rootOut.toString().trim();
+				String[] envelope = new String[2];
+				if (rootXml.endsWith("/>")) {
+					envelope[0] = (rootXml.substring(0, (rootXml.length() - "/>".length())) + ">");
+					envelope[1] = ("</" + root.getNodeName() + ">");
+				}
+				else {
+					envelope[0] = rootXml.substring(0, rootXml.lastIndexOf("</"));
+					envelope[1] = rootXml.substring(rootXml.lastIndexOf("</"));
+				}
+				this.envelope = envelope;
+				return this.envelope;
+			}
+			catch (TransformerException te) {
+				throw new IOException("Invalid format: " + this.name + " (" + te.getMessage() + ")");
+			}
+		}
+	}
+	
+	/**
+	 * Writer transforming name usages one by one and writing the resulting
+	 * records to an underlying writer. Instances of this class are for use by
+	 * a single thread.
+	 * 
+	 * @author sautter
+	 */
+	public static class RecordWriter {
+		private Format format;
+		private String emptySetXml;
+		private Writer out;
+		private Transformer transformer;
+		private Transformer serializer;
+		private String[] envelope = null;
+		
+		RecordWriter(Format format, String emptySetXml, Writer out) throws IOException {
+			this.format = format;
+			this.emptySetXml = emptySetXml;
+			this.out = out;
+			this.transformer = format.getTransformer();
+			try {
+				this.serializer = TransformerFactory.newInstance().newTransformer();
+			}
+			catch (TransformerException te) {
+				throw new IOException(te.getMessage());
+			}
+			this.serializer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+			Properties outputProperties = this.transformer.getOutputProperties();
+			if (outputProperties.getProperty(OutputKeys.INDENT) != null)
+				this.serializer.setOutputProperty(OutputKeys.INDENT, outputProperties.getProperty(OutputKeys.INDENT));
+		}
+		
+		private void ensureEnvelopeStart() throws IOException {
+			if (this.envelope != null)
+				return;
+			this.envelope = this.format.getEnvelope(this.transformer, this.serializer, this.emptySetXml);
+			this.transformer.reset();
+			this.out.write(this.envelope[0]);
+		}
+		
+		/**
+		 * Transform a name usage set holding a single name usage, and write
+		 * the content of the resulting root element.
+		 * @param recordSetXml the name usage set to transform
+		 * @throws IOException
+		 */
+		public void writeRecord(String recordSetXml) throws IOException {
+			this.ensureEnvelopeStart();
+			try {
+				DOMResult recordResult = new DOMResult();
+				this.transformer.transform(new StreamSource(new StringReader(recordSetXml)), recordResult);
+				this.transformer.reset();
+				Node root = recordResult.getNode().getFirstChild();
+				while ((root != null) && (root.getNodeType() != Node.ELEMENT_NODE))
+					root = root.getNextSibling();
+				if (root == null)
+					return;
+				for (Node record = root.getFirstChild(); record != null; record = record.getNextSibling()) {
+					if (record.getNodeType() == Node.TEXT_NODE)
+						this.out.write(escapeText(record.getNodeValue()));
+					else this.serializer.transform(new DOMSource(record), new StreamResult(this.out));
+				}
+			}
+			catch (TransformerException te) {
+				throw new IOException("Error in format " + this.format.name + " (" + te.getMessage() + ")");
+			}
+		}
+		
+		/**
+		 * Write the end of the enclosing root element. This does not close the
+		 * underlying writer.
+		 * @throws IOException
+		 */
+		public void close() throws IOException {
+			this.ensureEnvelopeStart();
+			this.out.write(this.envelope[1]);
+		}
+		
+		private static String escapeText(String text) {
+			if ((text.indexOf('<') == -1) && (text.indexOf('&') == -1) && (text.indexOf('>') == -1))
+				return text;
+			StringBuffer escaped = new StringBuffer(text.length() + 16);
+			for (int c = 0; c < text.length(); c++) {
+				char ch = text.charAt(c);
+				if (ch == '<')
+					escaped.append("&lt;");
+				else if (ch == '>')
+					escaped.append("&gt;");
+				else if (ch == '&')
+					escaped.append("&amp;");
+				else escaped.append(ch);
+			}
+			return escaped.toString();
+		}
+	}
+}
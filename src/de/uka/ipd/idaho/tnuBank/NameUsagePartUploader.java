@@ -0,0 +1,627 @@
+/* TnuBank, the distributed platform for taxonomic name usages.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.tnuBank;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import de.uka.ipd.idaho.binoBank.BinoBankClient;
+import de.uka.ipd.idaho.onn.stringPool.StringPoolClient.PooledString;
+import de.uka.ipd.idaho.onn.stringPool.StringPoolClient.PooledStringIterator;
+import de.uka.ipd.idaho.onn.stringPool.StringPoolClient.UploadString;
+import de.uka.ipd.idaho.plugins.bibRefs.BibRefUtils;
+import de.uka.ipd.idaho.plugins.bibRefs.BibRefUtils.RefData;
+import de.uka.ipd.idaho.plugins.taxonomicNames.TaxonomicNameUtils.TaxonomicName;
+import de.uka.ipd.idaho.refBank.RefBankClient;
+import de.uka.ipd.idaho.tnuBank.TnuBankClient.NameUsageUpload;
+import de.uka.ipd.idaho.tnuBank.TnuBankConstants.TaxonNameUsage;
+import de.uka.ipd.idaho.txnBank.TxnBankClient;
+import de.uka.ipd.idaho.txnBank.TxnBankConstants.TaxonomicNameChecker;
+
+/**
+ * Uploader for the parts of a composite name usage, i.e., name string, taxon
+ * name, and bibliographic reference, to BinoBank, TxnBank, and RefBank,
+ * respectively. As the three uploads are independent of one another, they run
+ * concurrently, with the name string and taxon name uploads going to a bounded
+ * thread pool, and the bibliographic reference being uploaded in the calling
+ * thread. If the pool is saturated, the calling thread does the work itself,
+ * so the uploads degrade to running serially rather than failing. Errors are
+ * reported exactly as with serial uploads, i.e., checking name string, taxon
+ * name, and bibliographic reference in this order.
+ * 
+ * @author sautter
+ */
+public class NameUsagePartUploader {
+	private BinoBankClient bbk;
+	private TxnBankClient txn;
+	private RefBankClient rbk;
+	private ThreadPoolExecutor uploadExecutor;
+	private boolean ownExecutor;
+	
+	/**
+	 * Constructor
+	 * @param bbk the BinoBank to upload name strings to
+	 * @param txn the TxnBank to upload taxon names to
+	 * @param rbk the RefBank to upload bibliographic references to
+	 * @param maxThreads the maximum number of upload threads
+	 * @param threadName the name for the upload threads
+	 */
+	public NameUsagePartUploader(BinoBankClient bbk, TxnBankClient txn, RefBankClient rbk, int maxThreads, String threadName) {
+		this(bbk, txn, rbk, createUploadExecutor(maxThreads, threadName), true);
+	}
+	
+	/**
+	 * Constructor for uploaders sharing their threads with other uploaders,
+	 * e.g. all the ones of a client application. The argument thread pool is
+	 * not shut down along with this uploader.
+	 * @param bbk the BinoBank to upload name strings to
+	 * @param txn the TxnBank to upload taxon names to
+	 * @param rbk the RefBank to upload bibliographic references to
+	 * @param uploadExecutor the thread pool to run uploads on
+	 */
+	public NameUsagePartUploader(BinoBankClient bbk, TxnBankClient txn, RefBankClient rbk, ThreadPoolExecutor uploadExecutor) {
+		this(bbk, txn, rbk, uploadExecutor, false);
+	}
+	
+	private NameUsagePartUploader(BinoBankClient bbk, TxnBankClient txn, RefBankClient rbk, ThreadPoolExecutor uploadExecutor, boolean ownExecutor) {
+		this.bbk = bbk;
+		this.txn = txn;
+		this.rbk = rbk;
+		this.uploadExecutor = uploadExecutor;
+		this.ownExecutor = ownExecutor;
+	}
+	
+	/**
+	 * Create a thread pool for running uploads, to share between uploaders.
+	 * The threads are daemon threads, and if the pool is saturated, the
+	 * calling thread runs the upload itself.
+	 * @param maxThreads the maximum number of upload threads
+	 * @param threadName the name for the upload threads
+	 * @return the thread pool
+	 */
+	public static ThreadPoolExecutor createUploadExecutor(int maxThreads, final String threadName) {
+		maxThreads = Math.max(1, maxThreads);
+		return new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue(maxThreads * 4), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, threadName);
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+	
+	/**
+	 * Shut down the upload threads, unless they are shared with other
+	 * uploaders. After this method has been called, the uploader runs all
+	 * uploads in the calling thread.
+	 */
+	public void shutdown() {
+		if (this.ownExecutor)
+			this.uploadExecutor.shutdown();
+	}
+	
+	/**
+	 * Upload the parts of a name usage. The taxon name may be null, the name
+	 * string and bibliographic reference may not.
+	 * @param nameString the name string to upload to BinoBank
+	 * @param taxonName the taxon name to upload to TxnBank
+	 * @param bibRef the bibliographic reference to upload to RefBank
+	 * @param user the user to credit for the uploads
+	 * @return the uploaded parts
+	 * @throws IOException
+	 */
+	public NameUsageParts uploadParts(final String nameString, final TaxonomicName taxonName, final RefData bibRef, final String user) throws IOException {
+		long start = System.currentTimeMillis();
+		
+		//	start uploads of name string and taxon name
+		TimedUpload nameStringUpload = new TimedUpload() {
+			Object doUpload() throws IOException {
+				return bbk.updateString(nameString, user);
+			}
+		};
+		Future nameStringFuture = this.submit(nameStringUpload);
+		TimedUpload taxonNameUpload = null;
+		Future taxonNameFuture = null;
+		if (taxonName != null) {
+			taxonNameUpload = new TimedUpload() {
+				Object doUpload() throws IOException {
+					return txn.updateName(taxonName, user);
+				}
+			};
+			taxonNameFuture = this.submit(taxonNameUpload);
+		}
+		
+		//	upload bib ref ourselves in the meantime
+		TimedUpload bibRefUpload = new TimedUpload() {
+			Object doUpload() throws IOException {
+				return rbk.updateReference(bibRef, user);
+			}
+		};
+		Throwable bibRefError = null;
+		PooledString bibRefPs = null;
+		try {
+			bibRefPs = ((PooledString) bibRefUpload.call());
+		}
+		catch (Throwable t) {
+			bibRefError = t;
+		}
+		
+		//	wait for other uploads, and report errors in the same order as serial uploads would
+		PooledString nameStringPs = ((PooledString) getResult(nameStringFuture));
+		if (nameStringPs == null)
+			throw new IOException("Could not store name string '" + nameString + "' in BinoBank");
+		PooledString taxonNamePs = ((taxonNameFuture == null) ? null : ((PooledString) getResult(taxonNameFuture)));
+		if (bibRefError != null)
+			rethrow(bibRefError);
+		if (bibRefPs == null)
+			throw new IOException("Could not store bibliographic reference in RefBank");
+		
+		return new NameUsageParts(nameStringPs, taxonNamePs, bibRefPs, nameStringUpload.millis, ((taxonNameUpload == null) ? 0 : taxonNameUpload.millis), bibRefUpload.millis, (System.currentTimeMillis() - start));
+	}
+	
+	/**
+	 * Upload the parts of a batch of name usages. Each distinct name string,
+	 * taxon name, and bibliographic reference is uploaded only once, with one
+	 * multi-string upload to each of BinoBank, TxnBank, and RefBank, the three
+	 * running concurrently. Parts missing from the result of a multi-string
+	 * upload are retried individually. If the parts of a name usage cannot be
+	 * uploaded, the respective element of the returned array is null, and the
+	 * respective element of the argument error array holds the reason.
+	 * @param batch the name usages to upload the parts of
+	 * @param user the user to credit for the uploads
+	 * @param errors an array to store errors in, parallel to the batch
+	 * @return the uploaded parts, parallel to the batch
+	 */
+	public NameUsageParts[] uploadParts(NameUsageUpload[] batch, final String user, IOException[] errors) {
+		long start = System.currentTimeMillis();
+		
+		//	collect distinct name strings, taxon names, and bib refs
+		final LinkedHashMap nameStrings = new LinkedHashMap();
+		final LinkedHashMap taxonNames = new LinkedHashMap();
+		final LinkedHashMap bibRefs = new LinkedHashMap();
+		String[] taxonNameKeys = new String[batch.length];
+		String[] bibRefKeys = new String[batch.length];
+		for (int u = 0; u < batch.length; u++) {
+			nameStrings.put(batch[u].nameString, batch[u].nameString);
+			if (batch[u].taxonName != null) {
+				UploadString taxonNameString = TaxonomicNameChecker.prepareUploadString(batch[u].taxonName);
+				if (taxonNameString != null) {
+					taxonNameKeys[u] = taxonNameString.stringPlain;
+					taxonNames.put(taxonNameKeys[u], batch[u].taxonName);
+				}
+			}
+			bibRefKeys[u] = BibRefUtils.toRefString(batch[u].bibRef);
+			bibRefs.put(bibRefKeys[u], batch[u].bibRef);
+		}
+		
+		//	start uploads of name strings and taxon names
+		TimedUpload nameStringUpload = new TimedUpload() {
+			Object doUpload() throws IOException {
+				String[] nameStringArray = ((String[]) nameStrings.keySet().toArray(new String[nameStrings.size()]));
+				HashMap nameStringPss = mapResults(nameStringArray, bbk.updateStrings(nameStringArray, user));
+				for (int n = 0; n < nameStringArray.length; n++) {
+					if (!nameStringPss.containsKey(nameStringArray[n])) try {
+						nameStringPss.put(nameStringArray[n], bbk.updateString(nameStringArray[n], user));
+					}
+					catch (IOException ioe) {
+						nameStringPss.put(nameStringArray[n], ioe);
+					}
+				}
+				return nameStringPss;
+			}
+		};
+		Future nameStringFuture = this.submit(nameStringUpload);
+		TimedUpload taxonNameUpload = null;
+		Future taxonNameFuture = null;
+		if (taxonNames.size() != 0) {
+			taxonNameUpload = new TimedUpload() {
+				Object doUpload() throws IOException {
+					TaxonomicName[] taxonNameArray = ((TaxonomicName[]) taxonNames.values().toArray(new TaxonomicName[taxonNames.size()]));
+					HashMap taxonNamePss = mapResults(((String[]) taxonNames.keySet().toArray(new String[taxonNames.size()])), txn.updateNames(taxonNameArray, user));
+					for (Iterator tnkit = taxonNames.keySet().iterator(); tnkit.hasNext();) {
+						String taxonNameKey = ((String) tnkit.next());
+						if (!taxonNamePss.containsKey(taxonNameKey)) try {
+							taxonNamePss.put(taxonNameKey, txn.updateName(((TaxonomicName) taxonNames.get(taxonNameKey)), user));
+						}
+						catch (IOException ioe) {
+							taxonNamePss.put(taxonNameKey, ioe);
+						}
+					}
+					return taxonNamePss;
+				}
+			};
+			taxonNameFuture = this.submit(taxonNameUpload);
+		}
+		
+		//	upload bib refs ourselves in the meantime
+		TimedUpload bibRefUpload = new TimedUpload() {
+			Object doUpload() throws IOException {
+				RefData[] bibRefArray = ((RefData[]) bibRefs.values().toArray(new RefData[bibRefs.size()]));
+				HashMap bibRefPss = mapResults(((String[]) bibRefs.keySet().toArray(new String[bibRefs.size()])), rbk.updateReferences(bibRefArray, user));
+				for (Iterator brkit = bibRefs.keySet().iterator(); brkit.hasNext();) {
+					String bibRefKey = ((String) brkit.next());
+					if (!bibRefPss.containsKey(bibRefKey)) try {
+						bibRefPss.put(bibRefKey, rbk.updateReference(((RefData) bibRefs.get(bibRefKey)), user));
+					}
+					catch (IOException ioe) {
+						bibRefPss.put(bibRefKey, ioe);
+					}
+				}
+				return bibRefPss;
+			}
+		};
+		HashMap bibRefPss;
+		try {
+			bibRefPss = ((HashMap) bibRefUpload.call());
+		}
+		catch (IOException ioe) {
+			bibRefPss = getErrorMap(bibRefs, ioe);
+		}
+		
+		//	wait for other uploads
+		HashMap nameStringPss;
+		try {
+			nameStringPss = ((HashMap) getResult(nameStringFuture));
+		}
+		catch (IOException ioe) {
+			nameStringPss = getErrorMap(nameStrings, ioe);
+		}
+		HashMap taxonNamePss;
+		if (taxonNameFuture == null)
+			taxonNamePss = new HashMap();
+		else try {
+			taxonNamePss = ((HashMap) getResult(taxonNameFuture));
+		}
+		catch (IOException ioe) {
+			taxonNamePss = getErrorMap(taxonNames, ioe);
+		}
+		long totalMillis = (System.currentTimeMillis() - start);
+		
+		//	assemble parts of individual name usages, reporting errors in the same order as single uploads
+		NameUsageParts[] parts = new NameUsageParts[batch.length];
+		for (int u = 0; u < batch.length; u++) {
+			Object nameStringPs = nameStringPss.get(batch[u].nameString);
+			Object taxonNamePs = ((taxonNameKeys[u] == null) ? null : taxonNamePss.get(taxonNameKeys[u]));
+			Object bibRefPs = bibRefPss.get(bibRefKeys[u]);
+			if (nameStringPs instanceof IOException)
+				errors[u] = ((IOException) nameStringPs);
+			else if (nameStringPs == null)
+				errors[u] = new IOException("Could not store name string '" + batch[u].nameString + "' in BinoBank");
+			else if (taxonNamePs instanceof IOException)
+				errors[u] = ((IOException) taxonNamePs);
+			else if (bibRefPs instanceof IOException)
+				errors[u] = ((IOException) bibRefPs);
+			else if (bibRefPs == null)
+				errors[u] = new IOException("Could not store bibliographic reference in RefBank");
+			else parts[u] = new NameUsageParts(((PooledString) nameStringPs), ((PooledString) taxonNamePs), ((PooledString) bibRefPs), nameStringUpload.millis, ((taxonNameUpload == null) ? 0 : taxonNameUpload.millis), bibRefUpload.millis, totalMillis);
+		}
+		return parts;
+	}
+	
+	/* Map the results of a multi-string upload to the keys of the uploaded
+	 * parts. As the receiving nodes may normalize plain strings, results are
+	 * matched to keys by position, which is possible as long as there is one
+	 * result for every uploaded part. If parts are missing from the results,
+	 * e.g. because they were rejected, we can only match by plain string,
+	 * retrying the unmatched parts individually. */
+	private static HashMap mapResults(String[] keys, PooledStringIterator psi) throws IOException {
+		ArrayList results = new ArrayList(keys.length);
+		while (psi.hasNextString())
+			results.add(psi.getNextString());
+		if (psi.getException() != null)
+			throw psi.getException();
+		HashMap pss = new HashMap();
+		if (results.size() == keys.length) {
+			for (int k = 0; k < keys.length; k++)
+				pss.put(keys[k], results.get(k));
+		}
+		else for (int r = 0; r < results.size(); r++) {
+			PooledString ps = ((PooledString) results.get(r));
+			pss.put(ps.getStringPlain(), ps);
+		}
+		return pss;
+	}
+	
+	private static HashMap getErrorMap(HashMap keys, IOException ioe) {
+		HashMap errors = new HashMap();
+		for (Iterator kit = keys.keySet().iterator(); kit.hasNext();)
+			errors.put(kit.next(), ioe);
+		return errors;
+	}
+	
+	/**
+	 * Assemble the upload strings for a batch of name usages, leaving out the
+	 * ones whose parts could not be uploaded.
+	 * @param batch the name usages to upload
+	 * @param parts the uploaded parts, parallel to the batch
+	 * @return the upload strings
+	 */
+	public static UploadString[] getUploadStrings(NameUsageUpload[] batch, NameUsageParts[] parts) {
+		ArrayList uploadStrings = new ArrayList(batch.length);
+		for (int u = 0; u < batch.length; u++) {
+			if (parts[u] == null)
+				continue;
+			TaxonNameUsage tnu = new TaxonNameUsage(parts[u].nameString.id, ((parts[u].taxonName == null) ? null : parts[u].taxonName.id), batch[u].nameUsageType, ((parts[u].taxonName == null) ? null : batch[u].nameUsageSubType), parts[u].bibRef.id, batch[u].pageNumber);
+			uploadStrings.add(new UploadString(tnu.toPlainString(), tnu.toParsedString()));
+		}
+		return ((UploadString[]) uploadStrings.toArray(new UploadString[uploadStrings.size()]));
+	}
+	
+	/**
+	 * Assemble the results of a batch of name usage uploads, in the order of
+	 * the batch. Name usages whose parts could not be uploaded are reported
+	 * the same way as rejected strings, i.e., with their error as the parse
+	 * error, and with the name string as their plain string, as without the
+	 * IDs of the parts, there is no plain string of the name usage proper.
+	 * The results of the actual name usage upload are matched to the upload
+	 * strings by position if there is one for each upload string, and by
+	 * plain string otherwise. If all name usages were uploaded, the argument
+	 * iterator is returned as is.
+	 * @param batch the name usages to upload
+	 * @param parts the uploaded parts, parallel to the batch
+	 * @param errors the errors uploading the parts, parallel to the batch
+	 * @param uploadStrings the upload strings of the name usages whose parts
+	 *            were uploaded, as created by getUploadStrings()
+	 * @param psi the iterator over the results of uploading the latter (may
+	 *            be null if there are no upload strings)
+	 * @return an iterator over the results, parallel to the batch
+	 */
+	public static PooledStringIterator getUploadResults(NameUsageUpload[] batch, NameUsageParts[] parts, IOException[] errors, UploadString[] uploadStrings, PooledStringIterator psi) {
+		if ((uploadStrings.length == batch.length) && (psi != null))
+			return psi;
+		
+		//	get upload results
+		ArrayList uploadResults = new ArrayList(uploadStrings.length);
+		while ((psi != null) && psi.hasNextString())
+			uploadResults.add(psi.getNextString());
+		boolean matchByPosition = (uploadResults.size() == uploadStrings.length);
+		
+		//	interleave failed name usages, in batch order
+		ArrayList results = new ArrayList(batch.length);
+		int us = 0;
+		int ur = 0;
+		for (int u = 0; u < batch.length; u++) {
+			if (parts[u] == null) {
+				String error = ((errors[u] == null) ? "Could not upload parts of name usage" : errors[u].getMessage());
+				results.add(new FailedPooledString(batch[u].nameString, error));
+				continue;
+			}
+			if (matchByPosition)
+				results.add(uploadResults.get(ur++));
+			else if ((ur < uploadResults.size()) && uploadStrings[us].stringPlain.equals(((PooledString) uploadResults.get(ur)).getStringPlain()))
+				results.add(uploadResults.get(ur++));
+			us++;
+		}
+		while (ur < uploadResults.size())
+			results.add(uploadResults.get(ur++));
+		return new ResultPooledStringIterator(results, ((psi == null) ? null : psi.getException()));
+	}
+	
+	private static class ResultPooledStringIterator implements PooledStringIterator {
+		private ArrayList strings;
+		private int next = 0;
+		private IOException exception;
+		ResultPooledStringIterator(ArrayList strings, IOException exception) {
+			this.strings = strings;
+			this.exception = exception;
+		}
+		public boolean hasNextString() {
+			return (this.next < this.strings.size());
+		}
+		public PooledString getNextString() {
+			return (this.hasNextString() ? ((PooledString) this.strings.get(this.next++)) : null);
+		}
+		public IOException getException() {
+			return this.exception;
+		}
+	}
+	
+	/* result for a name usage whose parts could not be uploaded, reporting
+	 * the error the same way as the parse error of a rejected string */
+	private static class FailedPooledString extends PooledString {
+		private String stringPlain;
+		private String parseError;
+		FailedPooledString(String stringPlain, String parseError) {
+			super("");
+			this.stringPlain = stringPlain;
+			this.parseError = parseError;
+		}
+		public String getStringPlain() {
+			return this.stringPlain;
+		}
+		public String getStringParsed() {
+			return null;
+		}
+		public String getParseChecksum() {
+			return null;
+		}
+		public String getCanonicalStringID() {
+			return this.id;
+		}
+		public String getParseError() {
+			return this.parseError;
+		}
+		public long getCreateTime() {
+			return -1;
+		}
+		public String getCreateDomain() {
+			return null;
+		}
+		public String getCreateUser() {
+			return null;
+		}
+		public long getUpdateTime() {
+			return -1;
+		}
+		public String getUpdateDomain() {
+			return null;
+		}
+		public String getUpdateUser() {
+			return null;
+		}
+		public long getNodeUpdateTime() {
+			return -1;
+		}
+		public boolean wasCreated() {
+			return false;
+		}
+		public boolean wasUpdated() {
+			return false;
+		}
+		public boolean isDeleted() {
+			return false;
+		}
+	}
+	
+	private Future submit(TimedUpload upload) {
+		if (this.uploadExecutor.isShutdown())
+			return new SynchronousFuture(upload);
+		else return this.uploadExecutor.submit(upload);
+	}
+	
+	private static Object getResult(Future future) throws IOException {
+		try {
+			return future.get();
+		}
+		catch (InterruptedException ie) {
+			throw new IOException("Interrupted while waiting for upload");
+		}
+		catch (ExecutionException ee) {
+			rethrow(ee.getCause());
+			return null; // not reached, rethrow() always throws
+		}
+	}
+	
+	private static void rethrow(Throwable t) throws IOException {
+		if (t instanceof IOException)
+			throw ((IOException) t);
+		else if (t instanceof RuntimeException)
+			throw ((RuntimeException) t);
+		else if (t instanceof Error)
+			throw ((Error) t);
+		else {
+			IOException ioe = new IOException(t.getMessage());
+			ioe.initCause(t);
+			throw ioe;
+		}
+	}
+	
+	private static abstract class TimedUpload implements Callable {
+		volatile long millis = 0;
+		public Object call() throws IOException {
+			long start = System.currentTimeMillis();
+			try {
+				return this.doUpload();
+			}
+			finally {
+				this.millis = (System.currentTimeMillis() - start);
+			}
+		}
+		abstract Object doUpload() throws IOException;
+	}
+	
+	private static class SynchronousFuture implements Future {
+		private Object result;
+		private Throwable error;
+		SynchronousFuture(Callable task) {
+			try {
+				this.result = task.call();
+			}
+			catch (Throwable t) {
+				this.error = t;
+			}
+		}
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+		public boolean isCancelled() {
+			return false;
+		}
+		public boolean isDone() {
+			return true;
+		}
+		public Object get() throws ExecutionException {
+			if (this.error == null)
+				return this.result;
+			throw new ExecutionException(this.error);
+		}
+		public Object get(long timeout, TimeUnit unit) throws ExecutionException {
+			return this.get();
+		}
+	}
+	
+	/**
+	 * The parts of a name usage, as returned from their respective string
+	 * pools, together with the time each upload took.
+	 * 
+	 * @author sautter
+	 */
+	public static class NameUsageParts {
+		
+		/** the name string, as returned from BinoBank */
+		public final PooledString nameString;
+		
+		/** the taxon name, as returned from TxnBank (null if none given) */
+		public final PooledString taxonName;
+		
+		/** the bibliographic reference, as returned from RefBank */
+		public final PooledString bibRef;
+		
+		/** the time the name string upload took (in milliseconds) */
+		public final long nameStringMillis;
+		
+		/** the time the taxon name upload took (in milliseconds) */
+		public final long taxonNameMillis;
+		
+		/** the time the bibliographic reference upload took (in milliseconds) */
+		public final long bibRefMillis;
+		
+		/** the time all three uploads took together (in milliseconds) */
+		public final long totalMillis;
+		
+		NameUsageParts(PooledString nameString, PooledString taxonName, PooledString bibRef, long nameStringMillis, long taxonNameMillis, long bibRefMillis, long totalMillis) {
+			this.nameString = nameString;
+			this.taxonName = taxonName;
+			this.bibRef = bibRef;
+			this.nameStringMillis = nameStringMillis;
+			this.taxonNameMillis = taxonNameMillis;
+			this.bibRefMillis = bibRefMillis;
+			this.totalMillis = totalMillis;
+		}
+		
+		/**
+		 * Render the latencies of the individual uploads, plus the one of
+		 * the upload of the name usage proper, for logging.
+		 * @param nameUsageMillis the time the name usage upload took
+		 * @return a string representation of the upload latencies
+		 */
+		public String getLatencyReport(long nameUsageMillis) {
+			return ("parts " + this.totalMillis + "ms (BinoBank " + this.nameStringMillis + "ms, TxnBank " + this.taxonNameMillis + "ms, RefBank " + this.bibRefMillis + "ms), name usage " + nameUsageMillis + "ms");
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/* TnuBank, the distributed platform for taxonomic name usages.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.tnuBank;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+
+import de.uka.ipd.idaho.onn.OnnConstants;
+
+/**
+ * Thread safe formatter for timestamps, producing the same output as
+ * <code>OnnConstants.TIMESTAMP_DATE_FORMAT</code>, i.e., dates like
+ * 'Tue, 03 Mar 2015 12:34:56 +0000'. Unlike the shared date format, this
+ * class neither synchronizes nor creates any Date or Calendar objects, but
+ * computes the fields arithmetically and writes the characters directly.
+ * 
+ * @author sautter
+ */
+public class TimestampFormatter {
+	private static final long MILLIS_PER_DAY = (24 * 60 * 60 * 1000);
+	private static final char[][] DAY_NAMES = {
+		"Thu".toCharArray(),
+		"Fri".toCharArray(),
+		"Sat".toCharArray(),
+		"Sun".toCharArray(),
+		"Mon".toCharArray(),
+		"Tue".toCharArray(),
+		"Wed".toCharArray(),
+	};
+	private static final char[][] MONTH_NAMES = {
+		"Jan".toCharArray(),
+		"Feb".toCharArray(),
+		"Mar".toCharArray(),
+		"Apr".toCharArray(),
+		"May".toCharArray(),
+		"Jun".toCharArray(),
+		"Jul".toCharArray(),
+		"Aug".toCharArray(),
+		"Sep".toCharArray(),
+		"Oct".toCharArray(),
+		"Nov".toCharArray(),
+		"Dec".toCharArray(),
+	};
+	
+	/** the length of a formatted timestamp */
+	public static final int TIMESTAMP_LENGTH = 31;
+	
+	private TimestampFormatter() {}
+	
+	/**
+	 * Format a timestamp.
+	 * @param time the timestamp to format (in milliseconds since 1970)
+	 * @return the formatted timestamp
+	 */
+	public static String format(long time) {
+		char[] timestamp = new char[TIMESTAMP_LENGTH];
+		if (format(time, timestamp))
+			return new String(timestamp);
+		else return formatFallback(time);
+	}
+	
+	/**
+	 * Write a formatted timestamp to a writer.
+	 * @param time the timestamp to format (in milliseconds since 1970)
+	 * @param out the writer to write to
+	 * @throws IOException
+	 */
+	public static void write(long time, Writer out) throws IOException {
+		char[] timestamp = new char[TIMESTAMP_LENGTH];
+		if (format(time, timestamp))
+			out.write(timestamp);
+		else out.write(formatFallback(time));
+	}
+	
+	private static String formatFallback(long time) {
+		synchronized (OnnConstants.TIMESTAMP_DATE_FORMAT) {
+			return OnnConstants.TIMESTAMP_DATE_FORMAT.format(new Date(time));
+		}
+	}
+	
+	private static boolean format(long time, char[] timestamp) {
+		long days = floorDiv(time, MILLIS_PER_DAY);
+		int millisOfDay = ((int) (time - (days * MILLIS_PER_DAY)));
+		
+		//	compute civil date from days since 1970 (algorithm by Howard Hinnant)
+		long z = (days + 719468);
+		long era = floorDiv(z, 146097);
+		int dayOfEra = ((int) (z - (era * 146097)));
+		int yearOfEra = ((dayOfEra - (dayOfEra / 1460) + (dayOfEra / 36524) - (dayOfEra / 146096)) / 365);
+		long year = (yearOfEra + (era * 400));
+		int dayOfYear = (dayOfEra - ((365 * yearOfEra) + (yearOfEra / 4) - (yearOfEra / 100)));
+		int mp = (((5 * dayOfYear) + 2) / 153);
+		int day = (dayOfYear - (((153 * mp) + 2) / 5) + 1);
+		int month = ((mp < 10) ? (mp + 3) : (mp - 9));
+		if (month <= 2)
+			year++;
+		
+		//	let date format handle anything outside four digit years, and the Julian calendar (before 1582, we play safe with 1600)
+		if ((year < 1600) || (year > 9999))
+			return false;
+		
+		//	write 'EEE, dd MMM yyyy HH:mm:ss Z'
+		int dayOfWeek = ((int) (((days % 7) + 7) % 7));
+		System.arraycopy(DAY_NAMES[dayOfWeek], 0, timestamp, 0, 3);
+		timestamp[3] = ',';
+		timestamp[4] = ' ';
+		writeDigits(day, timestamp, 5, 2);
+		timestamp[7] = ' ';
+		System.arraycopy(MONTH_NAMES[month - 1], 0, timestamp, 8, 3);
+		timestamp[11] = ' ';
+		writeDigits(((int) year), timestamp, 12, 4);
+		timestamp[16] = ' ';
+		int secondOfDay = (millisOfDay / 1000);
+		writeDigits((secondOfDay / 3600), timestamp, 17, 2);
+		timestamp[19] = ':';
+		writeDigits(((secondOfDay / 60) % 60), timestamp, 20, 2);
+		timestamp[22] = ':';
+		writeDigits((secondOfDay % 60), timestamp, 23, 2);
+		timestamp[25] = ' ';
+		timestamp[26] = '+';
+		timestamp[27] = '0';
+		timestamp[28] = '0';
+		timestamp[29] = '0';
+		timestamp[30] = '0';
+		return true;
+	}
+	
+	private static void writeDigits(int value, char[] chars, int offset, int length) {
+		for (int d = (offset + length - 1); d >= offset; d--) {
+			chars[d] = ((char) ('0' + (value % 10)));
+			value /= 10;
+		}
+	}
+	
+	private static long floorDiv(long x, long y) {
+		long q = (x / y);
+		if (((x % y) != 0) && ((x < 0) != (y < 0)))
+			q--;
+		return q;
+	}
+}
@@ -32,6 +32,113 @@ import de.uka.ipd.idaho.plugins.taxonomicNames.TaxonomicNameUtils.TaxonomicName;
  */
 public interface TnuBankClient extends StringPoolClient {
 	
+	/**
+	 * A single page of a paged name usage search result. After the page has
+	 * been iterated, it provides the continuation token for retrieving the
+	 * next page. Client code should treat the token as opaque.
+	 * 
+	 * @author sautter
+	 */
+	public static class NameUsagePage implements PooledStringIterator {
+		private PooledStringIterator nameUsages;
+		private int limit;
+		private int count = 0;
+		private String lastNameUsageId = null;
+		
+		/**
+		 * Constructor
+		 * @param nameUsages the name usages making up the page
+		 * @param limit the maximum number of name usages in the page
+		 */
+		public NameUsagePage(PooledStringIterator nameUsages, int limit) {
+			this.nameUsages = nameUsages;
+			this.limit = limit;
+		}
+		public boolean hasNextString() {
+			return this.nameUsages.hasNextString();
+		}
+		public PooledString getNextString() {
+			PooledString nameUsage = this.nameUsages.getNextString();
+			if (nameUsage != null) {
+				this.lastNameUsageId = nameUsage.id;
+				this.count++;
+			}
+			return nameUsage;
+		}
+		public IOException getException() {
+			return this.nameUsages.getException();
+		}
+		
+		/**
+		 * Retrieve the number of name usages retrieved from the page so far.
+		 * @return the number of name usages
+		 */
+		public int getCount() {
+			return this.count;
+		}
+		
+		/**
+		 * Retrieve the token for continuing the search with the next page.
+		 * This method only returns a meaningful result after the page has
+		 * been iterated to its end. If there are no further pages, this
+		 * method returns null.
+		 * @return the continuation token for the next page
+		 */
+		public String getContinuationToken() {
+			if (this.nameUsages.getException() != null)
+				return null;
+			if ((this.limit < 1) || (this.count < this.limit))
+				return null;
+			return this.lastNameUsageId;
+		}
+	}
+	
+	/**
+	 * A single name usage in a batch upload, consisting of verbatim name
+	 * string, fully qualified taxon name, and bibliographic reference, plus
+	 * usage type and page number.
+	 * 
+	 * @author sautter
+	 */
+	public static class NameUsageUpload {
+		
+		/** the verbatim name string */
+		public final String nameString;
+		
+		/** the fully qualified taxon name (may be null) */
+		public final TaxonomicName taxonName;
+		
+		/** the name usage type */
+		public final String nameUsageType;
+		
+		/** the name usage sub type, providing further detail */
+		public final String nameUsageSubType;
+		
+		/** the bibliographic reference */
+		public final RefData bibRef;
+		
+		/** the page number of the usage */
+		public final int pageNumber;
+		
+		/**
+		 * Constructor
+		 * @param nameString the verbatim name string
+		 * @param taxonName the fully qualified taxon name
+		 * @param nameUsageType the name usage type
+		 * @param nameUsageSubType the name usage sub type, providing further detail
+		 * @param bibRef the bibliographic reference
+		 * @param pageNumber the page number of the usage
+		 */
+		public NameUsageUpload(String nameString, TaxonomicName taxonName, String nameUsageType, String nameUsageSubType, RefData bibRef, int pageNumber) {
+			this.nameString = nameString;
+			this.taxonName = taxonName;
+			this.nameUsageType = nameUsageType;
+			this.nameUsageSubType = nameUsageSubType;
+			this.bibRef = bibRef;
+			this.pageNumber = pageNumber;
+		}
+	}
+	
 	/**
 	 * Retrieve a name usage by its ID. This method is also good for resolving
 	 * IDs.
@@ -86,6 +193,27 @@ public interface TnuBankClient extends StringPoolClient {
 	 */
 	public abstract PooledStringIterator findNameUsages(String user, String taxNameString, String taxName, String taxNameRank, String nameUsageType, String bibRef, int pageNumber, boolean concise, int limit, boolean expand);
 	
+	/**
+	 * Search for taxonomic name usages, using both full text and detail
+	 * predicates, retrieving the result page by page in a stable order. To
+	 * obtain the first page, specify an empty continuation token; to obtain
+	 * any subsequent page, specify the continuation token of the page before.
+	 * @param user the name of the user to contribute or last update the name
+	 *            usages
+	 * @param taxNameString query against verbatim taxon name
+	 * @param taxName query against fully qualified taxon name
+	 * @param taxNameRank query against the rank of taxon names
+	 * @param nameUsageType type of the name usage (also queries sub type)
+	 * @param bibRef query against the bibliographic reference
+	 * @param pageNumber page number of the name usage
+	 * @param concise obtain a concise result, i.e., without parses?
+	 * @param limit the maximum number of names to include in the page (0 means no limit)
+	 * @param continueAfter the continuation token of the previous page
+	 * @param expand expand parsed name usages to include human readable data?
+	 * @return a page of the references matching the query
+	 */
+	public abstract NameUsagePage findNameUsages(String user, String taxNameString, String taxName, String taxNameRank, String nameUsageType, String bibRef, int pageNumber, boolean concise, int limit, String continueAfter, boolean expand);
+	
 	/**
 	 * Search for taxonomic name usages, using both full text and detail
 	 * predicates.
@@ -121,6 +249,27 @@ public interface TnuBankClient extends StringPoolClient {
 	 */
 	public abstract PooledStringIterator findNameUsages(String user, String taxNameString, Properties taxNameEpithets, String nameUsageType, String author, int year, int pageNumber, boolean concise, int limit, boolean expand);
 	
+	/**
+	 * Search for taxonomic name usages, using both full text and detail
+	 * predicates, retrieving the result page by page in a stable order. To
+	 * obtain the first page, specify an empty continuation token; to obtain
+	 * any subsequent page, specify the continuation token of the page before.
+	 * @param user the name of the user to contribute or last update the name
+	 *            usages
+	 * @param taxNameString query against verbatim taxon name
+	 * @param taxNameEpithets a mapping of primary rank names to epithet specific queries 
+	 * @param nameUsageType type of the name usage (also queries sub type)
+	 * @param author query against the author of the bibliographic reference
+	 * @param year query against the year of the bibliographic reference
+	 * @param pageNumber page number of the name usage
+	 * @param concise obtain a concise result, i.e., without parses?
+	 * @param limit the maximum number of names to include in the page (0 means no limit)
+	 * @param continueAfter the continuation token of the previous page
+	 * @param expand expand parsed name usages to include human readable data?
+	 * @return a page of the references matching the query
+	 */
+	public abstract NameUsagePage findNameUsages(String user, String taxNameString, Properties taxNameEpithets, String nameUsageType, String author, int year, int pageNumber, boolean concise, int limit, String continueAfter, boolean expand);
+	
 	/**
 	 * Upload a taxon name usage. It is the responsibility of client code to
 	 * ensure that the argument identifiers (a) match and (b) resolve properly
@@ -152,4 +301,19 @@ public interface TnuBankClient extends StringPoolClient {
 	 * @throws IOException
 	 */
 	public abstract PooledString updateNameUsage(String nameString, TaxonomicName taxonName, String nameUsageType, String nameUsageSubType, RefData bibRef, int pageNumber, String user) throws IOException;
+	
+	/**
+	 * Upload a batch of taxon name usages. Name strings, taxon names, and
+	 * bibliographic references occurring in multiple name usages of the batch
+	 * are uploaded only once, and each of BinoBank, TxnBank, and RefBank
+	 * receives a single upload of all the distinct ones. Name usages whose
+	 * name string, taxon name, or bibliographic reference cannot be stored
+	 * are reported in their position in the batch, the same way as rejected
+	 * strings, i.e., with the error as the parse error and the name string
+	 * as the plain string.
+	 * @param batch the name usages to upload
+	 * @param user the name of the user contributing the name usages
+	 * @return an iterator over the uploaded taxon name usages
+	 */
+	public abstract PooledStringIterator updateNameUsages(NameUsageUpload[] batch, String user);
 }
\ No newline at end of file
@@ -17,6 +17,7 @@
  */
 package de.uka.ipd.idaho.tnuBank;
 
+import java.nio.CharBuffer;
 import java.util.Collections;
 import java.util.Map;
 import java.util.TreeMap;
@@ -53,6 +54,19 @@ public interface TnuBankConstants extends StringPoolConstants, TaxonomicNameCons
 	public static final String BIB_REF_YEAR_PARAMETER = "bibRefYear";
 	public static final String PAGE_NUMBER_PARAMETER = "pageNumber";
 	public static final String EXPAND_PARAMETER = "expand";
+	public static final String CONTINUE_AFTER_PARAMETER = "continueAfter";
+	
+	public static final String JSON_FORMAT = "json";
+	public static final String JSON_LINES_FORMAT = "jsonl";
+	
+	public static final String STATS_ACTION_NAME = "stats";
+	
+	public static final String NAME_STRING_ID_PROPERTY = "nameStringId";
+	public static final String TAXON_NAME_ID_PROPERTY = "taxonNameId";
+	public static final String NAME_USAGE_TYPE_PROPERTY = "nameUsageType";
+	public static final String NAME_USAGE_SUB_TYPE_PROPERTY = "nameUsageSubType";
+	public static final String BIB_REF_ID_PROPERTY = "bibRefId";
+	public static final String PAGE_NUMBER_PROPERTY = "pageNumber";
 	
 	public static final String GENERIC_NAME_USAGE_TYPE = "generic usage";
 	public static final String NOMENCLATURE_NAME_USAGE_TYPE = "nomenclature usage";
@@ -187,16 +201,33 @@ public interface TnuBankConstants extends StringPoolConstants, TaxonomicNameCons
 		 * @return the string representation
 		 */
 		public String toPlainString() {
-			StringBuffer plainString = new StringBuffer();
+			return this.appendPlainString(new StringBuffer(PLAIN_STRING_MAX_LENGTH)).toString();
+		}
+		
+		/**
+		 * Append the string representation of the TNU to a buffer. This method
+		 * facilitates re-using a single buffer for many TNUs.
+		 * @param plainString the buffer to append to
+		 * @return the argument buffer
+		 */
+		public StringBuffer appendPlainString(StringBuffer plainString) {
 			plainString.append(this.nameStringId);
-			if (this.taxonNameId != null)
-				plainString.append("(" + this.taxonNameId + ")");
-			plainString.append("-" + this.nameUsageTypeCode);
-			if (this.nameUsageSubTypeCode != null)
-				plainString.append("/" + this.nameUsageSubTypeCode);
-			plainString.append("@" + this.bibRefId);
-			plainString.append(":" + this.pageNumber);
-			return plainString.toString();
+			if (this.taxonNameId != null) {
+				plainString.append('(');
+				plainString.append(this.taxonNameId);
+				plainString.append(')');
+			}
+			plainString.append('-');
+			plainString.append(this.nameUsageTypeCode);
+			if (this.nameUsageSubTypeCode != null) {
+				plainString.append('/');
+				plainString.append(this.nameUsageSubTypeCode);
+			}
+			plainString.append('@');
+			plainString.append(this.bibRefId);
+			plainString.append(':');
+			plainString.append(this.pageNumber);
+			return plainString;
 		}
 		
 		/**
@@ -204,56 +235,155 @@ public interface TnuBankConstants extends StringPoolConstants, TaxonomicNameCons
 		 * @return the XML representation as a string
 		 */
 		public String toParsedString() {
-			StringBuffer parsedString = new StringBuffer("<taxonNameUsage xmlns:dwc=\"http://digir.net/schema/conceptual/darwin/2003/1.0\">");
-			parsedString.append("<dwc:scientificNameID>" + AnnotationUtils.escapeForXml(this.nameStringId) + "</dwc:scientificNameID>");
-			if (this.taxonNameId != null)
-				parsedString.append("<dwc:taxonID>" + AnnotationUtils.escapeForXml(this.taxonNameId) + "</dwc:taxonID>");
-			parsedString.append("<nameUsageType>" + this.nameUsageTypeCode + "</nameUsageType>");
-			if (this.nameUsageSubTypeCode != null)
-				parsedString.append("<nameUsageSubType>" + this.nameUsageSubTypeCode + "</nameUsageSubType>");
-			parsedString.append("<bibRefId>" + AnnotationUtils.escapeForXml(this.bibRefId) + "</bibRefId>");
-			parsedString.append("<pageNumber>" + this.pageNumber + "</pageNumber>");
+			return this.appendParsedString(new StringBuffer(PARSED_STRING_MAX_LENGTH)).toString();
+		}
+		
+		/**
+		 * Append the XML representation of the TNU to a buffer. This method
+		 * facilitates re-using a single buffer for many TNUs.
+		 * @param parsedString the buffer to append to
+		 * @return the argument buffer
+		 */
+		public StringBuffer appendParsedString(StringBuffer parsedString) {
+			parsedString.append("<taxonNameUsage xmlns:dwc=\"http://digir.net/schema/conceptual/darwin/2003/1.0\">");
+			parsedString.append("<dwc:scientificNameID>");
+			appendXmlEscaped(this.nameStringId, parsedString);
+			parsedString.append("</dwc:scientificNameID>");
+			if (this.taxonNameId != null) {
+				parsedString.append("<dwc:taxonID>");
+				appendXmlEscaped(this.taxonNameId, parsedString);
+				parsedString.append("</dwc:taxonID>");
+			}
+			parsedString.append("<nameUsageType>");
+			parsedString.append(this.nameUsageTypeCode);
+			parsedString.append("</nameUsageType>");
+			if (this.nameUsageSubTypeCode != null) {
+				parsedString.append("<nameUsageSubType>");
+				parsedString.append(this.nameUsageSubTypeCode);
+				parsedString.append("</nameUsageSubType>");
+			}
+			parsedString.append("<bibRefId>");
+			appendXmlEscaped(this.bibRefId, parsedString);
+			parsedString.append("</bibRefId>");
+			parsedString.append("<pageNumber>");
+			parsedString.append(this.pageNumber);
+			parsedString.append("</pageNumber>");
 			parsedString.append("</taxonNameUsage>");
-			return parsedString.toString();
+			return parsedString;
+		}
+		
+		/* IDs are HEX strings in all but pathological cases, so we can spare the escaper */
+		private static void appendXmlEscaped(String id, StringBuffer sb) {
+			for (int c = 0; c < id.length(); c++)
+				if (!isHex(id.charAt(c))) {
+					sb.append(AnnotationUtils.escapeForXml(id));
+					return;
+				}
+			sb.append(id);
 		}
 		
+		private static final int PLAIN_STRING_MAX_LENGTH = (32 + 1 + 32 + 1 + 1 + 2 + 1 + 2 + 1 + 32 + 1 + 5);
+		private static final int PARSED_STRING_MAX_LENGTH = 512;
+		
 		/**
 		 * Parse a TNU from its string representation.
 		 * @param tnuString the TNU to parse
 		 * @return the TNU parsed from the argument string
 		 */
 		public static TaxonNameUsage parseTaxonNameUsage(String tnuString) {
-			String nameStringId = tnuString;
-			if (nameStringId.indexOf('(') == -1)
-				nameStringId = nameStringId.substring(0, nameStringId.indexOf('-'));
-			else nameStringId = nameStringId.substring(0, nameStringId.indexOf('('));
-			tnuString = tnuString.substring(nameStringId.length() + "(".length());
-			String taxonNameId = null;
-			if (tnuString.indexOf(")-") != -1) {
-				taxonNameId = tnuString;
-				taxonNameId = taxonNameId.substring(0, taxonNameId.indexOf(")-"));
-				tnuString = tnuString.substring(taxonNameId.length() + ")-".length());
+			return parseTaxonNameUsage((CharSequence) tnuString);
+		}
+		
+		/**
+		 * Parse a TNU from its string representation, handed over as a section
+		 * of a char array.
+		 * @param tnuChars the char array holding the TNU to parse
+		 * @param offset the start offset of the TNU in the argument array
+		 * @param length the length of the TNU
+		 * @return the TNU parsed from the argument chars
+		 */
+		public static TaxonNameUsage parseTaxonNameUsage(char[] tnuChars, int offset, int length) {
+			return parseTaxonNameUsage(CharBuffer.wrap(tnuChars, offset, length));
+		}
+		
+		/**
+		 * Parse a TNU from its string representation. This method does a
+		 * single pass over the argument sequence, extracting only the
+		 * individual IDs and codes.
+		 * @param tnuString the TNU to parse
+		 * @return the TNU parsed from the argument string
+		 */
+		public static TaxonNameUsage parseTaxonNameUsage(CharSequence tnuString) {
+			int length = tnuString.length();
+			
+			//	find separators
+			int taxonNameStart = -1;
+			int taxonNameEnd = -1;
+			int typeStart = -1;
+			int subTypeStart = -1;
+			int bibRefStart = -1;
+			int pageNumberStart = -1;
+			for (int c = 0; c < length; c++) {
+				char ch = tnuString.charAt(c);
+				if (ch == '(') {
+					if ((taxonNameStart == -1) && (typeStart == -1))
+						taxonNameStart = (c+1);
+				}
+				else if (ch == ')') {
+					if ((taxonNameStart != -1) && (taxonNameEnd == -1) && ((c+1) < length) && (tnuString.charAt(c+1) == '-'))
+						taxonNameEnd = c;
+				}
+				else if (ch == '-') {
+					if ((typeStart == -1) && ((taxonNameStart == -1) || (taxonNameEnd != -1)))
+						typeStart = (c+1);
+				}
+				else if (ch == '/') {
+					if ((typeStart != -1) && (subTypeStart == -1) && (bibRefStart == -1))
+						subTypeStart = (c+1);
+				}
+				else if (ch == '@') {
+					if ((typeStart != -1) && (bibRefStart == -1))
+						bibRefStart = (c+1);
+				}
+				else if (ch == ':') {
+					if ((bibRefStart != -1) && (pageNumberStart == -1))
+						pageNumberStart = (c+1);
+				}
 			}
-			String nameUsageType = tnuString;
-			String nameUsageSubType;
-			if (nameUsageType.indexOf('/') == -1) {
-				nameUsageType = nameUsageType.substring(0, nameUsageType.indexOf('@'));
-				nameUsageSubType = null;
-				tnuString = tnuString.substring(nameUsageType.length() + "@".length());
+			if ((typeStart == -1) || (bibRefStart == -1) || (pageNumberStart == -1) || ((taxonNameStart != -1) && (taxonNameEnd == -1)))
+				throw new IllegalArgumentException("'" + tnuString + "' is not a valid taxon name usage");
+			
+			//	extract parts
+			String nameStringId = tnuString.subSequence(0, ((taxonNameStart == -1) ? (typeStart - 1) : (taxonNameStart - 1))).toString();
+			String taxonNameId = ((taxonNameStart == -1) ? null : tnuString.subSequence(taxonNameStart, taxonNameEnd).toString());
+			String nameUsageType = getCode(tnuString, typeStart, ((subTypeStart == -1) ? (bibRefStart - 1) : (subTypeStart - 1)));
+			String nameUsageSubType = ((subTypeStart == -1) ? null : getCode(tnuString, subTypeStart, (bibRefStart - 1)));
+			String bibRefId = tnuString.subSequence(bibRefStart, (pageNumberStart - 1)).toString();
+			int pageNumber = 0;
+			for (int c = pageNumberStart; c < length; c++) {
+				char ch = tnuString.charAt(c);
+				if ((ch < '0') || ('9' < ch) || (pageNumber > (Integer.MAX_VALUE / 10)))
+					throw new NumberFormatException("For input string: \"" + tnuString.subSequence(pageNumberStart, length) + "\"");
+				pageNumber = ((pageNumber * 10) + (ch - '0'));
 			}
-			else {
-				nameUsageType = nameUsageType.substring(0, nameUsageType.indexOf('/'));
-				tnuString = tnuString.substring(nameUsageType.length() + "/".length());
-				nameUsageSubType = tnuString;
-				nameUsageSubType = nameUsageSubType.substring(0, nameUsageSubType.indexOf('@'));
-				tnuString = tnuString.substring(nameUsageSubType.length() + "@".length());
+			if (pageNumberStart == length)
+				throw new NumberFormatException("For input string: \"\"");
+			return new TaxonNameUsage(nameStringId, taxonNameId, nameUsageType, nameUsageSubType, bibRefId, pageNumber);
+		}
+		
+		/* codes are two letter constants in all but pathological cases, so we can use a shared instance */
+		private static String getCode(CharSequence tnuString, int start, int end) {
+			if ((end - start) == 2) {
+				char c1 = tnuString.charAt(start);
+				char c2 = tnuString.charAt(start + 1);
+				for (int t = 0; t < NAME_USAGE_CODES.length; t++) {
+					if ((NAME_USAGE_CODES[t].charAt(0) == c1) && (NAME_USAGE_CODES[t].charAt(1) == c2))
+						return NAME_USAGE_CODES[t];
+				}
 			}
-			String bibRefId = tnuString;
-			bibRefId = bibRefId.substring(0, bibRefId.indexOf(':'));
-			tnuString = tnuString.substring(bibRefId.length() + ":".length());
-			String pageNumber = tnuString;
-			return new TaxonNameUsage(nameStringId, taxonNameId, nameUsageType, nameUsageSubType, bibRefId, Integer.parseInt(pageNumber));
+			return tnuString.subSequence(start, end).toString();
 		}
+		private static final String[] NAME_USAGE_CODES = {"GU", "NU", "OU", "NS", "OD", "RD", "DD", "CD", "CI", "KR", "KL", "SS", "JS", "NC"};
 		
 		/**
 		 * Parse a TNU from its XML representation.
@@ -284,20 +414,123 @@ public interface TnuBankConstants extends StringPoolConstants, TaxonomicNameCons
 		 * @return true if the argument string is valid, false otherwise
 		 */
 		public static boolean isValid(String tnuString) {
-			return (tnuString.matches(
-						"[0-9a-fA-F]{32}" +
-						"\\([0-9a-fA-F]{32}\\)" +
-						"\\-(GU|NU|OU)" +
-						"(\\/(OD|RD|DD|CD|CI|KR|KL|SS|JS|NC))?" +
-						"\\@[0-9a-fA-F]{32}" +
-						"\\:[1-9][0-9]{0,4}"
-					) || tnuString.matches(
-						"[0-9a-fA-F]{32}" +
-						"\\-NU" +
-						"(\\/NS)?" +
-						"\\@[0-9a-fA-F]{32}" +
-						"\\:[1-9][0-9]{0,4}"
-					));
+			return isValid((CharSequence) tnuString);
+		}
+		
+		/**
+		 * Test if a TNU string is valid, i.e., has the required form. The
+		 * string is handed over as a section of a char array.
+		 * @param tnuChars the char array holding the string to test
+		 * @param offset the start offset of the string in the argument array
+		 * @param length the length of the string
+		 * @return true if the argument string is valid, false otherwise
+		 */
+		public static boolean isValid(char[] tnuChars, int offset, int length) {
+			return isValid(CharBuffer.wrap(tnuChars, offset, length));
+		}
+		
+		/**
+		 * Test if a TNU string is valid, i.e., has the required form. There
+		 * are two forms, one for usages of names resolved to a taxon name:<br>
+		 * <code>nameStringId(taxonNameId)-TT/SS@bibRefId:pageNumber</code><br>
+		 * with TT being GU, NU, or OU, and the optional sub type SS being one
+		 * of OD, RD, DD, CD, CI, KR, KL, SS, JS, and NC, and one for usages of
+		 * mere name strings:<br>
+		 * <code>nameStringId-NU/NS@bibRefId:pageNumber</code><br>
+		 * with the sub type being optional. IDs consist of 32 HEX digits, and
+		 * page numbers are positive integers with at most 5 digits.
+		 * @param tnuString the string to test
+		 * @return true if the argument string is valid, false otherwise
+		 */
+		public static boolean isValid(CharSequence tnuString) {
+			int length = tnuString.length();
+			
+			//	name string ID
+			if (!isHexId(tnuString, 0))
+				return false;
+			int pos = 32;
+			if (pos >= length)
+				return false;
+			
+			//	resolved name usage
+			if (tnuString.charAt(pos) == '(') {
+				if (!isHexId(tnuString, (pos+1)))
+					return false;
+				pos += 33;
+				if (((pos + 4) > length) || (tnuString.charAt(pos++) != ')') || (tnuString.charAt(pos++) != '-'))
+					return false;
+				char t1 = tnuString.charAt(pos++);
+				char t2 = tnuString.charAt(pos++);
+				if ((t2 != 'U') || ((t1 != 'G') && (t1 != 'N') && (t1 != 'O')))
+					return false;
+				if ((pos < length) && (tnuString.charAt(pos) == '/')) {
+					if ((pos + 3) > length)
+						return false;
+					if (!isSubTypeCode(tnuString.charAt(pos+1), tnuString.charAt(pos+2)))
+						return false;
+					pos += 3;
+				}
+			}
+			
+			//	name string usage
+			else {
+				if (((pos + 3) > length) || (tnuString.charAt(pos++) != '-') || (tnuString.charAt(pos++) != 'N') || (tnuString.charAt(pos++) != 'U'))
+					return false;
+				if ((pos < length) && (tnuString.charAt(pos) == '/')) {
+					if (((pos + 3) > length) || (tnuString.charAt(pos+1) != 'N') || (tnuString.charAt(pos+2) != 'S'))
+						return false;
+					pos += 3;
+				}
+			}
+			
+			//	bibliographic reference ID
+			if ((pos >= length) || (tnuString.charAt(pos++) != '@'))
+				return false;
+			if (!isHexId(tnuString, pos))
+				return false;
+			pos += 32;
+			
+			//	page number
+			if ((pos >= length) || (tnuString.charAt(pos++) != ':'))
+				return false;
+			int pageNumberLength = (length - pos);
+			if ((pageNumberLength < 1) || (pageNumberLength > 5))
+				return false;
+			if ((tnuString.charAt(pos) < '1') || ('9' < tnuString.charAt(pos)))
+				return false;
+			for (pos++; pos < length; pos++) {
+				if ((tnuString.charAt(pos) < '0') || ('9' < tnuString.charAt(pos)))
+					return false;
+			}
+			return true;
+		}
+		
+		private static boolean isHexId(CharSequence tnuString, int start) {
+			if ((start + 32) > tnuString.length())
+				return false;
+			for (int c = start; c < (start + 32); c++) {
+				if (!isHex(tnuString.charAt(c)))
+					return false;
+			}
+			return true;
+		}
+		
+		private static boolean isHex(char ch) {
+			return ((('0' <= ch) && (ch <= '9')) || (('a' <= ch) && (ch <= 'f')) || (('A' <= ch) && (ch <= 'F')));
+		}
+		
+		private static boolean isSubTypeCode(char c1, char c2) {
+			switch (c1) {
+				case 'O': return (c2 == 'D');
+				case 'R': return (c2 == 'D');
+				case 'D': return (c2 == 'D');
+				case 'C': return ((c2 == 'D') || (c2 == 'I'));
+				case 'K': return ((c2 == 'R') || (c2 == 'L'));
+				case 'S': return (c2 == 'S');
+				case 'J': return (c2 == 'S');
+				case 'N': return (c2 == 'C');
+				default: return false;
+			}
 		}
 	}
 	
@@ -17,11 +17,20 @@
  */
 package de.uka.ipd.idaho.tnuBank;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Properties;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import de.uka.ipd.idaho.binoBank.BinoBankRestClient;
 import de.uka.ipd.idaho.gamta.util.SgmlDocumentReader;
@@ -30,6 +39,10 @@ import de.uka.ipd.idaho.plugins.bibRefs.BibRefUtils;
 import de.uka.ipd.idaho.plugins.bibRefs.BibRefUtils.RefData;
 import de.uka.ipd.idaho.plugins.taxonomicNames.TaxonomicNameUtils.TaxonomicName;
 import de.uka.ipd.idaho.refBank.RefBankRestClient;
+import de.uka.ipd.idaho.tnuBank.NameUsagePartUploader.NameUsageParts;
+import de.uka.ipd.idaho.txnBank.HttpCompression;
+import de.uka.ipd.idaho.txnBank.PooledStringJsonReader;
+import de.uka.ipd.idaho.txnBank.PooledStringUploader;
 import de.uka.ipd.idaho.txnBank.TxnBankRestClient;
 
 /**
@@ -78,6 +91,12 @@ public class TnuBankRestClient extends StringPoolRestClient implements TnuBankCo
 	private RefBankRestClient rbk;
 	private BinoBankRestClient bbk;
 	private TxnBankRestClient txn;
+	private NameUsagePartUploader partUploader;
+	private boolean reportUploadLatency = false;
+	private String baseUrl;
+	private PooledStringUploader uploader;
+	private boolean useJsonLines = false;
+	private ValidatorCache validatorCache = createValidatorCache(DEFAULT_VALIDATOR_CACHE_SIZE, DEFAULT_VALIDATOR_CACHE_BYTES);
 	
 	/**
 	 * Constructor
@@ -85,10 +104,13 @@ public class TnuBankRestClient extends StringPoolRestClient implements TnuBankCo
 	 */
 	public TnuBankRestClient(String baseUrl) {
 		super(baseUrl);
+		this.baseUrl = baseUrl;
+		this.uploader = new PooledStringUploader(baseUrl, this);
 		baseUrl = baseUrl.substring(0, baseUrl.lastIndexOf('/'));
 		this.bbk = new BinoBankRestClient(baseUrl + "/bbk");
 		this.txn = new TxnBankRestClient(baseUrl + "/txn");
 		this.rbk = new RefBankRestClient(baseUrl + "/rbk");
+		this.partUploader = new NameUsagePartUploader(this.bbk, this.txn, this.rbk, getPartUploadExecutor());
 	}
 	
 	/**
@@ -100,9 +122,270 @@ public class TnuBankRestClient extends StringPoolRestClient implements TnuBankCo
 	 */
 	public TnuBankRestClient(String baseUrl, String bbkBaseUrl, String txnBaseUrl, String rbkBaseUrl) {
 		super(baseUrl);
+		this.baseUrl = baseUrl;
+		this.uploader = new PooledStringUploader(baseUrl, this);
 		this.bbk = new BinoBankRestClient(bbkBaseUrl);
 		this.txn = new TxnBankRestClient(txnBaseUrl);
 		this.rbk = new RefBankRestClient(rbkBaseUrl);
+		this.partUploader = new NameUsagePartUploader(this.bbk, this.txn, this.rbk, getPartUploadExecutor());
+	}
+	
+	private static final int PART_UPLOAD_THREADS = 6;
+	
+	/* shared by all client instances, so the number of upload threads stays
+	 * bounded no matter how many clients an application creates */
+	private static ThreadPoolExecutor partUploadExecutor = null;
+	
+	private static synchronized ThreadPoolExecutor getPartUploadExecutor() {
+		if (partUploadExecutor == null)
+			partUploadExecutor = NameUsagePartUploader.createUploadExecutor(PART_UPLOAD_THREADS, "TnuBankRestClientPartUploader");
+		return partUploadExecutor;
+	}
+	
+	/**
+	 * Switch reporting of upload latencies on or off. If switched on, the
+	 * client writes the times the individual uploads of a composite name usage
+	 * update took to System.out.
+	 * @param reportUploadLatency report latencies?
+	 */
+	public void setReportUploadLatency(boolean reportUploadLatency) {
+		this.reportUploadLatency = reportUploadLatency;
+	}
+	
+	/**
+	 * Switch retrieval of name usages in JSON Lines format on or off. If
+	 * switched on, the client has the server send name usages as JSON Lines
+	 * rather than XML, and reads them as they come in. The name usages
+	 * returned in that mode are <code>JsonPooledString</code>s, whose
+	 * <code>getProperty()</code> method provides the components of the name
+	 * usages. The parsed versions are only included for expanded name usages,
+	 * as the unexpanded ones carry no information beyond the plain strings.
+	 * Concise searches always use XML.
+	 * @param useJsonLines retrieve name usages as JSON Lines?
+	 */
+	public void setUseJsonLines(boolean useJsonLines) {
+		this.useJsonLines = useJsonLines;
+	}
+	
+	/**
+	 * Switch compression of larger name usage uploads on or off. Only switch
+	 * this on if the TnuBank node can decompress request bodies. If the node
+	 * rejects a compressed upload, the client falls back to uncompressed
+	 * uploads. By default, uploads are not compressed. This setting does not
+	 * affect the uploads of name usage parts to other nodes.
+	 * @param compressUploads compress larger uploads?
+	 */
+	public void setCompressUploads(boolean compressUploads) {
+		this.uploader.setCompress(compressUploads);
+	}
+	
+	private static final int DEFAULT_VALIDATOR_CACHE_SIZE = 1024;
+	private static final long DEFAULT_VALIDATOR_CACHE_BYTES = (16 * 1024 * 1024);
+	
+	/**
+	 * Set the size of the validator cache, i.e., the maximum number of ID
+	 * based name usage requests whose results the client keeps around, along
+	 * with the ETag and Last-Modified headers that came with them. When the
+	 * same request is repeated, the client only asks the server whether the
+	 * result has changed, and re-uses the cached result if it has not. Setting
+	 * the size to 0 or less deactivates the cache. The default size is 1024.
+	 * Changing the size clears the cache.
+	 * @param validatorCacheSize the maximum number of cached results
+	 */
+	public void setValidatorCacheSize(int validatorCacheSize) {
+		this.validatorCache = createValidatorCache(validatorCacheSize, ((this.validatorCache == null) ? DEFAULT_VALIDATOR_CACHE_BYTES : this.validatorCache.maxBytes));
+	}
+	
+	/**
+	 * Set the memory bound of the validator cache, i.e., the (approximate)
+	 * maximum number of bytes the cached results may occupy in total. A single
+	 * result larger than a sixteenth of this bound is never cached, so one
+	 * large batch cannot push out everything else. Setting the bound to 0 or
+	 * less deactivates the cache. The default bound is 16 MB. Changing the
+	 * bound clears the cache.
+	 * @param validatorCacheBytes the maximum number of bytes of cached results
+	 */
+	public void setValidatorCacheBytes(long validatorCacheBytes) {
+		this.validatorCache = createValidatorCache(((this.validatorCache == null) ? DEFAULT_VALIDATOR_CACHE_SIZE : this.validatorCache.maxEntries), validatorCacheBytes);
+	}
+	
+	private static ValidatorCache createValidatorCache(int maxEntries, long maxBytes) {
+		if ((maxEntries <= 0) || (maxBytes <= 0))
+			return null;
+		return new ValidatorCache(maxEntries, maxBytes);
+	}
+	
+	/* LRU cache of validated results, bounded in both entries and bytes */
+	private static class ValidatorCache {
+		final int maxEntries;
+		final long maxBytes;
+		private long bytes = 0;
+		private LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+		ValidatorCache(int maxEntries, long maxBytes) {
+			this.maxEntries = maxEntries;
+			this.maxBytes = maxBytes;
+		}
+		long getMaxEntryBytes() {
+			return (this.maxBytes / 16);
+		}
+		synchronized ValidatedNameUsages get(String key) {
+			return ((ValidatedNameUsages) this.entries.get(key));
+		}
+		synchronized void put(String key, ValidatedNameUsages vnu) {
+			this.remove(key);
+			if (vnu.bytes > this.getMaxEntryBytes())
+				return;
+			this.entries.put(key, vnu);
+			this.bytes += vnu.bytes;
+			for (Iterator eit = this.entries.values().iterator(); eit.hasNext() && ((this.entries.size() > this.maxEntries) || (this.bytes > this.maxBytes));) {
+				this.bytes -= ((ValidatedNameUsages) eit.next()).bytes;
+				eit.remove();
+			}
+		}
+		synchronized void remove(String key) {
+			ValidatedNameUsages vnu = ((ValidatedNameUsages) this.entries.remove(key));
+			if (vnu != null)
+				this.bytes -= vnu.bytes;
+		}
+	}
+	
+	private static class ValidatedNameUsages {
+		final String entityTag;
+		final long lastModified;
+		final ArrayList nameUsages;
+		final long bytes;
+		ValidatedNameUsages(String entityTag, long lastModified, ArrayList nameUsages, long bytes) {
+			this.entityTag = entityTag;
+			this.lastModified = lastModified;
+			this.nameUsages = nameUsages;
+			this.bytes = bytes;
+		}
+	}
+	
+	/* rough estimate of the heap a name usage occupies (two bytes per char, plus object overhead) */
+	private static long getBytes(PooledString nameUsage) {
+		long bytes = 128;
+		if (nameUsage.getStringPlain() != null)
+			bytes += (nameUsage.getStringPlain().length() * 2);
+		if (nameUsage.getStringParsed() != null)
+			bytes += (nameUsage.getStringParsed().length() * 2);
+		return bytes;
+	}
+	
+	/* iterator over a buffered head of a result, followed by the rest of it */
+	private static class BufferedHeadPooledStringIterator implements PooledStringIterator {
+		private ArrayList head;
+		private PooledStringIterator tail;
+		BufferedHeadPooledStringIterator(ArrayList head, PooledStringIterator tail) {
+			this.head = head;
+			this.tail = tail;
+		}
+		public boolean hasNextString() {
+			return (!this.head.isEmpty() || this.tail.hasNextString());
+		}
+		public PooledString getNextString() {
+			return (this.head.isEmpty() ? this.tail.getNextString() : ((PooledString) this.head.remove(0)));
+		}
+		public IOException getException() {
+			return (this.head.isEmpty() ? this.tail.getException() : null);
+		}
+	}
+	
+	private static class ListPooledStringIterator implements PooledStringIterator {
+		private ArrayList strings;
+		private int next = 0;
+		private IOException exception;
+		ListPooledStringIterator(ArrayList strings, IOException exception) {
+			this.strings = strings;
+			this.exception = exception;
+		}
+		public boolean hasNextString() {
+			return (this.next < this.strings.size());
+		}
+		public PooledString getNextString() {
+			return (this.hasNextString() ? ((PooledString) this.strings.get(this.next++)) : null);
+		}
+		public IOException getException() {
+			return (this.hasNextString() ? null : this.exception);
+		}
+	}
+	
+	/* Retrieve the name usages for an ID based request, revalidating a cached
+	 * result against the server rather than re-fetching it whenever possible */
+	private PooledStringIterator receiveValidatedStrings(String urlQueryString) throws IOException {
+		ValidatorCache validatorCache = this.validatorCache;
+		if (validatorCache == null)
+			return this.receiveStrings(urlQueryString);
+		
+		//	ask server if cached result is still current
+		ValidatedNameUsages cached = validatorCache.get(urlQueryString);
+		HttpURLConnection con = ((HttpURLConnection) new URL(this.baseUrl + "?" + urlQueryString).openConnection());
+		HttpCompression.acceptCompressed(con);
+		if (cached != null) {
+			if (cached.entityTag != null)
+				con.setRequestProperty("If-None-Match", cached.entityTag);
+			else if (cached.lastModified > 0)
+				con.setIfModifiedSince(cached.lastModified);
+		}
+		if ((cached != null) && (con.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+			con.disconnect();
+			return new ListPooledStringIterator(cached.nameUsages, null);
+		}
+		
+		//	nothing to revalidate fresh result with, simply stream it
+		String entityTag = con.getHeaderField("ETag");
+		long lastModified = con.getLastModified();
+		PooledStringIterator nameUsageIt = this.receiveStrings(urlQueryString, HttpCompression.getInputStream(con));
+		validatorCache.remove(urlQueryString);
+		if ((entityTag == null) && (lastModified <= 0))
+			return nameUsageIt;
+		
+		//	buffer fresh result, but stop buffering and stream the rest if it gets too large to cache
+		ArrayList nameUsages = new ArrayList();
+		long bytes = 0;
+		long maxBytes = validatorCache.getMaxEntryBytes();
+		while (nameUsageIt.hasNextString()) {
+			PooledString nameUsage = nameUsageIt.getNextString();
+			nameUsages.add(nameUsage);
+			bytes += getBytes(nameUsage);
+			if (bytes > maxBytes)
+				return new BufferedHeadPooledStringIterator(nameUsages, nameUsageIt);
+		}
+		
+		//	cache complete result
+		if (nameUsageIt.getException() == null)
+			validatorCache.put(urlQueryString, new ValidatedNameUsages(entityTag, lastModified, nameUsages, bytes));
+		return new ListPooledStringIterator(nameUsages, nameUsageIt.getException());
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolRestClient#receiveStrings(java.lang.String)
+	 */
+	protected PooledStringIterator receiveStrings(String urlQueryString) throws IOException {
+		URLConnection con = new URL(this.baseUrl + "?" + urlQueryString).openConnection();
+		HttpCompression.acceptCompressed(con);
+		return this.receiveStrings(urlQueryString, HttpCompression.getInputStream(con));
+	}
+	private PooledStringIterator receiveStrings(String urlQueryString, InputStream in) throws IOException {
+		BufferedReader br = new BufferedReader(new InputStreamReader(in, ENCODING));
+		if (urlQueryString.indexOf("&" + FORMAT_PARAMETER + "=" + JSON_LINES_FORMAT) == -1)
+			return this.receiveStrings(br);
+		else return new PooledStringJsonReader(br);
+	}
+	
+	/**
+	 * This implementation overwrites the original one from the super class to
+	 * compress larger request bodies if switched on via
+	 * <code>setCompressUploads()</code>, and to accept compressed responses.
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolRestClient#updateStrings(de.uka.ipd.idaho.onn.stringPool.StringPoolClient.UploadString[], java.lang.String)
+	 */
+	public PooledStringIterator updateStrings(UploadString[] strings, String user) {
+		try {
+			return this.receiveStrings(this.uploader.upload(strings, user));
+		}
+		catch (IOException ioe) {
+			return new ExceptionPSI(ioe);
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -127,7 +410,9 @@ public class TnuBankRestClient extends StringPoolRestClient implements TnuBankCo
 			StringBuffer nameUsageIdString = new StringBuffer();
 			for (int i = 0; i < nameUsageIds.length; i++)
 				nameUsageIdString.append("&" + STRING_ID_ATTRIBUTE + "=" + URLEncoder.encode(nameUsageIds[i], ENCODING));
-			return this.receiveStrings(ACTION_PARAMETER + "=" + GET_ACTION_NAME + (expand ? ("&" + EXPAND_PARAMETER + "=" + EXPAND_PARAMETER) : "") + nameUsageIdString.toString());
+			if (this.useJsonLines)
+				nameUsageIdString.append("&" + FORMAT_PARAMETER + "=" + JSON_LINES_FORMAT);
+			return this.receiveValidatedStrings(ACTION_PARAMETER + "=" + GET_ACTION_NAME + (expand ? ("&" + EXPAND_PARAMETER + "=" + EXPAND_PARAMETER) : "") + nameUsageIdString.toString());
 		}
 		catch (IOException ioe) {
 			return new ExceptionPSI(ioe);
@@ -145,6 +430,43 @@ public class TnuBankRestClient extends StringPoolRestClient implements TnuBankCo
 	 * @see de.uka.ipd.idaho.tnuBank.TnuBankClient#findNameUsages(java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, int, boolean, int, boolean)
 	 */
 	public PooledStringIterator findNameUsages(String user, String taxNameString, String taxName, String taxNameRank, String nameUsageType, String bibRef, int pageNumber, boolean concise, int limit, boolean expand) {
+		return this.findNameUsages(user, taxNameString, taxName, taxNameRank, nameUsageType, bibRef, pageNumber, concise, limit, expand, null);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.tnuBank.TnuBankClient#findNameUsages(java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, int, boolean, int, java.lang.String, boolean)
+	 */
+	public NameUsagePage findNameUsages(String user, String taxNameString, String taxName, String taxNameRank, String nameUsageType, String bibRef, int pageNumber, boolean concise, int limit, String continueAfter, boolean expand) {
+		return new NameUsagePage(this.findNameUsages(user, taxNameString, taxName, taxNameRank, nameUsageType, bibRef, pageNumber, concise, limit, expand, ((continueAfter == null) ? "" : continueAfter)), limit);
+	}
+	
+	/**
+	 * Search for taxonomic name usages, using both full text and detail
+	 * predicates, retrieving the result in pages of the specified size. The
+	 * returned iterator fetches the pages one by one as they are needed, so
+	 * neither this client nor the server ever holds the complete result.
+	 * @param user the name of the user to contribute or last update the name
+	 *            usages
+	 * @param taxNameString query against verbatim taxon name
+	 * @param taxName query against fully qualified taxon name
+	 * @param taxNameRank query against the rank of taxon names
+	 * @param nameUsageType type of the name usage (also queries sub type)
+	 * @param bibRef query against the bibliographic reference
+	 * @param pageNumber page number of the name usage
+	 * @param concise obtain a concise result, i.e., without parses?
+	 * @param pageSize the number of name usages to fetch per request
+	 * @param expand expand parsed name usages to include human readable data?
+	 * @return an iterator over the references matching the query
+	 */
+	public PooledStringIterator findAllNameUsages(final String user, final String taxNameString, final String taxName, final String taxNameRank, final String nameUsageType, final String bibRef, final int pageNumber, final boolean concise, final int pageSize, final boolean expand) {
+		return new PagingPooledStringIterator() {
+			NameUsagePage getPage(String continueAfter) {
+				return findNameUsages(user, taxNameString, taxName, taxNameRank, nameUsageType, bibRef, pageNumber, concise, pageSize, continueAfter, expand);
+			}
+		};
+	}
+	
+	private PooledStringIterator findNameUsages(String user, String taxNameString, String taxName, String taxNameRank, String nameUsageType, String bibRef, int pageNumber, boolean concise, int limit, boolean expand, String continueAfter) {
 		try {
 			StringBuffer detailPredicates = new StringBuffer();
 			if (taxNameString != null)
@@ -161,6 +483,10 @@ public class TnuBankRestClient extends StringPoolRestClient implements TnuBankCo
 				detailPredicates.append("&" + PAGE_NUMBER_PARAMETER + "=" + pageNumber);
 			if (expand)
 				detailPredicates.append("&" + EXPAND_PARAMETER + "=" + EXPAND_PARAMETER);
+			if (continueAfter != null)
+				detailPredicates.append("&" + CONTINUE_AFTER_PARAMETER + "=" + URLEncoder.encode(continueAfter, ENCODING));
+			if (this.useJsonLines && !concise)
+				detailPredicates.append("&" + FORMAT_PARAMETER + "=" + JSON_LINES_FORMAT);
 			return this.findStrings(null, false, null, user, concise, limit, false, detailPredicates.toString());
 		}
 		catch (IOException ioe) {
@@ -179,6 +505,76 @@ public class TnuBankRestClient extends StringPoolRestClient implements TnuBankCo
 	 * @see de.uka.ipd.idaho.tnuBank.TnuBankClient#findNameUsages(java.lang.String, java.lang.String, java.util.Properties, java.lang.String, java.lang.String, int, int, boolean, int, boolean)
 	 */
 	public PooledStringIterator findNameUsages(String user, String taxNameString, Properties taxNameEpithets, String nameUsageType, String author, int year, int pageNumber, boolean concise, int limit, boolean expand) {
+		return this.findNameUsages(user, taxNameString, taxNameEpithets, nameUsageType, author, year, pageNumber, concise, limit, expand, null);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.tnuBank.TnuBankClient#findNameUsages(java.lang.String, java.lang.String, java.util.Properties, java.lang.String, java.lang.String, int, int, boolean, int, java.lang.String, boolean)
+	 */
+	public NameUsagePage findNameUsages(String user, String taxNameString, Properties taxNameEpithets, String nameUsageType, String author, int year, int pageNumber, boolean concise, int limit, String continueAfter, boolean expand) {
+		return new NameUsagePage(this.findNameUsages(user, taxNameString, taxNameEpithets, nameUsageType, author, year, pageNumber, concise, limit, expand, ((continueAfter == null) ? "" : continueAfter)), limit);
+	}
+	
+	/**
+	 * Search for taxonomic name usages, using both full text and detail
+	 * predicates, retrieving the result in pages of the specified size. The
+	 * returned iterator fetches the pages one by one as they are needed, so
+	 * neither this client nor the server ever holds the complete result.
+	 * @param user the name of the user to contribute or last update the name
+	 *            usages
+	 * @param taxNameString query against verbatim taxon name
+	 * @param taxNameEpithets a mapping of primary rank names to epithet specific queries 
+	 * @param nameUsageType type of the name usage (also queries sub type)
+	 * @param author query against the author of the bibliographic reference
+	 * @param year query against the year of the bibliographic reference
+	 * @param pageNumber page number of the name usage
+	 * @param concise obtain a concise result, i.e., without parses?
+	 * @param pageSize the number of name usages to fetch per request
+	 * @param expand expand parsed name usages to include human readable data?
+	 * @return an iterator over the references matching the query
+	 */
+	public PooledStringIterator findAllNameUsages(final String user, final String taxNameString, final Properties taxNameEpithets, final String nameUsageType, final String author, final int year, final int pageNumber, final boolean concise, final int pageSize, final boolean expand) {
+		return new PagingPooledStringIterator() {
+			NameUsagePage getPage(String continueAfter) {
+				return findNameUsages(user, taxNameString, taxNameEpithets, nameUsageType, author, year, pageNumber, concise, pageSize, continueAfter, expand);
+			}
+		};
+	}
+	
+	/**
+	 * Iterator running through a paged search result, fetching the next page
+	 * only when the one before is used up.
+	 * 
+	 * @author sautter
+	 */
+	private static abstract class PagingPooledStringIterator implements PooledStringIterator {
+		private NameUsagePage page = null;
+		private String continueAfter = "";
+		private IOException exception = null;
+		abstract NameUsagePage getPage(String continueAfter);
+		public boolean hasNextString() {
+			while (true) {
+				if (this.page != null) {
+					if (this.page.hasNextString())
+						return true;
+					this.exception = this.page.getException();
+					this.continueAfter = ((this.exception == null) ? this.page.getContinuationToken() : null);
+					this.page = null;
+				}
+				if (this.continueAfter == null)
+					return false;
+				this.page = this.getPage(this.continueAfter);
+			}
+		}
+		public PooledString getNextString() {
+			return (this.hasNextString() ? this.page.getNextString() : null);
+		}
+		public IOException getException() {
+			return ((this.page == null) ? this.exception : this.page.getException());
+		}
+	}
+	
+	private PooledStringIterator findNameUsages(String user, String taxNameString, Properties taxNameEpithets, String nameUsageType, String author, int year, int pageNumber, boolean concise, int limit, boolean expand, String continueAfter) {
 		try {
 			StringBuffer detailPredicates = new StringBuffer();
 			if (taxNameString != null)
@@ -195,11 +591,15 @@ public class TnuBankRestClient extends StringPoolRestClient implements TnuBankCo
 			if (author != null)
 				detailPredicates.append("&" + BIB_REF_AUTHOR_PARAMETER + "=" + URLEncoder.encode(author, ENCODING));
 			if (year > -1)
-				detailPredicates.append("&" + BIB_REF_YEAR_PARAMETER + "=" + pageNumber);
+				detailPredicates.append("&" + BIB_REF_YEAR_PARAMETER + "=" + year);
 			if (pageNumber > -1)
 				detailPredicates.append("&" + PAGE_NUMBER_PARAMETER + "=" + pageNumber);
 			if (expand)
 				detailPredicates.append("&" + EXPAND_PARAMETER + "=" + EXPAND_PARAMETER);
+			if (continueAfter != null)
+				detailPredicates.append("&" + CONTINUE_AFTER_PARAMETER + "=" + URLEncoder.encode(continueAfter, ENCODING));
+			if (this.useJsonLines && !concise)
+				detailPredicates.append("&" + FORMAT_PARAMETER + "=" + JSON_LINES_FORMAT);
 			return this.findStrings(null, false, null, user, concise, limit, false, detailPredicates.toString());
 		}
 		catch (IOException ioe) {
@@ -213,7 +613,7 @@ public class TnuBankRestClient extends StringPoolRestClient implements TnuBankCo
 	public PooledString updateNameUsage(String nameStringId, String taxonNameId, String nameUsageType, String nameUsageSubType, String bibRefId, int pageNumber, String user) throws IOException {
 		TaxonNameUsage tnu = new TaxonNameUsage(nameStringId, taxonNameId, nameUsageType, nameUsageSubType, bibRefId, pageNumber);
 		UploadString[] strings = {new UploadString(tnu.toPlainString(), tnu.toParsedString())};
-		PooledStringIterator stringIt = super.updateStrings(strings, user);
+		PooledStringIterator stringIt = this.updateStrings(strings, user);
 		if (stringIt.hasNextString())
 			return stringIt.getNextString();
 		IOException ioe = stringIt.getException();
@@ -227,21 +627,43 @@ public class TnuBankRestClient extends StringPoolRestClient implements TnuBankCo
 	 */
 	public PooledString updateNameUsage(String nameString, TaxonomicName taxonName, String nameUsageType, String nameUsageSubType, RefData bibRef, int pageNumber, String user) throws IOException {
 		
-		//	upload name string to BinoBank
-		PooledString nameStringPs = this.bbk.updateString(nameString, user);
-		if (nameStringPs == null)
-			throw new IOException("Could not store name string '" + nameString + "' in BinoBank");
+		//	upload name string to BinoBank, taxon name to TxnBank, and bib ref to RefBank (concurrently)
+		NameUsageParts parts = this.partUploader.uploadParts(nameString, taxonName, bibRef, user);
+		
+		//	finally, upload name usage
+		long nameUsageStart = System.currentTimeMillis();
+		PooledString nameUsagePs = this.updateNameUsage(parts.nameString.id, ((parts.taxonName == null) ? null : parts.taxonName.id), nameUsageType, ((parts.taxonName == null) ? null : nameUsageSubType), parts.bibRef.id, pageNumber, user);
+		if (this.reportUploadLatency)
+			System.out.println("TnuBankRestClient: composite name usage update took " + parts.getLatencyReport(System.currentTimeMillis() - nameUsageStart));
+		return nameUsagePs;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.tnuBank.TnuBankClient#updateNameUsages(de.uka.ipd.idaho.tnuBank.TnuBankClient.NameUsageUpload[], java.lang.String)
+	 */
+	public PooledStringIterator updateNameUsages(NameUsageUpload[] batch, String user) {
 		
-		//	upload taxon name to TxnBank
-		PooledString taxonNamePs = ((taxonName == null) ? null : this.txn.updateName(taxonName, user));
+		//	upload distinct name strings to BinoBank, taxon names to TxnBank, and bib refs to RefBank (concurrently)
+		IOException[] errors = new IOException[batch.length];
+		NameUsageParts[] parts = this.partUploader.uploadParts(batch, user, errors);
+		NameUsageParts reportParts = null;
+		for (int u = 0; u < batch.length; u++) {
+			if (parts[u] != null)
+				reportParts = parts[u];
+		}
 		
-		//	upload bib ref to RefBank
-		PooledString bibRefPs = this.rbk.updateReference(bibRef, user);
-		if (bibRefPs == null)
-			throw new IOException("Could not store bibliographic reference in RefBank");
+		//	finally, upload name usages in one go
+		UploadString[] nameUsageStrings = NameUsagePartUploader.getUploadStrings(batch, parts);
+		PooledStringIterator nameUsageIt = null;
+		if (nameUsageStrings.length != 0) {
+			long nameUsageStart = System.currentTimeMillis();
+			nameUsageIt = this.updateStrings(nameUsageStrings, user);
+			if (this.reportUploadLatency)
+				System.out.println("TnuBankRestClient: batch update of " + batch.length + " name usages took " + reportParts.getLatencyReport(System.currentTimeMillis() - nameUsageStart));
+		}
 		
-		//	finally, upload name usage
-		return this.updateNameUsage(nameStringPs.id, ((taxonNamePs == null) ? null : taxonNamePs.id), nameUsageType, ((taxonNamePs == null) ? null : nameUsageSubType), bibRefPs.id, pageNumber, user);
+		//	report name usages whose parts failed to upload in batch order, like rejected ones
+		return NameUsagePartUploader.getUploadResults(batch, parts, errors, nameUsageStrings, nameUsageIt);
 	}
 	
 	/**
@@ -22,26 +22,33 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Properties;
-import java.util.UUID;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.transform.Transformer;
-
-import com.fasterxml.uuid.Generators;
-import com.fasterxml.uuid.impl.NameBasedGenerator;
 
 import de.uka.ipd.idaho.binoBank.BinoBankServlet;
 import de.uka.ipd.idaho.easyIO.EasyIO;
 import de.uka.ipd.idaho.easyIO.IoProvider;
 import de.uka.ipd.idaho.easyIO.SqlQueryResult;
+import de.uka.ipd.idaho.easyIO.sql.TableColumnDefinition;
 import de.uka.ipd.idaho.easyIO.sql.TableDefinition;
 import de.uka.ipd.idaho.easyIO.web.WebAppHost;
 import de.uka.ipd.idaho.gamta.AnnotationUtils;
@@ -56,7 +63,17 @@ import de.uka.ipd.idaho.plugins.taxonomicNames.TaxonomicNameUtils.TaxonomicName;
 import de.uka.ipd.idaho.plugins.taxonomicNames.TaxonomicRankSystem;
 import de.uka.ipd.idaho.plugins.taxonomicNames.TaxonomicRankSystem.RankGroup;
 import de.uka.ipd.idaho.refBank.RefBankServlet;
+import de.uka.ipd.idaho.tnuBank.FormatRegistry.Format;
+import de.uka.ipd.idaho.tnuBank.FormatRegistry.RecordWriter;
+import de.uka.ipd.idaho.tnuBank.NameUsagePartUploader.NameUsageParts;
+import de.uka.ipd.idaho.txnBank.BinaryId;
+import de.uka.ipd.idaho.txnBank.HttpCompression;
+import de.uka.ipd.idaho.txnBank.NameBasedIdGenerator;
+import de.uka.ipd.idaho.txnBank.ParsedStringPack;
+import de.uka.ipd.idaho.txnBank.PooledStringJsonWriter;
+import de.uka.ipd.idaho.txnBank.ServletMetrics;
 import de.uka.ipd.idaho.txnBank.TxnBankServlet;
+import de.uka.ipd.idaho.txnBank.TxnBankServlet.TaxonNameUpdateListener;
 
 /**
  * @author sautter
@@ -116,6 +133,34 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 	private static final String PAGE_NUMBER_COLUMN_NAME = "pageNumber";
 	private static final int ID_COLUMN_LENGTH = 32;
 	
+	private static final String NAME_USAGE_FACT_TABLE_NAME_SUFFIX = "Facts";
+	private static final String NAME_STRING_KEY_COLUMN_NAME = "nameStringKey";
+	private static final String TAXON_NAME_KEY_COLUMN_NAME = "taxonNameKey";
+	private static final String BIB_REF_KEY_COLUMN_NAME = "bibRefKey";
+	
+	private static final String ENTITY_KEY_TABLE_NAME_SUFFIX = "EntityKeys";
+	private static final String ENTITY_KEY_COLUMN_NAME = "EntityKey";
+	private static final String ENTITY_TYPE_COLUMN_NAME = "EntityType";
+	private static final String ENTITY_ID_COLUMN_NAME = "EntityId";
+	private static final String ENTITY_ID_HASH_COLUMN_NAME = "EntityIdHash";
+	private static final char NAME_STRING_ENTITY_TYPE = 'N';
+	private static final char TAXON_NAME_ENTITY_TYPE = 'T';
+	private static final char BIB_REF_ENTITY_TYPE = 'R';
+	
+	/* numeric representations of name usage types and sub types in the fact
+	 * table: position in array plus one, 0 indicates absence */
+	private static final String[] NAME_USAGE_TYPE_CODES = {"GU", "NU", "OU"};
+	private static final String[] NAME_USAGE_SUB_TYPE_CODES = {"NS", "OD", "RD", "DD", "CD", "CI", "KR", "KL", "SS", "JS", "NC"};
+	private static int getCodeNumber(String[] codes, String code) {
+		if ((code == null) || (code.trim().length() == 0))
+			return 0;
+		for (int c = 0; c < codes.length; c++) {
+			if (codes[c].equalsIgnoreCase(code.trim()))
+				return (c + 1);
+		}
+		return -1;
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#extendIndexTableDefinition(de.uka.ipd.idaho.easyIO.sql.TableDefinition)
 	 */
@@ -135,6 +180,9 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 	private RefBankServlet rbk;
 	private BinoBankServlet bbk;
 	private TxnBankServlet txn;
+	private NameUsagePartUploader partUploader;
+	private boolean reportUploadLatency = false;
+	private FormatRegistry formats;
 	
 	private IoProvider io;
 	
@@ -146,6 +194,9 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 	protected void doInit() throws ServletException {
 		super.doInit();
 		
+		//	create metrics registry (disabled unless configured, so instrumentation costs next to nothing)
+		this.metrics = new ServletMetrics("tnubank", "true".equals(this.getSetting("metrics", "false")));
+		
 		//	connect to RefBank, BinoBank, and TxnBank
 		this.rbk = ((RefBankServlet) this.getServlet(this.getSetting("refBankNodeName"), this.getSetting("refBankNodeUrl")));
 		if (this.rbk == null)
@@ -157,6 +208,15 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 		if (this.txn == null)
 			throw new ServletException("TaxonNameUsageBank requires a TaxonNameBank servlet to be present.");
 		
+		//	create registry for output formats
+		HashSet recordWiseFormatNames = new HashSet(Arrays.asList(this.getSetting("recordWiseFormats", "").trim().split("\\s*\\;\\s*")));
+		recordWiseFormatNames.remove("");
+		this.formats = new FormatRegistry(this.dataFolder, recordWiseFormatNames);
+		
+		//	create uploader for parts of composite name usages
+		this.partUploader = new NameUsagePartUploader(this.bbk, this.txn, this.rbk, Integer.parseInt(this.getSetting("partUploadThreads", "8")), "TnuBankPartUploader");
+		this.reportUploadLatency = "true".equals(this.getSetting("reportUploadLatency", "false"));
+		
 		// get and check database connection
 		this.io = WebAppHost.getInstance(this.getServletContext()).getIoProvider();
 		if (!this.io.isJdbcAvailable())
@@ -168,6 +228,498 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 		this.primaryRankNames = new String[rankGroups.length];
 		for (int g = 0; g < rankGroups.length; g++)
 			this.primaryRankNames[g] = rankGroups[g].name;
+		
+		//	set up normalized storage if configured
+		if ("true".equals(this.getSetting("normalizedStorage", "false")))
+			this.initNormalizedStorage();
+		
+		//	set up trigram index if configured
+		if ("true".equals(this.getSetting("trigramIndex", "false")))
+			this.initTrigramIndex();
+		
+		//	set up pack file store for parses if configured (derived parses are never stored, though)
+		this.derivedParses = "true".equals(this.getSetting("derivedParses", "false"));
+		if (this.derivedParses)
+			this.parsedStringsFolder = ParsedStringPack.getParsedStringFolder(this.dataFolder, this.getStringDataTableName().substring(0, (this.getStringDataTableName().length() - PARSED_STRING_TABLE_NAME_SUFFIX.length())));
+		else if ("pack".equals(this.getSetting("parsedStringStore", "files")))
+			this.initParsedStringPack();
+		
+		//	create cache for expanded name usages
+		long expansionCacheBytes = 0;
+		try {
+			expansionCacheBytes = Long.parseLong(this.getSetting("expansionCacheBytes", "0"));
+		} catch (NumberFormatException nfe) {}
+		if (expansionCacheBytes > 0) {
+			this.expansionCache = new ExpandedNameUsageCache(expansionCacheBytes);
+			
+			//	listen for taxon name updates (RefBank and BinoBank updates alter parse checksums, and thus our cache keys)
+			this.txn.addTaxonNameUpdateListener(new TaxonNameUpdateListener() {
+				public void taxonNameUpdated(String taxonNameId) {
+					expansionCache.invalidate(taxonNameId);
+				}
+			});
+		}
+	}
+	
+	private ServletMetrics metrics = new ServletMetrics("tnubank", false);
+	
+	private String nameUsageFactTableName = null;
+	private String entityKeyTableName = null;
+	private final Object nameUsageFactLock = new Object();
+	private final Object entityKeyLock = new Object();
+	private Map entityKeyCache = Collections.synchronizedMap(new LinkedHashMap(1024, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return (this.size() > 65536);
+		}
+	});
+	private volatile boolean normalizedStorageReady = false;
+	
+	private void initNormalizedStorage() throws ServletException {
+		String externalDataName = this.getStringDataTableName().substring(0, (this.getStringDataTableName().length() - PARSED_STRING_TABLE_NAME_SUFFIX.length()));
+		
+		//	produce entity key table (IDs stay VARCHAR plus hash, as that is what we join against in the string pool tables of our sibling nodes)
+		TableDefinition ktd = new TableDefinition(externalDataName + ENTITY_KEY_TABLE_NAME_SUFFIX);
+		ktd.addColumn(ENTITY_KEY_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		ktd.addColumn(ENTITY_TYPE_COLUMN_NAME, TableDefinition.CHAR_DATATYPE, 1);
+		ktd.addColumn(ENTITY_ID_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, ID_COLUMN_LENGTH);
+		ktd.addColumn(ENTITY_ID_HASH_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		if (!this.io.ensureTable(ktd, true))
+			throw new ServletException("TaxonNameUsageBank: Cannot create entity key table.");
+		this.entityKeyTableName = ktd.getTableName();
+		this.io.indexColumn(this.entityKeyTableName, ENTITY_KEY_COLUMN_NAME);
+		this.io.indexColumn(this.entityKeyTableName, ENTITY_ID_HASH_COLUMN_NAME);
+		this.io.setPrimaryKey(this.entityKeyTableName, ENTITY_KEY_COLUMN_NAME);
+		
+		//	produce fact table
+		TableDefinition ftd = new TableDefinition(externalDataName + NAME_USAGE_FACT_TABLE_NAME_SUFFIX);
+		ftd.addColumn(STRING_ID_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, ID_COLUMN_LENGTH);
+		ftd.addColumn(STRING_ID_HASH_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		ftd.addColumn(NAME_STRING_KEY_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		ftd.addColumn(TAXON_NAME_KEY_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		ftd.addColumn(NAME_USAGE_TYPE_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		ftd.addColumn(NAME_USAGE_SUB_TYPE_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		ftd.addColumn(BIB_REF_KEY_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		ftd.addColumn(PAGE_NUMBER_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		if (!this.io.ensureTable(ftd, true))
+			throw new ServletException("TaxonNameUsageBank: Cannot create name usage fact table.");
+		this.nameUsageFactTableName = ftd.getTableName();
+		TableColumnDefinition[] ftdcs = ftd.getColumns();
+		for (int c = 0; c < ftdcs.length; c++)
+			this.io.indexColumn(this.nameUsageFactTableName, ftdcs[c].getColumnName());
+		this.io.setPrimaryKey(this.nameUsageFactTableName, STRING_ID_COLUMN_NAME);
+		
+		//	backfill fact table from index table in the background (fact table is used in searches only after that is complete)
+		Thread backfiller = new Thread("TnuBankFactBackfill") {
+			public void run() {
+				backfillNameUsageFacts();
+			}
+		};
+		backfiller.setDaemon(true);
+		backfiller.start();
+	}
+	
+	private static final int BACKFILL_CHUNK_SIZE = 1000;
+	private static final long MIN_BACKFILL_RETRY_MILLIS = (1000 * 60);
+	private static final long MAX_BACKFILL_RETRY_MILLIS = (1000 * 60 * 60);
+	
+	private void backfillNameUsageFacts() {
+		System.out.println("TaxonNameUsageBank: backfilling name usage fact table ...");
+		
+		//	make passes until all index entries have their fact table counterpart, backing off in between
+		long retryMillis = MIN_BACKFILL_RETRY_MILLIS;
+		while (true) {
+			int failed = this.backfillNameUsageFactsPass();
+			if (failed < 0)
+				System.out.println("TaxonNameUsageBank: could not complete backfilling name usage fact table, retrying in " + (retryMillis / 1000) + " seconds; normalized storage stays disabled until then");
+			else if (failed != 0)
+				System.out.println("TaxonNameUsageBank: could not backfill " + failed + " name usages, retrying in " + (retryMillis / 1000) + " seconds; normalized storage stays disabled until then");
+			else break;
+			try {
+				Thread.sleep(retryMillis);
+			}
+			catch (InterruptedException ie) {
+				return;
+			}
+			retryMillis = Math.min((retryMillis * 2), MAX_BACKFILL_RETRY_MILLIS);
+		}
+		
+		//	we're good to go
+		this.normalizedStorageReady = true;
+		System.out.println("TaxonNameUsageBank: name usage fact table complete");
+	}
+	
+	/* returns the number of name usages that failed to backfill, or -1 if
+	 * reading the index table failed */
+	private int backfillNameUsageFactsPass() {
+		
+		//	get index entries lacking fact table counterpart, in chunks ordered by ID (so we make progress even if individual entries fail)
+		int backfilled = 0;
+		int failed = 0;
+		String lastNameUsageId = "";
+		while (true) {
+			String query = "SELECT idx." + STRING_ID_COLUMN_NAME + 
+					", idx." + NAME_STRING_ID_COLUMN_NAME + 
+					", idx." + TAXON_NAME_ID_COLUMN_NAME + 
+					", idx." + NAME_USAGE_TYPE_COLUMN_NAME + 
+					", idx." + NAME_USAGE_SUB_TYPE_COLUMN_NAME + 
+					", idx." + BIB_REF_ID_COLUMN_NAME + 
+					", idx." + PAGE_NUMBER_COLUMN_NAME + 
+					" FROM " + this.getStringIndexTableName() + " idx" + 
+					" WHERE idx." + STRING_ID_COLUMN_NAME + " > '" + EasyIO.sqlEscape(lastNameUsageId) + "'" +
+					" AND NOT EXISTS (" +
+						"SELECT 1 FROM " + this.nameUsageFactTableName + " fct" +
+						" WHERE fct." + STRING_ID_HASH_COLUMN_NAME + " = idx." + STRING_ID_HASH_COLUMN_NAME +
+						" AND fct." + STRING_ID_COLUMN_NAME + " = idx." + STRING_ID_COLUMN_NAME +
+					")" +
+					" ORDER BY idx." + STRING_ID_COLUMN_NAME + 
+					" LIMIT " + BACKFILL_CHUNK_SIZE + 
+					";";
+			SqlQueryResult sqr = null;
+			int chunkSize = 0;
+			try {
+				sqr = this.io.executeSelectQuery(query, true); // using copy, we release the lock before we write the fact table
+				while (sqr.next()) {
+					chunkSize++;
+					lastNameUsageId = sqr.getString(0);
+					int pageNumber = -1;
+					try {
+						pageNumber = Integer.parseInt(sqr.getString(6));
+					} catch (NumberFormatException nfe) {}
+					if (this.storeNameUsageFacts(sqr.getString(0), sqr.getString(1), sqr.getString(2), sqr.getString(3), sqr.getString(4), sqr.getString(5), pageNumber))
+						backfilled++;
+					else {
+						System.out.println("TaxonNameUsageBank: could not backfill name usage " + sqr.getString(0) + ", skipping it for now");
+						failed++;
+					}
+				}
+			}
+			catch (SQLException sqle) {
+				System.out.println("TaxonNameUsageBank: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while backfilling name usage fact table.");
+				System.out.println("  query was " + query);
+				return -1;
+			}
+			finally {
+				if (sqr != null)
+					sqr.close();
+			}
+			if (chunkSize < BACKFILL_CHUNK_SIZE)
+				break;
+			System.out.println(" - " + backfilled + " name usages backfilled so far" + ((failed == 0) ? "" : (", " + failed + " failed")));
+		}
+		System.out.println("TaxonNameUsageBank: backfill pass complete, " + backfilled + " name usages backfilled" + ((failed == 0) ? "" : (", " + failed + " failed")));
+		return failed;
+	}
+	
+	private boolean storeNameUsageFacts(String nameUsageId, String nameStringId, String taxonNameId, String nameUsageTypeCode, String nameUsageSubTypeCode, String bibRefId, int pageNumber) {
+		
+		//	get keys
+		int nameStringKey = this.getEntityKey(NAME_STRING_ENTITY_TYPE, nameStringId);
+		int taxonNameKey = (((taxonNameId == null) || (taxonNameId.length() == 0)) ? 0 : this.getEntityKey(TAXON_NAME_ENTITY_TYPE, taxonNameId));
+		int bibRefKey = this.getEntityKey(BIB_REF_ENTITY_TYPE, bibRefId);
+		if ((nameStringKey == -1) || (taxonNameKey == -1) || (bibRefKey == -1))
+			return false;
+		
+		//	update or insert fact table entry
+		String query = null;
+		synchronized (this.nameUsageFactLock) {
+			try {
+				query = "UPDATE " + this.nameUsageFactTableName + " SET" +
+						" " + NAME_STRING_KEY_COLUMN_NAME + " = " + nameStringKey + 
+						", " + TAXON_NAME_KEY_COLUMN_NAME + " = " + taxonNameKey + 
+						", " + NAME_USAGE_TYPE_COLUMN_NAME + " = " + getCodeNumber(NAME_USAGE_TYPE_CODES, nameUsageTypeCode) + 
+						", " + NAME_USAGE_SUB_TYPE_COLUMN_NAME + " = " + getCodeNumber(NAME_USAGE_SUB_TYPE_CODES, nameUsageSubTypeCode) + 
+						", " + BIB_REF_KEY_COLUMN_NAME + " = " + bibRefKey + 
+						", " + PAGE_NUMBER_COLUMN_NAME + " = " + pageNumber + 
+						" WHERE " + STRING_ID_HASH_COLUMN_NAME + " = " + nameUsageId.hashCode() + 
+						" AND " + STRING_ID_COLUMN_NAME + " = '" + EasyIO.sqlEscape(nameUsageId) + "'" +
+						";";
+				int updated = this.io.executeUpdateQuery(query);
+				if (updated == 0) {
+					query = "INSERT INTO " + this.nameUsageFactTableName + " (" +
+							STRING_ID_COLUMN_NAME + 
+							", " + STRING_ID_HASH_COLUMN_NAME + 
+							", " + NAME_STRING_KEY_COLUMN_NAME + 
+							", " + TAXON_NAME_KEY_COLUMN_NAME + 
+							", " + NAME_USAGE_TYPE_COLUMN_NAME + 
+							", " + NAME_USAGE_SUB_TYPE_COLUMN_NAME + 
+							", " + BIB_REF_KEY_COLUMN_NAME + 
+							", " + PAGE_NUMBER_COLUMN_NAME + 
+							") VALUES (" +
+							"'" + EasyIO.sqlEscape(nameUsageId) + "'" + 
+							", " + nameUsageId.hashCode() + 
+							", " + nameStringKey + 
+							", " + taxonNameKey + 
+							", " + getCodeNumber(NAME_USAGE_TYPE_CODES, nameUsageTypeCode) + 
+							", " + getCodeNumber(NAME_USAGE_SUB_TYPE_CODES, nameUsageSubTypeCode) + 
+							", " + bibRefKey + 
+							", " + pageNumber + 
+							");";
+					this.io.executeUpdateQuery(query);
+				}
+				return true;
+			}
+			catch (SQLException sqle) {
+				System.out.println("TaxonNameUsageBank: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while storing name usage facts.");
+				System.out.println("  query was " + query);
+				return false;
+			}
+		}
+	}
+	
+	private static String getEntityKeyJoin(String keyTableAlias, String dataTableAlias) {
+		return (" AND (" + keyTableAlias + "." + ENTITY_ID_HASH_COLUMN_NAME + " = " + dataTableAlias + "." + STRING_ID_HASH_COLUMN_NAME + ")" +
+				" AND (" + keyTableAlias + "." + ENTITY_ID_COLUMN_NAME + " = " + dataTableAlias + "." + STRING_ID_COLUMN_NAME + ")");
+	}
+	
+	private static final int MAX_ENTITY_KEY_ATTEMPTS = 8;
+	
+	private int getEntityKey(char entityType, String entityId) {
+		
+		//	do cache lookup
+		String cacheKey = (entityType + entityId);
+		Integer entityKey = ((Integer) this.entityKeyCache.get(cacheKey));
+		this.metrics.countCacheLookup("entityKey", (entityKey != null));
+		if (entityKey != null)
+			return entityKey.intValue();
+		
+		//	synchronize lookup and insertion to prevent duplicate keys from within this node ...
+		String query = null;
+		synchronized (this.entityKeyLock) {
+			try {
+				for (int attempt = 0; attempt <= MAX_ENTITY_KEY_ATTEMPTS; attempt++) {
+					
+					//	look up existing key
+					query = "SELECT " + ENTITY_KEY_COLUMN_NAME + 
+							" FROM " + this.entityKeyTableName + 
+							" WHERE " + ENTITY_ID_HASH_COLUMN_NAME + " = " + entityId.hashCode() + 
+							" AND " + ENTITY_ID_COLUMN_NAME + " = '" + EasyIO.sqlEscape(entityId) + "'" + 
+							" AND " + ENTITY_TYPE_COLUMN_NAME + " = '" + entityType + "'" + 
+							" ORDER BY " + ENTITY_KEY_COLUMN_NAME + // lowest key wins if another node inserted the same entity concurrently
+							";";
+					SqlQueryResult sqr = this.io.executeSelectQuery(query);
+					try {
+						if (sqr.next())
+							entityKey = Integer.valueOf(sqr.getString(0));
+					}
+					finally {
+						sqr.close();
+					}
+					if ((entityKey != null) || (attempt == MAX_ENTITY_KEY_ATTEMPTS))
+						break;
+					
+					//	... and have the database assign the next key, relying on the primary key to reject duplicates from other nodes sharing the table
+					query = "INSERT INTO " + this.entityKeyTableName + " (" +
+							ENTITY_KEY_COLUMN_NAME + 
+							", " + ENTITY_TYPE_COLUMN_NAME + 
+							", " + ENTITY_ID_COLUMN_NAME + 
+							", " + ENTITY_ID_HASH_COLUMN_NAME + 
+							") SELECT " +
+							"COALESCE(max(" + ENTITY_KEY_COLUMN_NAME + "), 0) + 1" + 
+							", '" + entityType + "'" + 
+							", '" + EasyIO.sqlEscape(entityId) + "'" + 
+							", " + entityId.hashCode() + 
+							" FROM " + this.entityKeyTableName + 
+							";";
+					try {
+						this.io.executeUpdateQuery(query);
+					}
+					catch (SQLException sqle) {
+						
+						//	key taken by another node in the meantime, look up again (that node might have inserted our entity) and retry
+						if ((attempt + 1) == MAX_ENTITY_KEY_ATTEMPTS)
+							throw sqle;
+					}
+				}
+			}
+			catch (SQLException sqle) {
+				System.out.println("TaxonNameUsageBank: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while getting entity key.");
+				System.out.println("  query was " + query);
+				return -1;
+			}
+		}
+		if (entityKey == null) {
+			System.out.println("TaxonNameUsageBank: could not assign entity key to " + entityId + " in " + MAX_ENTITY_KEY_ATTEMPTS + " attempts.");
+			return -1;
+		}
+		
+		//	cache and return key
+		this.entityKeyCache.put(cacheKey, entityKey);
+		return entityKey.intValue();
+	}
+	
+	private ParsedStringPack parsedStringPack = null;
+	private File parsedStringsFolder = null;
+	
+	private void initParsedStringPack() throws ServletException {
+		String externalDataName = this.getStringDataTableName().substring(0, (this.getStringDataTableName().length() - PARSED_STRING_TABLE_NAME_SUFFIX.length()));
+		long packSegmentBytes = (64 * 1024 * 1024);
+		try {
+			packSegmentBytes = Long.parseLong(this.getSetting("packSegmentBytes", ("" + packSegmentBytes)));
+		} catch (NumberFormatException nfe) {}
+		int packCompactionHours = 24;
+		try {
+			packCompactionHours = Integer.parseInt(this.getSetting("packCompactionHours", ("" + packCompactionHours)));
+		} catch (NumberFormatException nfe) {}
+		try {
+			this.parsedStringPack = new ParsedStringPack(new File(this.dataFolder, (externalDataName + "Pack")), this.io, externalDataName, packSegmentBytes);
+		}
+		catch (IOException ioe) {
+			throw new ServletException("TaxonNameUsageBank: Cannot create parsed string pack: " + ioe.getMessage());
+		}
+		this.parsedStringsFolder = ParsedStringPack.getParsedStringFolder(this.dataFolder, externalDataName);
+		
+		//	import existing parse files and compact pack in the background
+		this.parsedStringPack.startMaintenance(this.parsedStringsFolder, (packCompactionHours * 60L * 60L * 1000L), "TnuBankPackMaintenance");
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#exit()
+	 */
+	protected void exit() {
+		if (this.expansionCache != null)
+			System.out.println("TaxonNameUsageBank: expansion cache held " + this.expansionCache.getSize() + " name usages (" + this.expansionCache.getBytes() + " bytes), " + this.expansionCache.getHitCount() + " hits, " + this.expansionCache.getMissCount() + " misses");
+		if (this.parsedStringPack != null)
+			this.parsedStringPack.close();
+		if (this.partUploader != null)
+			this.partUploader.shutdown();
+		super.exit();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#getStringParsed(java.lang.String)
+	 */
+	public MutableAnnotation getStringParsed(String id) {
+		MutableAnnotation stringParsed = null;
+		if (this.derivedParses)
+			stringParsed = this.getDerivedStringParsed(id);
+		else if (this.parsedStringPack != null)
+			stringParsed = this.parsedStringPack.getStringParsed(id);
+		return ((stringParsed == null) ? super.getStringParsed(id) : stringParsed);
+	}
+	
+	/* name usage parses carry no information beyond the plain string, so we
+	 * can produce them from the latter instead of storing them */
+	private boolean derivedParses = false;
+	
+	private MutableAnnotation getDerivedStringParsed(String id) {
+		String query = "SELECT " + STRING_TEXT_COLUMN_NAME + 
+				" FROM " + this.getStringDataTableName() + 
+				" WHERE " + STRING_ID_HASH_COLUMN_NAME + " = " + id.hashCode() + 
+				" AND " + STRING_ID_COLUMN_NAME + " = '" + EasyIO.sqlEscape(id) + "'" +
+				";";
+		SqlQueryResult sqr = null;
+		int phase = this.metrics.enterPhase(ServletMetrics.SQL_PHASE);
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			if (!sqr.next())
+				return null;
+			String stringPlain = sqr.getString(0);
+			this.metrics.exitPhase(phase);
+			phase = -1; // parsing is not SQL time, and we must not exit the phase twice
+			if ((stringPlain == null) || !TaxonNameUsage.isValid(stringPlain))
+				return null;
+			return SgmlDocumentReader.readDocument(new StringReader(TaxonNameUsage.parseTaxonNameUsage(stringPlain).toParsedString()));
+		}
+		catch (SQLException sqle) {
+			System.out.println("TaxonNameUsageBank: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading name usage.");
+			System.out.println("  query was " + query);
+			return null;
+		}
+		catch (IOException ioe) {
+			ioe.printStackTrace(System.out);
+			return null;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+			this.metrics.exitPhase(phase);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#getStrings(java.lang.String[])
+	 */
+	public PooledStringIterator getStrings(String[] stringIds) {
+		final PooledStringIterator psi;
+		int phase = this.metrics.enterPhase(ServletMetrics.SQL_PHASE);
+		try {
+			psi = super.getStrings(stringIds);
+		}
+		finally {
+			this.metrics.exitPhase(phase);
+		}
+		if (!this.derivedParses || (psi.getException() != null))
+			return psi;
+		
+		//	derive parses from plain strings right away, sparing the per-string lookup in getStringParsed()
+		return new PooledStringIterator() {
+			public boolean hasNextString() {
+				return psi.hasNextString();
+			}
+			public PooledString getNextString() {
+				PooledString ps = psi.getNextString();
+				return ((ps == null) ? null : new DerivedParsePooledString(ps));
+			}
+			public IOException getException() {
+				return psi.getException();
+			}
+		};
+	}
+	
+	private static class DerivedParsePooledString extends PooledString {
+		private PooledString ps;
+		private String stringParsed = null;
+		DerivedParsePooledString(PooledString ps) {
+			super(ps.id);
+			this.ps = ps;
+		}
+		public String getStringPlain() {
+			return this.ps.getStringPlain();
+		}
+		public String getStringParsed() {
+			if ((this.stringParsed == null) && TaxonNameUsage.isValid(this.ps.getStringPlain()))
+				this.stringParsed = TaxonNameUsage.parseTaxonNameUsage(this.ps.getStringPlain()).toParsedString();
+			return this.stringParsed;
+		}
+		public String getParseChecksum() {
+			return this.ps.getParseChecksum();
+		}
+		public String getCanonicalStringID() {
+			return this.ps.getCanonicalStringID();
+		}
+		public String getParseError() {
+			return this.ps.getParseError();
+		}
+		public long getCreateTime() {
+			return this.ps.getCreateTime();
+		}
+		public String getCreateDomain() {
+			return this.ps.getCreateDomain();
+		}
+		public String getCreateUser() {
+			return this.ps.getCreateUser();
+		}
+		public long getUpdateTime() {
+			return this.ps.getUpdateTime();
+		}
+		public String getUpdateDomain() {
+			return this.ps.getUpdateDomain();
+		}
+		public String getUpdateUser() {
+			return this.ps.getUpdateUser();
+		}
+		public long getNodeUpdateTime() {
+			return this.ps.getNodeUpdateTime();
+		}
+		public boolean wasCreated() {
+			return this.ps.wasCreated();
+		}
+		public boolean wasUpdated() {
+			return this.ps.wasUpdated();
+		}
+		public boolean isDeleted() {
+			return this.ps.isDeleted();
+		}
 	}
 	
 	private Servlet getServlet(String name, String url) {
@@ -209,16 +761,74 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 				action = action.substring(0, action.indexOf('/'));
 		}
 		
-		//	ID-based request for name usages, with expansion required
-		if (GET_ACTION_NAME.equals(action) && (request.getParameter(EXPAND_PARAMETER) != null))
-			this.doGetNameUsages(request, response);
-		
-		//	search for name usages
-		else if (FIND_ACTION_NAME.equals(action))
-			this.doFindNameUsages(request, response);
-		
-		//	let super class handle anything else
-		else super.doGet(request, response);
+		//	record metrics, and compress response if client accepts it
+		response = this.metrics.startRequest(action, response);
+		response = HttpCompression.wrapResponse(request, response);
+		try {
+			
+			//	ID-based request for name usages (we handle them all for the validators)
+			if (GET_ACTION_NAME.equals(action))
+				this.doGetNameUsages(request, response);
+			
+			//	search for name usages
+			else if (FIND_ACTION_NAME.equals(action))
+				this.doFindNameUsages(request, response);
+			
+			//	request for metrics
+			else if (STATS_ACTION_NAME.equals(action))
+				this.metrics.sendMetrics(request, response);
+			
+			//	let super class handle anything else
+			else super.doGet(request, response);
+		}
+		finally {
+			HttpCompression.finish(response);
+			this.metrics.endRequest();
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#doPost(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+	 */
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response = this.metrics.startRequest(UPDATE_ACTION_NAME, response);
+		response = HttpCompression.wrapResponse(request, response);
+		try {
+			super.doPost(HttpCompression.wrapRequest(request), response);
+		}
+		finally {
+			this.checkedStrings.remove();
+			HttpCompression.finish(response);
+			this.metrics.endRequest();
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#doPut(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+	 */
+	protected void doPut(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response = this.metrics.startRequest(UPDATE_ACTION_NAME, response);
+		response = HttpCompression.wrapResponse(request, response);
+		try {
+			super.doPut(HttpCompression.wrapRequest(request), response);
+		}
+		finally {
+			this.checkedStrings.remove();
+			HttpCompression.finish(response);
+			this.metrics.endRequest();
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#doUpdateFrom(de.uka.ipd.idaho.onn.OnnServlet.OnnNode)
+	 */
+	protected void doUpdateFrom(OnnNode node) throws IOException {
+		try {
+			super.doUpdateFrom(node);
+		}
+		finally {
+			this.checkedStrings.remove();
+		}
 	}
 	
 	private void doGetNameUsages(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -228,25 +838,194 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 			return;
 		}
 		
-		PooledStringIterator tnuIt = this.getStrings(ids);
-		
 		String format = request.getParameter(FORMAT_PARAMETER);
-		Transformer formatter = null;
-		if (format != null) try {
-			formatter = XsltUtils.getTransformer(new File(this.dataFolder, format), !"force".equals(request.getParameter("formatCache")));
+		boolean expand = (request.getParameter(EXPAND_PARAMETER) != null);
+		Format formatter = null;
+		if ((format != null) && !isJsonFormat(format)) try {
+			formatter = this.formats.getFormat(format, "force".equals(request.getParameter("formatCache")));
 		}
 		catch (IOException ioe) {
 			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid format: " + format));
 			return;
 		}
+		
+		//	get validator data from database, and resolve references in expanded mode, as validators depend on them
+		NameUsageValidatorData[] nvds;
+		try {
+			nvds = this.getNameUsageValidatorData(ids);
+		}
+		catch (IOException ioe) {
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ioe.getMessage());
+			return;
+		}
+		NameUsageExpansionData ned = null;
+		if (expand) {
+			TaxonNameUsage[] tnus = new TaxonNameUsage[nvds.length];
+			for (int v = 0; v < nvds.length; v++)
+				tnus[v] = nvds[v].tnu;
+			int phase = this.metrics.enterPhase(ServletMetrics.EXPANSION_PHASE);
+			try {
+				ned = this.getExpansionData(tnus);
+			}
+			finally {
+				this.metrics.exitPhase(phase);
+			}
+		}
+		
+		//	send validators, and we're done if client has current version
+		if (this.checkNotModified(request, response, ids, nvds, ned, (format + (expand ? ":expanded" : "")), ((formatter == null) ? -1 : formatter.lastModified)))
+			return;
+		
+		//	only now load and expand name usages
+		PooledStringIterator tnuIt = this.getStrings(ids);
+		if (expand && (tnuIt.getException() == null))
+			tnuIt = new ExpandedParsePooledStringIterator(tnuIt, ned);
+		if (isJsonFormat(format)) {
+			this.sendNameUsagesJson(tnuIt, response, JSON_LINES_FORMAT.equals(format), expand);
+			return;
+		}
 		response.setCharacterEncoding(ENCODING);
 		response.setContentType("text/xml");
 		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
-		if (formatter != null)
-			bw = new BufferedWriter(XsltUtils.wrap(bw, formatter));
-		this.sendNameUsages(tnuIt, bw, true);
-		bw.flush();
-		bw.close();
+		this.sendNameUsages(tnuIt, bw, true, formatter);
+	}
+	
+	/* Validator data of a name usage, read straight from the data table, so
+	 * conditional requests can be answered without loading any parses. */
+	private static class NameUsageValidatorData {
+		final String id;
+		final String canonicalId;
+		final String parseChecksum;
+		final long updateTime;
+		final boolean deleted;
+		final TaxonNameUsage tnu;
+		NameUsageValidatorData(String id, String canonicalId, String parseChecksum, long updateTime, boolean deleted, TaxonNameUsage tnu) {
+			this.id = id;
+			this.canonicalId = canonicalId;
+			this.parseChecksum = parseChecksum;
+			this.updateTime = updateTime;
+			this.deleted = deleted;
+			this.tnu = tnu;
+		}
+	}
+	
+	private NameUsageValidatorData[] getNameUsageValidatorData(String[] ids) throws IOException {
+		StringBuffer idString = new StringBuffer();
+		StringBuffer idHashString = new StringBuffer();
+		for (int i = 0; i < ids.length; i++) {
+			if (i != 0) {
+				idString.append(", ");
+				idHashString.append(", ");
+			}
+			idString.append("'" + EasyIO.sqlEscape(ids[i]) + "'");
+			idHashString.append(ids[i].hashCode());
+		}
+		String query = "SELECT " + STRING_ID_COLUMN_NAME + ", " + CANONICAL_STRING_ID_COLUMN_NAME + ", " + PARSE_CHECKSUM_COLUMN_NAME + ", " + UPDATE_TIME_COLUMN_NAME + ", " + DELETED_COLUMN_NAME + ", " + STRING_TEXT_COLUMN_NAME +
+				" FROM " + this.getStringDataTableName() +
+				" WHERE " + STRING_ID_HASH_COLUMN_NAME + " IN (" + idHashString.toString() + ")" +
+					" AND " + STRING_ID_COLUMN_NAME + " IN (" + idString.toString() + ")" +
+				" ORDER BY " + STRING_ID_COLUMN_NAME +
+				";";
+		ArrayList nvds = new ArrayList(ids.length);
+		SqlQueryResult sqr = null;
+		int phase = this.metrics.enterPhase(ServletMetrics.SQL_PHASE);
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			while (sqr.next()) {
+				TaxonNameUsage tnu = null;
+				try {
+					tnu = TaxonNameUsage.parseTaxonNameUsage(sqr.getString(5));
+				} catch (RuntimeException re) {}
+				nvds.add(new NameUsageValidatorData(sqr.getString(0), sqr.getString(1), sqr.getString(2), Long.parseLong(sqr.getString(3)), "D".equals(sqr.getString(4)), tnu));
+			}
+		}
+		catch (SQLException sqle) {
+			System.out.println("TaxonNameUsageBank: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while reading validator data.");
+			System.out.println("  query was " + query);
+			throw new IOException(sqle.getMessage());
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+			this.metrics.exitPhase(phase);
+		}
+		return ((NameUsageValidatorData[]) nvds.toArray(new NameUsageValidatorData[nvds.size()]));
+	}
+	
+	/* Send the ETag and Last-Modified headers for a response to an ID based
+	 * request, and check them against the If-None-Match and If-Modified-Since
+	 * headers of the request (the latter only if the former is absent). If the
+	 * client has the current version, send a 304 and return true. The entity
+	 * tag depends on the parse checksums and update times of the name usages,
+	 * including those of the referenced entities in expanded mode, on the
+	 * requested IDs, on the response variant (format, format version, and
+	 * expansion), and on the content encoding. */
+	private boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, String[] ids, NameUsageValidatorData[] nvds, NameUsageExpansionData ned, String variant, long variantLastModified) throws IOException {
+		StringBuffer validator = new StringBuffer(variant);
+		validator.append("@" + variantLastModified);
+		long lastModified = variantLastModified;
+		for (int i = 0; i < ids.length; i++)
+			validator.append("|" + ids[i]);
+		for (int v = 0; v < nvds.length; v++) {
+			validator.append("|" + nvds[v].id);
+			validator.append(":" + nvds[v].canonicalId);
+			validator.append(":" + nvds[v].parseChecksum);
+			validator.append(":" + nvds[v].updateTime);
+			validator.append(":" + nvds[v].deleted);
+			lastModified = Math.max(lastModified, nvds[v].updateTime);
+			if (ned != null)
+				lastModified = Math.max(lastModified, appendReferenceValidators(validator, nvds[v].tnu, ned));
+		}
+		byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("MD5").digest(validator.toString().getBytes(ENCODING));
+		}
+		catch (NoSuchAlgorithmException nsae) {
+			return false; // should not happen, but Java don't know ...
+		}
+		long hashHigh = 0;
+		long hashLow = 0;
+		for (int b = 0; b < 8; b++) {
+			hashHigh = ((hashHigh << 8) | (hash[b] & 0xFF));
+			hashLow = ((hashLow << 8) | (hash[b + 8] & 0xFF));
+		}
+		String contentEncoding = HttpCompression.getContentEncoding(response);
+		String entityTag = ("\"" + BinaryId.toHex(hashHigh, hashLow) + ((contentEncoding == null) ? "" : ("-" + contentEncoding)) + "\"");
+		response.setHeader("ETag", entityTag);
+		if (lastModified > 0)
+			response.setDateHeader("Last-Modified", lastModified);
+		
+		//	check entity tags (weak comparison suffices for GET)
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			String[] requestEntityTags = ifNoneMatch.split("\\s*\\,\\s*");
+			for (int t = 0; t < requestEntityTags.length; t++) {
+				String requestEntityTag = requestEntityTags[t].trim();
+				if (requestEntityTag.startsWith("W/"))
+					requestEntityTag = requestEntityTag.substring("W/".length());
+				if ("*".equals(requestEntityTag) || entityTag.equals(requestEntityTag)) {
+					this.metrics.countCacheLookup("conditionalGet", true);
+					response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					return true;
+				}
+			}
+			this.metrics.countCacheLookup("conditionalGet", false);
+			return false;
+		}
+		
+		//	check modification time (HTTP dates have second precision)
+		if (lastModified > 0) try {
+			long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+			if (ifModifiedSince == -1)
+				return false;
+			boolean notModified = ((lastModified / 1000) <= (ifModifiedSince / 1000));
+			this.metrics.countCacheLookup("conditionalGet", notModified);
+			if (notModified) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return true;
+			}
+		} catch (IllegalArgumentException iae) { /* malformed date, ignore it */ }
+		return false;
 	}
 	
 	private void doFindNameUsages(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -282,33 +1061,141 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 		if (limitString != null) try {
 			limit = Integer.parseInt(limitString);
 		} catch (NumberFormatException nfe) {}
+		String continueAfter = request.getParameter(CONTINUE_AFTER_PARAMETER);
+		if ((continueAfter != null) && !isValidContinuationToken(continueAfter)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid continuation token: " + continueAfter));
+			return;
+		}
 		
 		if (((fullTextQueryPredicates == null) || (fullTextQueryPredicates.length == 0)) && (taxNameString == null) && (taxName == null) && (taxNameEpithets == null) && (taxNameRank == null) && (bibRef == null) && (author == null)) {
 			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Empty query.");
 			return;
 		}
 		
-		PooledStringIterator tnuIt = this.findNameUsagesInternal(fullTextQueryPredicates, disjunctive, request.getParameter(USER_PARAMETER), CONCISE_FORMAT.equals(request.getParameter(FORMAT_PARAMETER)), limit, SELF_CANONICAL_ONLY_PARAMETER.equals(request.getParameter(SELF_CANONICAL_ONLY_PARAMETER)), taxNameString, taxName, taxNameEpithets, taxNameRank, nameUsageType, bibRef, author, year, pageNumber);
-		if ((request.getParameter(EXPAND_PARAMETER) != null) && (tnuIt.getException() == null))
+		String format = request.getParameter(FORMAT_PARAMETER);
+		boolean expand = (request.getParameter(EXPAND_PARAMETER) != null);
+		
+		//	JSON output only includes the parses of expanded name usages, as the components come from the plain strings
+		boolean concise = (CONCISE_FORMAT.equals(format) || (isJsonFormat(format) && !expand));
+		PooledStringIterator tnuIt = this.findNameUsagesInternal(fullTextQueryPredicates, disjunctive, request.getParameter(USER_PARAMETER), concise, limit, SELF_CANONICAL_ONLY_PARAMETER.equals(request.getParameter(SELF_CANONICAL_ONLY_PARAMETER)), taxNameString, taxName, taxNameEpithets, taxNameRank, nameUsageType, bibRef, author, year, pageNumber, continueAfter);
+		if (expand && (tnuIt.getException() == null))
 			tnuIt = new ExpandedParsePooledStringIterator(tnuIt);
 		
-		String format = request.getParameter(FORMAT_PARAMETER);
-		Transformer formatter = null;
+		if (isJsonFormat(format)) {
+			this.sendNameUsagesJson(tnuIt, response, JSON_LINES_FORMAT.equals(format), expand);
+			return;
+		}
+		
+		Format formatter = null;
 		if ((format != null) && !CONCISE_FORMAT.equals(format)) try {
-			formatter = XsltUtils.getTransformer(new File(this.dataFolder, format), !"force".equals(request.getParameter("formatCache")));
+			formatter = this.formats.getFormat(format, "force".equals(request.getParameter("formatCache")));
 		}
 		catch (IOException ioe) {
 			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid format: " + format));
 			return;
 		}
-		response.setCharacterEncoding(ENCODING);
-		response.setContentType("text/xml");
-		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
-		if (formatter != null)
-			bw = new BufferedWriter(XsltUtils.wrap(bw, formatter));
-		this.sendNameUsages(tnuIt, bw, !CONCISE_FORMAT.equals(format));
-		bw.flush();
-		bw.close();
+		response.setCharacterEncoding(ENCODING);
+		response.setContentType("text/xml");
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
+		this.sendNameUsages(tnuIt, bw, !CONCISE_FORMAT.equals(format), formatter);
+	}
+	
+	private static boolean isJsonFormat(String format) {
+		return (JSON_FORMAT.equals(format) || JSON_LINES_FORMAT.equals(format));
+	}
+	
+	private void sendNameUsagesJson(PooledStringIterator strings, HttpServletResponse response, boolean jsonLines, boolean writeParsed) throws IOException {
+		if (strings.getException() != null) {
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, strings.getException().getMessage());
+			return;
+		}
+		int phase = this.metrics.enterPhase(ServletMetrics.SERIALIZATION_PHASE);
+		try {
+			response.setCharacterEncoding(ENCODING);
+			NameUsageJsonWriter nujw = new NameUsageJsonWriter(new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING)), jsonLines, writeParsed);
+			response.setContentType(nujw.getContentType());
+			while (strings.hasNextString()) {
+				nujw.writeString(strings.getNextString());
+				this.metrics.countRows(1);
+			}
+			nujw.close();
+		}
+		finally {
+			this.metrics.exitPhase(phase);
+		}
+	}
+	
+	/**
+	 * JSON writer for name usages, adding the components of the name usages
+	 * to the generic properties. The components come right from the plain
+	 * strings, so there is no need for the parses.
+	 * 
+	 * @author sautter
+	 */
+	private static class NameUsageJsonWriter extends PooledStringJsonWriter {
+		NameUsageJsonWriter(Writer out, boolean jsonLines, boolean writeParsed) {
+			super(out, NAME_USAGE_SET_NODE_TYPE, jsonLines, writeParsed);
+		}
+		protected void writeDetails(PooledString string) throws IOException {
+			String stringPlain = string.getStringPlain();
+			if ((stringPlain == null) || !TaxonNameUsage.isValid(stringPlain))
+				return;
+			TaxonNameUsage tnu = TaxonNameUsage.parseTaxonNameUsage(stringPlain);
+			this.writeProperty(NAME_STRING_ID_PROPERTY, tnu.nameStringId);
+			this.writeProperty(TAXON_NAME_ID_PROPERTY, tnu.taxonNameId);
+			this.writeProperty(NAME_USAGE_TYPE_PROPERTY, tnu.nameUsageType);
+			this.writeProperty(NAME_USAGE_SUB_TYPE_PROPERTY, tnu.nameUsageSubType);
+			this.writeProperty(BIB_REF_ID_PROPERTY, tnu.bibRefId);
+			this.writeProperty(PAGE_NUMBER_PROPERTY, tnu.pageNumber);
+		}
+	}
+	
+	private void sendNameUsages(PooledStringIterator strings, BufferedWriter bw, boolean full, Format format) throws IOException {
+		int phase = this.metrics.enterPhase(ServletMetrics.SERIALIZATION_PHASE);
+		try {
+			this.doSendNameUsages(strings, bw, full, format);
+		}
+		finally {
+			this.metrics.exitPhase(phase);
+		}
+	}
+	
+	private void doSendNameUsages(PooledStringIterator strings, BufferedWriter bw, boolean full, Format format) throws IOException {
+		
+		//	no formatting, send data right away
+		if (format == null) {
+			this.sendNameUsages(strings, bw, full);
+			bw.flush();
+			bw.close();
+		}
+		
+		//	transform name usages one by one, so we don't have to hold them all in memory
+		else if (format.recordWise) {
+			String nameUsageSetStart = ("<" + NAME_USAGE_SET_NODE_TYPE + TNU_XML_NAMESPACE_ATTRIBUTE + " " + this.getXmlNamespaceUriBindings() + ">");
+			RecordWriter rw = format.getRecordWriter((nameUsageSetStart.substring(0, (nameUsageSetStart.length() - ">".length())) + "/>"), bw);
+			while (strings.hasNextString()) {
+				StringWriter nameUsageXml = new StringWriter();
+				BufferedWriter nameUsageBw = new BufferedWriter(nameUsageXml);
+				nameUsageBw.write(nameUsageSetStart);
+				nameUsageBw.newLine();
+				this.writeNameUsage(strings.getNextString(), nameUsageBw, full);
+				nameUsageBw.newLine();
+				nameUsageBw.write("</" + NAME_USAGE_SET_NODE_TYPE + ">");
+				nameUsageBw.flush();
+				rw.writeRecord(nameUsageXml.toString());
+			}
+			rw.close();
+			bw.flush();
+			bw.close();
+		}
+		
+		//	transform whole result
+		else {
+			BufferedWriter fbw = new BufferedWriter(XsltUtils.wrap(bw, format.getTransformer()));
+			this.sendNameUsages(strings, fbw, full);
+			fbw.flush();
+			fbw.close();
+		}
 	}
 	
 	private void sendNameUsages(PooledStringIterator strings, BufferedWriter bw, boolean full) throws IOException {
@@ -330,39 +1217,85 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 		bw.newLine();
 	}
 	
-	private void writeNameUsage(PooledString string, BufferedWriter bw, boolean full) throws IOException {
+	void writeNameUsage(PooledString string, BufferedWriter bw, boolean full) throws IOException {
+		this.metrics.countRows(1);
 		bw.write("<" + NAME_USAGE_NODE_TYPE);
-		bw.write(" " + STRING_ID_ATTRIBUTE + "=\"" + string.id + "\"");
-		if ((string.getCanonicalStringID() != null) && (string.getCanonicalStringID().length() != 0))
-			bw.write(" " + CANONICAL_STRING_ID_ATTRIBUTE + "=\"" + string.getCanonicalStringID() + "\"");
-		bw.write(" " + CREATE_TIME_ATTRIBUTE + "=\"" + TIMESTAMP_DATE_FORMAT.format(new Date(string.getCreateTime())) + "\"");
-		bw.write(" " + CREATE_DOMAIN_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(string.getCreateDomain()) + "\"");
-		bw.write(" " + CREATE_USER_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(string.getCreateUser()) + "\"");
-		bw.write(" " + UPDATE_TIME_ATTRIBUTE + "=\"" + TIMESTAMP_DATE_FORMAT.format(new Date(string.getUpdateTime())) + "\"");
-		bw.write(" " + UPDATE_DOMAIN_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(string.getUpdateDomain(), true) + "\"");
-		bw.write(" " + UPDATE_USER_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(string.getUpdateUser(), true) + "\"");
+		bw.write(" " + STRING_ID_ATTRIBUTE + "=\"");
+		bw.write(string.id);
+		bw.write("\"");
+		if ((string.getCanonicalStringID() != null) && (string.getCanonicalStringID().length() != 0)) {
+			bw.write(" " + CANONICAL_STRING_ID_ATTRIBUTE + "=\"");
+			bw.write(string.getCanonicalStringID());
+			bw.write("\"");
+		}
+		bw.write(" " + CREATE_TIME_ATTRIBUTE + "=\"");
+		TimestampFormatter.write(string.getCreateTime(), bw);
+		bw.write("\"");
+		bw.write(" " + CREATE_DOMAIN_ATTRIBUTE + "=\"");
+		bw.write(AnnotationUtils.escapeForXml(string.getCreateDomain()));
+		bw.write("\"");
+		bw.write(" " + CREATE_USER_ATTRIBUTE + "=\"");
+		bw.write(AnnotationUtils.escapeForXml(string.getCreateUser()));
+		bw.write("\"");
+		bw.write(" " + UPDATE_TIME_ATTRIBUTE + "=\"");
+		TimestampFormatter.write(string.getUpdateTime(), bw);
+		bw.write("\"");
+		bw.write(" " + UPDATE_DOMAIN_ATTRIBUTE + "=\"");
+		bw.write(AnnotationUtils.escapeForXml(string.getUpdateDomain(), true));
+		bw.write("\"");
+		bw.write(" " + UPDATE_USER_ATTRIBUTE + "=\"");
+		bw.write(AnnotationUtils.escapeForXml(string.getUpdateUser(), true));
+		bw.write("\"");
 		bw.write(" " + DELETED_ATTRIBUTE + "=\"" + (string.isDeleted() ? "true" : "false") + "\"");
 		
-		if (!full && (string.getParseChecksum() != null) && (string.getParseChecksum().length() != 0))
-			bw.write(" " + PARSE_CHECKSUM_ATTRIBUTE + "=\"" + string.getParseChecksum() + "\"");
+		if (!full && (string.getParseChecksum() != null) && (string.getParseChecksum().length() != 0)) {
+			bw.write(" " + PARSE_CHECKSUM_ATTRIBUTE + "=\"");
+			bw.write(string.getParseChecksum());
+			bw.write("\"");
+		}
 		bw.write(">");
 		bw.newLine();
-		bw.write("<" + NAME_USAGE_PLAIN_NODE_TYPE + ">" + AnnotationUtils.escapeForXml(string.getStringPlain()) + "</" + NAME_USAGE_PLAIN_NODE_TYPE + ">");
+		bw.write("<" + NAME_USAGE_PLAIN_NODE_TYPE + ">");
+		bw.write(AnnotationUtils.escapeForXml(string.getStringPlain()));
+		bw.write("</" + NAME_USAGE_PLAIN_NODE_TYPE + ">");
 		bw.newLine();
-		if (full) {
-			MutableAnnotation parsedString = SgmlDocumentReader.readDocument(new StringReader(string.getStringParsed()));
-			if (parsedString != null) {
-				bw.write("<" + NAME_USAGE_PARSED_NODE_TYPE + ">");
-				bw.newLine();
-				AnnotationUtils.writeXML(parsedString, bw);
-				bw.newLine();
-				bw.write("</" + NAME_USAGE_PARSED_NODE_TYPE + ">");
-				bw.newLine();
-			}
-		}
+		if (full)
+			writeParsedString(string.getStringParsed(), bw);
 		bw.write("</" + NAME_USAGE_NODE_TYPE + ">");
 	}
 	
+	/* The parsed strings we get from our own and the super class's pooled
+	 * strings come out of AnnotationUtils.writeXML() in the first place, so
+	 * we can echo them as they are instead of reading them into a document
+	 * and writing them right back. We only need to cut any XML declaration or
+	 * trailing whitespace, as the parse is embedded in the response. */
+	private static void writeParsedString(String stringParsed, BufferedWriter bw) throws IOException {
+		if (stringParsed == null)
+			return;
+		int start = 0;
+		while ((start < stringParsed.length()) && (stringParsed.charAt(start) <= ' '))
+			start++;
+		if (stringParsed.startsWith("<?", start)) {
+			int declEnd = stringParsed.indexOf("?>", start);
+			if (declEnd == -1)
+				return;
+			start = (declEnd + "?>".length());
+			while ((start < stringParsed.length()) && (stringParsed.charAt(start) <= ' '))
+				start++;
+		}
+		int end = stringParsed.length();
+		while ((end > start) && (stringParsed.charAt(end - 1) <= ' '))
+			end--;
+		if (end <= start)
+			return;
+		bw.write("<" + NAME_USAGE_PARSED_NODE_TYPE + ">");
+		bw.newLine();
+		bw.write(stringParsed, start, (end - start));
+		bw.newLine();
+		bw.write("</" + NAME_USAGE_PARSED_NODE_TYPE + ">");
+		bw.newLine();
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#extendIndexData(de.uka.ipd.idaho.onn.stringPool.StringPoolServlet.ParsedStringIndexData, de.uka.ipd.idaho.gamta.MutableAnnotation)
 	 */
@@ -381,6 +1314,48 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 		indexData.addIndexAttribute(BIB_REF_ID_COLUMN_NAME, tnu.bibRefId);
 		indexData.addIndexAttribute(BIB_REF_ID_HASH_COLUMN_NAME, ("" + tnu.bibRefId.hashCode()));
 		indexData.addIndexAttribute(PAGE_NUMBER_COLUMN_NAME, ("" + tnu.pageNumber));
+		
+		//	drop the file the default storage just wrote if we derive parses, or move parse to pack store
+		String nameUsageId = this.getCheckedStringId(stringParsed);
+		if (this.derivedParses && (nameUsageId != null))
+			ParsedStringPack.getParsedStringFile(this.parsedStringsFolder, nameUsageId).delete();
+		else if ((this.parsedStringPack != null) && (nameUsageId != null) && this.parsedStringPack.storeParsedString(nameUsageId, stringParsed))
+			ParsedStringPack.getParsedStringFile(this.parsedStringsFolder, nameUsageId).delete();
+		
+		//	update fact table if using normalized storage
+		if ((nameUsageId != null) && (this.nameUsageFactTableName != null))
+			this.storeNameUsageFacts(nameUsageId, tnu.nameStringId, tnu.taxonNameId, tnu.nameUsageTypeCode, tnu.nameUsageSubTypeCode, tnu.bibRefId, tnu.pageNumber);
+		
+		//	make sure referenced entities are in trigram index
+		if (this.trigramTableName != null) {
+			this.indexEntityTrigrams(NAME_STRING_ENTITY_TYPE, tnu.nameStringId);
+			this.indexEntityTrigrams(TAXON_NAME_ENTITY_TYPE, tnu.taxonNameId);
+			this.indexEntityTrigrams(BIB_REF_ENTITY_TYPE, tnu.bibRefId);
+		}
+		
+		//	clear cached expanded version
+		if ((nameUsageId != null) && (this.expansionCache != null))
+			this.expansionCache.invalidate(nameUsageId);
+	}
+	
+	/* The index data hooks do not get the ID of the string they are handling,
+	 * but checkParsedString() always sees the very same parse object (on the
+	 * same thread) right before the string is stored, so we remember the ID
+	 * there. Request threads are pooled and the replication thread is
+	 * long-lived, so we clear the remembered parse once an upload completes,
+	 * rather than have it kept alive until the thread stores the next string. */
+	private ThreadLocal checkedStrings = new ThreadLocal();
+	private static class CheckedString {
+		final String stringId;
+		final MutableAnnotation stringParsed;
+		CheckedString(String stringId, MutableAnnotation stringParsed) {
+			this.stringId = stringId;
+			this.stringParsed = stringParsed;
+		}
+	}
+	private String getCheckedStringId(MutableAnnotation stringParsed) {
+		CheckedString cs = ((CheckedString) this.checkedStrings.get());
+		return (((cs != null) && (cs.stringParsed == stringParsed)) ? cs.stringId : null);
 	}
 	
 	/* (non-Javadoc)
@@ -403,6 +1378,7 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#checkParsedString(java.lang.String, java.lang.String, de.uka.ipd.idaho.gamta.MutableAnnotation)
 	 */
 	protected String checkParsedString(String stringId, String stringPlain, MutableAnnotation stringParsed) {
+		this.checkedStrings.set(new CheckedString(stringId, stringParsed));
 		
 		//	check tokens
 		for (int t = 0; t < stringParsed.size(); t++) {
@@ -424,49 +1400,357 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 	
 	/**
 	 * Overwrites ID generation to use UUID version 5 with 'globalnames.org' in
-	 * the DNS namespace, also using an instance pool for increased performance.
-	 * However, the UUIDs are converted to plain 32 character HEX strings to
-	 * comply with the contract of this method.
+	 * the DNS namespace, using a generator that keeps its digest state per
+	 * thread rather than synchronizing. However, the UUIDs are converted to
+	 * plain 32 character HEX strings to comply with the contract of this
+	 * method.
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#getStringId(java.lang.String)
 	 */
 	protected String getStringId(String string) throws IOException {
-		NameBasedGenerator nbg = null;
-		try {
-			nbg = getUuidGenerator();
-			UUID id = nbg.generate(string.getBytes("UTF-8"));
-			String ids = id.toString().replaceAll("\\-", "").toUpperCase();
-			return ids;
-		}
-		finally {
-			returnUuidGenerator(nbg);
+		return idGenerator.generateHex(string);
+	}
+	private static final NameBasedIdGenerator idGenerator = new NameBasedIdGenerator(NameBasedIdGenerator.NAMESPACE_DNS, "globalnames.org");
+	
+	private static final String TRIGRAM_TABLE_NAME_SUFFIX = "Trigrams";
+	private static final String TRIGRAM_COLUMN_NAME = "Trigram";
+	
+	private String trigramTableName = null;
+	private final Object trigramIndexLock = new Object();
+	private volatile boolean trigramIndexReady = false;
+	private Map trigramIndexedEntities = Collections.synchronizedMap(new LinkedHashMap(1024, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return (this.size() > 65536);
 		}
+	});
+	
+	private void initTrigramIndex() throws ServletException {
+		String externalDataName = this.getStringDataTableName().substring(0, (this.getStringDataTableName().length() - PARSED_STRING_TABLE_NAME_SUFFIX.length()));
+		
+		//	produce trigram table
+		TableDefinition ttd = new TableDefinition(externalDataName + TRIGRAM_TABLE_NAME_SUFFIX);
+		ttd.addColumn(TRIGRAM_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, 3);
+		ttd.addColumn(ENTITY_TYPE_COLUMN_NAME, TableDefinition.CHAR_DATATYPE, 1);
+		ttd.addColumn(ENTITY_ID_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, ID_COLUMN_LENGTH);
+		ttd.addColumn(ENTITY_ID_HASH_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		if (!this.io.ensureTable(ttd, true))
+			throw new ServletException("TaxonNameUsageBank: Cannot create trigram index table.");
+		this.trigramTableName = ttd.getTableName();
+		this.io.indexColumn(this.trigramTableName, TRIGRAM_COLUMN_NAME);
+		this.io.indexColumn(this.trigramTableName, ENTITY_ID_HASH_COLUMN_NAME);
+		
+		//	index entities referenced by existing name usages in the background (trigram index is used in searches only after that is complete)
+		Thread backfiller = new Thread("TnuBankTrigramBackfill") {
+			public void run() {
+				backfillTrigramIndex();
+			}
+		};
+		backfiller.setDaemon(true);
+		backfiller.start();
 	}
-	private static UUID globalNamesInDns;
-	private static LinkedList uuidGenerators = new LinkedList();
-	private static NameBasedGenerator getUuidGenerator() throws IOException {
-		synchronized (uuidGenerators) {
-			if (uuidGenerators.size() != 0)
-				return ((NameBasedGenerator) uuidGenerators.removeFirst());
-			if (globalNamesInDns == null) {
-				NameBasedGenerator nbg = Generators.nameBasedGenerator(NameBasedGenerator.NAMESPACE_DNS);
-				globalNamesInDns = nbg.generate("globalnames.org");
+	
+	private void backfillTrigramIndex() {
+		System.out.println("TaxonNameUsageBank: backfilling trigram index ...");
+		String[] idColumnNames = {NAME_STRING_ID_COLUMN_NAME, TAXON_NAME_ID_COLUMN_NAME, BIB_REF_ID_COLUMN_NAME};
+		char[] entityTypes = {NAME_STRING_ENTITY_TYPE, TAXON_NAME_ENTITY_TYPE, BIB_REF_ENTITY_TYPE};
+		for (int t = 0; t < entityTypes.length; t++) {
+			
+			//	page through referenced IDs (keyset paging guarantees progress even if some entity turns out not to exist)
+			String lastId = "";
+			int indexed = 0;
+			while (true) {
+				String query = "SELECT DISTINCT " + idColumnNames[t] + 
+						" FROM " + this.getStringIndexTableName() + 
+						" WHERE " + idColumnNames[t] + " > '" + EasyIO.sqlEscape(lastId) + "'" + 
+						" ORDER BY " + idColumnNames[t] + 
+						" LIMIT 256" +
+						";";
+				ArrayList ids = new ArrayList();
+				SqlQueryResult sqr = null;
+				try {
+					sqr = this.io.executeSelectQuery(query, true); // using copy, we release the lock before we write the trigram table
+					while (sqr.next())
+						ids.add(sqr.getString(0));
+				}
+				catch (SQLException sqle) {
+					System.out.println("TaxonNameUsageBank: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while backfilling trigram index.");
+					System.out.println("  query was " + query);
+					return;
+				}
+				finally {
+					if (sqr != null)
+						sqr.close();
+				}
+				if (ids.isEmpty())
+					break;
+				lastId = ((String) ids.get(ids.size() - 1));
+				
+				//	get texts in bulk, and index them
+				HashMap entityTexts = this.getEntityTexts(entityTypes[t], ((String[]) ids.toArray(new String[ids.size()])));
+				for (int i = 0; i < ids.size(); i++) {
+					String entityText = ((String) entityTexts.get(ids.get(i)));
+					if ((entityText != null) && this.indexEntityTrigrams(entityTypes[t], ((String) ids.get(i)), entityText))
+						indexed++;
+				}
 			}
-			return Generators.nameBasedGenerator(globalNamesInDns);
+			System.out.println(" - " + indexed + " entities of type " + entityTypes[t] + " indexed");
+		}
+		
+		//	we're good to go
+		this.trigramIndexReady = true;
+		System.out.println("TaxonNameUsageBank: trigram index complete");
+	}
+	
+	private HashMap getEntityTexts(char entityType, String[] entityIds) {
+		HashMap entityTexts = new HashMap();
+		StringPoolServlet sps = ((entityType == NAME_STRING_ENTITY_TYPE) ? ((StringPoolServlet) this.bbk) : ((entityType == TAXON_NAME_ENTITY_TYPE) ? ((StringPoolServlet) this.txn) : ((StringPoolServlet) this.rbk)));
+		PooledStringIterator entityIt = sps.getStrings(entityIds);
+		while (entityIt.hasNextString()) {
+			PooledString entity = entityIt.getNextString();
+			if (entity.getStringPlain() != null)
+				entityTexts.put(entity.id, entity.getStringPlain());
 		}
+		return entityTexts;
 	}
-	private static void returnUuidGenerator(NameBasedGenerator nbg) {
-		if (nbg == null)
+	
+	private void indexEntityTrigrams(char entityType, String entityId) {
+		if ((entityId == null) || (entityId.length() == 0))
 			return;
-		synchronized (uuidGenerators) {
-			uuidGenerators.addLast(nbg);
+		if (this.trigramIndexedEntities.containsKey(entityType + entityId))
+			return;
+		String[] entityIds = {entityId};
+		String entityText = ((String) this.getEntityTexts(entityType, entityIds).get(entityId));
+		if (entityText != null)
+			this.indexEntityTrigrams(entityType, entityId, entityText);
+	}
+	
+	private boolean indexEntityTrigrams(char entityType, String entityId, String entityText) {
+		if (this.trigramIndexedEntities.containsKey(entityType + entityId))
+			return false;
+		
+		//	synchronize check and insertion to prevent duplicate entries
+		String query = null;
+		synchronized (this.trigramIndexLock) {
+			SqlQueryResult sqr = null;
+			try {
+				
+				//	check if entity indexed before (plain strings never change for a given ID, so once is enough)
+				query = "SELECT " + ENTITY_ID_COLUMN_NAME + 
+						" FROM " + this.trigramTableName + 
+						" WHERE " + ENTITY_ID_HASH_COLUMN_NAME + " = " + entityId.hashCode() + 
+						" AND " + ENTITY_ID_COLUMN_NAME + " = '" + EasyIO.sqlEscape(entityId) + "'" + 
+						" AND " + ENTITY_TYPE_COLUMN_NAME + " = '" + entityType + "'" + 
+						" LIMIT 1" +
+						";";
+				sqr = this.io.executeSelectQuery(query);
+				boolean indexed = sqr.next();
+				sqr.close();
+				sqr = null;
+				if (indexed) {
+					this.trigramIndexedEntities.put((entityType + entityId), Boolean.TRUE);
+					return false;
+				}
+				
+				//	add posting for each distinct trigram
+				String[] trigrams = getTrigrams(entityText.toLowerCase());
+				for (int t = 0; t < trigrams.length; t++) {
+					query = "INSERT INTO " + this.trigramTableName + " (" +
+							TRIGRAM_COLUMN_NAME + 
+							", " + ENTITY_TYPE_COLUMN_NAME + 
+							", " + ENTITY_ID_COLUMN_NAME + 
+							", " + ENTITY_ID_HASH_COLUMN_NAME + 
+							") VALUES (" +
+							"'" + EasyIO.sqlEscape(trigrams[t]) + "'" + 
+							", '" + entityType + "'" + 
+							", '" + EasyIO.sqlEscape(entityId) + "'" + 
+							", " + entityId.hashCode() + 
+							");";
+					this.io.executeUpdateQuery(query);
+				}
+			}
+			catch (SQLException sqle) {
+				System.out.println("TaxonNameUsageBank: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while indexing trigrams.");
+				System.out.println("  query was " + query);
+				return false;
+			}
+			finally {
+				if (sqr != null)
+					sqr.close();
+			}
+		}
+		this.trigramIndexedEntities.put((entityType + entityId), Boolean.TRUE);
+		return true;
+	}
+	
+	private static String[] getTrigrams(String text) {
+		LinkedHashSet trigrams = new LinkedHashSet();
+		for (int c = 0; (c + 3) <= text.length(); c++)
+			trigrams.add(text.substring(c, (c + 3)));
+		return ((String[]) trigrams.toArray(new String[trigrams.size()]));
+	}
+	
+	private String getTextPredicate(String tableAlias, char entityType, String text) {
+		String lcText = text.toLowerCase();
+		String likePredicate = ("lower(" + tableAlias + "." + STRING_TEXT_COLUMN_NAME + ") LIKE '%" + EasyIO.prepareForLIKE(lcText) + "%'");
+		if (!this.trigramIndexReady)
+			return likePredicate;
+		
+		//	too short for trigrams, we have to scan
+		String[] trigrams = getTrigrams(lcText);
+		if (trigrams.length == 0)
+			return likePredicate;
+		
+		//	restrict to entities containing all trigrams of the search text (posting list intersection), and verify actual match with LIKE (trigrams might be in different order)
+		StringBuffer trigramList = new StringBuffer();
+		for (int t = 0; t < trigrams.length; t++) {
+			if (t != 0)
+				trigramList.append(", ");
+			trigramList.append("'" + EasyIO.sqlEscape(trigrams[t]) + "'");
+		}
+		return ("(" + tableAlias + "." + STRING_ID_HASH_COLUMN_NAME + " IN (" +
+					"SELECT " + ENTITY_ID_HASH_COLUMN_NAME + 
+					" FROM " + this.trigramTableName + 
+					" WHERE " + ENTITY_TYPE_COLUMN_NAME + " = '" + entityType + "'" + 
+					" AND " + TRIGRAM_COLUMN_NAME + " IN (" + trigramList.toString() + ")" +
+					" GROUP BY " + ENTITY_ID_HASH_COLUMN_NAME + 
+					" HAVING count(*) >= " + trigrams.length +
+				")" +
+				" AND " + likePredicate + ")");
+	}
+	
+	/* name usage strings consist of HEX IDs, usage type codes, and a few
+	 * punctuation marks only, so any text containing other characters cannot
+	 * match, and we can spare the table scan */
+	private static boolean isNameUsageStringPart(String text) {
+		for (int c = 0; c < text.length(); c++) {
+			if ("0123456789ABCDEFGIJKLNORSUabcdefgijklnorsu()-/@:".indexOf(text.charAt(c)) == -1)
+				return false;
+		}
+		return true;
+	}
+	
+	/* continuation tokens are name usage IDs, i.e., HEX strings, or empty for
+	 * the first page */
+	private static boolean isValidContinuationToken(String continueAfter) {
+		for (int c = 0; c < continueAfter.length(); c++) {
+			if ("0123456789ABCDEFabcdef".indexOf(continueAfter.charAt(c)) == -1)
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Pre-assembled SQL query for one shape of name usage search, i.e., one
+	 * combination of joined tables and present predicates. The predicate
+	 * values are bound into the '?' placeholders on every execution, so only
+	 * they have to be rendered per request.
+	 * 
+	 * @author sautter
+	 */
+	private static class NameUsageQueryPlan {
+		private String[] parts;
+		private int length;
+		NameUsageQueryPlan(String query) {
+			ArrayList parts = new ArrayList();
+			int partStart = 0;
+			for (int c = 0; c < query.length(); c++)
+				if (query.charAt(c) == '?') {
+					parts.add(query.substring(partStart, c));
+					partStart = (c+1);
+				}
+			parts.add(query.substring(partStart));
+			this.parts = ((String[]) parts.toArray(new String[parts.size()]));
+			this.length = query.length();
+		}
+		String bind(ArrayList values) {
+			StringBuffer query = new StringBuffer(this.length + (values.size() * 32));
+			for (int p = 0; p < this.parts.length; p++) {
+				if (p != 0)
+					query.append((String) values.get(p-1));
+				query.append(this.parts[p]);
+			}
+			return query.toString();
+		}
+	}
+	
+	/* query plans by shape, there are only as many as there are combinations of joins and predicates */
+	private Map nameUsageQueryPlans = Collections.synchronizedMap(new HashMap());
+	
+	/* codes for the parts of a name usage query shape, each standing for a
+	 * fixed predicate skeleton, so the cache key is built without assembling
+	 * any SQL, and the skeleton only on first use of a shape */
+	private static final char OPEN_FULL_TEXT_SHAPE = '(';
+	private static final char OR_SHAPE = '|';
+	private static final char NAME_USAGE_STRING_SHAPE = 's';
+	private static final char CLOSE_FULL_TEXT_SHAPE = ')';
+	private static final char NO_FULL_TEXT_SHAPE = '*';
+	private static final char AND_SHAPE = '&';
+	private static final char RANK_SHAPE = 'k';
+	private static final char AUTHOR_SHAPE = 'a';
+	private static final char YEAR_SHAPE = 'y';
+	private static final char PAGE_NUMBER_SHAPE = 'p';
+	private static final char NAME_USAGE_TYPE_SHAPE = 'u';
+	private static final char USER_SHAPE = 'w';
+	private static final char SELF_CANONICAL_SHAPE = 'c';
+	private static final char CONTINUE_AFTER_SHAPE = 'n';
+	private static final char ORDER_SHAPE = 'o';
+	private static final char LIMIT_SHAPE = 'l';
+	private static final char RANK_EPITHET_SHAPE_BASE = '0'; // plus index of primary rank
+	
+	private String getNameUsageQueryWhere(String shape, boolean useFct) {
+		StringBuffer where = new StringBuffer();
+		for (int c = 1; c < shape.length(); c++) {
+			char sc = shape.charAt(c);
+			if (sc == OPEN_FULL_TEXT_SHAPE)
+				where.append("(1=0");
+			else if (sc == OR_SHAPE)
+				where.append(" " + "OR" + " ?");
+			else if (sc == NAME_USAGE_STRING_SHAPE)
+				where.append(" " + "OR" + " lower(data." + STRING_TEXT_COLUMN_NAME + ") LIKE ?");
+			else if (sc == CLOSE_FULL_TEXT_SHAPE)
+				where.append(")");
+			else if (sc == NO_FULL_TEXT_SHAPE)
+				where.append("(1=1)");
+			else if (sc == AND_SHAPE)
+				where.append(" " + "AND" + " ?");
+			else if (sc == RANK_SHAPE)
+				where.append(" " + "AND" + " lower(bbk." + STRING_TYPE_COLUMN_NAME + ") LIKE ?");
+			else if (sc == AUTHOR_SHAPE)
+				where.append(" " + "AND" + " rbkidx." + "DocAuthor" + " LIKE ?");
+			else if (sc == YEAR_SHAPE)
+				where.append(" " + "AND" + " rbkidx." + "DocDate" + " LIKE ?");
+			else if (sc == PAGE_NUMBER_SHAPE)
+				where.append(" " + "AND" + " " + (useFct ? "fct" : "idx") + "." + PAGE_NUMBER_COLUMN_NAME + " = ?");
+			else if (sc == NAME_USAGE_TYPE_SHAPE)
+				where.append(" AND ((" + (useFct ? "fct" : "idx") + "." + NAME_USAGE_TYPE_COLUMN_NAME + " = ?) OR (" + (useFct ? "fct" : "idx") + "." + NAME_USAGE_SUB_TYPE_COLUMN_NAME + " = ?))");
+			else if (sc == USER_SHAPE)
+				where.append(" AND ((data." + CREATE_USER_COLUMN_NAME + " LIKE ?) OR (data." + UPDATE_USER_COLUMN_NAME + " LIKE ?))");
+			else if (sc == SELF_CANONICAL_SHAPE)
+				where.append(" AND (data." + STRING_ID_HASH_COLUMN_NAME + " = data." + CANONICAL_STRING_ID_HASH_COLUMN_NAME + " OR data." + CANONICAL_STRING_ID_COLUMN_NAME + " = '')");
+			else if (sc == CONTINUE_AFTER_SHAPE)
+				where.append(" AND ((data." + STRING_ID_HASH_COLUMN_NAME + " > ?) OR ((data." + STRING_ID_HASH_COLUMN_NAME + " = ?) AND (data." + STRING_ID_COLUMN_NAME + " > ?)))");
+			else if (sc == ORDER_SHAPE)
+				where.append(" ORDER BY data." + STRING_ID_HASH_COLUMN_NAME + ", data." + STRING_ID_COLUMN_NAME);
+			else if (sc == LIMIT_SHAPE)
+				where.append(" LIMIT ?");
+			else if ((RANK_EPITHET_SHAPE_BASE <= sc) && (sc < (RANK_EPITHET_SHAPE_BASE + this.primaryRankNames.length))) {
+				String rankName = this.primaryRankNames[sc - RANK_EPITHET_SHAPE_BASE];
+				where.append(" " + "AND" + " txnidx.tx" + rankName.substring(0, 1).toUpperCase() + rankName.substring(1) + " LIKE ?");
+			}
+			else break; // join flags start here
 		}
+		return where.toString();
+	}
+	
+	private static String getLikeValue(String value) {
+		return ("'%" + EasyIO.prepareForLIKE(value) + "%'");
 	}
 	
-	private PooledStringIterator findNameUsagesInternal(String[] fullTextQueryPredicates, boolean disjunctive, String user, boolean concise, int limit, boolean selfCanonicalOnly, String taxNameString, String taxName, Properties taxNameEpithets, String taxNameRank, String nameUsageType, String bibRef, String author, int year, int pageNumber) {
+	private PooledStringIterator findNameUsagesInternal(String[] fullTextQueryPredicates, boolean disjunctive, String user, boolean concise, int limit, boolean selfCanonicalOnly, String taxNameString, String taxName, Properties taxNameEpithets, String taxNameRank, String nameUsageType, String bibRef, String author, int year, int pageNumber, String continueAfter) {
 		String fullTextPredicate = (((fullTextQueryPredicates != null) && (fullTextQueryPredicates.length != 0)) ? fullTextQueryPredicates[0] : null);
 		boolean useBbk = ((fullTextPredicate != null) || (taxNameString != null) || (taxNameRank != null));
 		boolean useTxn = ((fullTextPredicate != null) || (taxName != null));
 		boolean useTxnIdx = false;
+		boolean useTxnHrc = false;
 		boolean useRbk = ((fullTextPredicate != null) || (bibRef != null));
 		boolean useRbkIdx = ((author != null) || (year > -1));
 		
@@ -474,53 +1758,151 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 		if (nameUsageTypeCode == null)
 			nameUsageTypeCode = ((nameUsageType == null) ? null : ((String) nameUsageSubTypeCodes.get(nameUsageType)));
 		
-		StringBuffer where = new StringBuffer("(1=0");
+		//	use fact table instead of index table if normalized storage is active
+		boolean useFct = this.normalizedStorageReady;
+		
+		//	record shape of predicates, collecting values alongside
+		ArrayList values = new ArrayList();
+		StringBuffer shape = new StringBuffer();
+		shape.append(useFct ? 'F' : 'I');
 		if (fullTextPredicate != null) {
-			where.append(" " + "OR" + " lower(bbk." + STRING_TEXT_COLUMN_NAME + ") LIKE '%" + EasyIO.prepareForLIKE(fullTextPredicate.toLowerCase()) + "%'");
-			where.append(" " + "OR" + " lower(txn." + STRING_TEXT_COLUMN_NAME + ") LIKE '%" + EasyIO.prepareForLIKE(fullTextPredicate.toLowerCase()) + "%'");
-			where.append(" " + "OR" + " lower(rbk." + STRING_TEXT_COLUMN_NAME + ") LIKE '%" + EasyIO.prepareForLIKE(fullTextPredicate.toLowerCase()) + "%'");
-			where.append(" " + "OR" + " lower(data." + STRING_TEXT_COLUMN_NAME + ") LIKE '%" + EasyIO.prepareForLIKE(fullTextPredicate.toLowerCase()) + "%'");
-		}
-		where.append(")");
-		if (where.length() < 6)
-			where = new StringBuffer("(1=1)");
-		
-		if (taxNameString != null)
-			where.append(" " + "AND" + " lower(bbk." + STRING_TEXT_COLUMN_NAME + ") LIKE '%" + EasyIO.prepareForLIKE(taxNameString.toLowerCase()) + "%'");
-		if (taxName != null)
-			where.append(" " + "AND" + " lower(txn." + STRING_TEXT_COLUMN_NAME + ") LIKE '%" + EasyIO.prepareForLIKE(taxName.toLowerCase()) + "%'");
+			shape.append(OPEN_FULL_TEXT_SHAPE);
+			shape.append(OR_SHAPE);
+			values.add(this.getTextPredicate("bbk", NAME_STRING_ENTITY_TYPE, fullTextPredicate));
+			shape.append(OR_SHAPE);
+			values.add(this.getTextPredicate("txn", TAXON_NAME_ENTITY_TYPE, fullTextPredicate));
+			shape.append(OR_SHAPE);
+			values.add(this.getTextPredicate("rbk", BIB_REF_ENTITY_TYPE, fullTextPredicate));
+			if (isNameUsageStringPart(fullTextPredicate)) {
+				shape.append(NAME_USAGE_STRING_SHAPE);
+				values.add(getLikeValue(fullTextPredicate.toLowerCase()));
+			}
+			shape.append(CLOSE_FULL_TEXT_SHAPE);
+		}
+		else shape.append(NO_FULL_TEXT_SHAPE);
+		int predicateShapeStart = shape.length();
+		
+		if (taxNameString != null) {
+			shape.append(AND_SHAPE);
+			values.add(this.getTextPredicate("bbk", NAME_STRING_ENTITY_TYPE, taxNameString));
+		}
+		if (taxName != null) {
+			shape.append(AND_SHAPE);
+			values.add(this.getTextPredicate("txn", TAXON_NAME_ENTITY_TYPE, taxName));
+		}
 		if (taxNameEpithets != null)
 			for (int r = 0; r < this.primaryRankNames.length; r++) {
 				String rankEpithet = taxNameEpithets.getProperty(this.primaryRankNames[r]);
-				if (rankEpithet != null) {
+				if (rankEpithet == null)
+					continue;
+				
+				//	use indexed epithet prefix match in taxonomic hierarchy index if configured ...
+				String txnHrcPredicate;
+				try {
+					txnHrcPredicate = (useFct ? this.txn.getEpithetPredicate(("txnk." + ENTITY_ID_HASH_COLUMN_NAME), ("txnk." + ENTITY_ID_COLUMN_NAME), this.primaryRankNames[r], rankEpithet) : this.txn.getEpithetPredicate(("idx." + TAXON_NAME_ID_HASH_COLUMN_NAME), ("idx." + TAXON_NAME_ID_COLUMN_NAME), this.primaryRankNames[r], rankEpithet));
+				}
+				catch (IOException ioe) {
+					return new ExceptionPSI(ioe);
+				}
+				if (txnHrcPredicate != null) {
+					useTxnHrc = true;
+					shape.append(AND_SHAPE);
+					values.add(txnHrcPredicate);
+				}
+				
+				//	... and use substring match on rank group columns of index table otherwise
+				else {
 					useTxnIdx = true;
-					where.append(" " + "AND" + " txnidx.tx" + this.primaryRankNames[r].substring(0, 1).toUpperCase() + this.primaryRankNames[r].substring(1) + " LIKE '%" + EasyIO.prepareForLIKE(rankEpithet.toLowerCase()) + "%'");
+					shape.append((char) (RANK_EPITHET_SHAPE_BASE + r));
+					values.add(getLikeValue(rankEpithet.toLowerCase()));
 				}
 			}
-		if (taxNameRank != null)
-			where.append(" " + "AND" + " lower(bbk." + STRING_TYPE_COLUMN_NAME + ") LIKE '%" + EasyIO.prepareForLIKE(taxNameRank.toLowerCase()) + "%'");
-		if (bibRef != null)
-			where.append(" " + "AND" + " lower(rbk." + STRING_TEXT_COLUMN_NAME + ") LIKE '%" + EasyIO.prepareForLIKE(bibRef.toLowerCase()) + "%'");
-		if (author != null)
-			where.append(" " + "AND" + " rbkidx." + "DocAuthor" + " LIKE '%" + EasyIO.prepareForLIKE(author.toLowerCase()) + "%'");
-		if (year > -1)
-			where.append(" " + "AND" + " rbkidx." + "DocDate" + " LIKE '" + year + "%'");
-		if (pageNumber > -1)
-			where.append(" " + "AND" + " idx." + PAGE_NUMBER_COLUMN_NAME + " = " + pageNumber + "");
-		
-		if (nameUsageTypeCode != null)
-			where.append(" AND ((idx." + NAME_USAGE_TYPE_COLUMN_NAME + " = '" + EasyIO.prepareForLIKE(nameUsageTypeCode) + "') OR (idx." + NAME_USAGE_SUB_TYPE_COLUMN_NAME + " = '" + EasyIO.prepareForLIKE(nameUsageTypeCode) + "'))");
-		if (user != null)
-			where.append(" AND ((data." + CREATE_USER_COLUMN_NAME + " LIKE '%" + EasyIO.prepareForLIKE(user) + "%') OR (data." + UPDATE_USER_COLUMN_NAME + " LIKE '%" + EasyIO.prepareForLIKE(user) + "%'))");
+		if (taxNameRank != null) {
+			shape.append(RANK_SHAPE);
+			values.add(getLikeValue(taxNameRank.toLowerCase()));
+		}
+		if (bibRef != null) {
+			shape.append(AND_SHAPE);
+			values.add(this.getTextPredicate("rbk", BIB_REF_ENTITY_TYPE, bibRef));
+		}
+		if (author != null) {
+			shape.append(AUTHOR_SHAPE);
+			values.add(getLikeValue(author.toLowerCase()));
+		}
+		if (year > -1) {
+			shape.append(YEAR_SHAPE);
+			values.add("'" + year + "%'");
+		}
+		
+		if (pageNumber > -1) {
+			shape.append(PAGE_NUMBER_SHAPE);
+			values.add("" + pageNumber);
+		}
+		
+		if ((nameUsageTypeCode != null) && useFct) {
+			shape.append(NAME_USAGE_TYPE_SHAPE);
+			values.add("" + getCodeNumber(NAME_USAGE_TYPE_CODES, nameUsageTypeCode));
+			values.add("" + getCodeNumber(NAME_USAGE_SUB_TYPE_CODES, nameUsageTypeCode));
+		}
+		else if (nameUsageTypeCode != null) {
+			shape.append(NAME_USAGE_TYPE_SHAPE);
+			values.add("'" + EasyIO.sqlEscape(nameUsageTypeCode) + "'");
+			values.add("'" + EasyIO.sqlEscape(nameUsageTypeCode) + "'");
+		}
+		if (user != null) {
+			shape.append(USER_SHAPE);
+			values.add(getLikeValue(user));
+			values.add(getLikeValue(user));
+		}
 		
 		//	catch empty predicates
-		if (where.length() < 6)
+		if ((fullTextPredicate == null) && (shape.length() == predicateShapeStart))
 			return new ExceptionPSI(new IOException("Invalid query"));
 		
 		//	filter out strings that are not self-canonical
 		if (selfCanonicalOnly)
-			where.append(" AND (data." + STRING_ID_HASH_COLUMN_NAME + " = data." + CANONICAL_STRING_ID_HASH_COLUMN_NAME + " OR data." + CANONICAL_STRING_ID_COLUMN_NAME + " = '')");
+			shape.append(SELF_CANONICAL_SHAPE);
 		
+		//	continue after the last name usage of the previous page (keyset paging in order of ID hash and ID)
+		if ((continueAfter != null) && (continueAfter.length() != 0)) {
+			shape.append(CONTINUE_AFTER_SHAPE);
+			values.add("" + continueAfter.hashCode());
+			values.add("" + continueAfter.hashCode());
+			values.add("'" + EasyIO.sqlEscape(continueAfter) + "'");
+		}
+		if (continueAfter != null)
+			shape.append(ORDER_SHAPE);
+		if (limit > 0) {
+			shape.append(LIMIT_SHAPE);
+			values.add("" + limit);
+		}
+		
+		//	get query plan for this shape, assembling it only on first use
+		shape.append(useBbk ? 'B' : '-').append(useTxn ? 'T' : '-').append(useTxnIdx ? 't' : '-').append(useTxnHrc ? 'h' : '-').append(useRbk ? 'R' : '-').append(useRbkIdx ? 'r' : '-');
+		String shapeKey = shape.toString();
+		NameUsageQueryPlan queryPlan = ((NameUsageQueryPlan) this.nameUsageQueryPlans.get(shapeKey));
+		if (queryPlan == null) {
+			queryPlan = new NameUsageQueryPlan(this.getNameUsageQueryBase(useFct, useBbk, useTxn, useTxnIdx, useTxnHrc, useRbk, useRbkIdx) + " AND " + this.getNameUsageQueryWhere(shapeKey, useFct) + ";");
+			this.nameUsageQueryPlans.put(shapeKey, queryPlan);
+		}
+		String query = queryPlan.bind(values);
+		
+		SqlQueryResult sqr = null;
+		int phase = this.metrics.enterPhase(ServletMetrics.SQL_PHASE);
+		try {
+			sqr = this.io.executeSelectQuery(query);
+		}
+		catch (SQLException sqle) {
+			System.out.println("TaxonNameUsageBank: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while searching name usages.");
+			System.out.println("  query was " + query);
+		}
+		finally {
+			this.metrics.exitPhase(phase);
+		}
+		return new SqlParsedStringIterator(sqr);
+	}
+	
+	private String getNameUsageQueryBase(boolean useFct, boolean useBbk, boolean useTxn, boolean useTxnIdx, boolean useTxnHrc, boolean useRbk, boolean useRbkIdx) {
 		//	assemble fields
 		String fields = (
 				"data." + STRING_ID_COLUMN_NAME + 
@@ -549,7 +1931,27 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 				);
 		
 		//	assemble query
-		String query = "SELECT " + fields +
+		String query;
+		if (useFct) {
+			
+			//	join via integer keys, comparing ID strings only in (comparatively small) entity key table
+			query = "SELECT " + fields +
+				" FROM " + this.getStringDataTableName() + " data" + ", " + this.nameUsageFactTableName + " fct" + (useBbk ? (", " + this.entityKeyTableName + " bbkk" + ", " + this.bbk.getStringDataTableName() + " bbk") : "") + ((useTxn || useTxnIdx || useTxnHrc) ? (", " + this.entityKeyTableName + " txnk") : "") + (useTxn ? (", " + this.txn.getStringDataTableName() + " txn") : "") + (useTxnIdx ? (", " + this.txn.getStringIndexTableName() + " txnidx") : "") + ((useRbk || useRbkIdx) ? (", " + this.entityKeyTableName + " rbkk") : "") + (useRbk ? (", " + this.rbk.getStringDataTableName() + " rbk") : "") + (useRbkIdx ? (", " + this.rbk.getStringIndexTableName() + " rbkidx") : "") +
+				" WHERE 1=1" +
+				" AND (data." + STRING_ID_HASH_COLUMN_NAME + " = fct." + STRING_ID_HASH_COLUMN_NAME + ")" +
+				" AND (data." + STRING_ID_COLUMN_NAME + " = fct." + STRING_ID_COLUMN_NAME + ")" +
+				(useBbk ? (
+						" AND (fct." + NAME_STRING_KEY_COLUMN_NAME + " = bbkk." + ENTITY_KEY_COLUMN_NAME + ")" +
+						getEntityKeyJoin("bbkk", "bbk")
+					) : "") +
+				((useTxn || useTxnIdx || useTxnHrc) ? (" AND (fct." + TAXON_NAME_KEY_COLUMN_NAME + " = txnk." + ENTITY_KEY_COLUMN_NAME + ")") : "") +
+				(useTxn ? getEntityKeyJoin("txnk", "txn") : "") +
+				(useTxnIdx ? getEntityKeyJoin("txnk", "txnidx") : "") +
+				((useRbk || useRbkIdx) ? (" AND (fct." + BIB_REF_KEY_COLUMN_NAME + " = rbkk." + ENTITY_KEY_COLUMN_NAME + ")") : "") +
+				(useRbk ? getEntityKeyJoin("rbkk", "rbk") : "") +
+				(useRbkIdx ? getEntityKeyJoin("rbkk", "rbkidx") : "");
+		}
+		else query = "SELECT " + fields +
 				" FROM " + this.getStringDataTableName() + " data" + ", " + this.getStringIndexTableName() + " idx" + (useBbk ? (", " + this.bbk.getStringDataTableName() + " bbk") : "") + (useTxn ? (", " + this.txn.getStringDataTableName() + " txn") : "") + (useTxnIdx ? (", " + this.txn.getStringIndexTableName() + " txnidx") : "") + (useRbk ? (", " + this.rbk.getStringDataTableName() + " rbk") : "") + (useRbkIdx ? (", " + this.rbk.getStringIndexTableName() + " rbkidx") : "") +
 				" WHERE 1=1" +
 				" AND (data." + STRING_ID_HASH_COLUMN_NAME + " = idx." + STRING_ID_HASH_COLUMN_NAME + ")" +
@@ -573,24 +1975,8 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 				(useRbkIdx ? (
 						" AND (idx." + BIB_REF_ID_HASH_COLUMN_NAME + " = rbkidx." + STRING_ID_HASH_COLUMN_NAME + ")" +
 						" AND (idx." + BIB_REF_ID_COLUMN_NAME + " = rbkidx." + STRING_ID_COLUMN_NAME + ")"
-				) : "") +
-				" AND " + where + 
-				((limit > 0) ? (" LIMIT " + limit) : "") + 
-				";";
-		
-		System.out.println("Query is " + query);
-		SqlQueryResult sqr = null;
-		try {
-			System.out.println("TaxonNameUsageBank: searching ...");
-			sqr = this.io.executeSelectQuery(query);
-			System.out.println("TaxonNameUsageBank: search complete");
-		}
-		catch (SQLException sqle) {
-			System.out.println("TaxonNameUsageBank: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while searching name usages.");
-			System.out.println("  query was " + query);
-		}
-		System.out.println("TaxonNameUsageBank: search result wrapped");
-		return new SqlParsedStringIterator(sqr);
+				) : "");
+		return query;
 	}
 	
 	private class SqlParsedStringIterator implements PooledStringIterator {
@@ -604,14 +1990,20 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 				return true;
 			else if (this.sqr == null)
 				return false;
-			else if (this.sqr.next()) {
-				this.next = new SqlPooledString(this.sqr);
-				return true;
+			int phase = metrics.enterPhase(ServletMetrics.SQL_PHASE);
+			try {
+				if (this.sqr.next()) {
+					this.next = new SqlPooledString(this.sqr);
+					return true;
+				}
+				else {
+					this.sqr.close();
+					this.sqr = null;
+					return false;
+				}
 			}
-			else {
-				this.sqr.close();
-				this.sqr = null;
-				return false;
+			finally {
+				metrics.exitPhase(phase);
 			}
 		}
 		public PooledString getNextString() {
@@ -707,7 +2099,11 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 	 */
 	public PooledString getNameUsage(String nameUsageId, boolean expand) throws IOException {
 		PooledString ps = this.getString(nameUsageId);
-		return ((expand && (ps != null)) ? new ExpandedParsePooledString(ps) : ps);
+		if (expand && (ps != null)) {
+			PooledString[] pss = {ps};
+			return this.expandNameUsages(pss)[0];
+		}
+		else return ps;
 	}
 	
 	/* (non-Javadoc)
@@ -729,7 +2125,7 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#findStrings(java.lang.String[], boolean, java.lang.String, java.lang.String, boolean, int, boolean)
 	 */
 	public PooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly) {
-		return this.findNameUsagesInternal(textPredicates, disjunctive, user, concise, limit, selfCanonicalOnly, null, null, null, null, null, null, null, -1, -1);
+		return this.findNameUsagesInternal(textPredicates, disjunctive, user, concise, limit, selfCanonicalOnly, null, null, null, null, null, null, null, -1, -1, null);
 	}
 	
 	/* (non-Javadoc)
@@ -743,10 +2139,22 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 	 * @see de.uka.ipd.idaho.tnuBank.TnuBankClient#findNameUsages(java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, int, boolean, int, boolean)
 	 */
 	public PooledStringIterator findNameUsages(String user, String taxNameString, String taxName, String taxNameRank, String nameUsageType, String bibRef, int pageNumber, boolean concise, int limit, boolean expand) {
-		PooledStringIterator psi = this.findNameUsagesInternal(null, false, user, concise, limit, false, taxNameString, taxName, null, taxNameRank, nameUsageType, bibRef, null, -1, pageNumber);
+		PooledStringIterator psi = this.findNameUsagesInternal(null, false, user, concise, limit, false, taxNameString, taxName, null, taxNameRank, nameUsageType, bibRef, null, -1, pageNumber, null);
 		return ((expand && (psi.getException() == null)) ? new ExpandedParsePooledStringIterator(psi) : psi);
 	}
 	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.tnuBank.TnuBankClient#findNameUsages(java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, int, boolean, int, java.lang.String, boolean)
+	 */
+	public NameUsagePage findNameUsages(String user, String taxNameString, String taxName, String taxNameRank, String nameUsageType, String bibRef, int pageNumber, boolean concise, int limit, String continueAfter, boolean expand) {
+		if (continueAfter == null)
+			continueAfter = "";
+		else if (!isValidContinuationToken(continueAfter))
+			return new NameUsagePage(new ExceptionPSI(new IOException("Invalid continuation token: " + continueAfter)), limit);
+		PooledStringIterator psi = this.findNameUsagesInternal(null, false, user, concise, limit, false, taxNameString, taxName, null, taxNameRank, nameUsageType, bibRef, null, -1, pageNumber, continueAfter);
+		return new NameUsagePage(((expand && (psi.getException() == null)) ? new ExpandedParsePooledStringIterator(psi) : psi), limit);
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.tnuBank.TnuBankClient#findNameUsages(java.lang.String, java.lang.String, java.util.Properties, java.lang.String, java.lang.String, int, int, int, boolean)
 	 */
@@ -758,64 +2166,184 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 	 * @see de.uka.ipd.idaho.tnuBank.TnuBankClient#findNameUsages(java.lang.String, java.lang.String, java.util.Properties, java.lang.String, java.lang.String, int, int, boolean, int, boolean)
 	 */
 	public PooledStringIterator findNameUsages(String user, String taxNameString, Properties taxNameEpithets, String nameUsageType, String author, int year, int pageNumber, boolean concise, int limit, boolean expand) {
-		PooledStringIterator psi = this.findNameUsagesInternal(null, false, user, concise, limit, false, taxNameString, null, taxNameEpithets, null, nameUsageType, null, author, year, pageNumber);
+		PooledStringIterator psi = this.findNameUsagesInternal(null, false, user, concise, limit, false, taxNameString, null, taxNameEpithets, null, nameUsageType, null, author, year, pageNumber, null);
 		return ((expand && (psi.getException() == null)) ? new ExpandedParsePooledStringIterator(psi) : psi);
 	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.tnuBank.TnuBankClient#findNameUsages(java.lang.String, java.lang.String, java.util.Properties, java.lang.String, java.lang.String, int, int, boolean, int, java.lang.String, boolean)
+	 */
+	public NameUsagePage findNameUsages(String user, String taxNameString, Properties taxNameEpithets, String nameUsageType, String author, int year, int pageNumber, boolean concise, int limit, String continueAfter, boolean expand) {
+		if (continueAfter == null)
+			continueAfter = "";
+		else if (!isValidContinuationToken(continueAfter))
+			return new NameUsagePage(new ExceptionPSI(new IOException("Invalid continuation token: " + continueAfter)), limit);
+		PooledStringIterator psi = this.findNameUsagesInternal(null, false, user, concise, limit, false, taxNameString, null, taxNameEpithets, null, nameUsageType, null, author, year, pageNumber, continueAfter);
+		return new NameUsagePage(((expand && (psi.getException() == null)) ? new ExpandedParsePooledStringIterator(psi) : psi), limit);
+	}
 
+	/* number of name usages whose referenced name strings, taxon names, and
+	 * bibliographic references are resolved in one bulk lookup */
+	private static final int EXPANSION_BATCH_SIZE = 256;
+	
+	/**
+	 * Container for the name strings, taxon names, and bibliographic
+	 * references referenced by a batch of name usages, each one resolved only
+	 * once, no matter how many name usages refer to it. Parsed versions of
+	 * taxon names and bibliographic references are loaded on demand only, so
+	 * name usages whose expanded version is cached do not cause any parsed
+	 * string to be loaded.
+	 * 
+	 * @author sautter
+	 */
+	private static class NameUsageExpansionData {
+		final HashMap nameStrings = new HashMap();
+		final HashMap taxonNames = new HashMap();
+		final HashMap bibRefs = new HashMap();
+	}
+	
+	private NameUsageExpansionData getExpansionData(TaxonNameUsage[] tnus) {
+		
+		//	collect distinct IDs of referenced entities
+		LinkedHashSet nameStringIds = new LinkedHashSet();
+		LinkedHashSet taxonNameIds = new LinkedHashSet();
+		LinkedHashSet bibRefIds = new LinkedHashSet();
+		for (int u = 0; u < tnus.length; u++) {
+			if (tnus[u] == null)
+				continue;
+			nameStringIds.add(tnus[u].nameStringId);
+			if (tnus[u].taxonNameId != null)
+				taxonNameIds.add(tnus[u].taxonNameId);
+			bibRefIds.add(tnus[u].bibRefId);
+		}
+		
+		//	resolve referenced entities in bulk, one query per data source
+		NameUsageExpansionData ned = new NameUsageExpansionData();
+		if (nameStringIds.size() != 0) {
+			PooledStringIterator nameStringIt = this.bbk.getStrings((String[]) nameStringIds.toArray(new String[nameStringIds.size()]));
+			while (nameStringIt.hasNextString()) {
+				PooledString nameString = nameStringIt.getNextString();
+				if (nameString.getStringPlain() != null)
+					ned.nameStrings.put(nameString.id, nameString.getStringPlain());
+			}
+		}
+		if (taxonNameIds.size() != 0) {
+			PooledStringIterator taxonNameIt = this.txn.getStrings((String[]) taxonNameIds.toArray(new String[taxonNameIds.size()]));
+			while (taxonNameIt.hasNextString()) {
+				PooledString taxonName = taxonNameIt.getNextString();
+				ned.taxonNames.put(taxonName.id, taxonName);
+			}
+		}
+		if (bibRefIds.size() != 0) {
+			PooledStringIterator bibRefIt = this.rbk.getStrings((String[]) bibRefIds.toArray(new String[bibRefIds.size()]));
+			while (bibRefIt.hasNextString()) {
+				PooledString bibRef = bibRefIt.getNextString();
+				ned.bibRefs.put(bibRef.id, bibRef);
+			}
+		}
+		return ned;
+	}
+	
+	private static long appendReferenceValidators(StringBuffer validator, TaxonNameUsage tnu, NameUsageExpansionData ned) {
+		if (tnu == null)
+			return -1;
+		long lastModified = -1;
+		validator.append(ned.nameStrings.containsKey(tnu.nameStringId) ? ":+" : ":-");
+		PooledString taxonName = ((tnu.taxonNameId == null) ? null : ((PooledString) ned.taxonNames.get(tnu.taxonNameId)));
+		if (taxonName == null)
+			validator.append(":-");
+		else {
+			validator.append(":" + taxonName.getParseChecksum() + "@" + taxonName.getUpdateTime());
+			lastModified = Math.max(lastModified, taxonName.getUpdateTime());
+		}
+		PooledString bibRef = ((PooledString) ned.bibRefs.get(tnu.bibRefId));
+		if (bibRef == null)
+			validator.append(":-");
+		else {
+			validator.append(":" + bibRef.getParseChecksum() + "@" + bibRef.getUpdateTime());
+			lastModified = Math.max(lastModified, bibRef.getUpdateTime());
+		}
+		return lastModified;
+	}
+	
 	private class ExpandedParsePooledString extends PooledString {
 		PooledString ps;
-		public ExpandedParsePooledString(PooledString ps) {
+		private TaxonNameUsage tnu;
+		private NameUsageExpansionData ned;
+		private String stringParsed = null;
+		ExpandedParsePooledString(PooledString ps, TaxonNameUsage tnu, NameUsageExpansionData ned) {
 			super(ps.id);
 			this.ps = ps;
+			this.tnu = tnu;
+			this.ned = ned;
 		}
 		public String getStringPlain() {
 			return this.ps.getStringPlain();
 		}
 		public String getStringParsed() {
-			TaxonNameUsage tnu = TaxonNameUsage.parseTaxonNameUsage(ps.getStringPlain());
-			final StringBuffer parsedString = new StringBuffer("<taxonNameUsage>");
-			
+			if (this.tnu == null)
+				return this.ps.getStringParsed();
+			if (this.stringParsed != null)
+				return this.stringParsed;
+			int phase = metrics.enterPhase(ServletMetrics.EXPANSION_PHASE);
 			try {
-				PooledString nameStringPs = bbk.getString(tnu.nameStringId);
-				if (nameStringPs != null)
-					parsedString.append("<dwc:scientificName>" + AnnotationUtils.escapeForXml(nameStringPs.getStringPlain()) + "</dwc:scientificName>");
-			} catch (IOException ioe) {}
-			parsedString.append("<dwc:scientificNameID>" + AnnotationUtils.escapeForXml(tnu.nameStringId) + "</dwc:scientificNameID>");
+				return this.expandStringParsed();
+			}
+			finally {
+				metrics.exitPhase(phase);
+			}
+		}
+		private String expandStringParsed() {
 			
-			if (tnu.taxonNameId != null) {
-				MutableAnnotation taxonNameParsed = txn.getStringParsed(tnu.taxonNameId);
-				if (taxonNameParsed != null) try {
-					AnnotationUtils.writeXML(taxonNameParsed, new Writer() {
-						public void write(char[] cbuf, int off, int len) throws IOException {
-							parsedString.append(cbuf, off, len);
-						}
-						public void flush() throws IOException {}
-						public void close() throws IOException {}
-					});
-				} catch (IOException ioe) {}
-				parsedString.append("<dwc:taxonID>" + AnnotationUtils.escapeForXml(tnu.taxonNameId) + "</dwc:taxonID>");
+			//	get referenced entities
+			String nameString = ((String) this.ned.nameStrings.get(this.tnu.nameStringId));
+			PooledString taxonName = ((this.tnu.taxonNameId == null) ? null : ((PooledString) this.ned.taxonNames.get(this.tnu.taxonNameId)));
+			PooledString bibRef = ((PooledString) this.ned.bibRefs.get(this.tnu.bibRefId));
+			
+			//	do cache lookup
+			String cacheKey = null;
+			if (expansionCache != null) {
+				cacheKey = getExpansionCacheKey(this.ps, nameString, taxonName, bibRef);
+				this.stringParsed = expansionCache.get(this.id, cacheKey);
+				metrics.countCacheLookup("expansion", (this.stringParsed != null));
+				if (this.stringParsed != null)
+					return this.stringParsed;
 			}
 			
-			parsedString.append("<nameUsageType>" + ((String) nameUsageTypes.get(tnu.nameUsageTypeCode)) + "</nameUsageType>");
-			if (tnu.nameUsageSubTypeCode != null)
-				parsedString.append("<nameUsageSubType>" + ((String) nameUsageSubTypes.get(tnu.nameUsageSubTypeCode)) + "</nameUsageSubType>");
+			StringBuffer parsedString = new StringBuffer("<taxonNameUsage>");
 			
-			MutableAnnotation bibRefParsed = rbk.getStringParsed(tnu.bibRefId);
-			if (bibRefParsed != null) try {
-				AnnotationUtils.writeXML(bibRefParsed, new Writer() {
-					public void write(char[] cbuf, int off, int len) throws IOException {
-						parsedString.append(cbuf, off, len);
-					}
-					public void flush() throws IOException {}
-					public void close() throws IOException {}
-				});
-			} catch (IOException ioe) {}
-			parsedString.append("<bibRefId>" + AnnotationUtils.escapeForXml(tnu.bibRefId) + "</bibRefId>");
+			if (nameString != null)
+				parsedString.append("<dwc:scientificName>" + AnnotationUtils.escapeForXml(nameString) + "</dwc:scientificName>");
+			parsedString.append("<dwc:scientificNameID>" + AnnotationUtils.escapeForXml(this.tnu.nameStringId) + "</dwc:scientificNameID>");
+			
+			if (this.tnu.taxonNameId != null) {
+				String taxonNameParsed = ((taxonName == null) ? null : taxonName.getStringParsed());
+				if (taxonNameParsed != null)
+					parsedString.append(taxonNameParsed);
+				parsedString.append("<dwc:taxonID>" + AnnotationUtils.escapeForXml(this.tnu.taxonNameId) + "</dwc:taxonID>");
+			}
 			
-			parsedString.append("<pageNumber>" + tnu.pageNumber + "</pageNumber>");
+			parsedString.append("<nameUsageType>" + ((String) nameUsageTypes.get(this.tnu.nameUsageTypeCode)) + "</nameUsageType>");
+			if (this.tnu.nameUsageSubTypeCode != null)
+				parsedString.append("<nameUsageSubType>" + ((String) nameUsageSubTypes.get(this.tnu.nameUsageSubTypeCode)) + "</nameUsageSubType>");
+			
+			String bibRefParsed = ((bibRef == null) ? null : bibRef.getStringParsed());
+			if (bibRefParsed != null)
+				parsedString.append(bibRefParsed);
+			parsedString.append("<bibRefId>" + AnnotationUtils.escapeForXml(this.tnu.bibRefId) + "</bibRefId>");
+			
+			parsedString.append("<pageNumber>" + this.tnu.pageNumber + "</pageNumber>");
 			
 			parsedString.append("</taxonNameUsage>");
-			return parsedString.toString();
+			this.stringParsed = parsedString.toString();
+			
+			//	cache expanded name usage
+			if (expansionCache != null) {
+				String[] referencedIds = {this.tnu.nameStringId, this.tnu.taxonNameId, this.tnu.bibRefId};
+				expansionCache.put(this.id, cacheKey, this.stringParsed, referencedIds);
+			}
+			
+			return this.stringParsed;
 		}
 		public String getParseChecksum() {
 			return this.ps.getParseChecksum();
@@ -858,20 +2386,199 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 		}
 	}
 	
+	/* The cache key combines the parse checksums of the name usage proper and
+	 * all the entities it references, so an update to any one of them changes
+	 * the key, even if the update bypasses the explicit invalidation. */
+	private static String getExpansionCacheKey(PooledString nameUsage, String nameString, PooledString taxonName, PooledString bibRef) {
+		StringBuffer cacheKey = new StringBuffer();
+		cacheKey.append(nameUsage.getParseChecksum());
+		cacheKey.append((nameString == null) ? ":-" : ":+");
+		cacheKey.append(":" + ((taxonName == null) ? "-" : taxonName.getParseChecksum()));
+		cacheKey.append(":" + ((bibRef == null) ? "-" : bibRef.getParseChecksum()));
+		return cacheKey.toString();
+	}
+	
+	private ExpandedNameUsageCache expansionCache = null;
+	
+	/**
+	 * Size bounded LRU cache for expanded name usages. The byte budget is an
+	 * estimate based on the number of characters in the cached parses.
+	 * 
+	 * @author sautter
+	 */
+	private static class ExpandedNameUsageCache {
+		private final long maxBytes;
+		private long bytes = 0;
+		private long hits = 0;
+		private long misses = 0;
+		private LinkedHashMap entries = new LinkedHashMap(1024, 0.75f, true);
+		private HashMap referencingUsageIds = new HashMap();
+		ExpandedNameUsageCache(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+		synchronized String get(String usageId, String key) {
+			CacheEntry ce = ((CacheEntry) this.entries.get(usageId));
+			if ((ce == null) || !ce.key.equals(key)) {
+				this.misses++;
+				return null;
+			}
+			this.hits++;
+			return ce.stringParsed;
+		}
+		synchronized void put(String usageId, String key, String stringParsed, String[] referencedIds) {
+			CacheEntry ce = new CacheEntry(key, stringParsed, referencedIds);
+			if (ce.bytes > this.maxBytes)
+				return;
+			
+			//	store entry
+			this.remove(usageId);
+			this.entries.put(usageId, ce);
+			this.bytes += ce.bytes;
+			for (int r = 0; r < referencedIds.length; r++) {
+				if (referencedIds[r] == null)
+					continue;
+				HashSet usageIds = ((HashSet) this.referencingUsageIds.get(referencedIds[r]));
+				if (usageIds == null) {
+					usageIds = new HashSet(4);
+					this.referencingUsageIds.put(referencedIds[r], usageIds);
+				}
+				usageIds.add(usageId);
+			}
+			
+			//	evict least recently used entries if over budget
+			while (this.bytes > this.maxBytes) {
+				Iterator uit = this.entries.keySet().iterator();
+				if (uit.hasNext())
+					this.remove((String) uit.next());
+				else break;
+			}
+		}
+		synchronized void invalidate(String id) {
+			
+			//	remove name usage proper
+			this.remove(id);
+			
+			//	remove name usages referencing argument ID
+			HashSet usageIds = ((HashSet) this.referencingUsageIds.remove(id));
+			if (usageIds == null)
+				return;
+			String[] uids = ((String[]) usageIds.toArray(new String[usageIds.size()]));
+			for (int u = 0; u < uids.length; u++)
+				this.remove(uids[u]);
+		}
+		private void remove(String usageId) {
+			CacheEntry ce = ((CacheEntry) this.entries.remove(usageId));
+			if (ce == null)
+				return;
+			this.bytes -= ce.bytes;
+			for (int r = 0; r < ce.referencedIds.length; r++) {
+				if (ce.referencedIds[r] == null)
+					continue;
+				HashSet usageIds = ((HashSet) this.referencingUsageIds.get(ce.referencedIds[r]));
+				if (usageIds == null)
+					continue;
+				usageIds.remove(usageId);
+				if (usageIds.isEmpty())
+					this.referencingUsageIds.remove(ce.referencedIds[r]);
+			}
+		}
+		synchronized long getHitCount() {
+			return this.hits;
+		}
+		synchronized long getMissCount() {
+			return this.misses;
+		}
+		synchronized long getSize() {
+			return this.entries.size();
+		}
+		synchronized long getBytes() {
+			return this.bytes;
+		}
+		private static class CacheEntry {
+			final String key;
+			final String stringParsed;
+			final String[] referencedIds;
+			final long bytes;
+			CacheEntry(String key, String stringParsed, String[] referencedIds) {
+				this.key = key;
+				this.stringParsed = stringParsed;
+				this.referencedIds = referencedIds;
+				this.bytes = (64 + ((key.length() + stringParsed.length()) * 2) + (referencedIds.length * (ID_COLUMN_LENGTH * 2 + 32)));
+			}
+		}
+	}
+	
+	private ExpandedParsePooledString[] expandNameUsages(PooledString[] pss) {
+		return this.expandNameUsages(pss, null);
+	}
+	
+	private ExpandedParsePooledString[] expandNameUsages(PooledString[] pss, NameUsageExpansionData ned) {
+		
+		//	parse name usages
+		TaxonNameUsage[] tnus = new TaxonNameUsage[pss.length];
+		for (int s = 0; s < pss.length; s++) try {
+			if (pss[s].getStringPlain() != null)
+				tnus[s] = TaxonNameUsage.parseTaxonNameUsage(pss[s].getStringPlain());
+		}
+		catch (RuntimeException re) {
+			System.out.println("TaxonNameUsageBank: could not parse name usage '" + pss[s].getStringPlain() + "': " + re.getMessage());
+		}
+		
+		//	resolve referenced entities for whole batch (unless done before)
+		if (ned == null)
+			ned = this.getExpansionData(tnus);
+		
+		//	wrap name usages
+		ExpandedParsePooledString[] epss = new ExpandedParsePooledString[pss.length];
+		for (int s = 0; s < pss.length; s++)
+			epss[s] = new ExpandedParsePooledString(pss[s], tnus[s], ned);
+		return epss;
+	}
+	
 	private class ExpandedParsePooledStringIterator implements PooledStringIterator {
 		PooledStringIterator psi;
+		private NameUsageExpansionData ned;
+		private LinkedList batch = new LinkedList();
 		ExpandedParsePooledStringIterator(PooledStringIterator psi) {
+			this(psi, null);
+		}
+		ExpandedParsePooledStringIterator(PooledStringIterator psi, NameUsageExpansionData ned) {
 			this.psi = psi;
+			this.ned = ned;
 		}
 		public boolean hasNextString() {
-			return this.psi.hasNextString();
+			if (this.batch.isEmpty())
+				this.fillBatch();
+			return !this.batch.isEmpty();
 		}
 		public PooledString getNextString() {
-			return new ExpandedParsePooledString(this.psi.getNextString());
+			return (this.hasNextString() ? ((PooledString) this.batch.removeFirst()) : null);
 		}
 		public IOException getException() {
 			return this.psi.getException();
 		}
+		private void fillBatch() {
+			
+			//	read next batch of name usages
+			ArrayList pss = new ArrayList(EXPANSION_BATCH_SIZE);
+			while ((pss.size() < EXPANSION_BATCH_SIZE) && this.psi.hasNextString()) {
+				PooledString ps = this.psi.getNextString();
+				if (ps != null)
+					pss.add(ps);
+			}
+			if (pss.isEmpty())
+				return;
+			
+			//	expand whole batch at once
+			int phase = metrics.enterPhase(ServletMetrics.EXPANSION_PHASE);
+			try {
+				ExpandedParsePooledString[] epss = expandNameUsages(((PooledString[]) pss.toArray(new PooledString[pss.size()])), this.ned);
+				this.batch.addAll(Arrays.asList(epss));
+			}
+			finally {
+				metrics.exitPhase(phase);
+			}
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -900,7 +2607,16 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 			TaxonNameUsage tnu = TaxonNameUsage.parseTaxonNameUsage(strings[s].stringPlain);
 			uploadStrings.add(new UploadString(tnu.toPlainString(), tnu.toParsedString()));
 		} catch (IOException ioe) {}
-		return super.updateStrings(((UploadString[]) uploadStrings.toArray(new UploadString[uploadStrings.size()])), user);
+		return this.updateCheckedStrings(((UploadString[]) uploadStrings.toArray(new UploadString[uploadStrings.size()])), user);
+	}
+	
+	private PooledStringIterator updateCheckedStrings(UploadString[] strings, String user) {
+		try {
+			return super.updateStrings(strings, user);
+		}
+		finally {
+			this.checkedStrings.remove();
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -909,7 +2625,7 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 	public PooledString updateNameUsage(String nameStringId, String taxonNameId, String nameUsageType, String nameUsageSubType, String bibRefId, int pageNumber, String user) throws IOException {
 		TaxonNameUsage tnu = new TaxonNameUsage(nameStringId, taxonNameId, nameUsageType, nameUsageSubType, bibRefId, pageNumber);
 		UploadString[] strings = {new UploadString(tnu.toPlainString(), tnu.toParsedString())};
-		PooledStringIterator stringIt = super.updateStrings(strings, user);
+		PooledStringIterator stringIt = this.updateCheckedStrings(strings, user);
 		if (stringIt.hasNextString())
 			return stringIt.getNextString();
 		IOException ioe = stringIt.getException();
@@ -923,20 +2639,42 @@ public class TnuBankServlet extends StringPoolServlet implements TnuBankClient,
 	 */
 	public PooledString updateNameUsage(String nameString, TaxonomicName taxonName, String nameUsageType, String nameUsageSubType, RefData bibRef, int pageNumber, String user) throws IOException {
 		
-		//	upload name string to BinoBank
-		PooledString nameStringPs = this.bbk.updateString(nameString, user);
-		if (nameStringPs == null)
-			throw new IOException("Could not store name string '" + nameString + "' in BinoBank");
+		//	upload name string to BinoBank, taxon name to TxnBank, and bib ref to RefBank (concurrently)
+		NameUsageParts parts = this.partUploader.uploadParts(nameString, taxonName, bibRef, user);
+		
+		//	finally, upload name usage
+		long nameUsageStart = System.currentTimeMillis();
+		PooledString nameUsagePs = this.updateNameUsage(parts.nameString.id, ((parts.taxonName == null) ? null : parts.taxonName.id), nameUsageType, ((parts.taxonName == null) ? null : nameUsageSubType), parts.bibRef.id, pageNumber, user);
+		if (this.reportUploadLatency)
+			System.out.println("TaxonNameUsageBank: composite name usage update took " + parts.getLatencyReport(System.currentTimeMillis() - nameUsageStart));
+		return nameUsagePs;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.tnuBank.TnuBankClient#updateNameUsages(de.uka.ipd.idaho.tnuBank.TnuBankClient.NameUsageUpload[], java.lang.String)
+	 */
+	public PooledStringIterator updateNameUsages(NameUsageUpload[] batch, String user) {
 		
-		//	upload taxon name to TxnBank
-		PooledString taxonNamePs = ((taxonName == null) ? null : this.txn.updateName(taxonName, user));
+		//	upload distinct name strings to BinoBank, taxon names to TxnBank, and bib refs to RefBank (concurrently)
+		IOException[] errors = new IOException[batch.length];
+		NameUsageParts[] parts = this.partUploader.uploadParts(batch, user, errors);
+		NameUsageParts reportParts = null;
+		for (int u = 0; u < batch.length; u++) {
+			if (parts[u] != null)
+				reportParts = parts[u];
+		}
 		
-		//	upload bib ref to RefBank
-		PooledString bibRefPs = this.rbk.updateReference(bibRef, user);
-		if (bibRefPs == null)
-			throw new IOException("Could not store bibliographic reference in RefBank");
+		//	finally, upload name usages in one go
+		UploadString[] nameUsageStrings = NameUsagePartUploader.getUploadStrings(batch, parts);
+		PooledStringIterator nameUsageIt = null;
+		if (nameUsageStrings.length != 0) {
+			long nameUsageStart = System.currentTimeMillis();
+			nameUsageIt = this.updateCheckedStrings(nameUsageStrings, user);
+			if (this.reportUploadLatency)
+				System.out.println("TaxonNameUsageBank: batch update of " + batch.length + " name usages took " + reportParts.getLatencyReport(System.currentTimeMillis() - nameUsageStart));
+		}
 		
-		//	finally, upload name usage
-		return this.updateNameUsage(nameStringPs.id, ((taxonNamePs == null) ? null : taxonNamePs.id), nameUsageType, ((taxonNamePs == null) ? null : nameUsageSubType), bibRefPs.id, pageNumber, user);
+		//	report name usages whose parts failed to upload in batch order, like rejected ones
+		return NameUsagePartUploader.getUploadResults(batch, parts, errors, nameUsageStrings, nameUsageIt);
 	}
 }
\ No newline at end of file
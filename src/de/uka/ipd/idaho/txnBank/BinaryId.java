@@ -0,0 +1,137 @@
+/* TxnBank, the distributed platform for fully qualified taxonomic names.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.txnBank;
+
+import java.util.UUID;
+
+/**
+ * Utility for converting the 128 bit IDs of pooled strings between their 32
+ * character HEX representation used in the API and XML data, and a pair of
+ * longs. The latter serve as the key of tables that are only ever looked up
+ * by ID, like the index of the parsed string pack, and for rendering IDs and
+ * hashes without intermediate strings. Tables that are joined against the
+ * string pool tables (which store IDs as VARCHAR plus an int hash) have to
+ * use the same representation, as converting in SQL on every join would
+ * cost more than the compact columns save.
+ * 
+ * @author sautter
+ */
+public class BinaryId {
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+	
+	private BinaryId() {}
+	
+	/**
+	 * Test if a string is a valid 128 bit HEX ID, i.e., consists of exactly 32
+	 * HEX digits.
+	 * @param hexId the string to test
+	 * @return true if the argument string is a valid ID
+	 */
+	public static boolean isHexId(CharSequence hexId) {
+		if ((hexId == null) || (hexId.length() != 32))
+			return false;
+		for (int c = 0; c < 32; c++) {
+			if (getHexValue(hexId.charAt(c)) == -1)
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Extract the high order 64 bits from a 128 bit HEX ID.
+	 * @param hexId the ID to convert
+	 * @return the high order bits
+	 * @throws NumberFormatException if the argument is not a valid ID
+	 */
+	public static long getHigh(CharSequence hexId) {
+		return getBits(hexId, 0);
+	}
+	
+	/**
+	 * Extract the low order 64 bits from a 128 bit HEX ID.
+	 * @param hexId the ID to convert
+	 * @return the low order bits
+	 * @throws NumberFormatException if the argument is not a valid ID
+	 */
+	public static long getLow(CharSequence hexId) {
+		return getBits(hexId, 16);
+	}
+	
+	private static long getBits(CharSequence hexId, int start) {
+		if ((hexId == null) || (hexId.length() != 32))
+			throw new NumberFormatException("Invalid ID: " + hexId);
+		long bits = 0;
+		for (int c = start; c < (start + 16); c++) {
+			int value = getHexValue(hexId.charAt(c));
+			if (value == -1)
+				throw new NumberFormatException("Invalid ID: " + hexId);
+			bits = ((bits << 4) | value);
+		}
+		return bits;
+	}
+	
+	private static int getHexValue(char ch) {
+		if (('0' <= ch) && (ch <= '9'))
+			return (ch - '0');
+		else if (('A' <= ch) && (ch <= 'F'))
+			return (ch - 'A' + 10);
+		else if (('a' <= ch) && (ch <= 'f'))
+			return (ch - 'a' + 10);
+		else return -1;
+	}
+	
+	/**
+	 * Render a 128 bit ID as 32 upper case HEX digits.
+	 * @param high the high order 64 bits of the ID
+	 * @param low the low order 64 bits of the ID
+	 * @return the HEX representation of the ID
+	 */
+	public static String toHex(long high, long low) {
+		char[] hex = new char[32];
+		writeHex(high, low, hex);
+		return new String(hex);
+	}
+	
+	/**
+	 * Write the 32 upper case HEX digits of a 128 bit ID to the first 32
+	 * positions of a char array. This facilitates reusing a buffer.
+	 * @param high the high order 64 bits of the ID
+	 * @param low the low order 64 bits of the ID
+	 * @param hex the char array to write to
+	 */
+	public static void writeHex(long high, long low, char[] hex) {
+		for (int c = 15; c >= 0; c--) {
+			hex[c] = HEX_DIGITS[(int) (high & 0x0F)];
+			high >>>= 4;
+		}
+		for (int c = 31; c >= 16; c--) {
+			hex[c] = HEX_DIGITS[(int) (low & 0x0F)];
+			low >>>= 4;
+		}
+	}
+	
+	/**
+	 * Render a UUID as 32 upper case HEX digits, i.e., without the dashes of
+	 * its standard string representation.
+	 * @param uuid the UUID to render
+	 * @return the HEX representation of the UUID
+	 */
+	public static String toHex(UUID uuid) {
+		return toHex(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+	}
+}
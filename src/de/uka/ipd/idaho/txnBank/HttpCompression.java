@@ -0,0 +1,344 @@
+/* TxnBank, the distributed platform for fully qualified taxonomic names.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.txnBank;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Utility for gzip and deflate compression of HTTP traffic between servlets
+ * and REST clients. On the servlet side, responses are compressed if the
+ * client indicates it accepts compressed content, and compressed request
+ * bodies are decompressed transparently. On the client side, this class
+ * announces the accepted encodings, decodes compressed responses, and can
+ * compress request bodies above a minimum size.
+ * 
+ * @author sautter
+ */
+public class HttpCompression {
+	
+	/** the gzip content encoding */
+	public static final String GZIP_ENCODING = "gzip";
+	
+	/** the deflate content encoding */
+	public static final String DEFLATE_ENCODING = "deflate";
+	
+	/** the minimum size of a request body to compress, in bytes; compressing
+	 * smaller bodies costs more than it saves */
+	public static final int MIN_COMPRESSED_REQUEST_BYTES = 1024;
+	
+	private static final int BUFFER_SIZE = 8192;
+	
+	private HttpCompression() {}
+	
+	/**
+	 * Wrap an HTTP response to compress whatever is written to it, provided
+	 * the client accepts gzip or deflate encoding. If the client accepts
+	 * neither, this method returns the argument response. Compression only
+	 * starts when the output stream or writer of the response is retrieved,
+	 * so errors sent before that go out uncompressed. After the request is
+	 * handled, the response has to be handed to the <code>finish()</code>
+	 * method to complete the compressed data.
+	 * @param request the request to answer
+	 * @param response the response to wrap
+	 * @return the wrapped response
+	 */
+	public static HttpServletResponse wrapResponse(HttpServletRequest request, HttpServletResponse response) {
+		if (response instanceof CompressingResponse)
+			return response;
+		String encoding = getAcceptedEncoding(request.getHeader("Accept-Encoding"));
+		response.addHeader("Vary", "Accept-Encoding");
+		return ((encoding == null) ? response : new CompressingResponse(response, encoding));
+	}
+	
+	/**
+	 * Complete the compressed data written to a response wrapped by the
+	 * <code>wrapResponse()</code> method. If the argument response is not
+	 * wrapped, this method does nothing.
+	 * @param response the response to finish
+	 * @throws IOException
+	 */
+	public static void finish(HttpServletResponse response) throws IOException {
+		if (response instanceof CompressingResponse)
+			((CompressingResponse) response).finish();
+	}
+	
+	/**
+	 * Retrieve the content encoding a response wrapped by the
+	 * <code>wrapResponse()</code> method applies to data written to it. This
+	 * is helpful for producing entity tags, which have to differ between
+	 * encodings. If the argument response is not wrapped, this method returns
+	 * null.
+	 * @param response the response to check
+	 * @return the content encoding of the argument response
+	 */
+	public static String getContentEncoding(HttpServletResponse response) {
+		return ((response instanceof CompressingResponse) ? ((CompressingResponse) response).encoding : null);
+	}
+	
+	/* Determine the encoding to use based on an Accept-Encoding header,
+	 * preferring gzip over deflate, and observing zero quality values. */
+	private static String getAcceptedEncoding(String acceptEncoding) {
+		if (acceptEncoding == null)
+			return null;
+		boolean gzip = false;
+		boolean deflate = false;
+		String[] encodings = acceptEncoding.split("\\s*\\,\\s*");
+		for (int e = 0; e < encodings.length; e++) {
+			String encoding = encodings[e].trim().toLowerCase();
+			if (encoding.indexOf(';') != -1) {
+				String quality = encoding.substring(encoding.indexOf(';') + ";".length()).trim();
+				encoding = encoding.substring(0, encoding.indexOf(';')).trim();
+				if (quality.startsWith("q=")) try {
+					if (Float.parseFloat(quality.substring("q=".length()).trim()) <= 0)
+						continue;
+				} catch (NumberFormatException nfe) {}
+			}
+			if (GZIP_ENCODING.equals(encoding) || "x-gzip".equals(encoding) || "*".equals(encoding))
+				gzip = true;
+			else if (DEFLATE_ENCODING.equals(encoding))
+				deflate = true;
+		}
+		return (gzip ? GZIP_ENCODING : (deflate ? DEFLATE_ENCODING : null));
+	}
+	
+	private static class CompressingResponse extends HttpServletResponseWrapper {
+		private String encoding;
+		private CompressingOutputStream out = null;
+		private PrintWriter writer = null;
+		CompressingResponse(HttpServletResponse response, String encoding) {
+			super(response);
+			this.encoding = encoding;
+		}
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (this.writer != null)
+				throw new IllegalStateException("getWriter() has already been called");
+			return this.getCompressingOutputStream();
+		}
+		public PrintWriter getWriter() throws IOException {
+			if (this.writer == null) {
+				if (this.out != null)
+					throw new IllegalStateException("getOutputStream() has already been called");
+				this.writer = new PrintWriter(new OutputStreamWriter(this.getCompressingOutputStream(), this.getCharacterEncoding()));
+			}
+			return this.writer;
+		}
+		private CompressingOutputStream getCompressingOutputStream() throws IOException {
+			if (this.out == null) {
+				this.setHeader("Content-Encoding", this.encoding);
+				OutputStream out = this.getResponse().getOutputStream();
+				this.out = new CompressingOutputStream(GZIP_ENCODING.equals(this.encoding) ? ((DeflaterOutputStream) new GZIPOutputStream(out, BUFFER_SIZE)) : new DeflaterOutputStream(out));
+			}
+			return this.out;
+		}
+		public void setContentLength(int len) {
+			//	we're compressing, so length set by producer of data is wrong
+		}
+		public void flushBuffer() throws IOException {
+			if (this.writer != null)
+				this.writer.flush();
+			else if (this.out != null)
+				this.out.flush();
+			super.flushBuffer();
+		}
+		void finish() throws IOException {
+			if (this.writer != null)
+				this.writer.flush();
+			if (this.out != null)
+				this.out.finish();
+		}
+	}
+	
+	private static class CompressingOutputStream extends ServletOutputStream {
+		private DeflaterOutputStream out;
+		private boolean finished = false;
+		CompressingOutputStream(DeflaterOutputStream out) {
+			this.out = out;
+		}
+		public void write(int b) throws IOException {
+			this.out.write(b);
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+		}
+		public void flush() throws IOException {
+			if (!this.finished)
+				this.out.flush();
+		}
+		public void close() throws IOException {
+			this.finish();
+			this.out.close();
+		}
+		void finish() throws IOException {
+			if (this.finished)
+				return;
+			this.finished = true;
+			this.out.finish();
+			this.out.flush();
+		}
+	}
+	
+	/**
+	 * Wrap an HTTP request to transparently decompress its body if the latter
+	 * comes gzip or deflate encoded. If the request body is not encoded, this
+	 * method returns the argument request.
+	 * @param request the request to wrap
+	 * @return the wrapped request
+	 */
+	public static HttpServletRequest wrapRequest(HttpServletRequest request) {
+		String encoding = request.getHeader("Content-Encoding");
+		if (encoding == null)
+			return request;
+		encoding = encoding.trim().toLowerCase();
+		if (GZIP_ENCODING.equals(encoding) || "x-gzip".equals(encoding))
+			return new DecompressingRequest(request, true);
+		else if (DEFLATE_ENCODING.equals(encoding))
+			return new DecompressingRequest(request, false);
+		else return request;
+	}
+	
+	private static class DecompressingRequest extends HttpServletRequestWrapper {
+		private boolean gzip;
+		private ServletInputStream in = null;
+		private BufferedReader reader = null;
+		DecompressingRequest(HttpServletRequest request, boolean gzip) {
+			super(request);
+			this.gzip = gzip;
+		}
+		public ServletInputStream getInputStream() throws IOException {
+			if (this.reader != null)
+				throw new IllegalStateException("getReader() has already been called");
+			return this.getDecompressingInputStream();
+		}
+		public BufferedReader getReader() throws IOException {
+			if (this.reader == null) {
+				if (this.in != null)
+					throw new IllegalStateException("getInputStream() has already been called");
+				String encoding = this.getCharacterEncoding();
+				this.reader = new BufferedReader(new InputStreamReader(this.getDecompressingInputStream(), ((encoding == null) ? "ISO-8859-1" : encoding)));
+			}
+			return this.reader;
+		}
+		private ServletInputStream getDecompressingInputStream() throws IOException {
+			if (this.in == null) {
+				InputStream in = this.getRequest().getInputStream();
+				final InputStream dIn = (this.gzip ? ((InputStream) new GZIPInputStream(in, BUFFER_SIZE)) : new InflaterInputStream(in));
+				this.in = new ServletInputStream() {
+					public int read() throws IOException {
+						return dIn.read();
+					}
+					public int read(byte[] b, int off, int len) throws IOException {
+						return dIn.read(b, off, len);
+					}
+					public int available() throws IOException {
+						return dIn.available();
+					}
+					public void close() throws IOException {
+						dIn.close();
+					}
+				};
+			}
+			return this.in;
+		}
+		public int getContentLength() {
+			return -1; // length of decompressed body unknown
+		}
+		public String getHeader(String name) {
+			if ("Content-Encoding".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name))
+				return null; // we're taking care of the encoding, and the length is unknown
+			return super.getHeader(name);
+		}
+	}
+	
+	/**
+	 * Announce on a URL connection that compressed responses are accepted.
+	 * This method has to be called before the connection is established.
+	 * @param con the connection to prepare
+	 */
+	public static void acceptCompressed(URLConnection con) {
+		con.setRequestProperty("Accept-Encoding", (GZIP_ENCODING + ", " + DEFLATE_ENCODING));
+	}
+	
+	/**
+	 * Retrieve the input stream of a URL connection, decompressing the data
+	 * if the response comes gzip or deflate encoded.
+	 * @param con the connection to read from
+	 * @return an input stream providing the decompressed response
+	 * @throws IOException
+	 */
+	public static InputStream getInputStream(URLConnection con) throws IOException {
+		InputStream in = con.getInputStream();
+		String encoding = con.getContentEncoding();
+		if (encoding == null)
+			return in;
+		encoding = encoding.trim().toLowerCase();
+		if (GZIP_ENCODING.equals(encoding) || "x-gzip".equals(encoding))
+			return new GZIPInputStream(in, BUFFER_SIZE);
+		else if (DEFLATE_ENCODING.equals(encoding))
+			return new InflaterInputStream(in);
+		else return in;
+	}
+	
+	/**
+	 * Send a request body through an HTTP connection. If compression is
+	 * requested and the body has at least <code>MIN_COMPRESSED_REQUEST_BYTES</code>
+	 * bytes, this method sends it gzip compressed, otherwise as it is. Only
+	 * request compression if the receiving end can decompress request bodies.
+	 * In either case, this method sets the content length and closes the
+	 * output stream of the connection. The connection has to be set up for
+	 * output, and no data must have been sent through it before.
+	 * @param con the connection to send the body through
+	 * @param body the body to send
+	 * @param compress compress the body if it is large enough?
+	 * @throws IOException
+	 */
+	public static void sendRequestBody(HttpURLConnection con, ByteArrayOutputStream body, boolean compress) throws IOException {
+		if (compress && (body.size() >= MIN_COMPRESSED_REQUEST_BYTES)) {
+			ByteArrayOutputStream compressedBody = new ByteArrayOutputStream(body.size() / 4);
+			GZIPOutputStream gzipOut = new GZIPOutputStream(compressedBody, BUFFER_SIZE);
+			body.writeTo(gzipOut);
+			gzipOut.finish();
+			body = compressedBody;
+			con.setRequestProperty("Content-Encoding", GZIP_ENCODING);
+		}
+		con.setFixedLengthStreamingMode(body.size());
+		OutputStream out = con.getOutputStream();
+		body.writeTo(out);
+		out.flush();
+		out.close();
+	}
+}
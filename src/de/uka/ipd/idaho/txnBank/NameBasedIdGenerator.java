@@ -0,0 +1,152 @@
+/* TxnBank, the distributed platform for fully qualified taxonomic names.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.txnBank;
+
+import java.io.UnsupportedEncodingException;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * Generator for name based version 5 UUIDs, i.e., ones computed from the
+ * SHA-1 hash of a namespace UUID and a name. In favor of throughput under
+ * parallel load, each thread uses its own message digest, digest buffer, and
+ * HEX buffer, so generating IDs requires neither synchronization nor object
+ * pooling. Instances of this class are thread safe.
+ * 
+ * @author sautter
+ */
+public class NameBasedIdGenerator {
+	
+	/** the namespace UUID for DNS names (6ba7b810-9dad-11d1-80b4-00c04fd430c8) */
+	public static final UUID NAMESPACE_DNS = new UUID(0x6ba7b8109dad11d1L, 0x80b400c04fd430c8L);
+	
+	private static final String ENCODING = "UTF-8";
+	private static final String DIGEST_ALGORITHM = "SHA-1";
+	
+	private final UUID namespace;
+	private final byte[] namespaceBytes = new byte[16];
+	private final ThreadLocal threadState = new ThreadLocal() {
+		protected Object initialValue() {
+			return new GeneratorState();
+		}
+	};
+	
+	/**
+	 * Constructor
+	 * @param namespace the namespace UUID to generate IDs in
+	 */
+	public NameBasedIdGenerator(UUID namespace) {
+		this.namespace = namespace;
+		putLong(namespace.getMostSignificantBits(), this.namespaceBytes, 0);
+		putLong(namespace.getLeastSignificantBits(), this.namespaceBytes, 8);
+	}
+	
+	/**
+	 * Constructor creating a generator whose namespace UUID is itself name
+	 * based, e.g. one representing a domain name in the DNS namespace.
+	 * @param parentNamespace the namespace UUID to generate the namespace of
+	 *            this generator in
+	 * @param name the name of the namespace of this generator
+	 */
+	public NameBasedIdGenerator(UUID parentNamespace, String name) {
+		this(new NameBasedIdGenerator(parentNamespace).generate(name));
+	}
+	
+	/**
+	 * @return the namespace UUID IDs are generated in
+	 */
+	public UUID getNamespace() {
+		return this.namespace;
+	}
+	
+	/**
+	 * Generate the UUID for a name.
+	 * @param name the name to generate the UUID for
+	 * @return the UUID for the argument name
+	 */
+	public UUID generate(String name) {
+		GeneratorState gs = ((GeneratorState) this.threadState.get());
+		this.digest(gs, name);
+		return new UUID(gs.high, gs.low);
+	}
+	
+	/**
+	 * Generate the UUID for a name, rendered as 32 upper case HEX digits, i.e.,
+	 * without the dashes of the standard string representation of UUIDs.
+	 * @param name the name to generate the UUID for
+	 * @return the HEX representation of the UUID for the argument name
+	 */
+	public String generateHex(String name) {
+		GeneratorState gs = ((GeneratorState) this.threadState.get());
+		this.digest(gs, name);
+		BinaryId.writeHex(gs.high, gs.low, gs.hex);
+		return new String(gs.hex);
+	}
+	
+	private void digest(GeneratorState gs, String name) {
+		try {
+			gs.digester.update(this.namespaceBytes);
+			gs.digester.update(name.getBytes(ENCODING));
+			gs.digester.digest(gs.digest, 0, gs.digest.length);
+		}
+		catch (UnsupportedEncodingException uee) {
+			throw new RuntimeException(uee); // should not happen with UTF-8, but Java don't know ...
+		}
+		catch (DigestException de) {
+			throw new RuntimeException(de); // should not happen with buffer sized for SHA-1, but Java don't know ...
+		}
+		
+		//	set version (5) and variant (IETF) bits
+		gs.digest[6] = ((byte) ((gs.digest[6] & 0x0F) | 0x50));
+		gs.digest[8] = ((byte) ((gs.digest[8] & 0x3F) | 0x80));
+		gs.high = getLong(gs.digest, 0);
+		gs.low = getLong(gs.digest, 8);
+	}
+	
+	private static void putLong(long value, byte[] bytes, int offset) {
+		for (int b = 7; b >= 0; b--) {
+			bytes[offset + b] = ((byte) (value & 0xFF));
+			value >>>= 8;
+		}
+	}
+	
+	private static long getLong(byte[] bytes, int offset) {
+		long value = 0;
+		for (int b = 0; b < 8; b++)
+			value = ((value << 8) | (bytes[offset + b] & 0xFF));
+		return value;
+	}
+	
+	private static class GeneratorState {
+		final MessageDigest digester;
+		final byte[] digest = new byte[20];
+		final char[] hex = new char[32];
+		long high;
+		long low;
+		GeneratorState() {
+			try {
+				this.digester = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			}
+			catch (NoSuchAlgorithmException nsae) {
+				throw new RuntimeException(nsae); // should not happen, every JVM has to support SHA-1
+			}
+		}
+	}
+}
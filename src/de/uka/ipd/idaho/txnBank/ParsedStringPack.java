@@ -0,0 +1,744 @@
+/* TxnBank, the distributed platform for fully qualified taxonomic names.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.txnBank;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import de.uka.ipd.idaho.easyIO.IoProvider;
+import de.uka.ipd.idaho.easyIO.SqlQueryResult;
+import de.uka.ipd.idaho.easyIO.sql.TableDefinition;
+import de.uka.ipd.idaho.gamta.AnnotationUtils;
+import de.uka.ipd.idaho.gamta.Gamta;
+import de.uka.ipd.idaho.gamta.MutableAnnotation;
+import de.uka.ipd.idaho.gamta.util.SgmlDocumentReader;
+
+/**
+ * Append-only store for the parsed versions of pooled strings, as an
+ * alternative to keeping every parse in its own XML file. Parses are
+ * appended to segment files of bounded size, and a database table holds
+ * segment and offset of the current version of each parse. Sealed segments
+ * are read via memory mapping, the active segment via positional reads.
+ * Superseded versions remain in the segments until a compaction run copies
+ * the live records of mostly dead segments to the active segment and
+ * deletes the former.
+ * 
+ * @author sautter
+ */
+public class ParsedStringPack {
+	private static final String PACK_INDEX_TABLE_NAME_SUFFIX = "PackIndex";
+	private static final String STRING_ID_HIGH_COLUMN_NAME = "IdHi";
+	private static final String STRING_ID_LOW_COLUMN_NAME = "IdLo";
+	private static final String SEGMENT_COLUMN_NAME = "PackSegment";
+	private static final String OFFSET_COLUMN_NAME = "PackOffset";
+	private static final String LENGTH_COLUMN_NAME = "PackLength";
+	
+	private static final String SEGMENT_FILE_SUFFIX = ".pack";
+	private static final String ENCODING = "UTF-8";
+	
+	private File folder;
+	private IoProvider io;
+	private String indexTableName;
+	private long maxSegmentBytes;
+	
+	private int activeSegment = 0;
+	private RandomAccessFile activeSegmentFile = null;
+	private FileChannel activeSegmentChannel = null;
+	private long activeSegmentBytes = 0;
+	private HashMap sealedSegments = new HashMap();
+	
+	/**
+	 * Constructor
+	 * @param folder the folder to store the segment files in
+	 * @param io the IO provider to use for the offset index table
+	 * @param externalDataName the external data name of the string pool
+	 * @param maxSegmentBytes the maximum size of an individual segment file
+	 * @throws IOException
+	 */
+	public ParsedStringPack(File folder, IoProvider io, String externalDataName, long maxSegmentBytes) throws IOException {
+		this.folder = folder;
+		this.folder.mkdirs();
+		this.io = io;
+		this.maxSegmentBytes = Math.min(maxSegmentBytes, Integer.MAX_VALUE);
+		
+		//	produce index table
+		TableDefinition td = new TableDefinition(externalDataName + PACK_INDEX_TABLE_NAME_SUFFIX);
+		td.addColumn(STRING_ID_HIGH_COLUMN_NAME, TableDefinition.BIGINT_DATATYPE, 0);
+		td.addColumn(STRING_ID_LOW_COLUMN_NAME, TableDefinition.BIGINT_DATATYPE, 0);
+		td.addColumn(SEGMENT_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		td.addColumn(OFFSET_COLUMN_NAME, TableDefinition.BIGINT_DATATYPE, 0);
+		td.addColumn(LENGTH_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		if (!this.io.ensureTable(td, true))
+			throw new IOException("ParsedStringPack: Cannot create index table.");
+		this.indexTableName = td.getTableName();
+		this.io.indexColumn(this.indexTableName, STRING_ID_HIGH_COLUMN_NAME);
+		this.io.indexColumn(this.indexTableName, SEGMENT_COLUMN_NAME);
+		
+		//	make the two ID halves the key of the index table (IoProvider only does single column primary keys)
+		String query = "CREATE UNIQUE INDEX " + this.indexTableName + "_" + STRING_ID_HIGH_COLUMN_NAME + "_" + STRING_ID_LOW_COLUMN_NAME + "_key" +
+				" ON " + this.indexTableName + " (" + STRING_ID_HIGH_COLUMN_NAME + ", " + STRING_ID_LOW_COLUMN_NAME + ")" +
+				";";
+		try {
+			this.io.executeUpdateQuery(query);
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPack: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while creating ID key, might already exist.");
+			System.out.println("  query was " + query);
+		}
+		
+		//	find segments, and open most recent one for appending
+		int[] segments = this.getSegments();
+		this.activeSegment = ((segments.length == 0) ? 0 : segments[segments.length - 1]);
+		this.openActiveSegment(true);
+	}
+	
+	private int[] getSegments() {
+		File[] segmentFiles = this.folder.listFiles();
+		ArrayList segmentList = new ArrayList();
+		for (int f = 0; (segmentFiles != null) && (f < segmentFiles.length); f++) {
+			String segmentFileName = segmentFiles[f].getName();
+			if (segmentFileName.endsWith(SEGMENT_FILE_SUFFIX)) try {
+				segmentList.add(Integer.valueOf(segmentFileName.substring(0, (segmentFileName.length() - SEGMENT_FILE_SUFFIX.length()))));
+			} catch (NumberFormatException nfe) {}
+		}
+		int[] segments = new int[segmentList.size()];
+		for (int s = 0; s < segments.length; s++)
+			segments[s] = ((Integer) segmentList.get(s)).intValue();
+		Arrays.sort(segments);
+		return segments;
+	}
+	
+	private File getSegmentFile(int segment) {
+		String segmentFileName = ("" + segment);
+		while (segmentFileName.length() < 6)
+			segmentFileName = ("0" + segmentFileName);
+		return new File(this.folder, (segmentFileName + SEGMENT_FILE_SUFFIX));
+	}
+	
+	private void openActiveSegment(boolean checkTail) throws IOException {
+		this.activeSegmentFile = new RandomAccessFile(this.getSegmentFile(this.activeSegment), "rw");
+		this.activeSegmentChannel = this.activeSegmentFile.getChannel();
+		this.activeSegmentBytes = this.activeSegmentChannel.size();
+		
+		//	cut off any record left incomplete by a crash
+		if (checkTail) {
+			long validBytes = 0;
+			ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+			while ((validBytes + 4) <= this.activeSegmentBytes) {
+				lengthBuffer.clear();
+				this.activeSegmentChannel.read(lengthBuffer, validBytes);
+				int recordLength = lengthBuffer.getInt(0);
+				if ((recordLength < 10) || ((validBytes + 4 + recordLength) > this.activeSegmentBytes))
+					break;
+				validBytes += (4 + recordLength);
+			}
+			if (validBytes < this.activeSegmentBytes) {
+				System.out.println("ParsedStringPack: truncating incomplete record at " + validBytes + " in segment " + this.activeSegment);
+				this.activeSegmentChannel.truncate(validBytes);
+				this.activeSegmentBytes = validBytes;
+			}
+		}
+	}
+	
+	private synchronized void sealActiveSegment() throws IOException {
+		this.activeSegmentChannel.force(false);
+		this.activeSegmentChannel.close();
+		this.activeSegmentFile.close();
+		this.activeSegment++;
+		this.openActiveSegment(false);
+	}
+	
+	/**
+	 * Store a parsed string in the pack. The stored parse replaces any
+	 * previous version of the parsed string with the same ID.
+	 * @param id the ID of the parsed string
+	 * @param stringParsed the parsed string to store
+	 * @return true if the parsed string was stored successfully
+	 */
+	public boolean storeParsedString(String id, MutableAnnotation stringParsed) {
+		try {
+			StringWriter stringOut = new StringWriter();
+			AnnotationUtils.writeXML(stringParsed, stringOut);
+			return this.storeParsedString(id, stringOut.toString());
+		}
+		catch (IOException ioe) {
+			System.out.println("ParsedStringPack: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while storing parsed string " + id);
+			ioe.printStackTrace(System.out);
+			return false;
+		}
+	}
+	
+	/**
+	 * Store the XML of a parsed string in the pack. The stored parse replaces
+	 * any previous version of the parsed string with the same ID. The parse is
+	 * forced to disk before the index points to it, so once this method
+	 * returns true, it is safe to delete any other copy of the parse.
+	 * @param id the ID of the parsed string
+	 * @param stringParsedXml the XML of the parsed string to store
+	 * @return true if the parsed string was stored successfully
+	 */
+	public boolean storeParsedString(String id, String stringParsedXml) throws IOException {
+		String[] ids = {id};
+		String[] stringsParsedXml = {stringParsedXml};
+		return this.storeParsedStrings(ids, stringsParsedXml, false)[0];
+	}
+	
+	/* Append a batch of parses, force them to disk in one go, and only then
+	 * point the index to them. This keeps a crash from leaving index entries
+	 * pointing to a tail of the active segment that never made it to disk.
+	 * In insert-only mode, parses the pack already contains are left alone,
+	 * checked under the same lock the live stores go through, so an import
+	 * cannot replace a more recent version stored while it was reading. */
+	private synchronized boolean[] storeParsedStrings(String[] ids, String[] stringsParsedXml, boolean onlyIfAbsent) throws IOException {
+		boolean[] stored = new boolean[ids.length];
+		int[] segments = new int[ids.length];
+		long[] offsets = new long[ids.length];
+		int[] lengths = new int[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			if (!BinaryId.isHexId(ids[i]))
+				continue;
+			if (onlyIfAbsent && this.containsParsedString(ids[i]))
+				continue;
+			byte[] record = getRecord(ids[i], stringsParsedXml[i].getBytes(ENCODING));
+			offsets[i] = this.appendRecord(record);
+			segments[i] = this.activeSegment;
+			lengths[i] = record.length;
+			stored[i] = true;
+		}
+		this.activeSegmentChannel.force(false);
+		for (int i = 0; i < ids.length; i++) {
+			if (!stored[i])
+				continue;
+			if (onlyIfAbsent)
+				stored[i] = this.insertLocation(ids[i], segments[i], offsets[i], lengths[i]);
+			else stored[i] = this.setLocation(ids[i], segments[i], offsets[i], lengths[i], -1, -1);
+		}
+		return stored;
+	}
+	
+	private static byte[] getRecord(String id, byte[] data) throws IOException {
+		byte[] idBytes = id.getBytes(ENCODING);
+		ByteBuffer record = ByteBuffer.allocate(4 + 2 + idBytes.length + 8 + data.length);
+		record.putInt(record.capacity() - 4);
+		record.putShort((short) idBytes.length);
+		record.put(idBytes);
+		record.putLong(System.currentTimeMillis());
+		record.put(data);
+		return record.array();
+	}
+	
+	private long appendRecord(byte[] record) throws IOException {
+		if ((this.activeSegmentBytes != 0) && ((this.activeSegmentBytes + record.length) > this.maxSegmentBytes))
+			this.sealActiveSegment();
+		long offset = this.activeSegmentBytes;
+		ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+		while (recordBuffer.hasRemaining())
+			this.activeSegmentChannel.write(recordBuffer, (offset + recordBuffer.position()));
+		this.activeSegmentBytes += record.length;
+		return offset;
+	}
+	
+	private boolean setLocation(String id, int segment, long offset, int length, int oldSegment, long oldOffset) {
+		String query = null;
+		try {
+			for (int attempt = 0; attempt < 2; attempt++) {
+				query = "UPDATE " + this.indexTableName + " SET" +
+						" " + SEGMENT_COLUMN_NAME + " = " + segment +
+						", " + OFFSET_COLUMN_NAME + " = " + offset +
+						", " + LENGTH_COLUMN_NAME + " = " + length +
+						" WHERE " + getIdPredicate(id) +
+						((oldSegment == -1) ? "" : (" AND " + SEGMENT_COLUMN_NAME + " = " + oldSegment + " AND " + OFFSET_COLUMN_NAME + " = " + oldOffset)) +
+						";";
+				if (this.io.executeUpdateQuery(query) != 0)
+					return true;
+				
+				//	record was replaced during compaction, new copy is dead right away
+				if (oldSegment != -1)
+					return false;
+				
+				//	insert new entry, and if another writer inserted the same ID in the meantime, update again
+				query = this.getInsertQuery(id, segment, offset, length);
+				try {
+					this.io.executeUpdateQuery(query);
+					return true;
+				}
+				catch (SQLException sqle) {
+					if (attempt != 0)
+						throw sqle;
+				}
+			}
+			return false;
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPack: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while indexing parsed string.");
+			System.out.println("  query was " + query);
+			return false;
+		}
+	}
+	
+	private boolean insertLocation(String id, int segment, long offset, int length) {
+		String query = this.getInsertQuery(id, segment, offset, length);
+		try {
+			this.io.executeUpdateQuery(query);
+			return true;
+		}
+		catch (SQLException sqle) {
+			
+			//	another writer indexed the same ID in the meantime, leave its version alone
+			if (this.containsParsedString(id))
+				return false;
+			System.out.println("ParsedStringPack: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while indexing parsed string.");
+			System.out.println("  query was " + query);
+			return false;
+		}
+	}
+	
+	private String getInsertQuery(String id, int segment, long offset, int length) {
+		return ("INSERT INTO " + this.indexTableName + " (" +
+				STRING_ID_HIGH_COLUMN_NAME + ", " + STRING_ID_LOW_COLUMN_NAME + ", " + SEGMENT_COLUMN_NAME + ", " + OFFSET_COLUMN_NAME + ", " + LENGTH_COLUMN_NAME +
+				") VALUES (" +
+				BinaryId.getHigh(id) + ", " + BinaryId.getLow(id) + ", " + segment + ", " + offset + ", " + length +
+				");");
+	}
+	
+	private static String getIdPredicate(String id) {
+		return (STRING_ID_HIGH_COLUMN_NAME + " = " + BinaryId.getHigh(id) + " AND " + STRING_ID_LOW_COLUMN_NAME + " = " + BinaryId.getLow(id));
+	}
+	
+	/**
+	 * Check whether or not the pack contains a parsed string with a given ID.
+	 * @param id the ID to check
+	 * @return true if the pack contains the parsed string with the argument ID
+	 */
+	public boolean containsParsedString(String id) {
+		return (this.getLocation(id) != null);
+	}
+	
+	private long[] getLocation(String id) {
+		if (!BinaryId.isHexId(id))
+			return null;
+		String query = "SELECT " + SEGMENT_COLUMN_NAME + ", " + OFFSET_COLUMN_NAME + ", " + LENGTH_COLUMN_NAME +
+				" FROM " + this.indexTableName +
+				" WHERE " + getIdPredicate(id) +
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			if (sqr.next()) {
+				long[] location = {Long.parseLong(sqr.getString(0)), Long.parseLong(sqr.getString(1)), Long.parseLong(sqr.getString(2))};
+				return location;
+			}
+			else return null;
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPack: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while locating parsed string.");
+			System.out.println("  query was " + query);
+			return null;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+	}
+	
+	/**
+	 * Retrieve the parsed version of a string from the pack. If the pack does
+	 * not contain a parsed string with the argument ID, this method returns
+	 * null.
+	 * @param id the ID of the parsed string to retrieve
+	 * @return the parsed string
+	 */
+	public MutableAnnotation getStringParsed(String id) {
+		String stringParsedXml = this.getStringParsedXml(id);
+		if (stringParsedXml == null)
+			return null;
+		try {
+			MutableAnnotation stringParsed = Gamta.newDocument(Gamta.newTokenSequence(null, Gamta.INNER_PUNCTUATION_TOKENIZER));
+			SgmlDocumentReader.readDocument(new StringReader(stringParsedXml), stringParsed);
+			return stringParsed;
+		}
+		catch (IOException ioe) {
+			ioe.printStackTrace(System.out);
+			return null;
+		}
+	}
+	
+	/**
+	 * Retrieve the XML of the parsed version of a string from the pack. If the
+	 * pack does not contain a parsed string with the argument ID, this method
+	 * returns null.
+	 * @param id the ID of the parsed string to retrieve
+	 * @return the XML of the parsed string
+	 */
+	public String getStringParsedXml(String id) {
+		
+		//	try twice, as compaction might move the record between lookup and read
+		for (int attempt = 0; attempt < 2; attempt++) {
+			long[] location = this.getLocation(id);
+			if (location == null)
+				return null;
+			try {
+				byte[] record = this.readRecord(((int) location[0]), location[1], ((int) location[2]));
+				if (record == null)
+					continue;
+				int idLength = (((record[4] & 0xFF) << 8) | (record[5] & 0xFF));
+				int dataStart = (4 + 2 + idLength + 8);
+				return new String(record, dataStart, (record.length - dataStart), ENCODING);
+			}
+			catch (IOException ioe) {
+				System.out.println("ParsedStringPack: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while reading parsed string " + id);
+				ioe.printStackTrace(System.out);
+				return null;
+			}
+		}
+		return null;
+	}
+	
+	private byte[] readRecord(int segment, long offset, int length) throws IOException {
+		byte[] record = new byte[length];
+		
+		//	read from active segment
+		synchronized (this) {
+			if (segment == this.activeSegment) {
+				ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+				while (recordBuffer.hasRemaining()) {
+					if (this.activeSegmentChannel.read(recordBuffer, (offset + recordBuffer.position())) < 0)
+						throw new IOException("Unexpected end of segment " + segment);
+				}
+				return record;
+			}
+		}
+		
+		//	read from sealed segment
+		ByteBuffer segmentBuffer = this.getSealedSegment(segment);
+		if (segmentBuffer == null)
+			return null;
+		segmentBuffer.position((int) offset);
+		segmentBuffer.get(record);
+		return record;
+	}
+	
+	private ByteBuffer getSealedSegment(int segment) throws IOException {
+		synchronized (this.sealedSegments) {
+			MappedByteBuffer segmentBuffer = ((MappedByteBuffer) this.sealedSegments.get(Integer.valueOf(segment)));
+			if (segmentBuffer == null) {
+				File segmentFile = this.getSegmentFile(segment);
+				if (!segmentFile.exists())
+					return null;
+				RandomAccessFile segmentRaf = new RandomAccessFile(segmentFile, "r");
+				FileChannel segmentChannel = segmentRaf.getChannel();
+				segmentBuffer = segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, segmentChannel.size());
+				segmentChannel.close();
+				segmentRaf.close();
+				this.sealedSegments.put(Integer.valueOf(segment), segmentBuffer);
+			}
+			
+			//	hand out duplicate so concurrent readers don't interfere on position
+			return segmentBuffer.duplicate();
+		}
+	}
+	
+	/**
+	 * Compact the pack. This method copies the live records of any sealed
+	 * segment whose share of live data is below the argument threshold to the
+	 * active segment, and then deletes the copied segment.
+	 * @param minLiveRatio the minimum share of live data for a segment to be
+	 *            left alone
+	 * @return the number of bytes reclaimed
+	 */
+	public long compact(double minLiveRatio) {
+		int[] segments = this.getSegments();
+		long reclaimedBytes = 0;
+		for (int s = 0; s < segments.length; s++) {
+			if (segments[s] >= this.activeSegment)
+				continue;
+			File segmentFile = this.getSegmentFile(segments[s]);
+			long segmentBytes = segmentFile.length();
+			
+			//	get live records of segment
+			ArrayList liveRecords = new ArrayList();
+			long liveBytes = 0;
+			String query = "SELECT " + STRING_ID_HIGH_COLUMN_NAME + ", " + STRING_ID_LOW_COLUMN_NAME + ", " + OFFSET_COLUMN_NAME + ", " + LENGTH_COLUMN_NAME +
+					" FROM " + this.indexTableName +
+					" WHERE " + SEGMENT_COLUMN_NAME + " = " + segments[s] +
+					";";
+			SqlQueryResult sqr = null;
+			try {
+				sqr = this.io.executeSelectQuery(query, true);
+				while (sqr.next()) {
+					long[] location = {segments[s], Long.parseLong(sqr.getString(2)), Long.parseLong(sqr.getString(3))};
+					liveRecords.add(new Object[] {BinaryId.toHex(Long.parseLong(sqr.getString(0)), Long.parseLong(sqr.getString(1))), location});
+					liveBytes += location[2];
+				}
+			}
+			catch (SQLException sqle) {
+				System.out.println("ParsedStringPack: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while reading live records.");
+				System.out.println("  query was " + query);
+				continue;
+			}
+			finally {
+				if (sqr != null)
+					sqr.close();
+			}
+			if (liveBytes >= (segmentBytes * minLiveRatio))
+				continue;
+			
+			//	copy live records to active segment, and force copies to disk before pointing index to them
+			try {
+				ArrayList copiedRecords = new ArrayList();
+				for (Iterator lrit = liveRecords.iterator(); lrit.hasNext();) {
+					Object[] liveRecord = ((Object[]) lrit.next());
+					long[] location = ((long[]) liveRecord[1]);
+					byte[] record = this.readRecord(segments[s], location[1], ((int) location[2]));
+					if (record == null)
+						continue;
+					synchronized (this) {
+						long offset = this.appendRecord(record);
+						copiedRecords.add(new Object[] {liveRecord[0], location, new long[] {this.activeSegment, offset, record.length}});
+					}
+				}
+				synchronized (this) {
+					this.activeSegmentChannel.force(false);
+				}
+				for (Iterator crit = copiedRecords.iterator(); crit.hasNext();) {
+					Object[] copiedRecord = ((Object[]) crit.next());
+					long[] oldLocation = ((long[]) copiedRecord[1]);
+					long[] newLocation = ((long[]) copiedRecord[2]);
+					this.setLocation(((String) copiedRecord[0]), ((int) newLocation[0]), newLocation[1], ((int) newLocation[2]), ((int) oldLocation[0]), oldLocation[1]);
+				}
+			}
+			catch (IOException ioe) {
+				System.out.println("ParsedStringPack: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while compacting segment " + segments[s]);
+				ioe.printStackTrace(System.out);
+				continue;
+			}
+			
+			//	drop segment (readers still holding on to mapped buffer can finish)
+			synchronized (this.sealedSegments) {
+				this.sealedSegments.remove(Integer.valueOf(segments[s]));
+			}
+			if (segmentFile.delete())
+				reclaimedBytes += segmentBytes;
+			System.out.println("ParsedStringPack: compacted segment " + segments[s] + ", " + liveRecords.size() + " live records with " + liveBytes + " of " + segmentBytes + " bytes");
+		}
+		return reclaimedBytes;
+	}
+	
+	/**
+	 * Import the parse files from a folder as created by the default file
+	 * based storage, i.e., a two-level folder tree named after the first four
+	 * characters of the IDs. Parses the pack already contains are skipped, as
+	 * their stored version is more recent, and this also holds for parses
+	 * stored while a batch is being read, as the import never replaces an
+	 * existing entry. Superseded versions of parses are not imported. Files
+	 * are imported in batches, and a batch is only deleted after it is forced
+	 * to disk in the pack, and only files that did not change after reading.
+	 * @param parsedStringsFolder the root of the folder tree to import
+	 * @param deleteFiles delete the parse files after import?
+	 * @return the number of parses imported
+	 */
+	public int importFiles(File parsedStringsFolder, boolean deleteFiles) {
+		int imported = 0;
+		ArrayList batch = new ArrayList();
+		File[] primaryFolders = parsedStringsFolder.listFiles();
+		for (int p = 0; (primaryFolders != null) && (p < primaryFolders.length); p++) {
+			File[] secondaryFolders = (primaryFolders[p].isDirectory() ? primaryFolders[p].listFiles() : null);
+			for (int s = 0; (secondaryFolders != null) && (s < secondaryFolders.length); s++) {
+				File[] stringFiles = (secondaryFolders[s].isDirectory() ? secondaryFolders[s].listFiles() : null);
+				for (int f = 0; (stringFiles != null) && (f < stringFiles.length); f++) {
+					String stringFileName = stringFiles[f].getName();
+					if (!stringFileName.endsWith(".xml") || (stringFileName.indexOf('.') < stringFileName.lastIndexOf('.')))
+						continue;
+					String id = stringFileName.substring(0, (stringFileName.length() - ".xml".length()));
+					if (this.containsParsedString(id)) {
+						if (deleteFiles)
+							stringFiles[f].delete();
+						continue;
+					}
+					batch.add(stringFiles[f]);
+					if (batch.size() >= IMPORT_BATCH_SIZE)
+						imported += this.importFiles(batch, deleteFiles);
+				}
+			}
+		}
+		imported += this.importFiles(batch, deleteFiles);
+		return imported;
+	}
+	
+	private static final int IMPORT_BATCH_SIZE = 256;
+	
+	private int importFiles(ArrayList batch, boolean deleteFiles) {
+		if (batch.isEmpty())
+			return 0;
+		ArrayList files = new ArrayList(batch.size());
+		ArrayList fileTimes = new ArrayList(batch.size());
+		ArrayList ids = new ArrayList(batch.size());
+		ArrayList stringsParsedXml = new ArrayList(batch.size());
+		for (int f = 0; f < batch.size(); f++) {
+			File stringFile = ((File) batch.get(f));
+			String id = stringFile.getName().substring(0, (stringFile.getName().length() - ".xml".length()));
+			try {
+				long fileTime = stringFile.lastModified();
+				stringsParsedXml.add(readFile(stringFile));
+				ids.add(id);
+				files.add(stringFile);
+				fileTimes.add(Long.valueOf(fileTime));
+			}
+			catch (IOException ioe) {
+				System.out.println("ParsedStringPack: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while importing parsed string " + id);
+			}
+		}
+		batch.clear();
+		int imported = 0;
+		try {
+			boolean[] stored = this.storeParsedStrings(((String[]) ids.toArray(new String[ids.size()])), ((String[]) stringsParsedXml.toArray(new String[stringsParsedXml.size()])), true);
+			for (int s = 0; s < stored.length; s++) {
+				if (stored[s])
+					imported++;
+				
+				//	parse stored concurrently by a live update is more recent than the file, but leave any file rewritten since reading to that update
+				else if (!this.containsParsedString((String) ids.get(s)))
+					continue;
+				File stringFile = ((File) files.get(s));
+				if (deleteFiles && (stringFile.lastModified() == ((Long) fileTimes.get(s)).longValue()))
+					stringFile.delete();
+			}
+		}
+		catch (IOException ioe) {
+			System.out.println("ParsedStringPack: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while importing parsed strings");
+		}
+		return imported;
+	}
+	
+	private static String readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+		byte[] buffer = new byte[4096];
+		for (int r; (r = in.read(buffer)) != -1;)
+			bytes.write(buffer, 0, r);
+		in.close();
+		return new String(bytes.toByteArray(), ENCODING);
+	}
+	
+	private Thread maintainer = null;
+	
+	/**
+	 * Start a background thread that first imports any parse files left over
+	 * in the default storage folder tree, and then compacts the pack in
+	 * regular intervals, dropping superseded versions of parses.
+	 * @param parsedStringsFolder the root of the folder tree to import
+	 * @param compactionIntervalMillis the interval between two compaction runs
+	 *            (0 deactivates compaction)
+	 * @param threadName the name for the maintenance thread
+	 */
+	public synchronized void startMaintenance(final File parsedStringsFolder, final long compactionIntervalMillis, String threadName) {
+		if (this.maintainer != null)
+			return;
+		this.maintainer = new Thread(threadName) {
+			public void run() {
+				int imported = importFiles(parsedStringsFolder, true);
+				if (imported != 0)
+					System.out.println("ParsedStringPack: imported " + imported + " parse files");
+				while (compactionIntervalMillis > 0) {
+					try {
+						Thread.sleep(compactionIntervalMillis);
+					}
+					catch (InterruptedException ie) {
+						return;
+					}
+					long reclaimedBytes = compact(0.5);
+					System.out.println("ParsedStringPack: compaction reclaimed " + reclaimedBytes + " bytes");
+				}
+			}
+		};
+		this.maintainer.setDaemon(true);
+		this.maintainer.start();
+	}
+	
+	/**
+	 * Retrieve the number of the segment currently appended to.
+	 * @return the number of the active segment
+	 */
+	public int getActiveSegment() {
+		return this.activeSegment;
+	}
+	
+	/**
+	 * Close the pack, releasing all file handles.
+	 */
+	public synchronized void close() {
+		if (this.maintainer != null)
+			this.maintainer.interrupt();
+		try {
+			this.activeSegmentChannel.force(false);
+			this.activeSegmentChannel.close();
+			this.activeSegmentFile.close();
+		}
+		catch (IOException ioe) {
+			ioe.printStackTrace(System.out);
+		}
+		synchronized (this.sealedSegments) {
+			this.sealedSegments.clear();
+		}
+	}
+	
+	/**
+	 * Compute the folder the default file based storage puts the parsed
+	 * strings in, following the pluralization of the string pool.
+	 * @param dataFolder the data folder of the string pool
+	 * @param externalDataName the external data name of the string pool
+	 * @return the parsed string folder
+	 */
+	public static File getParsedStringFolder(File dataFolder, String externalDataName) {
+		String parsedStringFolderName = externalDataName;
+		if (!parsedStringFolderName.endsWith("s")) {
+			if (parsedStringFolderName.endsWith("y") && (parsedStringFolderName.length() > 1)) {
+				if (Gamta.VOWELS.indexOf(parsedStringFolderName.charAt(parsedStringFolderName.length() - 2)) == -1)
+					parsedStringFolderName = (parsedStringFolderName.substring(0, (parsedStringFolderName.length() - 1)) + "ies");
+				else parsedStringFolderName = (parsedStringFolderName + "s");
+			}
+			else parsedStringFolderName = (parsedStringFolderName + "s");
+		}
+		return new File(dataFolder, parsedStringFolderName);
+	}
+	
+	/**
+	 * Compute the file the default file based storage puts the current version
+	 * of a parsed string in.
+	 * @param parsedStringsFolder the root of the parsed string folder tree
+	 * @param id the ID of the parsed string
+	 * @return the parsed string file
+	 */
+	public static File getParsedStringFile(File parsedStringsFolder, String id) {
+		return new File(parsedStringsFolder, (id.substring(0, 2) + "/" + id.substring(2, 4) + "/" + id + ".xml"));
+	}
+}
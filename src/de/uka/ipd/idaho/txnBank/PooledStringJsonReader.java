@@ -0,0 +1,298 @@
+/* TxnBank, the distributed platform for fully qualified taxonomic names.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.txnBank;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.uka.ipd.idaho.onn.stringPool.StringPoolClient.PooledString;
+import de.uka.ipd.idaho.onn.stringPool.StringPoolClient.PooledStringIterator;
+import de.uka.ipd.idaho.onn.stringPool.StringPoolConstants;
+
+/**
+ * Iterator over pooled strings coming in in JSON Lines format, as produced by
+ * <code>PooledStringJsonWriter</code>. The strings are read one by one as the
+ * iterator is used, so a result is never held in memory as a whole. Any type
+ * specific properties of the strings are available via the
+ * <code>getProperty()</code> method of the <code>JsonPooledString</code>
+ * objects returned by this iterator.
+ * 
+ * @author sautter
+ */
+public class PooledStringJsonReader implements PooledStringIterator, StringPoolConstants {
+	private BufferedReader in;
+	private JsonPooledString next = null;
+	private IOException ioe = null;
+	
+	/** Constructor
+	 * @param in the reader to read the strings from
+	 */
+	public PooledStringJsonReader(BufferedReader in) {
+		this.in = in;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient.PooledStringIterator#hasNextString()
+	 */
+	public boolean hasNextString() {
+		if (this.next != null)
+			return true;
+		if (this.in == null)
+			return false;
+		try {
+			for (String line; (line = this.in.readLine()) != null;) {
+				line = line.trim();
+				if (line.length() == 0)
+					continue;
+				this.next = new JsonPooledString(parseObject(line));
+				return true;
+			}
+		}
+		catch (IOException ioe) {
+			this.ioe = ioe;
+		}
+		catch (RuntimeException re) {
+			this.ioe = new IOException("Invalid JSON Lines data: " + re.getMessage());
+		}
+		this.close();
+		return false;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient.PooledStringIterator#getNextString()
+	 */
+	public PooledString getNextString() {
+		if (!this.hasNextString())
+			return null;
+		PooledString next = this.next;
+		this.next = null;
+		return next;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient.PooledStringIterator#getException()
+	 */
+	public IOException getException() {
+		return this.ioe;
+	}
+	
+	private void close() {
+		if (this.in == null)
+			return;
+		try {
+			this.in.close();
+		} catch (IOException ioe) {}
+		this.in = null;
+	}
+	
+	/**
+	 * A pooled string read from a JSON object. In addition to the generic
+	 * pooled string data, objects of this class provide access to any type
+	 * specific properties of the JSON object they were read from.
+	 * 
+	 * @author sautter
+	 */
+	public static class JsonPooledString extends PooledString {
+		private Map properties;
+		JsonPooledString(Map properties) {
+			super((String) properties.get(STRING_ID_ATTRIBUTE));
+			if (this.id == null)
+				throw new IllegalArgumentException("String ID missing");
+			this.properties = properties;
+		}
+		
+		/**
+		 * Retrieve a property of the JSON object this string was read from. A
+		 * numeric or boolean property is returned in its string form.
+		 * @param name the name of the property
+		 * @return the value of the property
+		 */
+		public String getProperty(String name) {
+			Object value = this.properties.get(name);
+			return ((value == null) ? null : value.toString());
+		}
+		private long getTime(String name) {
+			Object value = this.properties.get(name);
+			return ((value instanceof Long) ? ((Long) value).longValue() : -1);
+		}
+		public String getStringPlain() {
+			return this.getProperty(PooledStringJsonWriter.STRING_PLAIN_PROPERTY);
+		}
+		public String getStringParsed() {
+			return this.getProperty(PooledStringJsonWriter.STRING_PARSED_PROPERTY);
+		}
+		public String getParseChecksum() {
+			return this.getProperty(PARSE_CHECKSUM_ATTRIBUTE);
+		}
+		public String getCanonicalStringID() {
+			return this.getProperty(CANONICAL_STRING_ID_ATTRIBUTE);
+		}
+		public String getParseError() {
+			return this.getProperty(PARSE_ERROR_ATTRIBUTE);
+		}
+		public long getCreateTime() {
+			return this.getTime(CREATE_TIME_ATTRIBUTE);
+		}
+		public String getCreateDomain() {
+			return this.getProperty(CREATE_DOMAIN_ATTRIBUTE);
+		}
+		public String getCreateUser() {
+			return this.getProperty(CREATE_USER_ATTRIBUTE);
+		}
+		public long getUpdateTime() {
+			return this.getTime(UPDATE_TIME_ATTRIBUTE);
+		}
+		public String getUpdateDomain() {
+			return this.getProperty(UPDATE_DOMAIN_ATTRIBUTE);
+		}
+		public String getUpdateUser() {
+			return this.getProperty(UPDATE_USER_ATTRIBUTE);
+		}
+		public long getNodeUpdateTime() {
+			return this.getTime(UPDATE_TIME_ATTRIBUTE);
+		}
+		public boolean wasCreated() {
+			return false;
+		}
+		public boolean wasUpdated() {
+			return false;
+		}
+		public boolean isDeleted() {
+			return Boolean.TRUE.equals(this.properties.get(DELETED_ATTRIBUTE));
+		}
+	}
+	
+	/* Parse a flat JSON object, i.e., one whose property values are strings,
+	 * numbers, booleans, or null. Numbers without fraction or exponent come
+	 * back as Long, others as Double, booleans as Boolean. */
+	private static Map parseObject(String json) {
+		Map properties = new HashMap();
+		int[] pos = {skipSpace(json, 0)};
+		expect(json, pos, '{');
+		if (peek(json, pos) == '}') {
+			pos[0]++;
+			return properties;
+		}
+		while (true) {
+			String name = parseString(json, pos);
+			expect(json, pos, ':');
+			properties.put(name, parseValue(json, pos));
+			char ch = peek(json, pos);
+			pos[0]++;
+			if (ch == '}')
+				break;
+			else if (ch != ',')
+				throw new IllegalArgumentException("Expected ',' or '}' at " + (pos[0] - 1));
+		}
+		if (skipSpace(json, pos[0]) < json.length())
+			throw new IllegalArgumentException("Unexpected data after object at " + pos[0]);
+		return properties;
+	}
+	
+	private static Object parseValue(String json, int[] pos) {
+		char ch = peek(json, pos);
+		if (ch == '"')
+			return parseString(json, pos);
+		if (json.startsWith("true", pos[0])) {
+			pos[0] += "true".length();
+			return Boolean.TRUE;
+		}
+		if (json.startsWith("false", pos[0])) {
+			pos[0] += "false".length();
+			return Boolean.FALSE;
+		}
+		if (json.startsWith("null", pos[0])) {
+			pos[0] += "null".length();
+			return null;
+		}
+		int start = pos[0];
+		boolean integral = true;
+		while (pos[0] < json.length()) {
+			ch = json.charAt(pos[0]);
+			if ((ch == '.') || (ch == 'e') || (ch == 'E') || (ch == '+'))
+				integral = false;
+			else if (((ch < '0') || (ch > '9')) && (ch != '-'))
+				break;
+			pos[0]++;
+		}
+		if (start == pos[0])
+			throw new IllegalArgumentException("Invalid value at " + start);
+		String number = json.substring(start, pos[0]);
+		return (integral ? ((Object) Long.valueOf(number)) : ((Object) Double.valueOf(number)));
+	}
+	
+	private static String parseString(String json, int[] pos) {
+		expect(json, pos, '"');
+		StringBuffer str = null;
+		int start = pos[0];
+		while (pos[0] < json.length()) {
+			char ch = json.charAt(pos[0]++);
+			if (ch == '"')
+				return ((str == null) ? json.substring(start, (pos[0] - 1)) : str.toString());
+			if (ch != '\\') {
+				if (str != null)
+					str.append(ch);
+				continue;
+			}
+			if (str == null)
+				str = new StringBuffer(json.substring(start, (pos[0] - 1)));
+			if (pos[0] == json.length())
+				break;
+			ch = json.charAt(pos[0]++);
+			if (ch == 'n')
+				str.append('\n');
+			else if (ch == 'r')
+				str.append('\r');
+			else if (ch == 't')
+				str.append('\t');
+			else if (ch == 'b')
+				str.append('\b');
+			else if (ch == 'f')
+				str.append('\f');
+			else if (ch == 'u') {
+				if ((pos[0] + 4) > json.length())
+					break;
+				str.append((char) Integer.parseInt(json.substring(pos[0], (pos[0] + 4)), 16));
+				pos[0] += 4;
+			}
+			else str.append(ch);
+		}
+		throw new IllegalArgumentException("Unterminated string starting at " + (start - 1));
+	}
+	
+	private static char peek(String json, int[] pos) {
+		pos[0] = skipSpace(json, pos[0]);
+		if (pos[0] == json.length())
+			throw new IllegalArgumentException("Unexpected end of data");
+		return json.charAt(pos[0]);
+	}
+	
+	private static void expect(String json, int[] pos, char ch) {
+		if (peek(json, pos) != ch)
+			throw new IllegalArgumentException("Expected '" + ch + "' at " + pos[0]);
+		pos[0]++;
+	}
+	
+	private static int skipSpace(String json, int pos) {
+		while ((pos < json.length()) && (json.charAt(pos) <= ' '))
+			pos++;
+		return pos;
+	}
+}
@@ -0,0 +1,243 @@
+/* TxnBank, the distributed platform for fully qualified taxonomic names.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.txnBank;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import de.uka.ipd.idaho.onn.stringPool.StringPoolClient.PooledString;
+import de.uka.ipd.idaho.onn.stringPool.StringPoolConstants;
+
+/**
+ * Writer for pooled strings in JSON or JSON Lines format. The output is
+ * produced straight from the fields of the pooled strings, without going
+ * through their XML representation. In JSON format, the strings go into an
+ * array wrapped in an object, with the name of the string set as the only
+ * property; in JSON Lines format, each string is a single line object of its
+ * own. Times are written as milliseconds since the epoch. Sub classes can add
+ * type specific properties by overwriting the <code>writeDetails()</code>
+ * method.
+ * 
+ * @author sautter
+ */
+public class PooledStringJsonWriter implements StringPoolConstants {
+	
+	/** the content type for JSON responses */
+	public static final String JSON_CONTENT_TYPE = "application/json";
+	
+	/** the content type for JSON Lines responses */
+	public static final String JSON_LINES_CONTENT_TYPE = "application/x-ndjson";
+	
+	/** the property holding the plain string */
+	public static final String STRING_PLAIN_PROPERTY = "stringPlain";
+	
+	/** the property holding the parsed string, as XML */
+	public static final String STRING_PARSED_PROPERTY = "stringParsed";
+	
+	private Writer out;
+	private String stringSetName;
+	private boolean jsonLines;
+	private boolean writeParsed;
+	private int stringCount = 0;
+	private boolean inString = false;
+	private boolean firstProperty = false;
+	
+	/** Constructor
+	 * @param out the writer to write to
+	 * @param stringSetName the name of the array holding the strings in JSON
+	 *            format (ignored in JSON Lines format)
+	 * @param jsonLines write JSON Lines rather than JSON?
+	 * @param writeParsed include the parsed strings?
+	 */
+	public PooledStringJsonWriter(Writer out, String stringSetName, boolean jsonLines, boolean writeParsed) {
+		this.out = out;
+		this.stringSetName = stringSetName;
+		this.jsonLines = jsonLines;
+		this.writeParsed = writeParsed;
+	}
+	
+	/**
+	 * Retrieve the content type of the output of this writer.
+	 * @return the content type
+	 */
+	public String getContentType() {
+		return (this.jsonLines ? JSON_LINES_CONTENT_TYPE : JSON_CONTENT_TYPE);
+	}
+	
+	/**
+	 * Write a pooled string as a JSON object.
+	 * @param string the pooled string to write
+	 * @throws IOException
+	 */
+	public void writeString(PooledString string) throws IOException {
+		if (this.jsonLines) {
+			//	no wrapping or separators in JSON Lines
+		}
+		else if (this.stringCount == 0) {
+			this.out.write("{");
+			writeJsonString(this.stringSetName, this.out);
+			this.out.write(":[\n");
+		}
+		else this.out.write(",\n");
+		this.stringCount++;
+		
+		this.out.write("{");
+		this.inString = true;
+		this.firstProperty = true;
+		this.writeProperty(STRING_ID_ATTRIBUTE, string.id);
+		if ((string.getCanonicalStringID() != null) && (string.getCanonicalStringID().length() != 0))
+			this.writeProperty(CANONICAL_STRING_ID_ATTRIBUTE, string.getCanonicalStringID());
+		this.writeProperty(CREATE_TIME_ATTRIBUTE, string.getCreateTime());
+		this.writeProperty(CREATE_DOMAIN_ATTRIBUTE, string.getCreateDomain());
+		this.writeProperty(CREATE_USER_ATTRIBUTE, string.getCreateUser());
+		this.writeProperty(UPDATE_TIME_ATTRIBUTE, string.getUpdateTime());
+		this.writeProperty(UPDATE_DOMAIN_ATTRIBUTE, string.getUpdateDomain());
+		this.writeProperty(UPDATE_USER_ATTRIBUTE, string.getUpdateUser());
+		this.writeProperty(DELETED_ATTRIBUTE, string.isDeleted());
+		if ((string.getParseChecksum() != null) && (string.getParseChecksum().length() != 0))
+			this.writeProperty(PARSE_CHECKSUM_ATTRIBUTE, string.getParseChecksum());
+		this.writeProperty(STRING_PLAIN_PROPERTY, string.getStringPlain());
+		this.writeDetails(string);
+		if (this.writeParsed) {
+			String stringParsed = string.getStringParsed();
+			if (stringParsed != null)
+				this.writeProperty(STRING_PARSED_PROPERTY, stringParsed);
+		}
+		this.inString = false;
+		this.out.write("}");
+		if (this.jsonLines)
+			this.out.write("\n");
+	}
+	
+	/**
+	 * Write type specific properties of a pooled string. This method is called
+	 * after the generic properties and the plain string are written, and
+	 * before the parsed string, if the latter is included. This default
+	 * implementation does nothing, sub classes are welcome to overwrite it as
+	 * needed, using the <code>writeProperty()</code> methods.
+	 * @param string the pooled string to write the properties of
+	 * @throws IOException
+	 */
+	protected void writeDetails(PooledString string) throws IOException {}
+	
+	/**
+	 * Write a string valued property of the pooled string currently being
+	 * written. Null values are omitted.
+	 * @param name the name of the property
+	 * @param value the value of the property
+	 * @throws IOException
+	 */
+	protected void writeProperty(String name, String value) throws IOException {
+		if (value == null)
+			return;
+		this.writePropertyName(name);
+		writeJsonString(value, this.out);
+	}
+	
+	/**
+	 * Write a numeric property of the pooled string currently being written.
+	 * @param name the name of the property
+	 * @param value the value of the property
+	 * @throws IOException
+	 */
+	protected void writeProperty(String name, long value) throws IOException {
+		this.writePropertyName(name);
+		this.out.write(Long.toString(value));
+	}
+	
+	/**
+	 * Write a boolean property of the pooled string currently being written.
+	 * @param name the name of the property
+	 * @param value the value of the property
+	 * @throws IOException
+	 */
+	protected void writeProperty(String name, boolean value) throws IOException {
+		this.writePropertyName(name);
+		this.out.write(value ? "true" : "false");
+	}
+	
+	private void writePropertyName(String name) throws IOException {
+		if (!this.inString)
+			throw new IllegalStateException("Properties can only be written inside writeDetails().");
+		if (this.firstProperty)
+			this.firstProperty = false;
+		else this.out.write(",");
+		writeJsonString(name, this.out);
+		this.out.write(":");
+	}
+	
+	/**
+	 * Finish the output. In JSON format, this method closes the array holding
+	 * the strings and the wrapping object. This method does flush the
+	 * underlying writer, but does not close it.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (this.jsonLines) {
+			//	nothing to close in JSON Lines
+		}
+		else if (this.stringCount == 0) {
+			this.out.write("{");
+			writeJsonString(this.stringSetName, this.out);
+			this.out.write(":[]}\n");
+		}
+		else this.out.write("\n]}\n");
+		this.out.flush();
+	}
+	
+	/**
+	 * Write a string as a JSON string literal, i.e., in double quotes, with
+	 * quotes, backslashes, and control characters escaped.
+	 * @param str the string to write
+	 * @param out the writer to write to
+	 * @throws IOException
+	 */
+	public static void writeJsonString(String str, Writer out) throws IOException {
+		out.write('"');
+		int written = 0;
+		for (int c = 0; c < str.length(); c++) {
+			char ch = str.charAt(c);
+			//	line and paragraph separators are legal in JSON, but not in JavaScript
+			if ((ch >= ' ') && (ch != '"') && (ch != '\\') && (ch != '\u2028') && (ch != '\u2029'))
+				continue;
+			if (written < c)
+				out.write(str, written, (c - written));
+			written = (c + 1);
+			if (ch == '"')
+				out.write("\\\"");
+			else if (ch == '\\')
+				out.write("\\\\");
+			else if (ch == '\n')
+				out.write("\\n");
+			else if (ch == '\r')
+				out.write("\\r");
+			else if (ch == '\t')
+				out.write("\\t");
+			else {
+				String hex = Integer.toHexString(ch);
+				out.write("\\u");
+				for (int p = hex.length(); p < 4; p++)
+					out.write('0');
+				out.write(hex);
+			}
+		}
+		if (written < str.length())
+			out.write(str, written, (str.length() - written));
+		out.write('"');
+	}
+}
@@ -0,0 +1,141 @@
+/* TxnBank, the distributed platform for fully qualified taxonomic names.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.txnBank;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import de.uka.ipd.idaho.gamta.AnnotationUtils;
+import de.uka.ipd.idaho.onn.stringPool.StringPoolClient.UploadString;
+import de.uka.ipd.idaho.onn.stringPool.StringPoolXmlSchemaProvider;
+
+/**
+ * Uploader for pooled strings, sending them to a string pool node in an HTTP
+ * PUT request, in the same XML format as the string pool REST client. In
+ * addition, this class accepts compressed responses, and can send larger
+ * request bodies compressed. The latter is off by default, as nodes without
+ * request decompression cannot read compressed uploads. If switched on and
+ * the node rejects a compressed upload, this class sends the upload again
+ * uncompressed, and stops compressing uploads from then on.
+ * 
+ * @author sautter
+ */
+public class PooledStringUploader {
+	private static final String ENCODING = "UTF-8";
+	
+	private String url;
+	private StringPoolXmlSchemaProvider schema;
+	private volatile boolean compress = false;
+	
+	/** Constructor
+	 * @param url the URL of the string pool node to upload to
+	 * @param schema the provider of the XML element names to use
+	 */
+	public PooledStringUploader(String url, StringPoolXmlSchemaProvider schema) {
+		this.url = url;
+		this.schema = schema;
+	}
+	
+	/**
+	 * Switch compression of larger uploads on or off. Only switch this on if
+	 * the nodes uploads go to can decompress request bodies.
+	 * @param compress compress larger uploads?
+	 */
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+	
+	/**
+	 * Check if larger uploads go to the node compressed. This is false if
+	 * compression was never switched on, or if the node rejected a compressed
+	 * upload.
+	 * @return true if larger uploads are compressed
+	 */
+	public boolean isCompress() {
+		return this.compress;
+	}
+	
+	/**
+	 * Upload a batch of strings. The returned reader provides the response of
+	 * the node, decompressed if necessary.
+	 * @param strings the strings to upload
+	 * @param user the user to credit for the upload
+	 * @return a reader providing the response
+	 * @throws IOException
+	 */
+	public BufferedReader upload(UploadString[] strings, String user) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(body, ENCODING));
+		bw.write("<" + this.schema.getStringSetNodeType() + this.schema.getNamespaceAttribute() + ">");
+		bw.newLine();
+		for (int s = 0; s < strings.length; s++)
+			this.writeXml(strings[s], bw);
+		bw.write("</" + this.schema.getStringSetNodeType() + ">");
+		bw.newLine();
+		bw.flush();
+		
+		//	try compressed first if enabled, and fall back to uncompressed if node rejects that
+		boolean compress = (this.compress && (body.size() >= HttpCompression.MIN_COMPRESSED_REQUEST_BYTES));
+		if (compress) {
+			HttpURLConnection putCon = this.openConnection(user);
+			HttpCompression.sendRequestBody(putCon, body, true);
+			if (putCon.getResponseCode() < 400)
+				return new BufferedReader(new InputStreamReader(HttpCompression.getInputStream(putCon), ENCODING));
+			putCon.disconnect();
+			this.compress = false;
+		}
+		HttpURLConnection putCon = this.openConnection(user);
+		HttpCompression.sendRequestBody(putCon, body, false);
+		return new BufferedReader(new InputStreamReader(HttpCompression.getInputStream(putCon), ENCODING));
+	}
+	
+	private HttpURLConnection openConnection(String user) throws IOException {
+		HttpURLConnection putCon = ((HttpURLConnection) new URL(this.url).openConnection());
+		putCon.setDoInput(true);
+		putCon.setDoOutput(true);
+		putCon.setRequestMethod("PUT");
+		putCon.setRequestProperty("Data-Format", "xml");
+		if (user != null)
+			putCon.setRequestProperty("User-Name", user);
+		HttpCompression.acceptCompressed(putCon);
+		return putCon;
+	}
+	
+	private void writeXml(UploadString string, BufferedWriter bw) throws IOException {
+		bw.write("<" + this.schema.getStringNodeType() + ">");
+		bw.newLine();
+		bw.write("<" + this.schema.getStringPlainNodeType() + ">" + AnnotationUtils.escapeForXml(string.stringPlain) + "</" + this.schema.getStringPlainNodeType() + ">");
+		bw.newLine();
+		if (string.stringParsed != null) {
+			bw.write("<" + this.schema.getStringParsedNodeType() + ">");
+			bw.newLine();
+			bw.write(string.stringParsed);
+			bw.newLine();
+			bw.write("</" + this.schema.getStringParsedNodeType() + ">");
+			bw.newLine();
+		}
+		bw.write("</" + this.schema.getStringNodeType() + ">");
+		bw.newLine();
+	}
+}
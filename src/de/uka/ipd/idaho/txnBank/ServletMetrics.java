@@ -0,0 +1,505 @@
+/* TxnBank, the distributed platform for fully qualified taxonomic names.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.txnBank;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Registry for request metrics of a servlet. The registry counts requests,
+ * rows returned, and bytes written per action, and keeps latency histograms
+ * per action for the request as a whole and for the time spent in SQL
+ * queries, name usage expansion, and serialization. In addition, it counts
+ * hits and misses of named caches. The metrics are available as XML or in
+ * Prometheus text format.<br>
+ * Request handling code marks the phases it enters via the
+ * <code>enterPhase()</code> and <code>exitPhase()</code> methods, which
+ * charge the time elapsed so far to the phase active before. This way, the
+ * phase times of a request are exclusive, e.g. the SQL queries run while
+ * lazily serializing a query result do not count towards serialization. The
+ * phases are tracked per thread, so the registry requires a request to be
+ * handled in a single thread.<br>
+ * If the registry is disabled, all the recording methods return right away,
+ * so the instrumentation costs next to nothing.
+ * 
+ * @author sautter
+ */
+public class ServletMetrics {
+	
+	/** the phase for any request handling time not charged to another phase */
+	public static final int OTHER_PHASE = 0;
+	
+	/** the phase for time spent in SQL queries */
+	public static final int SQL_PHASE = 1;
+	
+	/** the phase for time spent expanding name usages */
+	public static final int EXPANSION_PHASE = 2;
+	
+	/** the phase for time spent serializing response data */
+	public static final int SERIALIZATION_PHASE = 3;
+	
+	/** the format parameter value selecting Prometheus text format */
+	public static final String PROMETHEUS_FORMAT = "prometheus";
+	
+	private static final String[] PHASE_NAMES = {"other", "sql", "expansion", "serialization"};
+	
+	/* upper bounds of histogram buckets, in seconds, with an implicit +Inf
+	 * bucket on top */
+	private static final double[] BUCKET_BOUNDS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+	
+	/* we accept action names from the outside, so we have to limit their
+	 * number to keep the registry from growing unbounded */
+	private static final int MAX_ACTIONS = 32;
+	private static final String OTHER_ACTION = "other";
+	
+	private final String name;
+	private final boolean enabled;
+	private final long startTime = System.currentTimeMillis();
+	private final Map actionMetrics = new ConcurrentHashMap();
+	private final Map cacheMetrics = new ConcurrentHashMap();
+	private final ThreadLocal currentRequest = new ThreadLocal();
+	
+	/** Constructor
+	 * @param name the name of the registry, used as the prefix of metric
+	 *            names in Prometheus format
+	 * @param enabled record metrics?
+	 */
+	public ServletMetrics(String name, boolean enabled) {
+		this.name = name;
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * Test if the registry records metrics.
+	 * @return true if the registry is enabled
+	 */
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+	
+	/**
+	 * Start recording a request. The returned response counts the bytes
+	 * written to it; it has to be used in place of the argument response for
+	 * the byte count to be correct. When handling the request is complete,
+	 * the <code>endRequest()</code> method has to be called. If the registry
+	 * is disabled, this method returns the argument response.
+	 * @param action the action requested
+	 * @param response the response to the request
+	 * @return the response to use for handling the request
+	 */
+	public HttpServletResponse startRequest(String action, HttpServletResponse response) {
+		if (!this.enabled)
+			return response;
+		RequestMetrics rm = new RequestMetrics((action == null) ? OTHER_ACTION : action);
+		this.currentRequest.set(rm);
+		return new CountingResponse(response, rm);
+	}
+	
+	/**
+	 * Finish recording the current request of the calling thread, adding the
+	 * recorded data to the overall metrics of the requested action.
+	 */
+	public void endRequest() {
+		if (!this.enabled)
+			return;
+		RequestMetrics rm = ((RequestMetrics) this.currentRequest.get());
+		if (rm == null)
+			return;
+		this.currentRequest.set(null);
+		rm.switchPhase(OTHER_PHASE);
+		this.getActionMetrics(rm.action).add(rm);
+	}
+	
+	/**
+	 * Enter a phase of request handling, charging the time elapsed so far to
+	 * the phase active before. The returned value has to be handed to the
+	 * <code>exitPhase()</code> method when the phase is over, preferably in a
+	 * finally block.
+	 * @param phase the phase to enter
+	 * @return the phase active before
+	 */
+	public int enterPhase(int phase) {
+		if (!this.enabled)
+			return -1;
+		RequestMetrics rm = ((RequestMetrics) this.currentRequest.get());
+		return ((rm == null) ? -1 : rm.switchPhase(phase));
+	}
+	
+	/**
+	 * Exit a phase of request handling, charging the time elapsed in it, and
+	 * returning to the phase active before.
+	 * @param previousPhase the phase to return to, as returned by the
+	 *            <code>enterPhase()</code> method
+	 */
+	public void exitPhase(int previousPhase) {
+		if (previousPhase == -1)
+			return;
+		RequestMetrics rm = ((RequestMetrics) this.currentRequest.get());
+		if (rm != null)
+			rm.switchPhase(previousPhase);
+	}
+	
+	/**
+	 * Count rows (e.g. pooled strings) returned to the client in the current
+	 * request of the calling thread.
+	 * @param rows the number of rows
+	 */
+	public void countRows(int rows) {
+		if (!this.enabled)
+			return;
+		RequestMetrics rm = ((RequestMetrics) this.currentRequest.get());
+		if (rm != null)
+			rm.rows += rows;
+	}
+	
+	/**
+	 * Count a lookup in a cache.
+	 * @param cache the name of the cache
+	 * @param hit was the lookup a hit?
+	 */
+	public void countCacheLookup(String cache, boolean hit) {
+		if (!this.enabled)
+			return;
+		CacheMetrics cm = ((CacheMetrics) this.cacheMetrics.get(cache));
+		if (cm == null) {
+			((ConcurrentHashMap) this.cacheMetrics).putIfAbsent(cache, new CacheMetrics());
+			cm = ((CacheMetrics) this.cacheMetrics.get(cache));
+		}
+		(hit ? cm.hits : cm.misses).incrementAndGet();
+	}
+	
+	private ActionMetrics getActionMetrics(String action) {
+		ActionMetrics am = ((ActionMetrics) this.actionMetrics.get(action));
+		if (am != null)
+			return am;
+		if (this.actionMetrics.size() >= MAX_ACTIONS)
+			action = OTHER_ACTION;
+		((ConcurrentHashMap) this.actionMetrics).putIfAbsent(action, new ActionMetrics());
+		return ((ActionMetrics) this.actionMetrics.get(action));
+	}
+	
+	/**
+	 * Send the metrics in response to an HTTP request. The metrics go out in
+	 * Prometheus text format if the format parameter of the request is set to
+	 * 'prometheus', and as XML otherwise.
+	 * @param request the HTTP request to answer
+	 * @param response the HTTP response to write to
+	 * @throws IOException
+	 */
+	public void sendMetrics(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		response.setCharacterEncoding("UTF-8");
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8"));
+		if (PROMETHEUS_FORMAT.equals(request.getParameter("format"))) {
+			response.setContentType("text/plain; version=0.0.4");
+			this.writePrometheus(bw);
+		}
+		else {
+			response.setContentType("text/xml");
+			this.writeXml(bw);
+		}
+		bw.flush();
+	}
+	
+	/**
+	 * Write the metrics as XML. Latencies are given in milliseconds.
+	 * @param out the writer to write to
+	 * @throws IOException
+	 */
+	public void writeXml(Writer out) throws IOException {
+		out.write("<stats");
+		out.write(" name=\"" + this.name + "\"");
+		out.write(" enabled=\"" + this.enabled + "\"");
+		out.write(" since=\"" + this.startTime + "\"");
+		out.write(">\n");
+		for (Iterator ait = new TreeMap(this.actionMetrics).entrySet().iterator(); ait.hasNext();) {
+			Map.Entry ae = ((Map.Entry) ait.next());
+			ActionMetrics am = ((ActionMetrics) ae.getValue());
+			out.write("<action");
+			out.write(" name=\"" + escapeXml((String) ae.getKey()) + "\"");
+			out.write(" requests=\"" + am.requests.get() + "\"");
+			out.write(" rows=\"" + am.rows.get() + "\"");
+			out.write(" bytes=\"" + am.bytes.get() + "\"");
+			out.write(">\n");
+			this.writeXml("total", am.total, out);
+			for (int p = 0; p < am.phases.length; p++)
+				this.writeXml(PHASE_NAMES[p], am.phases[p], out);
+			out.write("</action>\n");
+		}
+		for (Iterator cit = new TreeMap(this.cacheMetrics).entrySet().iterator(); cit.hasNext();) {
+			Map.Entry ce = ((Map.Entry) cit.next());
+			CacheMetrics cm = ((CacheMetrics) ce.getValue());
+			long hits = cm.hits.get();
+			long misses = cm.misses.get();
+			out.write("<cache");
+			out.write(" name=\"" + escapeXml((String) ce.getKey()) + "\"");
+			out.write(" hits=\"" + hits + "\"");
+			out.write(" misses=\"" + misses + "\"");
+			out.write(" hitRate=\"" + (((hits + misses) == 0) ? 0 : (((double) hits) / (hits + misses))) + "\"");
+			out.write("/>\n");
+		}
+		out.write("</stats>\n");
+	}
+	private void writeXml(String phase, Histogram histogram, Writer out) throws IOException {
+		out.write("<latency");
+		out.write(" phase=\"" + phase + "\"");
+		out.write(" count=\"" + histogram.count.get() + "\"");
+		out.write(" totalMillis=\"" + (histogram.sumNanos.get() / 1000000) + "\"");
+		out.write(" p50Millis=\"" + (Math.round(histogram.getQuantile(0.5) * 1000000) / 1000.0) + "\"");
+		out.write(" p99Millis=\"" + (Math.round(histogram.getQuantile(0.99) * 1000000) / 1000.0) + "\"");
+		out.write("/>\n");
+	}
+	
+	/**
+	 * Write the metrics in Prometheus text format. Latencies are given in
+	 * seconds.
+	 * @param out the writer to write to
+	 * @throws IOException
+	 */
+	public void writePrometheus(Writer out) throws IOException {
+		TreeMap actionMetrics = new TreeMap(this.actionMetrics);
+		
+		out.write("# HELP " + this.name + "_requests_total Requests handled, by action.\n");
+		out.write("# TYPE " + this.name + "_requests_total counter\n");
+		for (Iterator ait = actionMetrics.entrySet().iterator(); ait.hasNext();) {
+			Map.Entry ae = ((Map.Entry) ait.next());
+			out.write(this.name + "_requests_total{action=\"" + escapePrometheus((String) ae.getKey()) + "\"} " + ((ActionMetrics) ae.getValue()).requests.get() + "\n");
+		}
+		out.write("# HELP " + this.name + "_rows_returned_total Rows returned to clients, by action.\n");
+		out.write("# TYPE " + this.name + "_rows_returned_total counter\n");
+		for (Iterator ait = actionMetrics.entrySet().iterator(); ait.hasNext();) {
+			Map.Entry ae = ((Map.Entry) ait.next());
+			out.write(this.name + "_rows_returned_total{action=\"" + escapePrometheus((String) ae.getKey()) + "\"} " + ((ActionMetrics) ae.getValue()).rows.get() + "\n");
+		}
+		out.write("# HELP " + this.name + "_response_bytes_total Response bytes written, by action.\n");
+		out.write("# TYPE " + this.name + "_response_bytes_total counter\n");
+		for (Iterator ait = actionMetrics.entrySet().iterator(); ait.hasNext();) {
+			Map.Entry ae = ((Map.Entry) ait.next());
+			out.write(this.name + "_response_bytes_total{action=\"" + escapePrometheus((String) ae.getKey()) + "\"} " + ((ActionMetrics) ae.getValue()).bytes.get() + "\n");
+		}
+		
+		out.write("# HELP " + this.name + "_request_duration_seconds Request handling time, by action and phase.\n");
+		out.write("# TYPE " + this.name + "_request_duration_seconds histogram\n");
+		for (Iterator ait = actionMetrics.entrySet().iterator(); ait.hasNext();) {
+			Map.Entry ae = ((Map.Entry) ait.next());
+			ActionMetrics am = ((ActionMetrics) ae.getValue());
+			String labels = ("action=\"" + escapePrometheus((String) ae.getKey()) + "\"");
+			this.writePrometheus((labels + ",phase=\"total\""), am.total, out);
+			for (int p = 0; p < am.phases.length; p++)
+				this.writePrometheus((labels + ",phase=\"" + PHASE_NAMES[p] + "\""), am.phases[p], out);
+		}
+		out.write("# HELP " + this.name + "_request_duration_quantile_seconds Request handling time quantiles estimated from histogram, by action and phase.\n");
+		out.write("# TYPE " + this.name + "_request_duration_quantile_seconds gauge\n");
+		for (Iterator ait = actionMetrics.entrySet().iterator(); ait.hasNext();) {
+			Map.Entry ae = ((Map.Entry) ait.next());
+			ActionMetrics am = ((ActionMetrics) ae.getValue());
+			String labels = ("action=\"" + escapePrometheus((String) ae.getKey()) + "\"");
+			this.writePrometheusQuantiles((labels + ",phase=\"total\""), am.total, out);
+			for (int p = 0; p < am.phases.length; p++)
+				this.writePrometheusQuantiles((labels + ",phase=\"" + PHASE_NAMES[p] + "\""), am.phases[p], out);
+		}
+		
+		TreeMap cacheMetrics = new TreeMap(this.cacheMetrics);
+		out.write("# HELP " + this.name + "_cache_hits_total Cache hits, by cache.\n");
+		out.write("# TYPE " + this.name + "_cache_hits_total counter\n");
+		for (Iterator cit = cacheMetrics.entrySet().iterator(); cit.hasNext();) {
+			Map.Entry ce = ((Map.Entry) cit.next());
+			out.write(this.name + "_cache_hits_total{cache=\"" + escapePrometheus((String) ce.getKey()) + "\"} " + ((CacheMetrics) ce.getValue()).hits.get() + "\n");
+		}
+		out.write("# HELP " + this.name + "_cache_misses_total Cache misses, by cache.\n");
+		out.write("# TYPE " + this.name + "_cache_misses_total counter\n");
+		for (Iterator cit = cacheMetrics.entrySet().iterator(); cit.hasNext();) {
+			Map.Entry ce = ((Map.Entry) cit.next());
+			out.write(this.name + "_cache_misses_total{cache=\"" + escapePrometheus((String) ce.getKey()) + "\"} " + ((CacheMetrics) ce.getValue()).misses.get() + "\n");
+		}
+	}
+	private void writePrometheus(String labels, Histogram histogram, Writer out) throws IOException {
+		long cumulativeCount = 0;
+		for (int b = 0; b < BUCKET_BOUNDS.length; b++) {
+			cumulativeCount += histogram.buckets.get(b);
+			out.write(this.name + "_request_duration_seconds_bucket{" + labels + ",le=\"" + BUCKET_BOUNDS[b] + "\"} " + cumulativeCount + "\n");
+		}
+		long count = histogram.count.get();
+		out.write(this.name + "_request_duration_seconds_bucket{" + labels + ",le=\"+Inf\"} " + count + "\n");
+		out.write(this.name + "_request_duration_seconds_sum{" + labels + "} " + (((double) histogram.sumNanos.get()) / 1000000000) + "\n");
+		out.write(this.name + "_request_duration_seconds_count{" + labels + "} " + count + "\n");
+	}
+	private void writePrometheusQuantiles(String labels, Histogram histogram, Writer out) throws IOException {
+		out.write(this.name + "_request_duration_quantile_seconds{" + labels + ",quantile=\"0.5\"} " + histogram.getQuantile(0.5) + "\n");
+		out.write(this.name + "_request_duration_quantile_seconds{" + labels + ",quantile=\"0.99\"} " + histogram.getQuantile(0.99) + "\n");
+	}
+	
+	private static String escapeXml(String str) {
+		return str.replaceAll("\\&", "&amp;").replaceAll("\\<", "&lt;").replaceAll("\\>", "&gt;").replaceAll("\\\"", "&quot;");
+	}
+	
+	private static String escapePrometheus(String str) {
+		return str.replaceAll("\\\\", "\\\\\\\\").replaceAll("\\\"", "\\\\\"").replaceAll("\\n", "\\\\n");
+	}
+	
+	private static class RequestMetrics {
+		final String action;
+		final long startNanos;
+		final long[] phaseNanos = new long[PHASE_NAMES.length];
+		int phase = OTHER_PHASE;
+		long phaseStartNanos;
+		long rows = 0;
+		long bytes = 0;
+		RequestMetrics(String action) {
+			this.action = action;
+			this.startNanos = System.nanoTime();
+			this.phaseStartNanos = this.startNanos;
+		}
+		int switchPhase(int phase) {
+			long time = System.nanoTime();
+			this.phaseNanos[this.phase] += (time - this.phaseStartNanos);
+			this.phaseStartNanos = time;
+			int previousPhase = this.phase;
+			this.phase = phase;
+			return previousPhase;
+		}
+	}
+	
+	private static class ActionMetrics {
+		final AtomicLong requests = new AtomicLong();
+		final AtomicLong rows = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+		final Histogram total = new Histogram();
+		final Histogram[] phases = new Histogram[PHASE_NAMES.length];
+		ActionMetrics() {
+			for (int p = 0; p < this.phases.length; p++)
+				this.phases[p] = new Histogram();
+		}
+		void add(RequestMetrics rm) {
+			this.requests.incrementAndGet();
+			this.rows.addAndGet(rm.rows);
+			this.bytes.addAndGet(rm.bytes);
+			this.total.add(rm.phaseStartNanos - rm.startNanos);
+			for (int p = 0; p < this.phases.length; p++)
+				this.phases[p].add(rm.phaseNanos[p]);
+		}
+	}
+	
+	private static class Histogram {
+		final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong sumNanos = new AtomicLong();
+		void add(long nanos) {
+			double seconds = (((double) nanos) / 1000000000);
+			int b = 0;
+			while ((b < BUCKET_BOUNDS.length) && (BUCKET_BOUNDS[b] < seconds))
+				b++;
+			this.buckets.incrementAndGet(b);
+			this.count.incrementAndGet();
+			this.sumNanos.addAndGet(nanos);
+		}
+		/* estimate a quantile, in seconds, interpolating linearly inside the
+		 * bucket it falls into (the +Inf bucket reports its lower bound) */
+		double getQuantile(double q) {
+			long count = this.count.get();
+			if (count == 0)
+				return 0;
+			double rank = (q * count);
+			long cumulativeCount = 0;
+			for (int b = 0; b < BUCKET_BOUNDS.length; b++) {
+				long bucketCount = this.buckets.get(b);
+				if ((cumulativeCount + bucketCount) >= rank) {
+					double lowerBound = ((b == 0) ? 0 : BUCKET_BOUNDS[b - 1]);
+					return (lowerBound + ((BUCKET_BOUNDS[b] - lowerBound) * ((rank - cumulativeCount) / bucketCount)));
+				}
+				cumulativeCount += bucketCount;
+			}
+			return BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1];
+		}
+	}
+	
+	private static class CacheMetrics {
+		final AtomicLong hits = new AtomicLong();
+		final AtomicLong misses = new AtomicLong();
+	}
+	
+	private static class CountingResponse extends HttpServletResponseWrapper {
+		private RequestMetrics rm;
+		private CountingOutputStream out = null;
+		private PrintWriter writer = null;
+		CountingResponse(HttpServletResponse response, RequestMetrics rm) {
+			super(response);
+			this.rm = rm;
+		}
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (this.writer != null)
+				throw new IllegalStateException("getWriter() has already been called");
+			return this.getCountingOutputStream();
+		}
+		public PrintWriter getWriter() throws IOException {
+			if (this.writer == null) {
+				if (this.out != null)
+					throw new IllegalStateException("getOutputStream() has already been called");
+				this.writer = new PrintWriter(new OutputStreamWriter(this.getCountingOutputStream(), this.getCharacterEncoding()));
+			}
+			return this.writer;
+		}
+		private CountingOutputStream getCountingOutputStream() throws IOException {
+			if (this.out == null)
+				this.out = new CountingOutputStream(this.getResponse().getOutputStream(), this.rm);
+			return this.out;
+		}
+		public void flushBuffer() throws IOException {
+			if (this.writer != null)
+				this.writer.flush();
+			super.flushBuffer();
+		}
+	}
+	
+	private static class CountingOutputStream extends ServletOutputStream {
+		private OutputStream out;
+		private RequestMetrics rm;
+		CountingOutputStream(OutputStream out, RequestMetrics rm) {
+			this.out = out;
+			this.rm = rm;
+		}
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.rm.bytes++;
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.rm.bytes += len;
+		}
+		public void flush() throws IOException {
+			this.out.flush();
+		}
+		public void close() throws IOException {
+			this.out.close();
+		}
+	}
+}
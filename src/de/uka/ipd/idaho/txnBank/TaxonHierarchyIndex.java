@@ -0,0 +1,314 @@
+/* TxnBank, the distributed platform for fully qualified taxonomic names.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.txnBank;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import de.uka.ipd.idaho.easyIO.EasyIO;
+import de.uka.ipd.idaho.easyIO.IoProvider;
+import de.uka.ipd.idaho.easyIO.SqlQueryResult;
+import de.uka.ipd.idaho.easyIO.sql.TableDefinition;
+
+/**
+ * Closure table over the taxonomic hierarchy implied by the epithets of the
+ * taxonomic names in a TxnBank node. Each name has one row for each of its
+ * epithets, the one at its own rank included, holding rank and (lower case)
+ * epithet of the respective ancestor. Lookups go by an integer hash of rank
+ * and full epithet, and then compare rank and epithet proper, so finding all
+ * names below a given taxon is an exact and indexed equality match, rather
+ * than a substring match on the truncated rank group columns of the string
+ * index table. As the table is normalized to one epithet per name and rank,
+ * it also serves prefix matches on epithets, which use the index on the
+ * epithet column.
+ * 
+ * @author sautter
+ */
+public class TaxonHierarchyIndex {
+	private static final String HIERARCHY_TABLE_NAME_SUFFIX = "Hierarchy";
+	private static final String TAXON_ID_COLUMN_NAME = "TaxonId";
+	private static final String TAXON_ID_HASH_COLUMN_NAME = "TaxonIdHash";
+	private static final String TAXON_RANK_COLUMN_NAME = "TaxonRank";
+	private static final String ANCESTOR_KEY_COLUMN_NAME = "AncestorKey";
+	private static final String ANCESTOR_RANK_COLUMN_NAME = "AncestorRank";
+	private static final String ANCESTOR_EPITHET_COLUMN_NAME = "AncestorEpithet";
+	
+	private static final int RANK_COLUMN_LENGTH = 32;
+	private static final int EPITHET_COLUMN_LENGTH = 128; // way longer than any actual epithet
+	
+	private IoProvider io;
+	private String tableName;
+	private volatile boolean ready = false;
+	
+	/**
+	 * Constructor
+	 * @param io the IO provider to use for the hierarchy table
+	 * @param externalDataName the external data name of the string pool
+	 * @throws IOException
+	 */
+	public TaxonHierarchyIndex(IoProvider io, String externalDataName) throws IOException {
+		this.io = io;
+		
+		//	produce hierarchy table
+		TableDefinition td = new TableDefinition(externalDataName + HIERARCHY_TABLE_NAME_SUFFIX);
+		td.addColumn(TAXON_ID_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, 32);
+		td.addColumn(TAXON_ID_HASH_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		td.addColumn(TAXON_RANK_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, RANK_COLUMN_LENGTH);
+		td.addColumn(ANCESTOR_KEY_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		td.addColumn(ANCESTOR_RANK_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, RANK_COLUMN_LENGTH);
+		td.addColumn(ANCESTOR_EPITHET_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, EPITHET_COLUMN_LENGTH);
+		if (!this.io.ensureTable(td, true))
+			throw new IOException("TaxonHierarchyIndex: Cannot create hierarchy table.");
+		this.tableName = td.getTableName();
+		this.io.indexColumn(this.tableName, ANCESTOR_KEY_COLUMN_NAME);
+		this.io.indexColumn(this.tableName, TAXON_ID_HASH_COLUMN_NAME);
+		this.io.indexColumn(this.tableName, ANCESTOR_EPITHET_COLUMN_NAME);
+	}
+	
+	/**
+	 * Check whether or not the index is complete, i.e., covers all names that
+	 * were present when the node started.
+	 * @return true if the index is complete
+	 */
+	public boolean isReady() {
+		return this.ready;
+	}
+	
+	/**
+	 * Mark the index as complete, after all names present on startup have
+	 * been added.
+	 */
+	public void setReady() {
+		this.ready = true;
+	}
+	
+	/**
+	 * Count the distinct taxonomic names in the index.
+	 * @return the number of taxonomic names
+	 */
+	public int getTaxonCount() {
+		String query = "SELECT count(DISTINCT " + TAXON_ID_COLUMN_NAME + ")" +
+				" FROM " + this.tableName + 
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			return (sqr.next() ? Integer.parseInt(sqr.getString(0)) : 0);
+		}
+		catch (SQLException sqle) {
+			System.out.println("TaxonHierarchyIndex: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while counting names.");
+			System.out.println("  query was " + query);
+			return -1;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+	}
+	
+	/**
+	 * Check whether or not a taxonomic name is contained in the index.
+	 * @param taxonId the ID of the taxonomic name
+	 * @return true if the name is contained in the index
+	 */
+	public boolean containsTaxon(String taxonId) {
+		String query = "SELECT " + TAXON_RANK_COLUMN_NAME + 
+				" FROM " + this.tableName + 
+				" WHERE " + getTaxonIdPredicate(taxonId) + 
+				" LIMIT 1" +
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			return sqr.next();
+		}
+		catch (SQLException sqle) {
+			System.out.println("TaxonHierarchyIndex: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while checking name.");
+			System.out.println("  query was " + query);
+			return false;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+	}
+	
+	private static String getTaxonIdPredicate(String taxonId) {
+		return (TAXON_ID_HASH_COLUMN_NAME + " = " + taxonId.hashCode() + " AND " + TAXON_ID_COLUMN_NAME + " = '" + EasyIO.sqlEscape(taxonId) + "'");
+	}
+	
+	private static int getAncestorKey(String rank, String epithet) {
+		return (rank.toLowerCase() + " " + epithet.toLowerCase()).hashCode();
+	}
+	
+	private static String getAncestorPredicate(String alias, String rank, String epithet) {
+		String lcEpithet = epithet.toLowerCase();
+		if (lcEpithet.length() > EPITHET_COLUMN_LENGTH)
+			lcEpithet = lcEpithet.substring(0, EPITHET_COLUMN_LENGTH);
+		return (alias + ANCESTOR_KEY_COLUMN_NAME + " = " + getAncestorKey(rank, epithet) + 
+				" AND " + alias + ANCESTOR_RANK_COLUMN_NAME + " = '" + EasyIO.sqlEscape(rank.toLowerCase()) + "'" + 
+				" AND " + alias + ANCESTOR_EPITHET_COLUMN_NAME + " = '" + EasyIO.sqlEscape(lcEpithet) + "'");
+	}
+	
+	/**
+	 * Store the position of a taxonomic name in the hierarchy, replacing any
+	 * position stored before. The argument arrays have to be of the same
+	 * length, and should include the epithet at the rank of the argument
+	 * name proper.
+	 * @param taxonId the ID of the taxonomic name
+	 * @param rank the rank of the taxonomic name
+	 * @param ancestorRanks the ranks of the epithets of the name
+	 * @param ancestorEpithets the epithets of the name
+	 * @return true if the index was updated successfully
+	 */
+	public synchronized boolean indexTaxon(String taxonId, String rank, String[] ancestorRanks, String[] ancestorEpithets) {
+		String query = null;
+		try {
+			query = "DELETE FROM " + this.tableName + 
+					" WHERE " + getTaxonIdPredicate(taxonId) + 
+					";";
+			this.io.executeUpdateQuery(query);
+			
+			String lcRank = ((rank == null) ? "" : rank.toLowerCase());
+			if (lcRank.length() > RANK_COLUMN_LENGTH)
+				lcRank = lcRank.substring(0, RANK_COLUMN_LENGTH);
+			for (int a = 0; a < ancestorRanks.length; a++) {
+				String lcAncestorRank = ancestorRanks[a].toLowerCase();
+				if (lcAncestorRank.length() > RANK_COLUMN_LENGTH)
+					continue; // no such ranks in rank system, and we couldn't match it exactly anyway
+				String lcAncestorEpithet = ancestorEpithets[a].toLowerCase();
+				if (lcAncestorEpithet.length() > EPITHET_COLUMN_LENGTH)
+					lcAncestorEpithet = lcAncestorEpithet.substring(0, EPITHET_COLUMN_LENGTH); // hash of full epithet in key keeps matching exact
+				query = "INSERT INTO " + this.tableName + " (" +
+						TAXON_ID_COLUMN_NAME + 
+						", " + TAXON_ID_HASH_COLUMN_NAME + 
+						", " + TAXON_RANK_COLUMN_NAME + 
+						", " + ANCESTOR_KEY_COLUMN_NAME + 
+						", " + ANCESTOR_RANK_COLUMN_NAME + 
+						", " + ANCESTOR_EPITHET_COLUMN_NAME + 
+						") VALUES (" +
+						"'" + EasyIO.sqlEscape(taxonId) + "'" + 
+						", " + taxonId.hashCode() + 
+						", '" + EasyIO.sqlEscape(lcRank) + "'" + 
+						", " + getAncestorKey(ancestorRanks[a], ancestorEpithets[a]) + 
+						", '" + EasyIO.sqlEscape(lcAncestorRank) + "'" + 
+						", '" + EasyIO.sqlEscape(lcAncestorEpithet) + "'" + 
+						");";
+				this.io.executeUpdateQuery(query);
+			}
+			return true;
+		}
+		catch (SQLException sqle) {
+			System.out.println("TaxonHierarchyIndex: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while indexing name.");
+			System.out.println("  query was " + query);
+			return false;
+		}
+	}
+	
+	/**
+	 * Retrieve the IDs of the taxonomic names below a given taxon, i.e., the
+	 * names that have the argument epithet at the argument rank, excluding
+	 * the names of the taxon proper. Rank and epithet are matched exactly,
+	 * apart from case.
+	 * @param ancestorRank the rank of the taxon to find the descendants of
+	 * @param ancestorEpithet the epithet of the taxon at that rank
+	 * @param descendantRank the rank of the names to find (null for any rank)
+	 * @param limit the maximum number of IDs to return (0 means no limit);
+	 *            with a limit, the IDs are ordered by their hash, so
+	 *            repeated queries return the same subset
+	 * @return an array holding the IDs of the descendant names
+	 * @throws IOException
+	 */
+	public String[] getDescendantIds(String ancestorRank, String ancestorEpithet, String descendantRank, int limit) throws IOException {
+		String query = "SELECT " + TAXON_ID_COLUMN_NAME + 
+				" FROM " + this.tableName + 
+				" WHERE " + getAncestorPredicate("", ancestorRank, ancestorEpithet) + 
+				" AND " + TAXON_RANK_COLUMN_NAME + " <> " + ANCESTOR_RANK_COLUMN_NAME + 
+				((descendantRank == null) ? "" : (" AND " + TAXON_RANK_COLUMN_NAME + " = '" + EasyIO.sqlEscape(descendantRank.toLowerCase()) + "'")) + 
+				((limit > 0) ? (" ORDER BY " + TAXON_ID_HASH_COLUMN_NAME + ", " + TAXON_ID_COLUMN_NAME + " LIMIT " + limit) : "") + 
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			ArrayList taxonIds = new ArrayList();
+			while (sqr.next())
+				taxonIds.add(sqr.getString(0));
+			return ((String[]) taxonIds.toArray(new String[taxonIds.size()]));
+		}
+		catch (SQLException sqle) {
+			System.out.println("TaxonHierarchyIndex: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while finding descendants.");
+			System.out.println("  query was " + query);
+			throw new IOException(sqle.getMessage());
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+	}
+	
+	/**
+	 * Produce an SQL predicate restricting the taxonomic name IDs in a
+	 * column of another table to the names at or below a given taxon, e.g.
+	 * for filtering name usages by higher taxon. Rank and epithet are matched
+	 * exactly, apart from case.
+	 * @param idHashColumn the column holding the hashes of the name IDs
+	 * @param idColumn the column holding the name IDs proper
+	 * @param ancestorRank the rank of the taxon to restrict the names to
+	 * @param ancestorEpithet the epithet of the taxon at that rank
+	 * @return the predicate
+	 */
+	public String getDescendantOrSelfPredicate(String idHashColumn, String idColumn, String ancestorRank, String ancestorEpithet) {
+		return ("EXISTS (" +
+				"SELECT 1" +
+				" FROM " + this.tableName + " hrc" +
+				" WHERE " + getAncestorPredicate("hrc.", ancestorRank, ancestorEpithet) + 
+				" AND hrc." + TAXON_ID_HASH_COLUMN_NAME + " = " + idHashColumn + 
+				" AND hrc." + TAXON_ID_COLUMN_NAME + " = " + idColumn + 
+				")");
+	}
+	
+	/**
+	 * Produce an SQL predicate restricting the taxonomic name IDs in a
+	 * column of another table to the names that have an epithet starting
+	 * with a given prefix at any of a given set of ranks, e.g. the ranks of a
+	 * rank group. The comparison ignores case. An epithet equal to the prefix
+	 * matches as well, so a full epithet makes for an exact match.
+	 * @param idHashColumn the column holding the hashes of the name IDs
+	 * @param idColumn the column holding the name IDs proper
+	 * @param ranks the ranks to match the epithet prefix at
+	 * @param epithetPrefix the prefix of the epithets to match
+	 * @return the predicate
+	 */
+	public String getEpithetPredicate(String idHashColumn, String idColumn, String[] ranks, String epithetPrefix) {
+		StringBuffer rankList = new StringBuffer();
+		for (int r = 0; r < ranks.length; r++) {
+			if (r != 0)
+				rankList.append(", ");
+			rankList.append("'" + EasyIO.sqlEscape(ranks[r].toLowerCase()) + "'");
+		}
+		return ("EXISTS (" +
+				"SELECT 1" +
+				" FROM " + this.tableName + " hrc" +
+				" WHERE hrc." + ANCESTOR_EPITHET_COLUMN_NAME + " LIKE '" + EasyIO.prepareForLIKE(epithetPrefix.toLowerCase()) + "%'" + 
+				" AND hrc." + ANCESTOR_RANK_COLUMN_NAME + " IN (" + rankList.toString() + ")" + 
+				" AND hrc." + TAXON_ID_HASH_COLUMN_NAME + " = " + idHashColumn + 
+				" AND hrc." + TAXON_ID_COLUMN_NAME + " = " + idColumn + 
+				")");
+	}
+}
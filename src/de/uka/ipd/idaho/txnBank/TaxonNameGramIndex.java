@@ -0,0 +1,429 @@
+/* TxnBank, the distributed platform for fully qualified taxonomic names.
+ * Copyright (C) 2014- Plazi, by G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.txnBank;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+import de.uka.ipd.idaho.easyIO.EasyIO;
+import de.uka.ipd.idaho.easyIO.IoProvider;
+import de.uka.ipd.idaho.easyIO.SqlQueryResult;
+import de.uka.ipd.idaho.easyIO.sql.TableDefinition;
+
+/**
+ * Trigram index for approximate matching of taxonomic names, tolerating a
+ * bounded number of edits (insertions, deletions, substitutions), e.g. from
+ * misspellings or OCR errors. The indexed terms are the lower case epithets
+ * and canonical names of the taxonomic names, padded at both ends, so each
+ * character is covered by three trigrams. As a single edit destroys at most
+ * three trigrams, a term within <code>k</code> edits of a query shares at
+ * least as many distinct trigrams with the query as the query has, minus
+ * <code>3k</code>. This count filter runs in the database, against postings
+ * partitioned by term length, so a query only touches the postings of terms
+ * whose length is within <code>k</code> of its own. The surviving candidates
+ * are then verified with a banded edit distance computation, best ranked
+ * first. With a limit, verification stops after a fixed multiple of the
+ * requested number of results once it has found that many matches, so the
+ * result holds the closest matches among the best ranked candidates; fewer
+ * results than the limit means all matches were found.
+ * 
+ * @author sautter
+ */
+public class TaxonNameGramIndex {
+	private static final String GRAM_TABLE_NAME_SUFFIX = "Grams";
+	private static final String TAXON_ID_COLUMN_NAME = "TaxonId";
+	private static final String TAXON_ID_HASH_COLUMN_NAME = "TaxonIdHash";
+	private static final String TERM_COLUMN_NAME = "Term";
+	private static final String GRAM_KEY_COLUMN_NAME = "GramKey";
+	private static final String GRAM_SCORE_COLUMN_NAME = "GramScore";
+	
+	private static final int TERM_COLUMN_LENGTH = 128;
+	private static final int GRAM_KEY_COLUMN_LENGTH = 8; // three characters plus term length
+	
+	/** the maximum number of edits supported in queries */
+	public static final int MAX_EDITS = 3;
+	
+	/* number of candidates to verify per requested result, bounding the work
+	 * done outside the database as long as these candidates yield enough
+	 * matches; no bound applies to queries without a limit */
+	private static final int CANDIDATES_PER_RESULT = 16;
+	private static final int MIN_CANDIDATES = 1024;
+	
+	private static final char PADDING_CHAR = '#';
+	
+	private IoProvider io;
+	private String tableName;
+	private volatile boolean ready = false;
+	
+	/**
+	 * Constructor
+	 * @param io the IO provider to use for the trigram table
+	 * @param externalDataName the external data name of the string pool
+	 * @throws IOException
+	 */
+	public TaxonNameGramIndex(IoProvider io, String externalDataName) throws IOException {
+		this.io = io;
+		
+		//	produce trigram table
+		TableDefinition td = new TableDefinition(externalDataName + GRAM_TABLE_NAME_SUFFIX);
+		td.addColumn(TAXON_ID_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, 32);
+		td.addColumn(TAXON_ID_HASH_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		td.addColumn(TERM_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, TERM_COLUMN_LENGTH);
+		td.addColumn(GRAM_KEY_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, GRAM_KEY_COLUMN_LENGTH);
+		if (!this.io.ensureTable(td, true))
+			throw new IOException("TaxonNameGramIndex: Cannot create trigram table.");
+		this.tableName = td.getTableName();
+		this.io.indexColumn(this.tableName, GRAM_KEY_COLUMN_NAME);
+		this.io.indexColumn(this.tableName, TAXON_ID_HASH_COLUMN_NAME);
+	}
+	
+	/**
+	 * Check whether or not the index is complete, i.e., covers all names that
+	 * were present when the node started.
+	 * @return true if the index is complete
+	 */
+	public boolean isReady() {
+		return this.ready;
+	}
+	
+	/**
+	 * Mark the index as complete, after all names present on startup have
+	 * been added.
+	 */
+	public void setReady() {
+		this.ready = true;
+	}
+	
+	/**
+	 * Count the distinct taxonomic names in the index.
+	 * @return the number of taxonomic names
+	 */
+	public int getTaxonCount() {
+		String query = "SELECT count(DISTINCT " + TAXON_ID_COLUMN_NAME + ")" +
+				" FROM " + this.tableName + 
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			return (sqr.next() ? Integer.parseInt(sqr.getString(0)) : 0);
+		}
+		catch (SQLException sqle) {
+			System.out.println("TaxonNameGramIndex: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while counting names.");
+			System.out.println("  query was " + query);
+			return -1;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+	}
+	
+	/**
+	 * Check whether or not a taxonomic name is contained in the index.
+	 * @param taxonId the ID of the taxonomic name
+	 * @return true if the name is contained in the index
+	 */
+	public boolean containsTaxon(String taxonId) {
+		String query = "SELECT " + GRAM_KEY_COLUMN_NAME + 
+				" FROM " + this.tableName + 
+				" WHERE " + getTaxonIdPredicate(taxonId) + 
+				" LIMIT 1" +
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			return sqr.next();
+		}
+		catch (SQLException sqle) {
+			System.out.println("TaxonNameGramIndex: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while checking name.");
+			System.out.println("  query was " + query);
+			return false;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+	}
+	
+	private static String getTaxonIdPredicate(String taxonId) {
+		return (TAXON_ID_HASH_COLUMN_NAME + " = " + taxonId.hashCode() + " AND " + TAXON_ID_COLUMN_NAME + " = '" + EasyIO.sqlEscape(taxonId) + "'");
+	}
+	
+	/**
+	 * Store the terms of a taxonomic name, replacing any terms stored before.
+	 * Terms are normalized to lower case, and terms longer than 128
+	 * characters are ignored.
+	 * @param taxonId the ID of the taxonomic name
+	 * @param terms the terms to index, e.g. epithet and canonical name
+	 * @return true if the index was updated successfully
+	 */
+	public synchronized boolean indexTaxon(String taxonId, String[] terms) {
+		String query = null;
+		try {
+			query = "DELETE FROM " + this.tableName + 
+					" WHERE " + getTaxonIdPredicate(taxonId) + 
+					";";
+			this.io.executeUpdateQuery(query);
+			
+			LinkedHashSet indexedTerms = new LinkedHashSet();
+			for (int t = 0; t < terms.length; t++) {
+				String term = normalizeTerm(terms[t]);
+				if ((term.length() == 0) || (term.length() > TERM_COLUMN_LENGTH) || !indexedTerms.add(term))
+					continue;
+				String[] gramKeys = getGramKeys(term);
+				for (int g = 0; g < gramKeys.length; g++) {
+					query = "INSERT INTO " + this.tableName + " (" +
+							TAXON_ID_COLUMN_NAME + 
+							", " + TAXON_ID_HASH_COLUMN_NAME + 
+							", " + TERM_COLUMN_NAME + 
+							", " + GRAM_KEY_COLUMN_NAME + 
+							") VALUES (" +
+							"'" + EasyIO.sqlEscape(taxonId) + "'" + 
+							", " + taxonId.hashCode() + 
+							", '" + EasyIO.sqlEscape(term) + "'" + 
+							", '" + EasyIO.sqlEscape(gramKeys[g]) + "'" + 
+							");";
+					this.io.executeUpdateQuery(query);
+				}
+			}
+			return true;
+		}
+		catch (SQLException sqle) {
+			System.out.println("TaxonNameGramIndex: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while indexing name.");
+			System.out.println("  query was " + query);
+			return false;
+		}
+	}
+	
+	/**
+	 * Retrieve the IDs of the taxonomic names that have a term within a given
+	 * number of edits of a query, ordered by ascending edit distance.
+	 * @param query the query term
+	 * @param maxEdits the maximum number of edits
+	 * @param limit the maximum number of IDs to return (0 means no limit,
+	 *            i.e., verify all candidates passing the count filter)
+	 * @return an array holding the IDs of the matching names
+	 * @throws IOException if the query is invalid, or if the database
+	 *            lookup fails
+	 */
+	public String[] getMatchingIds(String query, int maxEdits, int limit) throws IOException {
+		String term = normalizeTerm(query);
+		if ((maxEdits < 0) || (maxEdits > MAX_EDITS))
+			throw new IOException("Invalid number of edits: " + maxEdits + ", must be between 0 and " + MAX_EDITS);
+		if ((term.length() == 0) || (term.length() > TERM_COLUMN_LENGTH))
+			throw new IOException("Invalid query: '" + query + "'");
+		String[] grams = getGrams(term);
+		int minCommonGrams = getMinCommonGrams(grams.length, maxEdits);
+		if (minCommonGrams < 1)
+			throw new IOException("Query '" + query + "' is too short for " + maxEdits + " edits");
+		
+		//	collect trigram keys for all term lengths in range
+		String[] gramKeys = getQueryGramKeys(term, maxEdits);
+		StringBuffer gramKeyList = new StringBuffer();
+		for (int k = 0; k < gramKeys.length; k++) {
+			if (k != 0)
+				gramKeyList.append(", ");
+			gramKeyList.append("'" + EasyIO.sqlEscape(gramKeys[k]) + "'");
+		}
+		
+		//	apply count filter in database, best candidates first (ranking by
+		//	estimated trigram distance, so longer terms do not win on count alone)
+		String sqlQuery = "SELECT " + TAXON_ID_COLUMN_NAME + ", " + TERM_COLUMN_NAME + 
+				", ((2 * count(*)) - length(" + TERM_COLUMN_NAME + ")) AS " + GRAM_SCORE_COLUMN_NAME + 
+				" FROM " + this.tableName + 
+				" WHERE " + GRAM_KEY_COLUMN_NAME + " IN (" + gramKeyList.toString() + ")" + 
+				" GROUP BY " + TAXON_ID_HASH_COLUMN_NAME + ", " + TAXON_ID_COLUMN_NAME + ", " + TERM_COLUMN_NAME + 
+				" HAVING count(*) >= " + minCommonGrams + 
+				" ORDER BY " + GRAM_SCORE_COLUMN_NAME + " DESC" + 
+				";";
+		
+		//	with a limit, stop verifying after the best candidates, unless they yield too few matches
+		int candidateLimit = ((limit > 0) ? getCandidateLimit(limit) : Integer.MAX_VALUE);
+		final HashMap taxonIdEdits = new HashMap();
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(sqlQuery);
+			
+			//	verify candidates, keeping best match for each name
+			int candidates = 0;
+			while (sqr.next()) {
+				if ((candidates++ >= candidateLimit) && (taxonIdEdits.size() >= limit))
+					break;
+				String taxonId = sqr.getString(0);
+				int edits = getEditDistance(term, sqr.getString(1), maxEdits);
+				if (edits > maxEdits)
+					continue;
+				Integer minEdits = ((Integer) taxonIdEdits.get(taxonId));
+				if ((minEdits == null) || (edits < minEdits.intValue()))
+					taxonIdEdits.put(taxonId, Integer.valueOf(edits));
+			}
+		}
+		catch (SQLException sqle) {
+			System.out.println("TaxonNameGramIndex: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while finding names.");
+			System.out.println("  query was " + sqlQuery);
+			throw new IOException(sqle.getMessage());
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		
+		//	order matches by edit distance
+		String[] taxonIds = ((String[]) taxonIdEdits.keySet().toArray(new String[taxonIdEdits.size()]));
+		Arrays.sort(taxonIds, new Comparator() {
+			public int compare(Object obj1, Object obj2) {
+				return (((Integer) taxonIdEdits.get(obj1)).intValue() - ((Integer) taxonIdEdits.get(obj2)).intValue());
+			}
+		});
+		if ((limit > 0) && (taxonIds.length > limit)) {
+			String[] limitTaxonIds = new String[limit];
+			System.arraycopy(taxonIds, 0, limitTaxonIds, 0, limit);
+			taxonIds = limitTaxonIds;
+		}
+		return taxonIds;
+	}
+	
+	/**
+	 * Normalize a term for indexing or lookup, i.e., convert it to lower case
+	 * and normalize whitespace to single spaces.
+	 * @param term the term to normalize
+	 * @return the normalized term
+	 */
+	static String normalizeTerm(String term) {
+		return term.trim().replaceAll("\\s+", " ").toLowerCase();
+	}
+	
+	/**
+	 * Extract the distinct trigrams from a (normalized) term, padding the
+	 * latter with two characters at either end.
+	 * @param term the term to extract the trigrams from
+	 * @return an array holding the trigrams
+	 */
+	static String[] getGrams(String term) {
+		String paddedTerm = ("" + PADDING_CHAR + PADDING_CHAR + term + PADDING_CHAR + PADDING_CHAR);
+		LinkedHashSet grams = new LinkedHashSet();
+		for (int c = 0; (c + 3) <= paddedTerm.length(); c++)
+			grams.add(paddedTerm.substring(c, (c + 3)));
+		return ((String[]) grams.toArray(new String[grams.size()]));
+	}
+	
+	/**
+	 * Extract the trigram keys from a (normalized) term, i.e., the distinct
+	 * trigrams combined with the length of the term.
+	 * @param term the term to extract the trigram keys from
+	 * @return an array holding the trigram keys
+	 */
+	static String[] getGramKeys(String term) {
+		String[] grams = getGrams(term);
+		for (int g = 0; g < grams.length; g++)
+			grams[g] = (grams[g] + term.length());
+		return grams;
+	}
+	
+	/**
+	 * Extract the trigram keys to look up for a (normalized) query term, i.e.,
+	 * its distinct trigrams combined with each term length within the given
+	 * number of edits of its own length.
+	 * @param term the query term to extract the trigram keys from
+	 * @param maxEdits the maximum number of edits
+	 * @return an array holding the trigram keys
+	 */
+	static String[] getQueryGramKeys(String term, int maxEdits) {
+		String[] grams = getGrams(term);
+		ArrayList gramKeys = new ArrayList();
+		for (int l = Math.max(1, (term.length() - maxEdits)); l <= (term.length() + maxEdits); l++) {
+			for (int g = 0; g < grams.length; g++)
+				gramKeys.add(grams[g] + l);
+		}
+		return ((String[]) gramKeys.toArray(new String[gramKeys.size()]));
+	}
+	
+	/**
+	 * Compute the number of candidates to verify for a query with a limit
+	 * before stopping, provided they yield at least as many matches as the
+	 * limit.
+	 * @param limit the maximum number of results requested
+	 * @return the number of candidates
+	 */
+	static int getCandidateLimit(int limit) {
+		return Math.max(MIN_CANDIDATES, (limit * CANDIDATES_PER_RESULT));
+	}
+	
+	/**
+	 * Compute the minimum number of distinct trigrams a term has to share
+	 * with a query to be within a given number of edits of it.
+	 * @param queryGrams the number of distinct trigrams in the query
+	 * @param maxEdits the maximum number of edits
+	 * @return the minimum number of shared trigrams
+	 */
+	static int getMinCommonGrams(int queryGrams, int maxEdits) {
+		return (queryGrams - (3 * maxEdits));
+	}
+	
+	/**
+	 * Compute the edit distance between two strings, giving up as soon as it
+	 * exceeds a given maximum. Only the diagonal band of the distance matrix
+	 * that can hold values within the maximum is computed.
+	 * @param str1 the first string
+	 * @param str2 the second string
+	 * @param maxEdits the maximum number of edits of interest
+	 * @return the edit distance, or <code>maxEdits + 1</code> if it exceeds
+	 *            the maximum
+	 */
+	static int getEditDistance(String str1, String str2, int maxEdits) {
+		int len1 = str1.length();
+		int len2 = str2.length();
+		if (Math.abs(len1 - len2) > maxEdits)
+			return (maxEdits + 1);
+		int outOfBounds = (maxEdits + 1);
+		int[] lastRow = new int[len2 + 1];
+		int[] row = new int[len2 + 1];
+		for (int c = 0; c <= len2; c++)
+			lastRow[c] = ((c <= maxEdits) ? c : outOfBounds);
+		for (int r = 1; r <= len1; r++) {
+			int from = Math.max(1, (r - maxEdits));
+			int to = Math.min(len2, (r + maxEdits));
+			row[0] = ((r <= maxEdits) ? r : outOfBounds);
+			if (from > 1)
+				row[from - 1] = outOfBounds;
+			int rowMin = row[0];
+			char ch1 = str1.charAt(r - 1);
+			for (int c = from; c <= to; c++) {
+				int dist = (lastRow[c - 1] + ((ch1 == str2.charAt(c - 1)) ? 0 : 1));
+				dist = Math.min(dist, (lastRow[c] + 1));
+				dist = Math.min(dist, (row[c - 1] + 1));
+				row[c] = Math.min(dist, outOfBounds);
+				if (row[c] < rowMin)
+					rowMin = row[c];
+			}
+			if (to < len2)
+				row[to + 1] = outOfBounds;
+			if (rowMin > maxEdits)
+				return outOfBounds;
+			int[] swap = lastRow;
+			lastRow = row;
+			row = swap;
+		}
+		return lastRow[len2];
+	}
+}
@@ -51,6 +51,12 @@ public interface TxnBankClient extends StringPoolClient {
 	
 	/**
 	 * Search for taxonomic names, using both full text and detail predicates.
+	 * By default, the rank group epithets match as substrings of the
+	 * concatenated epithets of the respective group. If the backing TxnBank
+	 * node is configured for epithet prefix search, they match as (case
+	 * insensitive) prefixes of the epithets at the ranks of the group instead,
+	 * using the taxonomic hierarchy index; until that index is complete, the
+	 * returned iterator holds an exception in this case.
 	 * @param textPredicates the full text predicates
 	 * @param disjunctive combine the predicates with 'or'?
 	 * @param user the name of the user to contribute or last update the
@@ -69,6 +75,47 @@ public interface TxnBankClient extends StringPoolClient {
 	 */
 	public abstract PooledStringIterator findNames(String[] textPredicates, boolean disjunctive, String user, String txKingdom, String txPhylum, String txClass, String txOrder, String txFamily, String txGenus, String txSpecies, String txRank, boolean concise, int limit);
 	
+	/**
+	 * Search for the taxonomic names below a given taxon, i.e., the names
+	 * that have a given epithet at a given rank. Unlike the rank group
+	 * predicates of the <code>findNames()</code> methods, rank and epithet are
+	 * matched exactly (apart from case), so a search for the descendants of
+	 * genus 'Ctenomys' does not find names in genus 'Ctenomyops'. The names of
+	 * the taxon proper are not included in the result. This search requires
+	 * the taxonomic hierarchy index to be enabled and complete in the backing
+	 * TxnBank node; if it is not, the returned iterator holds an exception.
+	 * @param ancestorRank the rank of the taxon to find the descendants of
+	 * @param ancestorEpithet the epithet of the taxon at that rank
+	 * @param descendantRank the rank of taxonomic names to find (null for any
+	 *            rank)
+	 * @param concise obtain a concise result, i.e., without parses?
+	 * @param limit the maximum number of names to include in the result (0 means no limit)
+	 * @return an iterator over the names below the argument taxon
+	 */
+	public abstract PooledStringIterator findDescendantNames(String ancestorRank, String ancestorEpithet, String descendantRank, boolean concise, int limit);
+	
+	/**
+	 * Search for taxonomic names approximately, tolerating misspellings, e.g.
+	 * from OCR errors. The query is matched against the epithets of the names
+	 * at their own rank and against their canonical form, i.e., the epithets
+	 * from genus downward (like 'Ctenomys sociabilis'), ignoring case. Names
+	 * are included in the result if either term is within the given number
+	 * of edits (insertions, deletions, or substitutions of single characters)
+	 * of the query, and the result is ordered by ascending number of edits.
+	 * With a limit, the result holds the closest names among the candidates
+	 * sharing the most trigrams with the query, which may in rare cases miss
+	 * a closer name with few shared trigrams; a result with fewer names than
+	 * the limit, or one without a limit, holds all matching names.
+	 * This search requires the fuzzy name index to be enabled and complete in
+	 * the backing TxnBank node; if it is not, or if the query is too short
+	 * for the number of edits, the returned iterator holds an exception.
+	 * @param query the (possibly misspelled) epithet or canonical name
+	 * @param maxEdits the maximum number of edits (between 0 and 3)
+	 * @param limit the maximum number of names to include in the result (0 means no limit)
+	 * @return an iterator over the names matching the query
+	 */
+	public abstract PooledStringIterator findNamesFuzzy(String query, int maxEdits, int limit);
+	
 	/**
 	 * Upload a taxon name.
 	 * @param taxName the taxon name to upload
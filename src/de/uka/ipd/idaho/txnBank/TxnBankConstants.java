@@ -54,9 +54,16 @@ public interface TxnBankConstants extends StringPoolConstants, TaxonomicNameCons
 	public static final String GENUS_RANK_GROUP_PARAMETER = GENUS_ATTRIBUTE;
 	public static final String SPECIES_RANK_GROUP_PARAMETER = SPECIES_ATTRIBUTE;
 	public static final String RANK_PARAMETER = RANK_ATTRIBUTE;
+	public static final String DESCENDANTS_OF_PARAMETER = "descendantsOf";
+	public static final String FUZZY_QUERY_PARAMETER = "fuzzyQuery";
+	public static final String MAX_EDITS_PARAMETER = "maxEdits";
 	
 	public static final String DARWIN_CORE_FORMAT = "DwC";
 	public static final String SIMPLE_DARWIN_CORE_FORMAT = "SimpleDwC";
+	public static final String JSON_FORMAT = "json";
+	public static final String JSON_LINES_FORMAT = "jsonl";
+	
+	public static final String STATS_ACTION_NAME = "stats";
 	
 	/**
 	 * Utility class normalizing taxonomic names for uploads. If either of the
@@ -195,7 +202,27 @@ public interface TxnBankConstants extends StringPoolConstants, TaxonomicNameCons
 //			System.out.println("- " + taxName.toDwcXml());
 			
 			//	synthesize new pair of plain and parsed string
-			return new UploadString(taxNameString.toString(), taxName.toDwcXml());
+			return new PreparedUploadString(taxNameString.toString(), taxName);
+		}
+	}
+	
+	/**
+	 * Upload string as produced by the <code>TaxonomicNameChecker</code>,
+	 * additionally holding the normalized taxon name object the parsed string
+	 * was generated from. This spares re-creating the object from the parsed
+	 * string where the upload string is processed locally. Client code must
+	 * not modify the taxon name object.
+	 * 
+	 * @author sautter
+	 */
+	public static class PreparedUploadString extends UploadString {
+		
+		/** the normalized taxon name object the strings were generated from */
+		public final TaxonomicName taxName;
+		
+		PreparedUploadString(String stringPlain, TaxonomicName taxName) {
+			super(stringPlain, taxName.toDwcXml());
+			this.taxName = taxName;
 		}
 	}
 }
\ No newline at end of file
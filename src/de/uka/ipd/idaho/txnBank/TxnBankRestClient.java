@@ -17,7 +17,11 @@
  */
 package de.uka.ipd.idaho.txnBank;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLConnection;
 import java.net.URLEncoder;
 import java.util.LinkedList;
 
@@ -72,6 +76,33 @@ public class TxnBankRestClient extends StringPoolRestClient implements TxnBankCo
 	 */
 	public TxnBankRestClient(String baseUrl) {
 		super(baseUrl);
+		this.baseUrl = baseUrl;
+		this.uploader = new PooledStringUploader(baseUrl, this);
+	}
+	
+	private String baseUrl;
+	private PooledStringUploader uploader;
+	
+	/**
+	 * Switch compression of larger uploads on or off. Only switch this on if
+	 * the TxnBank node can decompress request bodies. If the node rejects a
+	 * compressed upload, the client falls back to uncompressed uploads. By
+	 * default, uploads are not compressed.
+	 * @param compressUploads compress larger uploads?
+	 */
+	public void setCompressUploads(boolean compressUploads) {
+		this.uploader.setCompress(compressUploads);
+	}
+	
+	/**
+	 * This implementation overwrites the original one from the super class to
+	 * accept compressed responses.
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolRestClient#receiveStrings(java.lang.String)
+	 */
+	protected PooledStringIterator receiveStrings(String urlQueryString) throws IOException {
+		URLConnection con = new URL(this.baseUrl + "?" + urlQueryString).openConnection();
+		HttpCompression.acceptCompressed(con);
+		return this.receiveStrings(new BufferedReader(new InputStreamReader(HttpCompression.getInputStream(con), ENCODING)));
 	}
 	
 	/* (non-Javadoc)
@@ -108,6 +139,43 @@ public class TxnBankRestClient extends StringPoolRestClient implements TxnBankCo
 		}
 	}
 	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.txnBank.TxnBankClient#findDescendantNames(java.lang.String, java.lang.String, java.lang.String, boolean, int)
+	 */
+	public PooledStringIterator findDescendantNames(String ancestorRank, String ancestorEpithet, String descendantRank, boolean concise, int limit) {
+		try {
+			StringBuffer query = new StringBuffer(ACTION_PARAMETER + "=" + FIND_ACTION_NAME);
+			query.append("&" + DESCENDANTS_OF_PARAMETER + "=" + URLEncoder.encode((ancestorRank + ":" + ancestorEpithet), ENCODING));
+			if (descendantRank != null)
+				query.append("&" + RANK_PARAMETER + "=" + URLEncoder.encode(descendantRank, ENCODING));
+			if (concise)
+				query.append("&" + FORMAT_PARAMETER + "=" + CONCISE_FORMAT);
+			if (limit > 0)
+				query.append("&" + LIMIT_PARAMETER + "=" + limit);
+			return this.receiveStrings(query.toString());
+		}
+		catch (IOException ioe) {
+			return new ExceptionPSI(ioe);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.txnBank.TxnBankClient#findNamesFuzzy(java.lang.String, int, int)
+	 */
+	public PooledStringIterator findNamesFuzzy(String query, int maxEdits, int limit) {
+		try {
+			StringBuffer queryString = new StringBuffer(ACTION_PARAMETER + "=" + FIND_ACTION_NAME);
+			queryString.append("&" + FUZZY_QUERY_PARAMETER + "=" + URLEncoder.encode(query, ENCODING));
+			queryString.append("&" + MAX_EDITS_PARAMETER + "=" + maxEdits);
+			if (limit > 0)
+				queryString.append("&" + LIMIT_PARAMETER + "=" + limit);
+			return this.receiveStrings(queryString.toString());
+		}
+		catch (IOException ioe) {
+			return new ExceptionPSI(ioe);
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.txnBank.TxnBankClient#updateName(de.uka.ipd.idaho.plugins.taxonomicNames.TaxonomicNameUtils.TaxonomicName, java.lang.String)
 	 */
@@ -132,7 +200,7 @@ public class TxnBankRestClient extends StringPoolRestClient implements TxnBankCo
 			if (taxNameString != null)
 				taxNameList.add(taxNameString);
 		}
-		return super.updateStrings(((UploadString[]) taxNameList.toArray(new UploadString[taxNameList.size()])), user);
+		return this.uploadStrings(((UploadString[]) taxNameList.toArray(new UploadString[taxNameList.size()])), user);
 	}
 	
 	/**
@@ -162,7 +230,8 @@ public class TxnBankRestClient extends StringPoolRestClient implements TxnBankCo
 	 * latter method finds an argument string unfit for upload, this method
 	 * simply ignores it. The check works through the argument array one by
 	 * one, so one unfit string does not prevent any fit ones from being
-	 * uploaded.
+	 * uploaded. Larger uploads go to the server compressed if switched on via
+	 * <code>setCompressUploads()</code>.
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolRestClient#updateStrings(de.uka.ipd.idaho.onn.stringPool.StringPoolClient.UploadString[], java.lang.String)
 	 */
 	public PooledStringIterator updateStrings(UploadString[] strings, String user) {
@@ -172,6 +241,15 @@ public class TxnBankRestClient extends StringPoolRestClient implements TxnBankCo
 			if (string != null)
 				stringList.add(string);
 		}
-		return super.updateStrings(((UploadString[]) stringList.toArray(new UploadString[stringList.size()])), user);
+		return this.uploadStrings(((UploadString[]) stringList.toArray(new UploadString[stringList.size()])), user);
+	}
+	
+	private PooledStringIterator uploadStrings(UploadString[] strings, String user) {
+		try {
+			return this.receiveStrings(this.uploader.upload(strings, user));
+		}
+		catch (IOException ioe) {
+			return new ExceptionPSI(ioe);
+		}
 	}
 }
\ No newline at end of file
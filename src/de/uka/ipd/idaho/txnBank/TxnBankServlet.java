@@ -17,20 +17,38 @@
  */
 package de.uka.ipd.idaho.txnBank;
 
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.io.OutputStreamWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Properties;
-import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.transform.Transformer;
 
-import com.fasterxml.uuid.Generators;
-import com.fasterxml.uuid.impl.NameBasedGenerator;
-
+import de.uka.ipd.idaho.easyIO.EasyIO;
+import de.uka.ipd.idaho.easyIO.IoProvider;
+import de.uka.ipd.idaho.easyIO.SqlQueryResult;
 import de.uka.ipd.idaho.easyIO.sql.TableDefinition;
+import de.uka.ipd.idaho.easyIO.web.WebAppHost;
 import de.uka.ipd.idaho.gamta.Annotation;
+import de.uka.ipd.idaho.gamta.AnnotationUtils;
 import de.uka.ipd.idaho.gamta.MutableAnnotation;
+import de.uka.ipd.idaho.htmlXmlUtil.accessories.XsltUtils;
 import de.uka.ipd.idaho.onn.stringPool.StringPoolServlet;
 import de.uka.ipd.idaho.plugins.taxonomicNames.TaxonomicNameUtils;
 import de.uka.ipd.idaho.plugins.taxonomicNames.TaxonomicNameUtils.TaxonomicName;
@@ -122,16 +140,250 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 	protected void doInit() throws ServletException {
 		super.doInit();
 		
-		//	get generic rank system (we'll be handling names from all domains)
-		this.rankSystem = TaxonomicRankSystem.getRankSystem(null);
+		//	create metrics registry (disabled unless configured, so instrumentation costs next to nothing)
+		this.metrics = new ServletMetrics("txnbank", "true".equals(this.getSetting("metrics", "false")));
 		
-		//	cache rank system details
-		this.rankGroups = this.rankSystem.getRankGroups();
-		this.primaryRanks = new Rank[this.rankGroups.length];
-		for (int g = 0; g < this.rankGroups.length; g++)
-			this.primaryRanks[g] = this.rankGroups[g].getRank(this.rankGroups[g].name);
-		this.familyRank = this.rankSystem.getRank(FAMILY_ATTRIBUTE);
-		this.genusRank = this.rankSystem.getRank(GENUS_ATTRIBUTE);
+		//	get rank system
+		this.initRankSystem();
+		
+		//	set up pack file store for parses if configured
+		if ("pack".equals(this.getSetting("parsedStringStore", "files")))
+			this.initParsedStringPack();
+		
+		//	set up taxonomic hierarchy index and fuzzy name index if configured
+		this.io = WebAppHost.getInstance(this.getServletContext()).getIoProvider();
+		if ("true".equals(this.getSetting("hierarchyIndex", "false")))
+			this.initHierarchyIndex();
+		if ("true".equals(this.getSetting("fuzzyIndex", "false")))
+			this.initFuzzyIndex();
+		this.epithetPrefixSearch = ((this.hierarchyIndex != null) && "true".equals(this.getSetting("epithetPrefixSearch", "false")));
+		if ((this.hierarchyIndex != null) || (this.fuzzyIndex != null))
+			this.startIndexBackfill();
+		
+		//	set up thread pool for checking and normalizing uploads
+		int prepareThreads = 4;
+		try {
+			prepareThreads = Integer.parseInt(this.getSetting("prepareThreads", ("" + prepareThreads)));
+		} catch (NumberFormatException nfe) {}
+		if (prepareThreads > 1)
+			this.prepareExecutor = new ThreadPoolExecutor(prepareThreads, prepareThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue(prepareThreads * 4), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "TxnBankUploadPreparer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			}, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+	
+	private ServletMetrics metrics = new ServletMetrics("txnbank", false);
+	
+	private ParsedStringPack parsedStringPack = null;
+	private File parsedStringsFolder = null;
+	
+	private void initParsedStringPack() throws ServletException {
+		String externalDataName = this.getStringDataTableName().substring(0, (this.getStringDataTableName().length() - PARSED_STRING_TABLE_NAME_SUFFIX.length()));
+		long packSegmentBytes = (64 * 1024 * 1024);
+		try {
+			packSegmentBytes = Long.parseLong(this.getSetting("packSegmentBytes", ("" + packSegmentBytes)));
+		} catch (NumberFormatException nfe) {}
+		int packCompactionHours = 24;
+		try {
+			packCompactionHours = Integer.parseInt(this.getSetting("packCompactionHours", ("" + packCompactionHours)));
+		} catch (NumberFormatException nfe) {}
+		try {
+			this.parsedStringPack = new ParsedStringPack(new File(this.dataFolder, (externalDataName + "Pack")), WebAppHost.getInstance(this.getServletContext()).getIoProvider(), externalDataName, packSegmentBytes);
+		}
+		catch (IOException ioe) {
+			throw new ServletException("TxnBank: Cannot create parsed string pack: " + ioe.getMessage());
+		}
+		this.parsedStringsFolder = ParsedStringPack.getParsedStringFolder(this.dataFolder, externalDataName);
+		
+		//	import existing parse files and compact pack in the background
+		this.parsedStringPack.startMaintenance(this.parsedStringsFolder, (packCompactionHours * 60L * 60L * 1000L), "TxnBankPackMaintenance");
+	}
+	
+	private IoProvider io;
+	private TaxonHierarchyIndex hierarchyIndex = null;
+	private boolean epithetPrefixSearch = false;
+	
+	private void initHierarchyIndex() throws ServletException {
+		String externalDataName = this.getStringDataTableName().substring(0, (this.getStringDataTableName().length() - PARSED_STRING_TABLE_NAME_SUFFIX.length()));
+		try {
+			this.hierarchyIndex = new TaxonHierarchyIndex(this.io, externalDataName);
+		}
+		catch (IOException ioe) {
+			throw new ServletException("TxnBank: Cannot create taxonomic hierarchy index: " + ioe.getMessage());
+		}
+	}
+	
+	private TaxonNameGramIndex fuzzyIndex = null;
+	
+	private void initFuzzyIndex() throws ServletException {
+		String externalDataName = this.getStringDataTableName().substring(0, (this.getStringDataTableName().length() - PARSED_STRING_TABLE_NAME_SUFFIX.length()));
+		try {
+			this.fuzzyIndex = new TaxonNameGramIndex(this.io, externalDataName);
+		}
+		catch (IOException ioe) {
+			throw new ServletException("TxnBank: Cannot create fuzzy name index: " + ioe.getMessage());
+		}
+	}
+	
+	private void startIndexBackfill() {
+		
+		//	index existing names in the background (indexes are used in searches only after that is complete)
+		Thread backfiller = new Thread("TxnBankIndexBackfill") {
+			public void run() {
+				backfillNameIndexes();
+			}
+		};
+		backfiller.setDaemon(true);
+		backfiller.start();
+	}
+	
+	private void backfillNameIndexes() {
+		
+		//	check if we have any work to do (all names get indexed on insertion and update once indexes exist)
+		String query = "SELECT count(*)" +
+				" FROM " + this.getStringDataTableName() + 
+				";";
+		int nameCount = -1;
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			if (sqr.next())
+				nameCount = Integer.parseInt(sqr.getString(0));
+		}
+		catch (SQLException sqle) {
+			System.out.println("TxnBank: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while counting names.");
+			System.out.println("  query was " + query);
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		if ((this.hierarchyIndex != null) && (nameCount != -1) && (this.hierarchyIndex.getTaxonCount() >= nameCount)) {
+			this.hierarchyIndex.setReady();
+			System.out.println("TxnBank: taxonomic hierarchy index complete");
+		}
+		if ((this.fuzzyIndex != null) && (nameCount != -1) && (this.fuzzyIndex.getTaxonCount() >= nameCount)) {
+			this.fuzzyIndex.setReady();
+			System.out.println("TxnBank: fuzzy name index complete");
+		}
+		boolean backfillHierarchy = ((this.hierarchyIndex != null) && !this.hierarchyIndex.isReady());
+		boolean backfillFuzzy = ((this.fuzzyIndex != null) && !this.fuzzyIndex.isReady());
+		if (!backfillHierarchy && !backfillFuzzy)
+			return;
+		
+		//	page through name IDs (keyset paging guarantees progress even if some parse turns out not to exist)
+		System.out.println("TxnBank: backfilling name indexes ...");
+		String lastId = "";
+		int hierarchyIndexed = 0;
+		int fuzzyIndexed = 0;
+		while (true) {
+			query = "SELECT " + STRING_ID_COLUMN_NAME + 
+					" FROM " + this.getStringDataTableName() + 
+					" WHERE " + STRING_ID_COLUMN_NAME + " > '" + EasyIO.sqlEscape(lastId) + "'" + 
+					" ORDER BY " + STRING_ID_COLUMN_NAME + 
+					" LIMIT 256" +
+					";";
+			ArrayList ids = new ArrayList();
+			sqr = null;
+			try {
+				sqr = this.io.executeSelectQuery(query, true); // using copy, we release the lock before we write the index tables
+				while (sqr.next())
+					ids.add(sqr.getString(0));
+			}
+			catch (SQLException sqle) {
+				System.out.println("TxnBank: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while backfilling name indexes.");
+				System.out.println("  query was " + query);
+				return;
+			}
+			finally {
+				if (sqr != null)
+					sqr.close();
+			}
+			if (ids.isEmpty())
+				break;
+			lastId = ((String) ids.get(ids.size() - 1));
+			
+			//	index names not indexed before
+			for (int i = 0; i < ids.size(); i++) {
+				String taxonNameId = ((String) ids.get(i));
+				boolean indexHierarchy = (backfillHierarchy && !this.hierarchyIndex.containsTaxon(taxonNameId));
+				boolean indexFuzzy = (backfillFuzzy && !this.fuzzyIndex.containsTaxon(taxonNameId));
+				if (!indexHierarchy && !indexFuzzy)
+					continue;
+				MutableAnnotation stringParsed = this.getStringParsed(taxonNameId);
+				if (stringParsed == null)
+					continue;
+				try {
+					TaxonNameIndexData taxonNameIndexData = this.getIndexData(stringParsed);
+					if (indexHierarchy && this.hierarchyIndex.indexTaxon(taxonNameId, taxonNameIndexData.rank, taxonNameIndexData.hierarchyRanks, taxonNameIndexData.hierarchyEpithets))
+						hierarchyIndexed++;
+					if (indexFuzzy && this.fuzzyIndex.indexTaxon(taxonNameId, getFuzzyIndexTerms(taxonNameIndexData)))
+						fuzzyIndexed++;
+				}
+				catch (RuntimeException re) {
+					System.out.println("TxnBank: " + re.getClass().getName() + " (" + re.getMessage() + ") while indexing " + taxonNameId);
+				}
+			}
+		}
+		
+		//	we're good to go
+		if (backfillHierarchy) {
+			this.hierarchyIndex.setReady();
+			System.out.println("TxnBank: taxonomic hierarchy index complete, " + hierarchyIndexed + " names added");
+		}
+		if (backfillFuzzy) {
+			this.fuzzyIndex.setReady();
+			System.out.println("TxnBank: fuzzy name index complete, " + fuzzyIndexed + " names added");
+		}
+	}
+	
+	/* the terms to match misspelled names against are the epithet of a name
+	 * proper, and its canonical form, i.e., the epithets from genus downward;
+	 * we don't index higher taxon epithets with every name, as that would
+	 * blow up the postings of those epithets to the size of the whole pool */
+	static String[] getFuzzyIndexTerms(TaxonNameIndexData taxonNameIndexData) {
+		String[] ranks = taxonNameIndexData.hierarchyRanks;
+		String[] epithets = taxonNameIndexData.hierarchyEpithets;
+		if (epithets.length == 0)
+			return new String[0];
+		String epithet = epithets[epithets.length - 1];
+		StringBuffer canonicalName = null;
+		for (int e = 0; e < epithets.length; e++) {
+			if ((canonicalName == null) && GENUS_ATTRIBUTE.equals(ranks[e]))
+				canonicalName = new StringBuffer(epithets[e]);
+			else if (canonicalName != null)
+				canonicalName.append(" " + epithets[e]);
+			if (ranks[e].equals(taxonNameIndexData.rank))
+				epithet = epithets[e];
+		}
+		if ((canonicalName == null) || canonicalName.toString().equals(epithet)) {
+			String[] terms = {epithet};
+			return terms;
+		}
+		String[] terms = {epithet, canonicalName.toString()};
+		return terms;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#exit()
+	 */
+	protected void exit() {
+		if (this.prepareExecutor != null)
+			this.prepareExecutor.shutdown();
+		if (this.parsedStringPack != null)
+			this.parsedStringPack.close();
+		super.exit();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#getStringParsed(java.lang.String)
+	 */
+	public MutableAnnotation getStringParsed(String id) {
+		MutableAnnotation stringParsed = ((this.parsedStringPack == null) ? null : this.parsedStringPack.getStringParsed(id));
+		return ((stringParsed == null) ? super.getStringParsed(id) : stringParsed);
 	}
 	
 	/* (non-Javadoc)
@@ -141,6 +393,325 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 		return "xmlns:dwc=\"http://digir.net/schema/conceptual/darwin/2003/1.0\" xmlns:dwcranks=\"http://rs.tdwg.org/UBIF/2006/Schema/1.1\"";
 	}
 	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#doGet(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+	 */
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		String action = request.getPathInfo();
+		if (action == null)
+			action = request.getParameter(ACTION_PARAMETER);
+		else {
+			while (action.startsWith("/"))
+				action = action.substring(1);
+			if (action.indexOf('/') != -1)
+				action = action.substring(0, action.indexOf('/'));
+		}
+		
+		//	record metrics, and compress response if client accepts it
+		response = this.metrics.startRequest(action, response);
+		response = HttpCompression.wrapResponse(request, response);
+		try {
+			String format = request.getParameter(FORMAT_PARAMETER);
+			
+			//	search for names below some taxon
+			if (FIND_ACTION_NAME.equals(action) && (request.getParameter(DESCENDANTS_OF_PARAMETER) != null))
+				this.doFindDescendantNames(request, response, format);
+			
+			//	approximate search for names
+			else if (FIND_ACTION_NAME.equals(action) && (request.getParameter(FUZZY_QUERY_PARAMETER) != null))
+				this.doFindNamesFuzzy(request, response, format);
+			
+			//	search for names by epithet prefixes, using hierarchy index (only if configured, as semantics differ from substring match)
+			else if (FIND_ACTION_NAME.equals(action) && this.epithetPrefixSearch && (this.getRankGroupEpithets(request) != null))
+				this.doFindNamesByEpithets(request, response, format, this.getRankGroupEpithets(request));
+			
+			//	search for names with JSON result
+			else if (FIND_ACTION_NAME.equals(action) && (JSON_FORMAT.equals(format) || JSON_LINES_FORMAT.equals(format)))
+				this.doFindNamesJson(request, response, JSON_LINES_FORMAT.equals(format));
+			
+			//	request for metrics
+			else if (STATS_ACTION_NAME.equals(action))
+				this.metrics.sendMetrics(request, response);
+			
+			//	let super class handle anything else
+			else super.doGet(request, response);
+		}
+		finally {
+			HttpCompression.finish(response);
+			this.metrics.endRequest();
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#doPost(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+	 */
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response = this.metrics.startRequest(UPDATE_ACTION_NAME, response);
+		response = HttpCompression.wrapResponse(request, response);
+		try {
+			super.doPost(HttpCompression.wrapRequest(request), response);
+		}
+		finally {
+			this.clearUploadContext();
+			HttpCompression.finish(response);
+			this.metrics.endRequest();
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#doPut(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+	 */
+	protected void doPut(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response = this.metrics.startRequest(UPDATE_ACTION_NAME, response);
+		response = HttpCompression.wrapResponse(request, response);
+		try {
+			super.doPut(HttpCompression.wrapRequest(request), response);
+		}
+		finally {
+			this.clearUploadContext();
+			HttpCompression.finish(response);
+			this.metrics.endRequest();
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#doUpdateFrom(de.uka.ipd.idaho.onn.OnnServlet.OnnNode)
+	 */
+	protected void doUpdateFrom(OnnNode node) throws IOException {
+		try {
+			super.doUpdateFrom(node);
+		}
+		finally {
+			this.clearUploadContext();
+		}
+	}
+	
+	private void doFindNamesJson(HttpServletRequest request, HttpServletResponse response, boolean jsonLines) throws IOException {
+		String[] fullTextQueryPredicates = request.getParameterValues(QUERY_PARAMETER);
+		boolean disjunctive = OR_COMBINE.equals(request.getParameter(COMBINE_PARAMETER));
+		int limit = 0;
+		String limitString = request.getParameter(LIMIT_PARAMETER);
+		if (limitString != null) try {
+			limit = Integer.parseInt(limitString);
+		} catch (NumberFormatException nfe) {}
+		String type = request.getParameter(TYPE_PARAMETER);
+		String user = request.getParameter(USER_PARAMETER);
+		Properties detailPredicates = new Properties();
+		this.addIndexPredicates(request, detailPredicates);
+		
+		if (((fullTextQueryPredicates == null) || (fullTextQueryPredicates.length == 0)) && (type == null) && (user == null) && detailPredicates.isEmpty()) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Empty query.");
+			return;
+		}
+		
+		//	write names straight from the pooled strings, including the parses (JSON is a full format)
+		PooledStringIterator nameIt;
+		int phase = this.metrics.enterPhase(ServletMetrics.SQL_PHASE);
+		try {
+			nameIt = this.findStrings(fullTextQueryPredicates, disjunctive, type, user, false, limit, SELF_CANONICAL_ONLY_PARAMETER.equals(request.getParameter(SELF_CANONICAL_ONLY_PARAMETER)), detailPredicates);
+		}
+		finally {
+			this.metrics.exitPhase(phase);
+		}
+		if (nameIt.getException() != null) {
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, nameIt.getException().getMessage());
+			return;
+		}
+		phase = this.metrics.enterPhase(ServletMetrics.SERIALIZATION_PHASE);
+		try {
+			response.setCharacterEncoding(ENCODING);
+			PooledStringJsonWriter pjw = new PooledStringJsonWriter(new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING)), NAME_SET_NODE_TYPE, jsonLines, true);
+			response.setContentType(pjw.getContentType());
+			while (nameIt.hasNextString()) {
+				pjw.writeString(nameIt.getNextString());
+				this.metrics.countRows(1);
+			}
+			pjw.close();
+		}
+		finally {
+			this.metrics.exitPhase(phase);
+		}
+	}
+	
+	private void doFindDescendantNames(HttpServletRequest request, HttpServletResponse response, String format) throws IOException {
+		String descendantsOf = request.getParameter(DESCENDANTS_OF_PARAMETER);
+		int split = descendantsOf.indexOf(':');
+		if ((split < 1) || ((split + 1) == descendantsOf.length())) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid ancestor taxon: " + descendantsOf));
+			return;
+		}
+		String ancestorRank = descendantsOf.substring(0, split).trim();
+		String ancestorEpithet = descendantsOf.substring(split + 1).trim();
+		String descendantRank = request.getParameter(RANK_PARAMETER);
+		int limit = 0;
+		String limitString = request.getParameter(LIMIT_PARAMETER);
+		if (limitString != null) try {
+			limit = Integer.parseInt(limitString);
+		} catch (NumberFormatException nfe) {}
+		
+		//	find names
+		PooledStringIterator nameIt;
+		int phase = this.metrics.enterPhase(ServletMetrics.SQL_PHASE);
+		try {
+			nameIt = this.findDescendantNames(ancestorRank, ancestorEpithet, descendantRank, CONCISE_FORMAT.equals(format), limit);
+		}
+		finally {
+			this.metrics.exitPhase(phase);
+		}
+		if (nameIt.getException() != null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, nameIt.getException().getMessage());
+			return;
+		}
+		this.sendNames(request, response, format, nameIt);
+	}
+	
+	private void doFindNamesFuzzy(HttpServletRequest request, HttpServletResponse response, String format) throws IOException {
+		String query = request.getParameter(FUZZY_QUERY_PARAMETER);
+		int maxEdits = 1;
+		String maxEditsString = request.getParameter(MAX_EDITS_PARAMETER);
+		if (maxEditsString != null) try {
+			maxEdits = Integer.parseInt(maxEditsString);
+		} catch (NumberFormatException nfe) {}
+		int limit = 0;
+		String limitString = request.getParameter(LIMIT_PARAMETER);
+		if (limitString != null) try {
+			limit = Integer.parseInt(limitString);
+		} catch (NumberFormatException nfe) {}
+		if ((maxEdits < 0) || (maxEdits > TaxonNameGramIndex.MAX_EDITS)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid number of edits: " + maxEditsString));
+			return;
+		}
+		
+		//	find names
+		PooledStringIterator nameIt;
+		int phase = this.metrics.enterPhase(ServletMetrics.SQL_PHASE);
+		try {
+			nameIt = this.findNamesFuzzy(query, maxEdits, limit);
+		}
+		finally {
+			this.metrics.exitPhase(phase);
+		}
+		if (nameIt.getException() != null) {
+			response.sendError(((this.fuzzyIndex == null) || !this.fuzzyIndex.isReady()) ? HttpServletResponse.SC_SERVICE_UNAVAILABLE : HttpServletResponse.SC_BAD_REQUEST, nameIt.getException().getMessage());
+			return;
+		}
+		this.sendNames(request, response, format, nameIt);
+	}
+	
+	private void doFindNamesByEpithets(HttpServletRequest request, HttpServletResponse response, String format, Properties rankGroupEpithets) throws IOException {
+		String[] fullTextQueryPredicates = request.getParameterValues(QUERY_PARAMETER);
+		boolean disjunctive = OR_COMBINE.equals(request.getParameter(COMBINE_PARAMETER));
+		int limit = 0;
+		String limitString = request.getParameter(LIMIT_PARAMETER);
+		if (limitString != null) try {
+			limit = Integer.parseInt(limitString);
+		} catch (NumberFormatException nfe) {}
+		String type = request.getParameter(TYPE_PARAMETER);
+		String user = request.getParameter(USER_PARAMETER);
+		
+		//	find names
+		PooledStringIterator nameIt;
+		int phase = this.metrics.enterPhase(ServletMetrics.SQL_PHASE);
+		try {
+			nameIt = this.findNamesByEpithets(fullTextQueryPredicates, disjunctive, type, user, CONCISE_FORMAT.equals(format), limit, SELF_CANONICAL_ONLY_PARAMETER.equals(request.getParameter(SELF_CANONICAL_ONLY_PARAMETER)), rankGroupEpithets);
+		}
+		finally {
+			this.metrics.exitPhase(phase);
+		}
+		if (nameIt.getException() != null) {
+			response.sendError((this.hierarchyIndex.isReady() ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : HttpServletResponse.SC_SERVICE_UNAVAILABLE), nameIt.getException().getMessage());
+			return;
+		}
+		this.sendNames(request, response, format, nameIt);
+	}
+	
+	private void sendNames(HttpServletRequest request, HttpServletResponse response, String format, PooledStringIterator nameIt) throws IOException {
+		boolean json = (JSON_FORMAT.equals(format) || JSON_LINES_FORMAT.equals(format));
+		
+		//	get output format (XSLT based ones as in super class)
+		Transformer formatter = null;
+		if ((format != null) && !json && !CONCISE_FORMAT.equals(format)) try {
+			formatter = XsltUtils.getTransformer(new File(this.dataFolder, format), !"force".equals(request.getParameter("formatCache")));
+		}
+		catch (IOException ioe) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid format: " + format));
+			return;
+		}
+		
+		//	send names
+		int phase = this.metrics.enterPhase(ServletMetrics.SERIALIZATION_PHASE);
+		try {
+			response.setCharacterEncoding(ENCODING);
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
+			if (json) {
+				PooledStringJsonWriter pjw = new PooledStringJsonWriter(bw, NAME_SET_NODE_TYPE, JSON_LINES_FORMAT.equals(format), true);
+				response.setContentType(pjw.getContentType());
+				while (nameIt.hasNextString()) {
+					pjw.writeString(nameIt.getNextString());
+					this.metrics.countRows(1);
+				}
+				pjw.close();
+			}
+			else {
+				response.setContentType("text/xml");
+				if (formatter != null)
+					bw = new BufferedWriter(XsltUtils.wrap(bw, formatter));
+				this.writeNamesXml(nameIt, bw, !CONCISE_FORMAT.equals(format));
+				bw.flush();
+				bw.close();
+			}
+		}
+		finally {
+			this.metrics.exitPhase(phase);
+		}
+	}
+	
+	/* the super class writes found strings in a private method, so we have to
+	 * replicate its XML format here */
+	private void writeNamesXml(PooledStringIterator nameIt, BufferedWriter bw, boolean full) throws IOException {
+		bw.write("<" + this.getStringSetNodeType());
+		bw.write(this.getNamespaceAttribute());
+		String xmlNamespaceUriBindings = this.getXmlNamespaceUriBindings();
+		if (xmlNamespaceUriBindings.length() != 0)
+			bw.write(" " + xmlNamespaceUriBindings);
+		bw.write(">");
+		bw.newLine();
+		while (nameIt.hasNextString()) {
+			PooledString name = nameIt.getNextString();
+			bw.write("<" + this.getStringNodeType());
+			bw.write(" " + STRING_ID_ATTRIBUTE + "=\"" + name.id + "\"");
+			if ((name.getCanonicalStringID() != null) && (name.getCanonicalStringID().length() != 0))
+				bw.write(" " + CANONICAL_STRING_ID_ATTRIBUTE + "=\"" + name.getCanonicalStringID() + "\"");
+			bw.write(" " + CREATE_TIME_ATTRIBUTE + "=\"" + TIMESTAMP_DATE_FORMAT.format(new Date(name.getCreateTime())) + "\"");
+			bw.write(" " + CREATE_DOMAIN_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(name.getCreateDomain()) + "\"");
+			bw.write(" " + CREATE_USER_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(name.getCreateUser()) + "\"");
+			bw.write(" " + UPDATE_TIME_ATTRIBUTE + "=\"" + TIMESTAMP_DATE_FORMAT.format(new Date(name.getUpdateTime())) + "\"");
+			bw.write(" " + DELETED_ATTRIBUTE + "=\"" + (name.isDeleted() ? "true" : "false") + "\"");
+			bw.write(" " + UPDATE_DOMAIN_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(name.getUpdateDomain(), true) + "\"");
+			bw.write(" " + UPDATE_USER_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(name.getUpdateUser(), true) + "\"");
+			if (!full && (name.getParseChecksum() != null) && (name.getParseChecksum().length() != 0))
+				bw.write(" " + PARSE_CHECKSUM_ATTRIBUTE + "=\"" + name.getParseChecksum() + "\"");
+			bw.write(">");
+			bw.newLine();
+			bw.write("<" + this.getStringPlainNodeType() + ">" + AnnotationUtils.escapeForXml(name.getStringPlain()) + "</" + this.getStringPlainNodeType() + ">");
+			bw.newLine();
+			MutableAnnotation stringParsed = (full ? this.getStringParsed(name.id) : null);
+			if (stringParsed != null) {
+				bw.write("<" + this.getStringParsedNodeType() + ">");
+				bw.newLine();
+				AnnotationUtils.writeXML(stringParsed, bw);
+				bw.newLine();
+				bw.write("</" + this.getStringParsedNodeType() + ">");
+				bw.newLine();
+			}
+			bw.write("</" + this.getStringNodeType() + ">");
+			bw.newLine();
+			this.metrics.countRows(1);
+		}
+		bw.write("</" + this.getStringSetNodeType() + ">");
+		bw.newLine();
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#addIndexPredicates(javax.servlet.http.HttpServletRequest, java.util.Properties)
 	 */
@@ -168,6 +739,17 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 			detailPredicates.setProperty(SPECIES_RANK_GROUP_COLUMN_NAME, txSpecies);
 	}
 	
+	private Properties getRankGroupEpithets(HttpServletRequest request) {
+		Properties rankGroupEpithets = new Properties();
+		String[] rankGroupParameters = {KINGDOM_RANK_GROUP_PARAMETER, PHYLUM_RANK_GROUP_PARAMETER, CLASS_RANK_GROUP_PARAMETER, ORDER_RANK_GROUP_PARAMETER, FAMILY_RANK_GROUP_PARAMETER, GENUS_RANK_GROUP_PARAMETER, SPECIES_RANK_GROUP_PARAMETER};
+		for (int p = 0; p < rankGroupParameters.length; p++) {
+			String epithet = request.getParameter(rankGroupParameters[p]);
+			if ((epithet != null) && (epithet.trim().length() != 0))
+				rankGroupEpithets.setProperty(rankGroupParameters[p], epithet.trim());
+		}
+		return (rankGroupEpithets.isEmpty() ? null : rankGroupEpithets);
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#extendIndexData(de.uka.ipd.idaho.onn.stringPool.StringPoolServlet.ParsedStringIndexData, de.uka.ipd.idaho.gamta.MutableAnnotation)
 	 */
@@ -184,6 +766,209 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 		indexData.addIndexAttribute(FAMILY_RANK_GROUP_COLUMN_NAME, taxonNameIndexData.txFamily.toLowerCase());
 		indexData.addIndexAttribute(GENUS_RANK_GROUP_COLUMN_NAME, taxonNameIndexData.txGenus.toLowerCase());
 		indexData.addIndexAttribute(SPECIES_RANK_GROUP_COLUMN_NAME, taxonNameIndexData.txSpecies.toLowerCase());
+		
+		//	move parse to pack store, dropping the file the default storage just wrote
+		String taxonNameId = this.getCheckedStringId(stringParsed);
+		if ((this.parsedStringPack != null) && (taxonNameId != null) && this.parsedStringPack.storeParsedString(taxonNameId, stringParsed))
+			ParsedStringPack.getParsedStringFile(this.parsedStringsFolder, taxonNameId).delete();
+		
+		//	update position in taxonomic hierarchy
+		if ((this.hierarchyIndex != null) && (taxonNameId != null))
+			this.hierarchyIndex.indexTaxon(taxonNameId, taxonNameIndexData.rank, taxonNameIndexData.hierarchyRanks, taxonNameIndexData.hierarchyEpithets);
+		
+		//	update terms for fuzzy matching
+		if ((this.fuzzyIndex != null) && (taxonNameId != null))
+			this.fuzzyIndex.indexTaxon(taxonNameId, getFuzzyIndexTerms(taxonNameIndexData));
+		
+		//	notify listeners (this method is the one place that sees every stored parse, including ones coming in via replication)
+		if (taxonNameId != null)
+			this.notifyTaxonNameUpdated(taxonNameId);
+	}
+	
+	/**
+	 * Listener to be notified whenever the parsed version of a taxon name is
+	 * stored, be it through a local upload or through replication from another
+	 * node.
+	 * 
+	 * @author sautter
+	 */
+	public static interface TaxonNameUpdateListener {
+		
+		/**
+		 * Receive notification that the parsed version of a taxon name has
+		 * been stored.
+		 * @param taxonNameId the ID of the taxon name
+		 */
+		public abstract void taxonNameUpdated(String taxonNameId);
+	}
+	
+	private ArrayList updateListeners = new ArrayList(2);
+	
+	/**
+	 * Add a listener to be notified when the parsed version of a taxon name is
+	 * stored.
+	 * @param tnul the listener to add
+	 */
+	public void addTaxonNameUpdateListener(TaxonNameUpdateListener tnul) {
+		if (tnul == null)
+			return;
+		synchronized (this.updateListeners) {
+			if (!this.updateListeners.contains(tnul))
+				this.updateListeners.add(tnul);
+		}
+	}
+	
+	/**
+	 * Remove a listener previously added.
+	 * @param tnul the listener to remove
+	 */
+	public void removeTaxonNameUpdateListener(TaxonNameUpdateListener tnul) {
+		synchronized (this.updateListeners) {
+			this.updateListeners.remove(tnul);
+		}
+	}
+	
+	private void notifyTaxonNameUpdated(String taxonNameId) {
+		TaxonNameUpdateListener[] tnuls;
+		synchronized (this.updateListeners) {
+			if (this.updateListeners.isEmpty())
+				return;
+			tnuls = ((TaxonNameUpdateListener[]) this.updateListeners.toArray(new TaxonNameUpdateListener[this.updateListeners.size()]));
+		}
+		for (int l = 0; l < tnuls.length; l++) try {
+			tnuls[l].taxonNameUpdated(taxonNameId);
+		}
+		catch (RuntimeException re) {
+			System.out.println("TxnBank: error notifying update listener: " + re.getMessage());
+			re.printStackTrace(System.out);
+		}
+	}
+	
+	/* Storing a string runs the very same parse object (on the same thread)
+	 * through getStringType(), checkParsedString() (twice on insertions, once
+	 * more via checkPlainString()), and extendIndexData(). Rather than walking
+	 * the parse in each of them, we analyze it once and keep the results in a
+	 * context bound to the parse object. This also transports the string ID,
+	 * which the index data hooks do not get to see. */
+	private ThreadLocal analyzedNames = new ThreadLocal();
+	private static class AnalyzedName {
+		final MutableAnnotation stringParsed;
+		final Annotation[] rankAnnots;
+		TaxonomicName taxName = null;
+		String stringId = null;
+		String checkedStringPlain = null;
+		String parseError = null;
+		AnalyzedName(MutableAnnotation stringParsed) {
+			this.stringParsed = stringParsed;
+			this.rankAnnots = stringParsed.getAnnotations("dwc:taxonRank");
+		}
+	}
+	private AnalyzedName getAnalyzedName(MutableAnnotation stringParsed) {
+		AnalyzedName an = ((AnalyzedName) this.analyzedNames.get());
+		if ((an == null) || (an.stringParsed != stringParsed)) {
+			an = new AnalyzedName(stringParsed);
+			this.analyzedNames.set(an);
+		}
+		return an;
+	}
+	private TaxonomicName getTaxonomicName(AnalyzedName an, String stringPlain) {
+		if ((an.taxName == null) && (stringPlain != null))
+			an.taxName = this.getPreparedTaxonomicName(stringPlain);
+		if (an.taxName == null)
+			an.taxName = TaxonomicNameUtils.dwcXmlToTaxonomicName(an.stringParsed, this.rankSystem);
+		return an.taxName;
+	}
+	private String getCheckedStringId(MutableAnnotation stringParsed) {
+		AnalyzedName an = ((AnalyzedName) this.analyzedNames.get());
+		return (((an != null) && (an.stringParsed == stringParsed)) ? an.stringId : null);
+	}
+	
+	/* Local uploads normalize taxon names via the TaxonomicNameChecker before
+	 * handing them to the super class, which then parses the normalized DwC
+	 * XML. We keep the normalized name objects around (by plain string) for
+	 * the duration of the upload, so checking and indexing can use them right
+	 * away instead of converting the parse back into a name object. */
+	private ThreadLocal preparedNames = new ThreadLocal();
+	private void setPreparedNames(UploadString[] strings) {
+		HashMap preparedNames = new HashMap();
+		for (int s = 0; s < strings.length; s++) {
+			if (!(strings[s] instanceof PreparedUploadString))
+				continue;
+			PreparedUploadString pus = ((PreparedUploadString) strings[s]);
+			UploadString existing = ((UploadString) preparedNames.get(pus.stringPlain));
+			
+			//	same plain string with different parses, we can't tell which is which
+			if ((existing != null) && !existing.stringParsed.equals(pus.stringParsed))
+				preparedNames.put(pus.stringPlain, new UploadString(pus.stringPlain, pus.stringParsed));
+			else if (existing == null)
+				preparedNames.put(pus.stringPlain, pus);
+		}
+		this.preparedNames.set(preparedNames);
+	}
+	private TaxonomicName getPreparedTaxonomicName(String stringPlain) {
+		HashMap preparedNames = ((HashMap) this.preparedNames.get());
+		if (preparedNames == null)
+			return null;
+		Object pus = preparedNames.get(stringPlain);
+		return ((pus instanceof PreparedUploadString) ? ((PreparedUploadString) pus).taxName : null);
+	}
+	private PooledStringIterator updatePreparedStrings(UploadString[] strings, String user) {
+		
+		//	separate out strings whose preparation failed
+		ArrayList uploadStringList = new ArrayList(strings.length);
+		for (int s = 0; s < strings.length; s++) {
+			if (!(strings[s] instanceof FailedUploadString))
+				uploadStringList.add(strings[s]);
+		}
+		UploadString[] uploadStrings = ((uploadStringList.size() < strings.length) ? ((UploadString[]) uploadStringList.toArray(new UploadString[uploadStringList.size()])) : strings);
+		
+		//	upload remaining strings
+		PooledStringIterator psi;
+		this.setPreparedNames(uploadStrings);
+		try {
+			psi = super.updateStrings(uploadStrings, user);
+		}
+		finally {
+			this.clearUploadContext();
+		}
+		if (uploadStrings == strings)
+			return psi;
+		
+		//	report failed strings in input order, like rejected ones (results come in input order as well, but might lack some strings)
+		return this.addFailedStrings(psi, strings);
+	}
+	
+	private PooledStringIterator addFailedStrings(PooledStringIterator psi, UploadString[] strings) {
+		ArrayList results = new ArrayList(strings.length);
+		PooledString ps = (psi.hasNextString() ? psi.getNextString() : null);
+		for (int s = 0; s < strings.length; s++) {
+			if (strings[s] instanceof FailedUploadString) {
+				FailedUploadString fus = ((FailedUploadString) strings[s]);
+				String id = "";
+				if (fus.stringPlain != null) try {
+					id = this.getStringId(fus.stringPlain);
+				} catch (IOException ioe) {}
+				results.add(new FailedPooledString(id, fus.stringPlain, fus.error));
+			}
+			else if ((ps != null) && strings[s].stringPlain.equals(ps.getStringPlain())) {
+				results.add(ps);
+				ps = (psi.hasNextString() ? psi.getNextString() : null);
+			}
+		}
+		while (ps != null) {
+			results.add(ps);
+			ps = (psi.hasNextString() ? psi.getNextString() : null);
+		}
+		return new ListPooledStringIterator(results);
+	}
+	
+	/* Request threads are pooled and replication threads long-lived, so we
+	 * clear both contexts once an upload completes, rather than have them
+	 * keep the last parse and batch alive until the thread stores the next
+	 * string. */
+	private void clearUploadContext() {
+		this.analyzedNames.remove();
+		this.preparedNames.remove();
 	}
 	
 	/*
@@ -205,7 +990,23 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 </dwc:Taxon>
 	 */
 	
-	private static class TaxonNameIndexData {
+	/* package-private so the benchmarks can set up the rank system without a
+	 * servlet context */
+	void initRankSystem() {
+		
+		//	get generic rank system (we'll be handling names from all domains)
+		this.rankSystem = TaxonomicRankSystem.getRankSystem(null);
+		
+		//	cache rank system details
+		this.rankGroups = this.rankSystem.getRankGroups();
+		this.primaryRanks = new Rank[this.rankGroups.length];
+		for (int g = 0; g < this.rankGroups.length; g++)
+			this.primaryRanks[g] = this.rankGroups[g].getRank(this.rankGroups[g].name);
+		this.familyRank = this.rankSystem.getRank(FAMILY_ATTRIBUTE);
+		this.genusRank = this.rankSystem.getRank(GENUS_ATTRIBUTE);
+	}
+	
+	static class TaxonNameIndexData {
 		final String txKingdom;
 		final String txPhylum;
 		final String txClass;
@@ -213,7 +1014,10 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 		final String txFamily;
 		final String txGenus;
 		final String txSpecies;
-		TaxonNameIndexData(String txKingdom, String txPhylum, String txClass, String txOrder, String txFamily, String txGenus, String txSpecies) {
+		final String rank;
+		final String[] hierarchyRanks;
+		final String[] hierarchyEpithets;
+		TaxonNameIndexData(String txKingdom, String txPhylum, String txClass, String txOrder, String txFamily, String txGenus, String txSpecies, String rank, String[] hierarchyRanks, String[] hierarchyEpithets) {
 			this.txKingdom = txKingdom;
 			this.txPhylum = txPhylum;
 			this.txClass = txClass;
@@ -221,13 +1025,16 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 			this.txFamily = txFamily;
 			this.txGenus = txGenus;
 			this.txSpecies = txSpecies;
+			this.rank = rank;
+			this.hierarchyRanks = hierarchyRanks;
+			this.hierarchyEpithets = hierarchyEpithets;
 		}
 	}
 	
-	private TaxonNameIndexData getIndexData(MutableAnnotation stringParsed) {
+	TaxonNameIndexData getIndexData(MutableAnnotation stringParsed) {
 		
-		//	get attributes
-		TaxonomicName taxName = TaxonomicNameUtils.dwcXmlToTaxonomicName(stringParsed);
+		//	get attributes (analysis is usually left over from checkParsedString())
+		TaxonomicName taxName = this.getTaxonomicName(this.getAnalyzedName(stringParsed), null);
 		
 		//	what do we want to index?
 		StringBuffer txKingdom = new StringBuffer();
@@ -237,9 +1044,24 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 		StringBuffer txFamily = new StringBuffer();
 		StringBuffer txGenus = new StringBuffer();
 		StringBuffer txSpecies = new StringBuffer();
+		ArrayList hierarchyRanks = new ArrayList();
+		ArrayList hierarchyEpithets = new ArrayList();
 		
 		//	collect epithets
 		for (int g = 0; g < this.rankGroups.length; g++) {
+			
+			//	collect epithets for hierarchy index (all rank groups, not only the ones with index columns)
+			Rank[] ranks = this.rankGroups[g].getRanks();
+			String[] epithets = new String[ranks.length];
+			for (int r = 0; r < ranks.length; r++) {
+				epithets[r] = taxName.getEpithet(ranks[r].name);
+				if (epithets[r] == null)
+					continue;
+				hierarchyRanks.add(ranks[r].name);
+				hierarchyEpithets.add(epithets[r]);
+			}
+			
+			//	select index column
 			StringBuffer target;
 			if (SPECIES_ATTRIBUTE.equals(this.rankGroups[g].name))
 				target = txSpecies;
@@ -256,12 +1078,10 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 			else if (KINGDOM_ATTRIBUTE.equals(this.rankGroups[g].name))
 				target = txKingdom;
 			else continue;
-			Rank[] ranks = this.rankGroups[g].getRanks();
 			for (int r = 0; r < ranks.length; r++) {
 				target.append('|');
-				String epithet = taxName.getEpithet(ranks[r].name);
-				if (epithet != null)
-					target.append(epithet);
+				if (epithets[r] != null)
+					target.append(epithets[r]);
 			}
 		}
 		
@@ -282,7 +1102,7 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 			txSpecies.delete(GENUS_SPECIES_COLUMN_LENGTH, txSpecies.length());
 		
 		//	finally ...
-		return new TaxonNameIndexData(txKingdom.toString(), txPhylum.toString(), txClass.toString(), txOrder.toString(), txFamily.toString(), txGenus.toString(), txSpecies.toString());
+		return new TaxonNameIndexData(txKingdom.toString(), txPhylum.toString(), txClass.toString(), txOrder.toString(), txFamily.toString(), txGenus.toString(), txSpecies.toString(), taxName.getRank(), ((String[]) hierarchyRanks.toArray(new String[hierarchyRanks.size()])), ((String[]) hierarchyEpithets.toArray(new String[hierarchyEpithets.size()])));
 	}
 	
 	/* (non-Javadoc)
@@ -308,10 +1128,22 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#checkParsedString(java.lang.String, java.lang.String, de.uka.ipd.idaho.gamta.MutableAnnotation)
 	 */
 	protected String checkParsedString(String stringId, String stringPlain, MutableAnnotation stringParsed) {
+		AnalyzedName an = this.getAnalyzedName(stringParsed);
+		an.stringId = stringId;
+		
+		//	we've checked this one before (happens on insertions, via checkPlainString())
+		if (stringPlain.equals(an.checkedStringPlain))
+			return an.parseError;
+		an.parseError = this.doCheckParsedString(stringPlain, an);
+		an.checkedStringPlain = stringPlain;
+		return an.parseError;
+	}
+	private String doCheckParsedString(String stringPlain, AnalyzedName an) {
+		MutableAnnotation stringParsed = an.stringParsed;
 		StringVector extraTokens = new StringVector();
 		
 		//	collect tokens that may exist outside plain string
-		Annotation[] rankAnnots = stringParsed.getAnnotations("dwc:taxonRank");
+		Annotation[] rankAnnots = an.rankAnnots;
 		for (int r = 0; r < rankAnnots.length; r++) {
 			if (this.rankSystem.getRank(rankAnnots[r].getValue()) != null)
 				addTokens(extraTokens, rankAnnots[r]);
@@ -338,7 +1170,7 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 		}
 		
 		//	parse taxon name into object for further validation
-		TaxonomicName taxName = TaxonomicNameUtils.dwcXmlToTaxonomicName(stringParsed, this.rankSystem);
+		TaxonomicName taxName = this.getTaxonomicName(an, stringPlain);
 		
 		//	obtain and check rank
 		Rank taxNameRank = this.rankSystem.getRank(taxName.getRank());
@@ -386,49 +1218,22 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#getStringType(de.uka.ipd.idaho.gamta.MutableAnnotation)
 	 */
 	protected String getStringType(MutableAnnotation stringParsed) {
-		Annotation[] rankAnnots = stringParsed.getAnnotations("dwc:taxonRank");
+		Annotation[] rankAnnots = this.getAnalyzedName(stringParsed).rankAnnots;
 		return (((rankAnnots != null) && (rankAnnots.length != 0)) ? rankAnnots[0].getValue() : null);
 	}
 	
 	/**
 	 * Overwrites ID generation to use UUID version 5 with 'globalnames.org' in
-	 * the DNS namespace, also using an instance pool for increased performance.
-	 * However, the UUIDs are converted to plain 32 character HEX strings to
-	 * comply with the contract of this method.
+	 * the DNS namespace, using a generator that keeps its digest state per
+	 * thread rather than synchronizing. However, the UUIDs are converted to
+	 * plain 32 character HEX strings to comply with the contract of this
+	 * method.
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#getStringId(java.lang.String)
 	 */
 	protected String getStringId(String string) throws IOException {
-		NameBasedGenerator nbg = null;
-		try {
-			nbg = getUuidGenerator();
-			UUID id = nbg.generate(string.getBytes("UTF-8"));
-			String ids = id.toString().replaceAll("\\-", "").toUpperCase();
-			return ids;
-		}
-		finally {
-			returnUuidGenerator(nbg);
-		}
-	}
-	private static UUID globalNamesInDns;
-	private static LinkedList uuidGenerators = new LinkedList();
-	private static NameBasedGenerator getUuidGenerator() throws IOException {
-		synchronized (uuidGenerators) {
-			if (uuidGenerators.size() != 0)
-				return ((NameBasedGenerator) uuidGenerators.removeFirst());
-			if (globalNamesInDns == null) {
-				NameBasedGenerator nbg = Generators.nameBasedGenerator(NameBasedGenerator.NAMESPACE_DNS);
-				globalNamesInDns = nbg.generate("globalnames.org");
-			}
-			return Generators.nameBasedGenerator(globalNamesInDns);
-		}
-	}
-	private static void returnUuidGenerator(NameBasedGenerator nbg) {
-		if (nbg == null)
-			return;
-		synchronized (uuidGenerators) {
-			uuidGenerators.addLast(nbg);
-		}
+		return idGenerator.generateHex(string);
 	}
+	private static final NameBasedIdGenerator idGenerator = new NameBasedIdGenerator(NameBasedIdGenerator.NAMESPACE_DNS, "globalnames.org");
 	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.txnBank.TxnBankClient#findNames(java.lang.String[], boolean, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, int)
@@ -441,6 +1246,21 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 	 * @see de.uka.ipd.idaho.txnBank.TxnBankClient#findNames(java.lang.String[], boolean, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, boolean, int)
 	 */
 	public PooledStringIterator findNames(String[] textPredicates, boolean disjunctive, String user, String txKingdom, String txPhylum, String txClass, String txOrder, String txFamily, String txGenus, String txSpecies, String txRank, boolean concise, int limit) {
+		
+		//	use hierarchy index for epithet prefixes if configured
+		if (this.epithetPrefixSearch) {
+			Properties rankGroupEpithets = new Properties();
+			String[] rankGroupNames = {KINGDOM_ATTRIBUTE, PHYLUM_ATTRIBUTE, CLASS_ATTRIBUTE, ORDER_ATTRIBUTE, FAMILY_ATTRIBUTE, GENUS_ATTRIBUTE, SPECIES_ATTRIBUTE};
+			String[] epithets = {txKingdom, txPhylum, txClass, txOrder, txFamily, txGenus, txSpecies};
+			for (int g = 0; g < rankGroupNames.length; g++) {
+				if ((epithets[g] != null) && (epithets[g].trim().length() != 0))
+					rankGroupEpithets.setProperty(rankGroupNames[g], epithets[g].trim());
+			}
+			if (rankGroupEpithets.size() != 0)
+				return this.findNamesByEpithets(textPredicates, disjunctive, txRank, user, concise, limit, false, rankGroupEpithets);
+		}
+		
+		//	use rank group columns of string index table otherwise
 		Properties detailPredicates = new Properties();
 		if (txKingdom != null)
 			detailPredicates.setProperty(KINGDOM_RANK_GROUP_COLUMN_NAME, txKingdom.toLowerCase());
@@ -459,6 +1279,340 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 		return this.findStrings(textPredicates, disjunctive, txRank, user, concise, limit, false, detailPredicates);
 	}
 	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.txnBank.TxnBankClient#findDescendantNames(java.lang.String, java.lang.String, java.lang.String, boolean, int)
+	 */
+	public PooledStringIterator findDescendantNames(String ancestorRank, String ancestorEpithet, String descendantRank, boolean concise, int limit) {
+		if ((this.hierarchyIndex == null) || !this.hierarchyIndex.isReady())
+			return new ExceptionPSI(new IOException("Taxonomic hierarchy index " + ((this.hierarchyIndex == null) ? "disabled" : "not ready") + "."));
+		try {
+			String[] taxonNameIds = this.hierarchyIndex.getDescendantIds(ancestorRank, ancestorEpithet, descendantRank, limit);
+			if (taxonNameIds.length == 0)
+				return new ExceptionPSI(null);
+			return this.getStrings(taxonNameIds, concise);
+		}
+		catch (IOException ioe) {
+			return new ExceptionPSI(ioe);
+		}
+	}
+	
+	/**
+	 * Produce an SQL predicate restricting the taxonomic name IDs in a column
+	 * of another table to the names at or below a given taxon, using the
+	 * taxonomic hierarchy index. This facilitates exact higher taxon filters
+	 * in other components sharing the database with this TxnBank node, like
+	 * the name usage search in TnuBank. If the hierarchy index is disabled or
+	 * not yet complete, this method returns null, and client code has to fall
+	 * back to the rank group columns of the string index table.
+	 * @param idHashColumn the column holding the hashes of the name IDs
+	 * @param idColumn the column holding the name IDs proper
+	 * @param ancestorRank the rank of the taxon to restrict the names to
+	 * @param ancestorEpithet the epithet of the taxon at that rank
+	 * @return the predicate, or null if the hierarchy index is unavailable
+	 */
+	public String getDescendantOrSelfPredicate(String idHashColumn, String idColumn, String ancestorRank, String ancestorEpithet) {
+		if ((this.hierarchyIndex == null) || !this.hierarchyIndex.isReady())
+			return null;
+		return this.hierarchyIndex.getDescendantOrSelfPredicate(idHashColumn, idColumn, ancestorRank, ancestorEpithet);
+	}
+	
+	/**
+	 * Produce an SQL predicate restricting the taxonomic name IDs in a column
+	 * of another table to the names that have an epithet starting with a
+	 * given prefix at any rank of a given rank group, using the taxonomic
+	 * hierarchy index. This facilitates indexed epithet filters in other
+	 * components sharing the database with this TxnBank node, like the name
+	 * usage search in TnuBank. If epithet prefix search is not configured,
+	 * or if the rank group does not exist, this method returns null, and
+	 * client code has to fall back to substring matching on the rank group
+	 * columns of the string index table. If epithet prefix search is
+	 * configured, but the hierarchy index is not yet complete, this method
+	 * throws an exception rather than have client code fall back to the
+	 * differing substring semantics.
+	 * @param idHashColumn the column holding the hashes of the name IDs
+	 * @param idColumn the column holding the name IDs proper
+	 * @param rankGroupName the name of the rank group to match the epithet in
+	 * @param epithetPrefix the prefix of the epithets to match
+	 * @return the predicate, or null if epithet prefix search is not configured
+	 * @throws IOException if the hierarchy index is not yet complete
+	 */
+	public String getEpithetPredicate(String idHashColumn, String idColumn, String rankGroupName, String epithetPrefix) throws IOException {
+		if (!this.epithetPrefixSearch)
+			return null;
+		if (!this.hierarchyIndex.isReady())
+			throw new IOException("Taxonomic hierarchy index not ready.");
+		String[] rankNames = this.getRankGroupRankNames(rankGroupName);
+		return ((rankNames == null) ? null : this.hierarchyIndex.getEpithetPredicate(idHashColumn, idColumn, rankNames, epithetPrefix));
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.txnBank.TxnBankClient#findNamesFuzzy(java.lang.String, int, int)
+	 */
+	public PooledStringIterator findNamesFuzzy(String query, int maxEdits, int limit) {
+		if ((this.fuzzyIndex == null) || !this.fuzzyIndex.isReady())
+			return new ExceptionPSI(new IOException("Fuzzy name index " + ((this.fuzzyIndex == null) ? "disabled" : "not ready") + "."));
+		try {
+			String[] taxonNameIds = this.fuzzyIndex.getMatchingIds(query, maxEdits, limit);
+			if (taxonNameIds.length == 0)
+				return new ExceptionPSI(null);
+			
+			//	restore order by edit distance
+			HashMap taxonNamesById = new HashMap();
+			PooledStringIterator nameIt = this.getStrings(taxonNameIds);
+			while (nameIt.hasNextString()) {
+				PooledString taxonName = nameIt.getNextString();
+				taxonNamesById.put(taxonName.id, taxonName);
+			}
+			if (nameIt.getException() != null)
+				return nameIt;
+			ArrayList taxonNames = new ArrayList();
+			for (int i = 0; i < taxonNameIds.length; i++) {
+				PooledString taxonName = ((PooledString) taxonNamesById.get(taxonNameIds[i]));
+				if (taxonName != null)
+					taxonNames.add(taxonName);
+			}
+			return new ListPooledStringIterator(taxonNames);
+		}
+		catch (IOException ioe) {
+			return new ExceptionPSI(ioe);
+		}
+	}
+	
+	private static class ListPooledStringIterator implements PooledStringIterator {
+		private ArrayList strings;
+		private int next = 0;
+		ListPooledStringIterator(ArrayList strings) {
+			this.strings = strings;
+		}
+		public boolean hasNextString() {
+			return (this.next < this.strings.size());
+		}
+		public PooledString getNextString() {
+			return (this.hasNextString() ? ((PooledString) this.strings.get(this.next++)) : null);
+		}
+		public IOException getException() {
+			return null;
+		}
+	}
+	
+	/* placeholder for a string whose preparation for upload failed */
+	private static class FailedUploadString extends UploadString {
+		final String error;
+		FailedUploadString(String stringPlain, String error) {
+			super(stringPlain);
+			this.error = error;
+		}
+	}
+	
+	/* result for a string whose preparation for upload failed, reporting the
+	 * error the same way as the parse error of a rejected string */
+	private static class FailedPooledString extends PooledString {
+		private String stringPlain;
+		private String parseError;
+		FailedPooledString(String id, String stringPlain, String parseError) {
+			super(id);
+			this.stringPlain = stringPlain;
+			this.parseError = parseError;
+		}
+		public String getStringPlain() {
+			return this.stringPlain;
+		}
+		public String getStringParsed() {
+			return null;
+		}
+		public String getParseChecksum() {
+			return null;
+		}
+		public String getCanonicalStringID() {
+			return this.id;
+		}
+		public String getParseError() {
+			return this.parseError;
+		}
+		public long getCreateTime() {
+			return -1;
+		}
+		public String getCreateDomain() {
+			return null;
+		}
+		public String getCreateUser() {
+			return null;
+		}
+		public long getUpdateTime() {
+			return -1;
+		}
+		public String getUpdateDomain() {
+			return null;
+		}
+		public String getUpdateUser() {
+			return null;
+		}
+		public long getNodeUpdateTime() {
+			return -1;
+		}
+		public boolean wasCreated() {
+			return false;
+		}
+		public boolean wasUpdated() {
+			return false;
+		}
+		public boolean isDeleted() {
+			return false;
+		}
+	}
+	
+	private String[] getRankGroupRankNames(String rankGroupName) {
+		for (int g = 0; g < this.rankGroups.length; g++) {
+			if (!this.rankGroups[g].name.equalsIgnoreCase(rankGroupName))
+				continue;
+			Rank[] ranks = this.rankGroups[g].getRanks();
+			String[] rankNames = new String[ranks.length];
+			for (int r = 0; r < ranks.length; r++)
+				rankNames[r] = ranks[r].name;
+			return rankNames;
+		}
+		return null;
+	}
+	
+	private PooledStringIterator findNamesByEpithets(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly, Properties rankGroupEpithets) {
+		
+		//	no falling back to substring match while index incomplete, results would differ
+		if (!this.hierarchyIndex.isReady())
+			return new ExceptionPSI(new IOException("Taxonomic hierarchy index not ready."));
+		
+		//	full text predicates (same as in super class)
+		StringBuffer where = new StringBuffer(disjunctive ? "(1=0" : "(1=1");
+		if (textPredicates != null)
+			for (int q = 0; q < textPredicates.length; q++) {
+				if ((textPredicates[q].length() == 0) || textPredicates[q].matches("[\\s\\%]++"))
+					continue;
+				where.append(" " + (disjunctive ? "OR" : "AND") + " lower(data." + STRING_TEXT_COLUMN_NAME + ") LIKE '%" + EasyIO.prepareForLIKE(textPredicates[q].toLowerCase()) + "%'");
+			}
+		where.append(")");
+		if (disjunctive && (where.length() < 6))
+			where = new StringBuffer("(1=1)");
+		
+		//	detail predicates (same as in super class)
+		if (type != null)
+			where.append(" AND (data." + STRING_TYPE_COLUMN_NAME + " LIKE '%" + EasyIO.prepareForLIKE(type) + "%')");
+		if (user != null)
+			where.append(" AND ((data." + CREATE_USER_COLUMN_NAME + " LIKE '%" + EasyIO.prepareForLIKE(user) + "%') OR (data." + UPDATE_USER_COLUMN_NAME + " LIKE '%" + EasyIO.prepareForLIKE(user) + "%'))");
+		
+		//	epithet predicates, matching prefixes in hierarchy index
+		for (Iterator rgit = rankGroupEpithets.keySet().iterator(); rgit.hasNext();) {
+			String rankGroupName = ((String) rgit.next());
+			String[] rankNames = this.getRankGroupRankNames(rankGroupName);
+			if (rankNames == null)
+				return new ExceptionPSI(new IOException("Invalid rank group: " + rankGroupName));
+			where.append(" AND " + this.hierarchyIndex.getEpithetPredicate(("data." + STRING_ID_HASH_COLUMN_NAME), ("data." + STRING_ID_COLUMN_NAME), rankNames, rankGroupEpithets.getProperty(rankGroupName)));
+		}
+		
+		//	filter out strings that are not self-canonical
+		if (selfCanonicalOnly)
+			where.append(" AND (data." + STRING_ID_HASH_COLUMN_NAME + " = data." + CANONICAL_STRING_ID_HASH_COLUMN_NAME + " OR data." + CANONICAL_STRING_ID_COLUMN_NAME + " = '')");
+		
+		//	get IDs of matching names
+		String query = "SELECT data." + STRING_ID_COLUMN_NAME + 
+				" FROM " + this.getStringDataTableName() + " data" +
+				" WHERE " + where.toString() + 
+				((limit > 0) ? (" LIMIT " + limit) : "") + 
+				";";
+		ArrayList taxonNameIds = new ArrayList();
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			while (sqr.next())
+				taxonNameIds.add(sqr.getString(0));
+		}
+		catch (SQLException sqle) {
+			System.out.println("TxnBank: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while searching names by epithets.");
+			System.out.println("  query was " + query);
+			return new ExceptionPSI(new IOException(sqle.getMessage()));
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		
+		//	resolve IDs to names
+		if (taxonNameIds.isEmpty())
+			return new ExceptionPSI(null);
+		return this.getStrings(((String[]) taxonNameIds.toArray(new String[taxonNameIds.size()])), concise);
+	}
+	
+	private PooledStringIterator getStrings(String[] stringIds, boolean concise) {
+		final PooledStringIterator psi = this.getStrings(stringIds);
+		if (!concise || (psi.getException() != null))
+			return psi;
+		
+		//	omit parses, sparing the per-string lookup in getStringParsed()
+		return new PooledStringIterator() {
+			public boolean hasNextString() {
+				return psi.hasNextString();
+			}
+			public PooledString getNextString() {
+				PooledString ps = psi.getNextString();
+				return ((ps == null) ? null : new ConcisePooledString(ps));
+			}
+			public IOException getException() {
+				return psi.getException();
+			}
+		};
+	}
+	
+	private static class ConcisePooledString extends PooledString {
+		private PooledString ps;
+		ConcisePooledString(PooledString ps) {
+			super(ps.id);
+			this.ps = ps;
+		}
+		public String getStringPlain() {
+			return this.ps.getStringPlain();
+		}
+		public String getStringParsed() {
+			return null;
+		}
+		public String getParseChecksum() {
+			return this.ps.getParseChecksum();
+		}
+		public String getCanonicalStringID() {
+			return this.ps.getCanonicalStringID();
+		}
+		public String getParseError() {
+			return this.ps.getParseError();
+		}
+		public long getCreateTime() {
+			return this.ps.getCreateTime();
+		}
+		public String getCreateDomain() {
+			return this.ps.getCreateDomain();
+		}
+		public String getCreateUser() {
+			return this.ps.getCreateUser();
+		}
+		public long getUpdateTime() {
+			return this.ps.getUpdateTime();
+		}
+		public String getUpdateDomain() {
+			return this.ps.getUpdateDomain();
+		}
+		public String getUpdateUser() {
+			return this.ps.getUpdateUser();
+		}
+		public long getNodeUpdateTime() {
+			return this.ps.getNodeUpdateTime();
+		}
+		public boolean wasCreated() {
+			return this.ps.wasCreated();
+		}
+		public boolean wasUpdated() {
+			return this.ps.wasUpdated();
+		}
+		public boolean isDeleted() {
+			return this.ps.isDeleted();
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.txnBank.TxnBankClient#updateName(de.uka.ipd.idaho.plugins.taxonomicNames.TaxonomicNameUtils.TaxonomicName, java.lang.String)
 	 */
@@ -477,13 +1631,7 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 	 * @see de.uka.ipd.idaho.txnBank.TxnBankClient#updateNames(de.uka.ipd.idaho.plugins.taxonomicNames.TaxonomicNameUtils.TaxonomicName[], java.lang.String)
 	 */
 	public PooledStringIterator updateNames(TaxonomicName[] taxNames, String user) {
-		LinkedList taxNameList = new LinkedList();
-		for (int t = 0; t < taxNames.length; t++) {
-			UploadString taxNameString = TaxonomicNameChecker.prepareUploadString(taxNames[t]);
-			if (taxNameString != null)
-				taxNameList.add(taxNameString);
-		}
-		return super.updateStrings(((UploadString[]) taxNameList.toArray(new UploadString[taxNameList.size()])), user);
+		return this.updatePreparedStrings(this.prepareUploadStrings(taxNames), user);
 	}
 	
 	/**
@@ -511,18 +1659,110 @@ public class TxnBankServlet extends StringPoolServlet implements TxnBankClient,
 	 * check and normalize the parsed versions of the argument strings via the
 	 * <code>TaxonomicNameChecker.prepareUploadString()</code> method. If this
 	 * latter method finds an argument string unfit for upload, this method
-	 * simply ignores it. The check works through the argument array one by
-	 * one, so one unfit string does not prevent any fit ones from being
-	 * uploaded.
+	 * simply ignores it. If the check fails with an error, the result holds
+	 * the string with the error as its parse error, like the strings rejected
+	 * when storing them. The check handles the argument strings one by one, so
+	 * one unfit string does not prevent any fit ones from being uploaded. Large
+	 * batches are checked in slices on a bounded thread pool (configured via
+	 * the <code>prepareThreads</code> setting), with the order of the argument
+	 * array preserved.
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolServlet#updateStrings(de.uka.ipd.idaho.onn.stringPool.StringPoolClient.UploadString[], java.lang.String)
 	 */
 	public PooledStringIterator updateStrings(UploadString[] strings, String user) {
-		LinkedList stringList = new LinkedList();
-		for (int s = 0; s < strings.length; s++) {
-			UploadString string = TaxonomicNameChecker.prepareUploadString(strings[s].stringParsed);
-			if (string != null)
-				stringList.add(string);
+		return this.updatePreparedStrings(this.prepareUploadStrings(strings), user);
+	}
+	
+	/* Checking and normalizing uploads is CPU bound and independent for every
+	 * single string, so we spread large batches over a bounded thread pool in
+	 * fixed size slices. If the pool is saturated, the calling thread prepares
+	 * slices itself. Only the preparation runs in the pool, everything that
+	 * uses the thread local state of the upload stays in the calling thread. */
+	private static final int PREPARE_SLICE_SIZE = 256;
+	private ThreadPoolExecutor prepareExecutor = null;
+	
+	private UploadString[] prepareUploadStrings(Object[] uploads) {
+		UploadString[] prepared;
+		
+		//	small batch, or no thread pool, do it right here
+		if ((this.prepareExecutor == null) || this.prepareExecutor.isShutdown() || (uploads.length <= PREPARE_SLICE_SIZE))
+			prepared = prepareUploadStrings(uploads, 0, uploads.length);
+		
+		//	prepare slices in parallel, and collect results in input order
+		else {
+			prepared = new UploadString[uploads.length];
+			Future[] slices = new Future[(uploads.length + PREPARE_SLICE_SIZE - 1) / PREPARE_SLICE_SIZE];
+			for (int s = 0; s < slices.length; s++)
+				slices[s] = this.prepareExecutor.submit(new PrepareSlice(uploads, (s * PREPARE_SLICE_SIZE), Math.min(((s + 1) * PREPARE_SLICE_SIZE), uploads.length)));
+			for (int s = 0; s < slices.length; s++) {
+				int from = (s * PREPARE_SLICE_SIZE);
+				int to = Math.min(((s + 1) * PREPARE_SLICE_SIZE), uploads.length);
+				UploadString[] slice;
+				try {
+					slice = ((UploadString[]) slices[s].get());
+				}
+				catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					slice = prepareUploadStrings(uploads, from, to); // result arrays are not shared, so we can simply redo the slice
+				}
+				catch (ExecutionException ee) {
+					Throwable t = ee.getCause();
+					if (t instanceof Error)
+						throw ((Error) t);
+					else if (t instanceof RuntimeException)
+						throw ((RuntimeException) t);
+					else throw new RuntimeException(t);
+				}
+				System.arraycopy(slice, 0, prepared, from, (to - from));
+			}
+		}
+		
+		//	drop strings unfit for upload
+		ArrayList preparedList = new ArrayList(prepared.length);
+		for (int p = 0; p < prepared.length; p++) {
+			if (prepared[p] != null)
+				preparedList.add(prepared[p]);
+		}
+		return ((UploadString[]) preparedList.toArray(new UploadString[preparedList.size()]));
+	}
+	
+	private static class PrepareSlice implements Callable {
+		private Object[] uploads;
+		private int from;
+		private int to;
+		PrepareSlice(Object[] uploads, int from, int to) {
+			this.uploads = uploads;
+			this.from = from;
+			this.to = to;
+		}
+		public Object call() throws Exception {
+			return prepareUploadStrings(this.uploads, this.from, this.to);
+		}
+	}
+	
+	private static UploadString[] prepareUploadStrings(Object[] uploads, int from, int to) {
+		UploadString[] prepared = new UploadString[to - from];
+		for (int u = from; u < to; u++) try {
+			if (uploads[u] instanceof TaxonomicName)
+				prepared[u - from] = TaxonomicNameChecker.prepareUploadString((TaxonomicName) uploads[u]);
+			else if (uploads[u] instanceof UploadString)
+				prepared[u - from] = TaxonomicNameChecker.prepareUploadString(((UploadString) uploads[u]).stringParsed);
+		}
+		catch (RuntimeException re) {
+			System.out.println("TxnBank: " + re.getClass().getName() + " (" + re.getMessage() + ") while preparing upload " + u + ".");
+			prepared[u - from] = new FailedUploadString(getUploadStringPlain(uploads[u]), ("Could not prepare upload: " + re.getClass().getName() + " (" + re.getMessage() + ")"));
+		}
+		return prepared;
+	}
+	
+	private static String getUploadStringPlain(Object upload) {
+		if (upload instanceof UploadString)
+			return ((UploadString) upload).stringPlain;
+		else if (upload instanceof TaxonomicName) try {
+			return ((TaxonomicName) upload).toString();
+		}
+		catch (RuntimeException re) {
+			return null; // the name is broken after all
 		}
-		return super.updateStrings(((UploadString[]) stringList.toArray(new UploadString[stringList.size()])), user);
+		else return null;
 	}
 }
\ No newline at end of file